@@ -7,8 +7,12 @@ import com.compomics.denovogui.execution.jobs.PNovoJob;
 import com.compomics.denovogui.execution.jobs.PepNovoJob;
 import com.compomics.denovogui.io.FileProcessor;
 import com.compomics.denovogui.io.PepNovoModificationFile;
+import com.compomics.denovogui.io.SpectrumClusters;
+import com.compomics.denovogui.io.SpectrumPreprocessingSettings;
+import com.compomics.denovogui.io.SpectrumPreprocessor;
 import com.compomics.denovogui.util.Properties;
 import com.compomics.software.CompomicsWrapper;
+import com.compomics.util.Util;
 import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.biology.PTMFactory;
 import com.compomics.util.experiment.identification.Advocate;
@@ -117,6 +121,15 @@ public class DeNovoSequencingHandler {
      * The factory used to handle the modifications.
      */
     private PTMFactory ptmFactory = PTMFactory.getInstance();
+    /**
+     * The name of the folder of the output folder where the preprocessed
+     * spectra are written.
+     */
+    public static final String PREPROCESSING_FOLDER = "preprocessed_spectra";
+    /**
+     * The settings of the spectrum preprocessing shared by all algorithms.
+     */
+    private SpectrumPreprocessingSettings preprocessingSettings = new SpectrumPreprocessingSettings();
 
     /**
      * Constructor.
@@ -221,7 +234,39 @@ public class DeNovoSequencingHandler {
         waitingHandler.appendReportEndLine();
 
         for (File spectrumFile : spectrumFiles) {
-            startSequencing(spectrumFile, searchParameters, outputFolder, pepNovoExeTitle, direcTagExeTitle, pNovoExeTitle, novorExeTitle, waitingHandler);
+            SpectrumPreprocessor spectrumPreprocessor = preprocess(spectrumFile, searchParameters, outputFolder, waitingHandler);
+            if (waitingHandler.isRunCanceled()) {
+                break;
+            }
+            File sequencedFile = spectrumFile;
+            File allSpectraFile = null;
+            int nSpectra = spectrumFactory.getNSpectra(spectrumFile.getName());
+            int nAllSpectra = nSpectra;
+            SpectrumClusters spectrumClusters = null;
+            if (spectrumPreprocessor != null) {
+                sequencedFile = spectrumPreprocessor.getReducedFile();
+                allSpectraFile = spectrumPreprocessor.getAllSpectraFile();
+                nSpectra = spectrumPreprocessor.getNRetained();
+                nAllSpectra = nSpectra + spectrumPreprocessor.getNRejected();
+                spectrumClusters = spectrumPreprocessor.getSpectrumClusters();
+            }
+
+            // save the clusters next to the results, or remove the clusters of a previous run
+            File clusterFile = SpectrumClusters.getClusterFile(outputFolder, spectrumFile.getName());
+            if (spectrumClusters != null) {
+                spectrumClusters.save(clusterFile);
+            } else if (clusterFile.exists() && !clusterFile.delete()) {
+                waitingHandler.appendReport("Impossible to delete the clusters of a previous run: " + clusterFile.getAbsolutePath() + ".", true, true);
+            }
+
+            try {
+                startSequencing(sequencedFile, nSpectra, nAllSpectra, allSpectraFile, searchParameters, outputFolder, pepNovoExeTitle, direcTagExeTitle, pNovoExeTitle, novorExeTitle, waitingHandler);
+            } finally {
+                if (spectrumPreprocessor != null) {
+                    SpectrumPreprocessor.delete(allSpectraFile);
+                    SpectrumPreprocessor.delete(sequencedFile);
+                }
+            }
             if (waitingHandler.isRunCanceled()) {
                 break;
             }
@@ -253,10 +298,133 @@ public class DeNovoSequencingHandler {
         }
     }
 
+    /**
+     * Preprocesses a spectrum file if enabled in the preprocessing settings.
+     * The reduced spectra above the quality threshold, or the representatives
+     * of their clusters, are written to a file of the same name in the
+     * preprocessing folder, so that all algorithms read the reduced spectra
+     * and the result files are named after the original file.
+     *
+     * @param spectrumFile the spectrum file
+     * @param searchParameters the search parameters
+     * @param outputFolder the output folder
+     * @param waitingHandler the waiting handler
+     *
+     * @return the preprocessor holding the preprocessed files, null if the
+     * preprocessing is disabled, failed or was canceled
+     */
+    private SpectrumPreprocessor preprocess(File spectrumFile, SearchParameters searchParameters, File outputFolder, WaitingHandler waitingHandler) {
+
+        if (preprocessingSettings == null || !preprocessingSettings.isEnabled() && !preprocessingSettings.isTriageEnabled() && !preprocessingSettings.isClustering()) {
+            return null;
+        }
+
+        waitingHandler.setWaitingText("Preprocessing " + spectrumFile.getName() + ".");
+        waitingHandler.appendReport("Preprocessing " + spectrumFile.getName() + ".", true, true);
+
+        SpectrumPreprocessor result = null;
+        try {
+            SpectrumPreprocessor spectrumPreprocessor = new SpectrumPreprocessor(preprocessingSettings, searchParameters, nThreads);
+            if (preprocessingSettings.isDeisotope() && !spectrumPreprocessor.isDeisotoping()) {
+                waitingHandler.appendReport("The fragment ion tolerance exceeds " + SpectrumPreprocessor.MAX_DEISOTOPING_TOLERANCE
+                        + " Da, the isotopic peaks will not be removed.", true, true);
+            }
+            File reducedFile = spectrumPreprocessor.preprocess(spectrumFile, new File(outputFolder, PREPROCESSING_FOLDER), waitingHandler);
+            if (reducedFile != null) {
+                result = spectrumPreprocessor;
+                if (preprocessingSettings.isTriageEnabled()) {
+                    reportTriage(spectrumFile, spectrumPreprocessor, waitingHandler);
+                }
+            }
+        } catch (Exception e) {
+            waitingHandler.appendReport("An error occurred while preprocessing the spectra, the original spectra will be used: " + e.getMessage(), true, true);
+            exceptionHandler.catchException(e);
+        }
+
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+
+        return result;
+    }
+
+    /**
+     * Reports the number of spectra below the quality threshold and the
+     * sequencing work avoided.
+     *
+     * @param spectrumFile the spectrum file
+     * @param spectrumPreprocessor the preprocessor used
+     * @param waitingHandler the waiting handler
+     */
+    private void reportTriage(File spectrumFile, SpectrumPreprocessor spectrumPreprocessor, WaitingHandler waitingHandler) {
+
+        int nRejected = spectrumPreprocessor.getNRejected();
+        int nSpectra = nRejected + spectrumPreprocessor.getNRetained();
+        Advocate lowQualityAdvocate = spectrumPreprocessor.getAllSpectraFile() == null ? null : preprocessingSettings.getLowQualityAdvocate();
+
+        int nAlgorithms = 0;
+        for (Advocate advocate : new Advocate[]{Advocate.novor, Advocate.direcTag, Advocate.pepnovo, Advocate.pNovo}) {
+            if (isEnabled(advocate) && (lowQualityAdvocate == null || advocate.getIndex() != lowQualityAdvocate.getIndex())) {
+                nAlgorithms++;
+            }
+        }
+
+        String report = nRejected + " of " + nSpectra + " spectra of " + spectrumFile.getName() + " ("
+                + Util.roundDouble(nSpectra > 0 ? 100.0 * nRejected / nSpectra : 0, 1) + "%) are below the quality threshold, "
+                + ((long) nRejected * nAlgorithms) + " spectrum sequencings avoided";
+        if (lowQualityAdvocate != null && isEnabled(lowQualityAdvocate)) {
+            report += ", the spectra below the threshold are sequenced using " + lowQualityAdvocate.getName() + " only";
+        }
+        waitingHandler.appendReport(report + ".", true, true);
+    }
+
+    /**
+     * Indicates whether the given algorithm is enabled.
+     *
+     * @param advocate the algorithm
+     *
+     * @return true if the algorithm is enabled
+     */
+    private boolean isEnabled(Advocate advocate) {
+        if (advocate.getIndex() == Advocate.novor.getIndex()) {
+            return enableNovor;
+        } else if (advocate.getIndex() == Advocate.direcTag.getIndex()) {
+            return enableDirecTag;
+        } else if (advocate.getIndex() == Advocate.pepnovo.getIndex()) {
+            return enablePepNovo;
+        } else if (advocate.getIndex() == Advocate.pNovo.getIndex()) {
+            return enablePNovo;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the spectrum file to be sequenced by the given algorithm: the
+     * file containing all spectra for the algorithm sequencing the low quality
+     * spectra, the given spectrum file otherwise.
+     *
+     * @param advocate the algorithm
+     * @param spectrumFile the spectrum file to process
+     * @param allSpectraFile the file containing all spectra, null if none
+     *
+     * @return the spectrum file to be sequenced by the algorithm
+     */
+    private File getSpectrumFile(Advocate advocate, File spectrumFile, File allSpectraFile) {
+        Advocate lowQualityAdvocate = preprocessingSettings == null ? null : preprocessingSettings.getLowQualityAdvocate();
+        if (allSpectraFile != null && lowQualityAdvocate != null && advocate.getIndex() == lowQualityAdvocate.getIndex()) {
+            return allSpectraFile;
+        }
+        return spectrumFile;
+    }
+
     /**
      * Starts the sequencing for a single file.
      *
      * @param spectrumFile the spectrum file to process
+     * @param nSpectra the number of spectra in the spectrum file
+     * @param nAllSpectra the number of spectra in the file containing all
+     * spectra
+     * @param allSpectraFile the file containing all spectra, including the
+     * ones below the quality threshold, for the algorithm sequencing the low
+     * quality spectra, null if none
      * @param searchParameters the search parameters
      * @param outputFolder the output folder
      * @param pepNovoExeTitle the name of the PepNovo+ executable
@@ -267,14 +435,23 @@ public class DeNovoSequencingHandler {
      * @param secondaryProgress if true the progress on the given file will be
      * displayed
      */
-    private void startSequencing(File spectrumFile, SearchParameters searchParameters, File outputFolder, String pepNovoExeTitle,
+    private void startSequencing(File spectrumFile, int nSpectra, int nAllSpectra, File allSpectraFile, SearchParameters searchParameters, File outputFolder, String pepNovoExeTitle,
             String direcTagExeTitle, String pNovoExeTitle, String novorExeTitle, WaitingHandler waitingHandler) throws IOException {
 
         try {
             jobs = new ArrayDeque<Job>();
 
+            File novorFile = getSpectrumFile(Advocate.novor, spectrumFile, allSpectraFile);
+            File direcTagFile = getSpectrumFile(Advocate.direcTag, spectrumFile, allSpectraFile);
+            File pepNovoFile = getSpectrumFile(Advocate.pepnovo, spectrumFile, allSpectraFile);
+            File pNovoFile = getSpectrumFile(Advocate.pNovo, spectrumFile, allSpectraFile);
+
+            if (nSpectra == 0) {
+                waitingHandler.appendReport("No spectrum of " + spectrumFile.getName() + " is above the quality threshold.", true, true);
+            }
+
             // Novor
-            if (enableNovor && !waitingHandler.isRunCanceled()) {
+            if (enableNovor && (nSpectra > 0 || novorFile == allSpectraFile) && !waitingHandler.isRunCanceled()) {
 
                 Duration algorithmDuration = new Duration();
                 algorithmDuration.start();
@@ -284,7 +461,7 @@ public class DeNovoSequencingHandler {
                 waitingHandler.appendReportEndLine();
 
                 threadExecutor = Executors.newFixedThreadPool(1);
-                NovorJob novorJob = new NovorJob(novorFolder, spectrumFile, outputFolder, searchParameters, waitingHandler instanceof WaitingHandlerCLIImpl, waitingHandler, exceptionHandler);
+                NovorJob novorJob = new NovorJob(novorFolder, novorFile, outputFolder, searchParameters, waitingHandler instanceof WaitingHandlerCLIImpl, waitingHandler, exceptionHandler);
                 threadExecutor.submit(novorJob);
                 jobs.add(novorJob);
 
@@ -313,7 +490,7 @@ public class DeNovoSequencingHandler {
             }
 
             // DirecTag
-            if (enableDirecTag && !waitingHandler.isRunCanceled()) {
+            if (enableDirecTag && (nSpectra > 0 || direcTagFile == allSpectraFile) && !waitingHandler.isRunCanceled()) {
 
                 Duration algorithmDuration = new Duration();
                 algorithmDuration.start();
@@ -323,7 +500,7 @@ public class DeNovoSequencingHandler {
                 waitingHandler.appendReportEndLine();
 
                 threadExecutor = Executors.newFixedThreadPool(1);
-                DirecTagJob direcTagJob = new DirecTagJob(direcTagFolder, direcTagExeTitle, spectrumFile, nThreads, outputFolder, searchParameters, waitingHandler, exceptionHandler);
+                DirecTagJob direcTagJob = new DirecTagJob(direcTagFolder, direcTagExeTitle, direcTagFile, nThreads, outputFolder, searchParameters, waitingHandler, exceptionHandler);
                 threadExecutor.submit(direcTagJob);
                 jobs.add(direcTagJob);
 
@@ -352,7 +529,7 @@ public class DeNovoSequencingHandler {
             }
 
             // PepNovo+
-            if (enablePepNovo && !waitingHandler.isRunCanceled()) {
+            if (enablePepNovo && (nSpectra > 0 || pepNovoFile == allSpectraFile) && !waitingHandler.isRunCanceled()) {
 
                 Duration algorithmDuration = new Duration();
                 algorithmDuration.start();
@@ -365,11 +542,11 @@ public class DeNovoSequencingHandler {
                 threadExecutor = Executors.newFixedThreadPool(nThreads);
 
                 // job queue
-                int nSpectra = spectrumFactory.getNSpectra(spectrumFile.getName());
+                int pepNovoNSpectra = pepNovoFile == allSpectraFile ? nAllSpectra : nSpectra;
                 if (nThreads > 1) {
-                    int remaining = nSpectra % nThreads;
-                    int chunkSize = nSpectra / nThreads;
-                    String report = "Processing " + spectrumFile.getName() + " (" + nSpectra + " spectra, " + chunkSize;
+                    int remaining = pepNovoNSpectra % nThreads;
+                    int chunkSize = pepNovoNSpectra / nThreads;
+                    String report = "Processing " + spectrumFile.getName() + " (" + pepNovoNSpectra + " spectra, " + chunkSize;
                     if (remaining > 0) {
                         int maxSize = chunkSize + 1;
                         report += "-" + maxSize;
@@ -378,7 +555,7 @@ public class DeNovoSequencingHandler {
                     waitingHandler.appendReport(report, true, true);
 
                     waitingHandler.appendReport("Preparing the spectra.", true, true);
-                    chunkFiles = FileProcessor.chunkFile(spectrumFile, chunkSize, remaining, nSpectra, waitingHandler);
+                    chunkFiles = FileProcessor.chunkFile(pepNovoFile, chunkSize, remaining, pepNovoNSpectra, waitingHandler);
                 }
 
                 if (waitingHandler.isRunCanceled()) {
@@ -389,7 +566,7 @@ public class DeNovoSequencingHandler {
 
                 waitingHandler.setWaitingText("Processing " + spectrumFile.getName() + ".");
                 waitingHandler.resetSecondaryProgressCounter();
-                waitingHandler.setMaxSecondaryProgressCounter(nSpectra);
+                waitingHandler.setMaxSecondaryProgressCounter(pepNovoNSpectra);
 
                 // verify that the file is chunked and use the entire if not
                 boolean chunksuccess = true;
@@ -408,7 +585,7 @@ public class DeNovoSequencingHandler {
                         jobs.add(pepNovoJob);
                     }
                 } else {
-                    PepNovoJob pepNovoJob = new PepNovoJob(pepNovoFolder, pepNovoExeTitle, spectrumFile, outputFolder, searchParameters, waitingHandler, exceptionHandler);
+                    PepNovoJob pepNovoJob = new PepNovoJob(pepNovoFolder, pepNovoExeTitle, pepNovoFile, outputFolder, searchParameters, waitingHandler, exceptionHandler);
                     threadExecutor.submit(pepNovoJob);
                     jobs.add(pepNovoJob);
                 }
@@ -449,7 +626,7 @@ public class DeNovoSequencingHandler {
             }
 
             // pNovo+
-            if (enablePNovo && !waitingHandler.isRunCanceled()) {
+            if (enablePNovo && (nSpectra > 0 || pNovoFile == allSpectraFile) && !waitingHandler.isRunCanceled()) {
                 
                 Duration algorithmDuration = new Duration();
                 algorithmDuration.start();
@@ -459,7 +636,7 @@ public class DeNovoSequencingHandler {
                 waitingHandler.appendReportEndLine();
 
                 threadExecutor = Executors.newFixedThreadPool(1); // @TODO: implement chunking so that pNovo can be run with more than one thread...
-                PNovoJob pNovoJob = new PNovoJob(pNovoFolder, pNovoExeTitle, spectrumFile, 1, outputFolder, searchParameters, waitingHandler, exceptionHandler);
+                PNovoJob pNovoJob = new PNovoJob(pNovoFolder, pNovoExeTitle, pNovoFile, 1, outputFolder, searchParameters, waitingHandler, exceptionHandler);
                 threadExecutor.submit(pNovoJob);
                 jobs.add(pNovoJob);
 
@@ -570,6 +747,25 @@ public class DeNovoSequencingHandler {
         this.nThreads = nThreads;
     }
 
+    /**
+     * Returns the settings of the spectrum preprocessing.
+     *
+     * @return the settings of the spectrum preprocessing
+     */
+    public SpectrumPreprocessingSettings getPreprocessingSettings() {
+        return preprocessingSettings;
+    }
+
+    /**
+     * Sets the settings of the spectrum preprocessing, null to disable the
+     * preprocessing.
+     *
+     * @param preprocessingSettings the settings of the spectrum preprocessing
+     */
+    public void setPreprocessingSettings(SpectrumPreprocessingSettings preprocessingSettings) {
+        this.preprocessingSettings = preprocessingSettings;
+    }
+
     /**
      * Returns the file containing the enzymes.
      *
@@ -1,6 +1,8 @@
 package com.compomics.denovogui.cmd;
 
 import com.compomics.denovogui.DeNovoSequencingHandler;
+import com.compomics.denovogui.io.SpectrumFileConverter;
+import com.compomics.denovogui.io.SpectrumIndexer;
 import com.compomics.denovogui.preferences.DeNovoGUIPathPreferences;
 import com.compomics.denovogui.util.Properties;
 import com.compomics.software.CompomicsWrapper;
@@ -10,7 +12,6 @@ import com.compomics.util.Util;
 import com.compomics.util.exceptions.exception_handlers.CommandLineExceptionHandler;
 import com.compomics.util.experiment.biology.*;
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
-import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
 import com.compomics.util.preferences.UtilitiesUserPreferences;
 import java.io.File;
@@ -293,11 +294,10 @@ public class DeNovoCLI implements Callable {
             waitingHandlerCLIImpl.appendReportEndLine();
 
             // load the spectra into the factory
-            SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
             waitingHandlerCLIImpl.appendReport("Loading the spectra.", true, true);
-            for (File spectrumFile : deNovoCLIInputBean.getSpectrumFiles()) {
-                spectrumFactory.addSpectra(spectrumFile, waitingHandlerCLIImpl);
-            }
+            ArrayList<File> spectrumFiles = SpectrumFileConverter.getMgfFiles(deNovoCLIInputBean.getSpectrumFiles(), deNovoCLIInputBean.getOutputFile(), searchParameters, waitingHandlerCLIImpl);
+            SpectrumIndexer spectrumIndexer = new SpectrumIndexer(deNovoCLIInputBean.getNIndexingThreads());
+            spectrumIndexer.addSpectra(spectrumFiles, waitingHandlerCLIImpl);
             waitingHandlerCLIImpl.appendReport("Done loading the spectra.", true, true);
             
             // incrementing the counter for a new DenovoGUI run
@@ -309,7 +309,8 @@ public class DeNovoCLI implements Callable {
             // start the sequencing
             DeNovoSequencingHandler searchHandler = new DeNovoSequencingHandler(pepNovoFolder, direcTagFolder, pNovoFolder, novorFolder);
             searchHandler.setNThreads(deNovoCLIInputBean.getNThreads());
-            searchHandler.startSequencing(deNovoCLIInputBean.getSpectrumFiles(),
+            searchHandler.setPreprocessingSettings(deNovoCLIInputBean.getPreprocessingSettings());
+            searchHandler.startSequencing(spectrumFiles,
                     searchParameters,
                     deNovoCLIInputBean.getOutputFile(), searchParametersFile, pepNovoExecutableTitle, direcTagExecutableTitle, pNovoExecutableTitle, novorExecutableTitle,
                     runPepNovo, runDirecTag, runPNovo, runNovor, waitingHandlerCLIImpl, exceptionHandler);
@@ -338,7 +339,7 @@ public class DeNovoCLI implements Callable {
         return System.getProperty("line.separator")
                 + "DeNovoCLI performs de novo sequencing using the PepNovo+, DirecTag, pNovo+ and Novor algoritms." + System.getProperty("line.separator")
                 + System.getProperty("line.separator")
-                + "Spectra must be provided in the Mascot Generic File (mgf) format." + System.getProperty("line.separator")
+                + "Spectra must be provided in the Mascot Generic File (mgf), mzML or mzXML format, optionally gzip compressed." + System.getProperty("line.separator")
                 + System.getProperty("line.separator")
                 + "The identification parameters can be provided as a file as saved from the GUI or generated using the IdentificationParametersCLI." + System.getProperty("line.separator")
                 + "See http://compomics.github.io/projects/compomics-utilities/wiki/identificationparameterscli.html for more details." + System.getProperty("line.separator")
@@ -1,7 +1,11 @@
 package com.compomics.denovogui.cmd;
 
 import com.compomics.cli.identification_parameters.IdentificationParametersInputBean;
+import com.compomics.denovogui.io.SpectrumFileConverter;
+import com.compomics.denovogui.io.SpectrumIndexer;
+import com.compomics.denovogui.io.SpectrumPreprocessingSettings;
 import com.compomics.software.cli.CommandLineUtils;
+import com.compomics.util.experiment.identification.Advocate;
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.preferences.IdentificationParameters;
 import java.io.File;
@@ -67,6 +71,15 @@ public class DeNovoCLIInputBean {
      * Number of threads to use. Defaults to the number of cores available.
      */
     private int nThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * The maximal number of spectrum files indexed at the same time, null if
+     * not set.
+     */
+    private Integer nIndexingThreads = null;
+    /**
+     * The settings of the spectrum preprocessing.
+     */
+    private SpectrumPreprocessingSettings preprocessingSettings = new SpectrumPreprocessingSettings();
     /**
      * The path settings.
      */
@@ -142,6 +155,50 @@ public class DeNovoCLIInputBean {
             arg = aLine.getOptionValue(DeNovoCLIParams.THREADS.id);
             nThreads = Integer.parseInt(arg);
         }
+        if (aLine.hasOption(DeNovoCLIParams.INDEXING_THREADS.id)) {
+            arg = aLine.getOptionValue(DeNovoCLIParams.INDEXING_THREADS.id);
+            nIndexingThreads = Integer.parseInt(arg.trim());
+        }
+
+        // spectrum preprocessing
+        if (aLine.hasOption(DeNovoCLIParams.PREPROCESS.id)) {
+            String preprocessOption = aLine.getOptionValue(DeNovoCLIParams.PREPROCESS.id);
+            preprocessingSettings.setEnabled(preprocessOption.trim().equals("1"));
+        }
+        if (aLine.hasOption(DeNovoCLIParams.PREPROCESS_PEAKS.id)) {
+            arg = aLine.getOptionValue(DeNovoCLIParams.PREPROCESS_PEAKS.id);
+            preprocessingSettings.setPeaksPerWindow(Integer.parseInt(arg.trim()));
+        }
+        if (aLine.hasOption(DeNovoCLIParams.PREPROCESS_THRESHOLD.id)) {
+            arg = aLine.getOptionValue(DeNovoCLIParams.PREPROCESS_THRESHOLD.id);
+            preprocessingSettings.setIntensityThreshold(Double.parseDouble(arg.trim()));
+        }
+        if (aLine.hasOption(DeNovoCLIParams.PREPROCESS_DEISOTOPE.id)) {
+            String deisotopeOption = aLine.getOptionValue(DeNovoCLIParams.PREPROCESS_DEISOTOPE.id);
+            preprocessingSettings.setDeisotope(deisotopeOption.trim().equals("1"));
+        }
+        if (aLine.hasOption(DeNovoCLIParams.QUALITY_THRESHOLD.id)) {
+            arg = aLine.getOptionValue(DeNovoCLIParams.QUALITY_THRESHOLD.id);
+            preprocessingSettings.setQualityThreshold(Double.parseDouble(arg.trim()));
+        }
+        if (aLine.hasOption(DeNovoCLIParams.LOW_QUALITY_ALGORITHM.id)) {
+            arg = aLine.getOptionValue(DeNovoCLIParams.LOW_QUALITY_ALGORITHM.id);
+            preprocessingSettings.setLowQualityAdvocate(getAlgorithm(arg));
+        }
+
+        // spectrum clustering
+        if (aLine.hasOption(DeNovoCLIParams.CLUSTERING.id)) {
+            String clusteringOption = aLine.getOptionValue(DeNovoCLIParams.CLUSTERING.id);
+            preprocessingSettings.setClustering(clusteringOption.trim().equals("1"));
+        }
+        if (aLine.hasOption(DeNovoCLIParams.CLUSTER_RT_WINDOW.id)) {
+            arg = aLine.getOptionValue(DeNovoCLIParams.CLUSTER_RT_WINDOW.id);
+            preprocessingSettings.setClusterRtWindow(Double.parseDouble(arg.trim()));
+        }
+        if (aLine.hasOption(DeNovoCLIParams.CLUSTER_SIMILARITY.id)) {
+            arg = aLine.getOptionValue(DeNovoCLIParams.CLUSTER_SIMILARITY.id);
+            preprocessingSettings.setClusterSimilarity(Double.parseDouble(arg.trim()));
+        }
         
         // identification parameters
         identificationParametersInputBean = new IdentificationParametersInputBean(aLine);
@@ -186,9 +243,7 @@ public class DeNovoCLIInputBean {
      * found
      */
     public static ArrayList<File> getSpectrumFiles(String optionInput) throws FileNotFoundException {
-        ArrayList<String> extentions = new ArrayList<String>();
-        extentions.add(".mgf");
-        return CommandLineUtils.getFiles(optionInput, extentions);
+        return CommandLineUtils.getFiles(optionInput, SpectrumFileConverter.getSupportedExtensions());
     }
 
     /**
@@ -272,6 +327,49 @@ public class DeNovoCLIInputBean {
         return nThreads;
     }
 
+    /**
+     * Returns the maximal number of spectrum files indexed at the same time.
+     *
+     * @return the maximal number of spectrum files indexed at the same time
+     */
+    public int getNIndexingThreads() {
+        if (nIndexingThreads == null) {
+            return SpectrumIndexer.getDefaultThreads(nThreads);
+        }
+        return nIndexingThreads;
+    }
+
+    /**
+     * Returns the algorithm corresponding to the given command line option
+     * value.
+     *
+     * @param optionValue the command line option value
+     *
+     * @return the algorithm, null if not recognized
+     */
+    public static Advocate getAlgorithm(String optionValue) {
+        String algorithm = optionValue.trim().toLowerCase();
+        if (algorithm.equals(DeNovoCLIParams.PEPNOVO.id)) {
+            return Advocate.pepnovo;
+        } else if (algorithm.equals(DeNovoCLIParams.DIRECT_TAG.id)) {
+            return Advocate.direcTag;
+        } else if (algorithm.equals(DeNovoCLIParams.PNOVO.id)) {
+            return Advocate.pNovo;
+        } else if (algorithm.equals(DeNovoCLIParams.NOVOR.id)) {
+            return Advocate.novor;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the settings of the spectrum preprocessing.
+     *
+     * @return the settings of the spectrum preprocessing
+     */
+    public SpectrumPreprocessingSettings getPreprocessingSettings() {
+        return preprocessingSettings;
+    }
+
     /**
      * Verifies the command line start parameters.
      *
@@ -323,6 +421,12 @@ public class DeNovoCLIInputBean {
             }
         }
 
+        if (aLine.hasOption(DeNovoCLIParams.LOW_QUALITY_ALGORITHM.id)
+                && getAlgorithm(aLine.getOptionValue(DeNovoCLIParams.LOW_QUALITY_ALGORITHM.id)) == null) {
+            System.out.println(System.getProperty("line.separator") + "Algorithm \'" + aLine.getOptionValue(DeNovoCLIParams.LOW_QUALITY_ALGORITHM.id) + "\' not recognized." + System.getProperty("line.separator"));
+            return false;
+        }
+
         // Check the identification parameters
         if (!IdentificationParametersInputBean.isValidStartup(aLine, false)) {
             return false;
@@ -14,7 +14,7 @@ public enum DeNovoCLIParams {
     // IMPORTANT: Any change here must be reported in the wiki: 
     // https://github.com/compomics/denovogui/wiki/DeNovoCLI.
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-    SPECTRUM_FILES("spectrum_files", "Spectrum files (mgf format), comma separated list or an entire folder.", true),
+    SPECTRUM_FILES("spectrum_files", "Spectrum files (mgf, mzML or mzXML format, optionally gzip compressed), comma separated list or an entire folder.", true),
     OUTPUT_FOLDER("output_folder", "The output folder.", true),
     IDENTIFICATION_PARAMETERS("id_params", "A search parameters file. Can be generated from the GUI or using the IdentificationParametersCLI (see http://compomics.github.io/projects/compomics-utilities/wiki/identificationparameterscli.html for details).", false),
     THREADS("threads", "The number of threads to use for the processing. Default is the number of cores available.", false),
@@ -25,7 +25,17 @@ public enum DeNovoCLIParams {
     PEPNOVO_LOCATION("pepnovo_folder", "The PepNovo+ executable, defaults to the OS dependent versions included with DeNovoGUI.", false),
     DIRECTAG_LOCATION("directag_folder", "The DirecTag executable, defaults to the OS dependent versions included with DeNovoGUI.", false),
     PNOVO_LOCATION("pnovo_folder", "The pNovo+ executable, defaults to the OS dependent versions included with DeNovoGUI.", false),
-    NOVOR_LOCATION("novor_folder", "The Novor executable, defaults to the OS dependent versions included with DeNovoGUI.", false);
+    NOVOR_LOCATION("novor_folder", "The Novor executable, defaults to the OS dependent versions included with DeNovoGUI.", false),
+    PREPROCESS("preprocess", "Turn the spectrum preprocessing shared by all algorithms on or off (1: on, 0: off, default is '0').", false),
+    PREPROCESS_PEAKS("preprocess_peaks", "The number of most intense peaks retained per 100 m/z window when preprocessing, 0 for all. Default is '10'.", false),
+    PREPROCESS_THRESHOLD("preprocess_threshold", "The intensity threshold relative to the most intense peak when preprocessing, between 0 and 1. Default is '0'.", false),
+    PREPROCESS_DEISOTOPE("preprocess_deisotope", "Remove the isotopic peaks when preprocessing (1: on, 0: off, default is '0').", false),
+    QUALITY_THRESHOLD("quality_threshold", "The minimal quality of the spectra to sequence, between 0 and 1, 0 to sequence all spectra. Default is '0'.", false),
+    LOW_QUALITY_ALGORITHM("low_quality_algorithm", "The algorithm sequencing the spectra below the quality threshold as well (pepnovo, directag, pnovo or novor). By default these spectra are not sequenced.", false),
+    CLUSTERING("cluster", "Cluster the repeated acquisitions of a precursor and sequence only one spectrum per cluster, the results being propagated to the other spectra when importing (1: on, 0: off, default is '0').", false),
+    CLUSTER_RT_WINDOW("cluster_rt_window", "The retention time window of the clusters in seconds. Default is '60'.", false),
+    CLUSTER_SIMILARITY("cluster_similarity", "The minimal cosine similarity of two spectra of a cluster, between 0 and 1. Default is '0.9'.", false),
+    INDEXING_THREADS("indexing_threads", "The maximal number of spectrum files indexed at the same time. Default is the number of threads, at most 4.", false);
 
     /**
      * Short Id for the CLI parameter.
@@ -96,6 +106,16 @@ public enum DeNovoCLIParams {
         output += "-" + String.format(formatter, PNOVO_LOCATION.id) + " " + PNOVO_LOCATION.description + "\n";
         output += "-" + String.format(formatter, NOVOR_LOCATION.id) + " " + NOVOR_LOCATION.description + "\n";
         output += "-" + String.format(formatter, THREADS.id) + " " + THREADS.description + "\n";
+        output += "-" + String.format(formatter, INDEXING_THREADS.id) + " " + INDEXING_THREADS.description + "\n";
+        output += "-" + String.format(formatter, PREPROCESS.id) + " " + PREPROCESS.description + "\n";
+        output += "-" + String.format(formatter, PREPROCESS_PEAKS.id) + " " + PREPROCESS_PEAKS.description + "\n";
+        output += "-" + String.format(formatter, PREPROCESS_THRESHOLD.id) + " " + PREPROCESS_THRESHOLD.description + "\n";
+        output += "-" + String.format(formatter, PREPROCESS_DEISOTOPE.id) + " " + PREPROCESS_DEISOTOPE.description + "\n";
+        output += "-" + String.format(formatter, QUALITY_THRESHOLD.id) + " " + QUALITY_THRESHOLD.description + "\n";
+        output += "-" + String.format(formatter, LOW_QUALITY_ALGORITHM.id) + " " + LOW_QUALITY_ALGORITHM.description + "\n";
+        output += "-" + String.format(formatter, CLUSTERING.id) + " " + CLUSTERING.description + "\n";
+        output += "-" + String.format(formatter, CLUSTER_RT_WINDOW.id) + " " + CLUSTER_RT_WINDOW.description + "\n";
+        output += "-" + String.format(formatter, CLUSTER_SIMILARITY.id) + " " + CLUSTER_SIMILARITY.description + "\n";
 
         output += "\n\nOptional Temporary Folder:\n\n";
         output += "-" + String.format(formatter, PathSettingsCLIParams.ALL.id) + " " + PathSettingsCLIParams.ALL.description + "\n";
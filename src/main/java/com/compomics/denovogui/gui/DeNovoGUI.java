@@ -11,6 +11,8 @@ import com.compomics.util.experiment.biology.EnzymeFactory;
 import com.compomics.util.experiment.biology.PTMFactory;
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.denovogui.io.FileProcessor;
+import com.compomics.denovogui.io.SpectrumFileConverter;
+import com.compomics.denovogui.io.SpectrumIndexer;
 import com.compomics.denovogui.preferences.DeNovoGUIPathPreferences;
 import com.compomics.denovogui.preferences.DeNovoGUIPathPreferences.DeNovoGUIPathKey;
 import com.compomics.software.CompomicsWrapper;
@@ -1536,13 +1538,13 @@ public class DeNovoGUI extends javax.swing.JFrame implements JavaHomeOrMemoryDia
             @Override
             public boolean accept(File myFile) {
 
-                return myFile.getName().toLowerCase().endsWith(".mgf")
+                return SpectrumFileConverter.isSupported(myFile)
                         || myFile.isDirectory();
             }
 
             @Override
             public String getDescription() {
-                return "Peak list (.mgf)";
+                return "Spectrum files (.mgf, .mzML, .mzXML, optionally .gz)";
             }
         };
         fc.setAcceptAllFileFilterUsed(false);
@@ -2401,9 +2403,7 @@ public class DeNovoGUI extends javax.swing.JFrame implements JavaHomeOrMemoryDia
         for (String arg : args) {
             if (spectrum) {
                 try {
-                    ArrayList<String> extensions = new ArrayList<String>();
-                    extensions.add(".mgf");
-                    spectrumFiles = CommandLineUtils.getFiles(arg, extensions);
+                    spectrumFiles = CommandLineUtils.getFiles(arg, SpectrumFileConverter.getSupportedExtensions());
                 } catch (Exception e) {
                     JOptionPane.showMessageDialog(null,
                             "Failed importing spectrum files from command line option " + arg + ".", "Spectrum files",
@@ -2590,6 +2590,10 @@ public class DeNovoGUI extends javax.swing.JFrame implements JavaHomeOrMemoryDia
          * Exception handler making use of the waiting dialog.
          */
         private WaitingDialogExceptionHandler workerExceptionHandler;
+        /**
+         * The mgf files sequenced.
+         */
+        private ArrayList<File> sequencedFiles = spectrumFiles;
 
         /**
          * Constructor.
@@ -2610,10 +2614,14 @@ public class DeNovoGUI extends javax.swing.JFrame implements JavaHomeOrMemoryDia
 
             try {
                 waitingHandler.appendReport("Loading the spectra.", true, true);
-                loadSpectra(spectrumFiles, waitingHandler);
+                sequencedFiles = SpectrumFileConverter.getMgfFiles(spectrumFiles, outputFolder, searchParameters, waitingHandler);
+                if (waitingHandler.isRunCanceled()) {
+                    return 0;
+                }
+                loadSpectra(sequencedFiles, waitingHandler);
                 waitingHandler.appendReport("Done loading the spectra.", true, true);
                 waitingHandler.appendReportEndLine();
-                deNovoSequencingHandler.startSequencing(spectrumFiles, searchParameters, outputFolder, parametersFile, pepNovoExecutable, direcTagExecutable, pNovoExecutable, novorExecutable,
+                deNovoSequencingHandler.startSequencing(sequencedFiles, searchParameters, outputFolder, parametersFile, pepNovoExecutable, direcTagExecutable, pNovoExecutable, novorExecutable,
                         pepNovoCheckBox.isSelected(), direcTagCheckBox.isSelected(), pNovoCheckBox.isSelected(), novorCheckBox.isSelected(), waitingHandler, exceptionHandler);
             } catch (Exception e) {
                 workerExceptionHandler.catchException(e);
@@ -2655,7 +2663,7 @@ public class DeNovoGUI extends javax.swing.JFrame implements JavaHomeOrMemoryDia
 
                 // check if there are any output files to open
                 ArrayList<File> resultFiles = FileProcessor.getAllResultFiles(
-                        outputFolder, spectrumFiles,
+                        outputFolder, sequencedFiles,
                         pepNovoCheckBox.isSelected(), direcTagCheckBox.isSelected(),
                         pNovoCheckBox.isSelected(), novorCheckBox.isSelected());
 
@@ -2699,19 +2707,20 @@ public class DeNovoGUI extends javax.swing.JFrame implements JavaHomeOrMemoryDia
     }
 
     /**
-     * Loads the mgf files in the spectrum factory.
+     * Loads the mgf files in the spectrum factory, indexing the files without
+     * valid index concurrently.
      *
      * @param mgfFiles loads the mgf files in the spectrum factory
      * @param waitingHandler the waiting handler
      * @throws FileNotFoundException
      * @throws IOException
      * @throws ClassNotFoundException
+     * @throws InterruptedException
      */
-    private void loadSpectra(List<File> mgfFiles, WaitingHandler waitingHandler) throws FileNotFoundException, IOException, ClassNotFoundException {
+    private void loadSpectra(List<File> mgfFiles, WaitingHandler waitingHandler) throws FileNotFoundException, IOException, ClassNotFoundException, InterruptedException {
         // Add spectrum files to the spectrum factory
-        for (File spectrumFile : mgfFiles) {
-            spectrumFactory.addSpectra(spectrumFile, waitingHandler);
-        }
+        SpectrumIndexer spectrumIndexer = new SpectrumIndexer(SpectrumIndexer.getDefaultThreads(deNovoSequencingHandler.getNThreads()));
+        spectrumIndexer.addSpectra(mgfFiles, waitingHandler);
     }
 
     /**
@@ -1,5 +1,7 @@
 package com.compomics.denovogui.gui;
 
+import com.compomics.util.experiment.identification.Advocate;
+import java.util.ArrayList;
 import javax.swing.JOptionPane;
 
 /**
@@ -17,6 +19,10 @@ public class ExportSettingsDialog extends javax.swing.JDialog {
      * The minimum score requited for a PSM to be exported.
      */
     private double threshold = 0;
+    /**
+     * The identification charges to export, null for all.
+     */
+    private ArrayList<Integer> charges = null;
     /**
      * True of the dialog was canceled by the user.
      */
@@ -64,6 +70,49 @@ public class ExportSettingsDialog extends javax.swing.JDialog {
         return greaterThanRadioButton.isSelected();
     }
 
+    /**
+     * Returns the indexes of the advocates to export, null for all.
+     *
+     * @return the indexes of the advocates to export, null for all
+     */
+    public ArrayList<Integer> getAdvocates() {
+        if (pepNovoCheckBox.isSelected() && direcTagCheckBox.isSelected() && pNovoCheckBox.isSelected() && novorCheckBox.isSelected()) {
+            return null;
+        }
+        ArrayList<Integer> advocates = new ArrayList<Integer>();
+        if (pepNovoCheckBox.isSelected()) {
+            advocates.add(Advocate.pepnovo.getIndex());
+        }
+        if (direcTagCheckBox.isSelected()) {
+            advocates.add(Advocate.direcTag.getIndex());
+        }
+        if (pNovoCheckBox.isSelected()) {
+            advocates.add(Advocate.pNovo.getIndex());
+        }
+        if (novorCheckBox.isSelected()) {
+            advocates.add(Advocate.novor.getIndex());
+        }
+        return advocates;
+    }
+
+    /**
+     * Returns the identification charges to export, null for all.
+     *
+     * @return the identification charges to export, null for all
+     */
+    public ArrayList<Integer> getCharges() {
+        return charges;
+    }
+
+    /**
+     * Returns true if the export is to be compressed.
+     *
+     * @return true if the export is to be compressed
+     */
+    public boolean isCompressed() {
+        return compressCheckBox.isSelected();
+    }
+
     /**
      * Returns true of the dialog was canceled by the user.
      *
@@ -94,6 +143,15 @@ public class ExportSettingsDialog extends javax.swing.JDialog {
         thresholdLabel = new javax.swing.JLabel();
         greaterThanRadioButton = new javax.swing.JRadioButton();
         lessThanRadioButton = new javax.swing.JRadioButton();
+        compressionLabel = new javax.swing.JLabel();
+        compressCheckBox = new javax.swing.JCheckBox();
+        algorithmsLabel = new javax.swing.JLabel();
+        pepNovoCheckBox = new javax.swing.JCheckBox();
+        direcTagCheckBox = new javax.swing.JCheckBox();
+        pNovoCheckBox = new javax.swing.JCheckBox();
+        novorCheckBox = new javax.swing.JCheckBox();
+        chargesLabel = new javax.swing.JLabel();
+        chargesTextField = new javax.swing.JTextField();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
         setTitle("Export Settings");
@@ -141,6 +199,41 @@ public class ExportSettingsDialog extends javax.swing.JDialog {
         lessThanRadioButton.setIconTextGap(10);
         lessThanRadioButton.setOpaque(false);
 
+        compressionLabel.setText("Compression");
+        compressionLabel.setToolTipText("Compress the text exports using gzip");
+
+        compressCheckBox.setText("gzip");
+        compressCheckBox.setIconTextGap(10);
+        compressCheckBox.setOpaque(false);
+
+        algorithmsLabel.setText("Algorithms");
+        algorithmsLabel.setToolTipText("The algorithms whose matches are exported");
+
+        pepNovoCheckBox.setSelected(true);
+        pepNovoCheckBox.setText("PepNovo+");
+        pepNovoCheckBox.setIconTextGap(10);
+        pepNovoCheckBox.setOpaque(false);
+
+        direcTagCheckBox.setSelected(true);
+        direcTagCheckBox.setText("DirecTag");
+        direcTagCheckBox.setIconTextGap(10);
+        direcTagCheckBox.setOpaque(false);
+
+        pNovoCheckBox.setSelected(true);
+        pNovoCheckBox.setText("pNovo+");
+        pNovoCheckBox.setIconTextGap(10);
+        pNovoCheckBox.setOpaque(false);
+
+        novorCheckBox.setSelected(true);
+        novorCheckBox.setText("Novor");
+        novorCheckBox.setIconTextGap(10);
+        novorCheckBox.setOpaque(false);
+
+        chargesLabel.setText("Identification Charges");
+        chargesLabel.setToolTipText("Comma separated list of the charges to export, empty for all");
+
+        chargesTextField.setHorizontalAlignment(javax.swing.JTextField.CENTER);
+
         javax.swing.GroupLayout jPanel1Layout = new javax.swing.GroupLayout(jPanel1);
         jPanel1.setLayout(jPanel1Layout);
         jPanel1Layout.setHorizontalGroup(
@@ -150,7 +243,10 @@ public class ExportSettingsDialog extends javax.swing.JDialog {
                 .addGroup(jPanel1Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                     .addComponent(scoreThresholdLabel)
                     .addComponent(numberHitsLabel)
-                    .addComponent(thresholdLabel))
+                    .addComponent(thresholdLabel)
+                    .addComponent(algorithmsLabel)
+                    .addComponent(chargesLabel)
+                    .addComponent(compressionLabel))
                 .addGap(18, 18, 18)
                 .addGroup(jPanel1Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.TRAILING, false)
                     .addComponent(scoreThresholdTextField, javax.swing.GroupLayout.Alignment.LEADING)
@@ -158,7 +254,17 @@ public class ExportSettingsDialog extends javax.swing.JDialog {
                         .addComponent(greaterThanRadioButton)
                         .addGap(18, 18, 18)
                         .addComponent(lessThanRadioButton))
-                    .addComponent(numberHitsTextField))
+                    .addGroup(javax.swing.GroupLayout.Alignment.LEADING, jPanel1Layout.createSequentialGroup()
+                        .addComponent(pepNovoCheckBox)
+                        .addGap(18, 18, 18)
+                        .addComponent(direcTagCheckBox)
+                        .addGap(18, 18, 18)
+                        .addComponent(pNovoCheckBox)
+                        .addGap(18, 18, 18)
+                        .addComponent(novorCheckBox))
+                    .addComponent(numberHitsTextField)
+                    .addComponent(chargesTextField)
+                    .addComponent(compressCheckBox, javax.swing.GroupLayout.Alignment.LEADING))
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
         jPanel1Layout.setVerticalGroup(
@@ -177,6 +283,21 @@ public class ExportSettingsDialog extends javax.swing.JDialog {
                     .addComponent(thresholdLabel)
                     .addComponent(greaterThanRadioButton)
                     .addComponent(lessThanRadioButton))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(jPanel1Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(algorithmsLabel)
+                    .addComponent(pepNovoCheckBox)
+                    .addComponent(direcTagCheckBox)
+                    .addComponent(pNovoCheckBox)
+                    .addComponent(novorCheckBox))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(jPanel1Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(chargesLabel)
+                    .addComponent(chargesTextField, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(jPanel1Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(compressionLabel)
+                    .addComponent(compressCheckBox))
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
 
@@ -254,6 +375,34 @@ public class ExportSettingsDialog extends javax.swing.JDialog {
             }
         }
 
+        if (valid && !pepNovoCheckBox.isSelected() && !direcTagCheckBox.isSelected() && !pNovoCheckBox.isSelected() && !novorCheckBox.isSelected()) {
+            JOptionPane.showMessageDialog(this, "At least one algorithm has to be selected!", "Input Error", JOptionPane.WARNING_MESSAGE);
+            valid = false;
+        }
+
+        if (valid) {
+            String chargesText = chargesTextField.getText().trim();
+            if (chargesText.isEmpty()) {
+                charges = null;
+            } else {
+                charges = new ArrayList<Integer>();
+                try {
+                    for (String charge : chargesText.split(",")) {
+                        int value = Integer.parseInt(charge.trim());
+                        if (value < 1) {
+                            JOptionPane.showMessageDialog(this, "The identification charges have to be positive integers!", "Input Error", JOptionPane.WARNING_MESSAGE);
+                            valid = false;
+                            break;
+                        }
+                        charges.add(value);
+                    }
+                } catch (NumberFormatException e) {
+                    JOptionPane.showMessageDialog(this, "The identification charges have to be a comma separated list of integers!", "Input Error", JOptionPane.WARNING_MESSAGE);
+                    valid = false;
+                }
+            }
+        }
+
         // close dialog if input is valid
         if (valid) {
             canceled = false;
@@ -271,15 +420,24 @@ public class ExportSettingsDialog extends javax.swing.JDialog {
     }//GEN-LAST:event_cancelButtonActionPerformed
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
+    private javax.swing.JLabel algorithmsLabel;
     private javax.swing.JPanel backgroundPanel;
     private javax.swing.ButtonGroup buttonGroup;
     private javax.swing.JButton cancelButton;
+    private javax.swing.JLabel chargesLabel;
+    private javax.swing.JTextField chargesTextField;
+    private javax.swing.JCheckBox compressCheckBox;
+    private javax.swing.JLabel compressionLabel;
+    private javax.swing.JCheckBox direcTagCheckBox;
     private javax.swing.JRadioButton greaterThanRadioButton;
     private javax.swing.JPanel jPanel1;
     private javax.swing.JRadioButton lessThanRadioButton;
+    private javax.swing.JCheckBox novorCheckBox;
     private javax.swing.JLabel numberHitsLabel;
     private javax.swing.JTextField numberHitsTextField;
     private javax.swing.JButton okButton;
+    private javax.swing.JCheckBox pNovoCheckBox;
+    private javax.swing.JCheckBox pepNovoCheckBox;
     private javax.swing.JLabel scoreThresholdLabel;
     private javax.swing.JTextField scoreThresholdTextField;
     private javax.swing.JLabel thresholdLabel;
@@ -1,16 +1,14 @@
 package com.compomics.denovogui.gui;
 
-import com.compomics.util.experiment.identification.Advocate;
-import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
-import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
-import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import com.compomics.denovogui.results.ResultSearchIndex;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
-import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import java.awt.Color;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.concurrent.Future;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 /**
  * A Find panel for use in the menu bar in the results frame.
@@ -21,18 +19,26 @@ import java.util.HashMap;
 public class FindPanel extends javax.swing.JPanel {
 
     /**
-     * The spectrum factory.
+     * The time to wait between keys typed before updating the search.
      */
-    private SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+    private int waitingTime = 300;
     /**
-     * Counts the number of times the users has pressed a key on the keyboard in
-     * the search field.
+     * Timer starting the search once no key was typed for the waiting time.
      */
-    private int keyPressedCounter = 0;
+    private Timer searchTimer;
     /**
-     * The time to wait between keys typed before updating the search.
+     * The key of the search tasks in the task scheduler.
+     */
+    private static final String SEARCH_TASK = "find";
+    /**
+     * The current search, null if none.
      */
-    private int waitingTime = 1000;
+    private Future<?> searchFuture = null;
+    /**
+     * The number of the search requested last. The results of an older search
+     * are not displayed.
+     */
+    private int searchRequest = 0;
     /**
      * The text to show in the find text field when nothing else is shown.
      */
@@ -42,13 +48,13 @@ public class FindPanel extends javax.swing.JPanel {
      */
     private ResultsFrame resultsFrame;
     /**
-     * Items matching the criterion.
+     * Items matching the criterion as encoded by the result search index.
      */
-    private ArrayList<String> possibilities = new ArrayList<String>(); // @TODO: perhaps better with a map, but has to be ordered
+    private long[] possibilities = new long[0];
     /**
-     * The separator for the possibilities.
+     * The search index which provided the possibilities.
      */
-    private final String SEPARATOR = "_possibility_values_separator_";
+    private ResultSearchIndex possibilitiesIndex;
     /**
      * The current selection.
      */
@@ -64,6 +70,13 @@ public class FindPanel extends javax.swing.JPanel {
         this.resultsFrame = resultsFrame;
         previousButton.setEnabled(false);
         nextButton.setEnabled(false);
+        searchTimer = new Timer(waitingTime, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                startSearch();
+            }
+        });
+        searchTimer.setRepeats(false);
     }
 
     /**
@@ -89,16 +102,16 @@ public class FindPanel extends javax.swing.JPanel {
     public void updateSelection() {
 
         // update the selection
-        if (currentSelection < possibilities.size()) {
+        if (currentSelection < possibilities.length) {
             indexLabel.setForeground(Color.BLACK);
-            String label = "(" + (currentSelection + 1) + " of " + possibilities.size() + ")";
+            String label = "(" + (currentSelection + 1) + " of " + possibilities.length + ")";
             indexLabel.setText(label);
 
-            String currentMatch = possibilities.get(currentSelection);
-            String temp[] = currentMatch.split(SEPARATOR);
-            String spectrumFileName = temp[0];
-            String spectrumTitle = temp[1];
-            Integer psmRow = Integer.valueOf(temp[2]);
+            long currentMatch = possibilities[currentSelection];
+            String spectrumKey = possibilitiesIndex.getHitSpectrumKey(currentMatch);
+            String spectrumFileName = Spectrum.getSpectrumFile(spectrumKey);
+            String spectrumTitle = Spectrum.getSpectrumTitle(spectrumKey);
+            int psmRow = ResultSearchIndex.getHitAssumptionRow(currentMatch);
             resultsFrame.setSelectedPsm(spectrumFileName, spectrumTitle, psmRow);
         }
     }
@@ -222,141 +235,122 @@ public class FindPanel extends javax.swing.JPanel {
      */
     private void inputTxtKeyReleased(java.awt.event.KeyEvent evt) {//GEN-FIRST:event_inputTxtKeyReleased
 
-        final KeyEvent event = evt;
-        keyPressedCounter++;
+        if (evt.getKeyCode() == KeyEvent.VK_UP && previousButton.isEnabled()) {
+            previousButtonActionPerformed(null);
+        } else if (evt.getKeyCode() == KeyEvent.VK_DOWN && nextButton.isEnabled()) {
+            nextButtonActionPerformed(null);
+        } else {
+            // wait for the user to stop typing before searching
+            searchTimer.restart();
+        }
+    }//GEN-LAST:event_inputTxtKeyReleased
 
-        new Thread("FindThread") {
-            @Override
-            public synchronized void run() {
+    /**
+     * Cancels the current search, if any, and searches for the content of the
+     * input text field in the background.
+     */
+    private void startSearch() {
 
-                try {
-                    wait(waitingTime);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+        final int request = ++searchRequest;
+        if (searchFuture != null) {
+            resultsFrame.getTaskScheduler().cancel(SEARCH_TASK);
+            searchFuture = null;
+        }
 
-                try {
-                    // see if the gui is to be updated or not
-                    if (keyPressedCounter == 1) {
-
-                        if (!inputTxt.getText().equalsIgnoreCase(welcomeText)) {
-                            inputTxt.setForeground(Color.black);
-                        } else {
-                            inputTxt.setForeground(new Color(204, 204, 204));
-                        }
-
-                        if (event.getKeyCode() == KeyEvent.VK_UP && previousButton.isEnabled()) {
-                            previousButtonActionPerformed(null);
-                        } else if (event.getKeyCode() == KeyEvent.VK_DOWN && nextButton.isEnabled()) {
-                            nextButtonActionPerformed(null);
-                        } else {
-                            possibilities.clear();
-                            currentSelection = 0;
-                            String input = inputTxt.getText().trim().toLowerCase();
-
-                            if (!input.equals("")) {
-
-                                resultsFrame.setCursor(new java.awt.Cursor(java.awt.Cursor.WAIT_CURSOR));
-                                inputTxt.setCursor(new java.awt.Cursor(java.awt.Cursor.WAIT_CURSOR));
-
-                                // find the peptide matches
-                                for (String spectrumFileName : spectrumFactory.getMgfFileNames()) {
-                                    for (String spectrumTitle : spectrumFactory.getSpectrumTitles(spectrumFileName)) {
-
-                                        String psmKey = Spectrum.getSpectrumKey(spectrumFileName, spectrumTitle);
-
-                                        if (resultsFrame.getIdentifications().matchExists(psmKey)) {
-
-                                            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> allAssumptions = resultsFrame.getIdentifications().getAssumptions(psmKey);
-
-                                            for (Integer advocateIndex : allAssumptions.keySet()) {
-
-                                                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> assumptionsMap = allAssumptions.get(advocateIndex);
-
-                                                if (assumptionsMap != null) {
-                                                    ArrayList<Double> scores = new ArrayList<Double>(assumptionsMap.keySet());
-
-                                                    if (advocateIndex == Advocate.direcTag.getIndex()) {
-                                                        Collections.sort(scores);
-                                                    } else {
-                                                        Collections.sort(scores, Collections.reverseOrder());
-                                                    }
-
-                                                    int rowCounter = 0;
-
-                                                    for (Double score : scores) {
-                                                        for (SpectrumIdentificationAssumption assumption : assumptionsMap.get(score)) {
-                                                            if (assumption instanceof TagAssumption) {
-                                                                TagAssumption tagAssumption = (TagAssumption) assumption;
-                                                                String peptideSequence = tagAssumption.getTag().asSequence().toLowerCase();
-                                                                if (peptideSequence.lastIndexOf(input) != -1) {
-                                                                    possibilities.add(spectrumFileName + SEPARATOR + spectrumTitle + SEPARATOR + rowCounter);
-                                                                }
-                                                                rowCounter++;
-                                                            } else if (assumption instanceof PeptideAssumption) {
-                                                                PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
-                                                                String peptideSequence = peptideAssumption.getPeptide().getSequence().toLowerCase();
-                                                                if (peptideSequence.lastIndexOf(input) != -1) {
-                                                                    possibilities.add(spectrumFileName + SEPARATOR + spectrumTitle + SEPARATOR + rowCounter);
-                                                                }
-                                                                rowCounter++;
-                                                            }
-                                                        }
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
+        if (!inputTxt.getText().equalsIgnoreCase(welcomeText)) {
+            inputTxt.setForeground(Color.black);
+        } else {
+            inputTxt.setForeground(new Color(204, 204, 204));
+        }
 
-                                if (possibilities.size() > 0) {
-
-                                    if (possibilities.size() > 1) {
-                                        previousButton.setEnabled(true);
-                                        nextButton.setEnabled(true);
-                                    } else { // possibilities.size() == 1
-                                        previousButton.setEnabled(false);
-                                        nextButton.setEnabled(false);
-                                    }
-
-                                    updateSelection();
-                                } else {
-                                    previousButton.setEnabled(false);
-                                    nextButton.setEnabled(false);
-
-                                    if (!input.equalsIgnoreCase(welcomeText)) {
-                                        indexLabel.setText("(no matches)");
-                                    } else {
-                                        indexLabel.setText("");
-                                    }
-                                }
+        final String input = inputTxt.getText().trim();
 
-                                resultsFrame.setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
-                                inputTxt.setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
-                                inputTxt.requestFocus();
-
-                            } else {
-                                indexLabel.setText("");
-                                previousButton.setEnabled(false);
-                                nextButton.setEnabled(false);
-                                inputTxt.setText(welcomeText);
-                                inputTxt.selectAll();
-                                inputTxt.requestFocus();
-                            }
-                        }
+        if (input.equals("")) {
+            resultsFrame.setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
+            inputTxt.setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
+            possibilities = new long[0];
+            currentSelection = 0;
+            indexLabel.setText("");
+            previousButton.setEnabled(false);
+            nextButton.setEnabled(false);
+            inputTxt.setText(welcomeText);
+            inputTxt.selectAll();
+            inputTxt.requestFocus();
+            return;
+        }
 
-                        // gui updated, reset the counter
-                        keyPressedCounter = 0;
-                    } else {
-                        // gui not updated, decrease the counter
-                        keyPressedCounter--;
+        final ResultSearchIndex searchIndex = resultsFrame.getResultSearchIndex();
+
+        if (searchIndex == null || input.equalsIgnoreCase(welcomeText)) {
+            resultsFrame.setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
+            inputTxt.setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
+            return;
+        }
+
+        resultsFrame.setCursor(new java.awt.Cursor(java.awt.Cursor.WAIT_CURSOR));
+        inputTxt.setCursor(new java.awt.Cursor(java.awt.Cursor.WAIT_CURSOR));
+
+        searchFuture = resultsFrame.getTaskScheduler().submit(SEARCH_TASK, TaskScheduler.Priority.interactive, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final long[] hits = searchIndex.search(input);
+                    if (hits != null && !TaskScheduler.isCanceled()) {
+                        SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                if (request == searchRequest) {
+                                    searchFuture = null;
+                                    displaySearchResults(searchIndex, hits, input);
+                                }
+                            }
+                        });
                     }
                 } catch (Exception e) {
                     resultsFrame.catchException(e);
                 }
             }
-        }.start();
-    }//GEN-LAST:event_inputTxtKeyReleased
+        });
+    }
+
+    /**
+     * Displays the results of a search.
+     *
+     * @param searchIndex the index which provided the hits
+     * @param hits the hits
+     * @param input the query
+     */
+    private void displaySearchResults(ResultSearchIndex searchIndex, long[] hits, String input) {
+
+        possibilitiesIndex = searchIndex;
+        possibilities = hits;
+        currentSelection = 0;
+
+        if (possibilities.length > 0) {
+
+            if (possibilities.length > 1) {
+                previousButton.setEnabled(true);
+                nextButton.setEnabled(true);
+            } else { // possibilities.length == 1
+                previousButton.setEnabled(false);
+                nextButton.setEnabled(false);
+            }
+
+            updateSelection();
+        } else {
+            previousButton.setEnabled(false);
+            nextButton.setEnabled(false);
+
+            if (!input.equalsIgnoreCase(welcomeText)) {
+                indexLabel.setText("(no matches)");
+            } else {
+                indexLabel.setText("");
+            }
+        }
+
+        resultsFrame.setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
+        inputTxt.setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
+        inputTxt.requestFocus();
+    }
 
     /**
      * Display the previous match in the list.
@@ -365,7 +359,7 @@ public class FindPanel extends javax.swing.JPanel {
      */
     private void previousButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_previousButtonActionPerformed
         if (currentSelection == 0) {
-            currentSelection = possibilities.size() - 1;
+            currentSelection = possibilities.length - 1;
         } else {
             currentSelection = currentSelection - 1;
         }
@@ -378,7 +372,7 @@ public class FindPanel extends javax.swing.JPanel {
      * @param evt
      */
     private void nextButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_nextButtonActionPerformed
-        if (currentSelection == possibilities.size() - 1) {
+        if (currentSelection == possibilities.length - 1) {
             currentSelection = 0;
         } else {
             currentSelection = currentSelection + 1;
@@ -450,7 +444,7 @@ public class FindPanel extends javax.swing.JPanel {
         inputTxt.setEnabled(enabled);
         indexLabel.setEnabled(enabled);
 
-        if (possibilities.size() > 0 && enabled) {
+        if (possibilities.length > 0 && enabled) {
             previousButton.setEnabled(true);
             nextButton.setEnabled(true);
         } else {
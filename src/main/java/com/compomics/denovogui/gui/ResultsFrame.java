@@ -1,10 +1,26 @@
 package com.compomics.denovogui.gui;
 
 import com.compomics.denovogui.DeNovoGUIWrapper;
+import com.compomics.denovogui.gui.panels.StatisticsPanel;
+import com.compomics.denovogui.gui.qc.QcStatistics;
 import com.compomics.denovogui.gui.tablemodels.AssumptionsTableModel;
 import com.compomics.denovogui.gui.tablemodels.SpectrumTableModel;
+import com.compomics.denovogui.io.BlastQueryExporter;
+import com.compomics.denovogui.io.ColumnarExporter;
+import com.compomics.denovogui.io.CompressedFileHandler;
 import com.compomics.denovogui.io.ExportType;
+import com.compomics.denovogui.io.SpectrumClusters;
+import com.compomics.denovogui.io.SpectrumColumnCache;
 import com.compomics.denovogui.io.TextExporter;
+import com.compomics.denovogui.mapping.FastaSequenceIndex;
+import com.compomics.denovogui.mapping.ProteinMappingHandler;
+import com.compomics.denovogui.results.DeNovoResultStore;
+import com.compomics.denovogui.results.ResultSearchIndex;
+import com.compomics.denovogui.results.SessionSnapshot;
+import com.compomics.denovogui.results.SpectrumScoreOrder;
+import com.compomics.denovogui.results.SpectrumSummaryIndex;
+import com.compomics.denovogui.util.MassDeltaIndex;
+import com.compomics.denovogui.util.MemoryGovernor;
 import com.compomics.util.Util;
 import com.compomics.util.db.DerbyUtil;
 import com.compomics.util.db.ObjectsCache;
@@ -13,7 +29,6 @@ import com.compomics.util.exceptions.exception_handlers.FrameExceptionHandler;
 import com.compomics.util.experiment.MsExperiment;
 import com.compomics.util.experiment.ProteomicAnalysis;
 import com.compomics.util.experiment.SampleAnalysisSet;
-import com.compomics.util.experiment.biology.AminoAcid;
 import com.compomics.util.experiment.biology.AminoAcidPattern;
 import com.compomics.util.experiment.biology.AminoAcidSequence;
 import com.compomics.util.experiment.biology.Ion;
@@ -39,12 +54,9 @@ import com.compomics.util.experiment.identification.identifications.Ms2Identific
 import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
-import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
-import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTree;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.TagSpectrumAnnotator;
 import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
 import com.compomics.util.experiment.identification.amino_acid_tags.TagComponent;
-import com.compomics.util.experiment.identification.amino_acid_tags.matchers.TagMatcher;
 import com.compomics.util.experiment.biology.MassGap;
 import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
 import com.compomics.util.experiment.io.identifications.IdfileReader;
@@ -66,12 +78,10 @@ import com.compomics.util.experiment.identification.spectrum_annotation.Annotati
 import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapperType;
-import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.preferences.PeptideVariantsPreferences;
-import com.compomics.util.preferences.UtilitiesUserPreferences;
 import java.awt.Color;
 import java.awt.Component;
 import static java.awt.Frame.MAXIMIZED_BOTH;
@@ -81,19 +91,34 @@ import java.awt.Image;
 import java.awt.Toolkit;
 import java.awt.event.MouseEvent;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import javax.swing.Box;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.ImageIcon;
 import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JDialog;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
@@ -173,6 +198,11 @@ public class ResultsFrame extends javax.swing.JFrame {
      * The name of the folder used for caching.
      */
     private static String CACHE_DIRECTORY_NAME = "matches";
+    /**
+     * The name of the folder used for the FASTA indexes when the folder of
+     * the FASTA file is read only.
+     */
+    private static final String FASTA_INDEX_DIRECTORY_NAME = "fasta_indexes";
     /**
      * The parent directory of the folder used for caching.
      */
@@ -181,6 +211,86 @@ public class ResultsFrame extends javax.swing.JFrame {
      * De novo identification.
      */
     private Identification identification;
+    /**
+     * Columnar store of the de novo results.
+     */
+    private DeNovoResultStore resultStore;
+    /**
+     * True if the protein mapping added peptides to the identification. These
+     * peptides are not in the result store.
+     */
+    private boolean peptidesMapped = false;
+    /**
+     * The peptide mapper used to map the tags, reused by the next mappings.
+     */
+    private PeptideMapper peptideMapper = null;
+    /**
+     * The key of the peptide mapper: the FASTA file, the sequence matching
+     * preferences and the modifications it was created for.
+     */
+    private String peptideMapperKey = null;
+    /**
+     * The quality control statistics of the best matches.
+     */
+    private QcStatistics qcStatistics;
+    /**
+     * The summary of the de novo results per spectrum.
+     */
+    private SpectrumSummaryIndex spectrumSummaryIndex;
+    /**
+     * The search index of the de novo results.
+     */
+    private ResultSearchIndex resultSearchIndex;
+    /**
+     * The spectrum files indexed by name.
+     */
+    private HashMap<String, File> spectrumFiles = new HashMap<String, File>();
+    /**
+     * The precursor and peak count columns of the spectrum files indexed by
+     * file name.
+     */
+    private HashMap<String, SpectrumColumnCache> spectrumColumnCaches = new HashMap<String, SpectrumColumnCache>();
+    /**
+     * The permutations ordering the spectra by score indexed by file name.
+     */
+    private HashMap<String, int[]> spectrumScoreOrders = new HashMap<String, int[]>();
+    /**
+     * The name of the file used to spill the result store.
+     */
+    private static final String RESULT_STORE_FILE_NAME = "results.store";
+    /**
+     * The session snapshot the results were loaded from, null if the results
+     * were imported from the result files.
+     */
+    private SessionSnapshot sessionSnapshot = null;
+    /**
+     * The number of spectrum matches of the session snapshot added to the
+     * identification. The matches are read from the snapshot until they are
+     * all in the identification.
+     */
+    private volatile int nSnapshotMatchesLoaded = 0;
+    /**
+     * True if the session snapshot was found corrupted and deleted.
+     */
+    private boolean snapshotDiscarded = false;
+    /**
+     * The result files of the project.
+     */
+    private ArrayList<File> projectResultFiles = null;
+    /**
+     * The key of the task writing the session snapshot.
+     */
+    private static final String SNAPSHOT_TASK = "snapshot";
+    /**
+     * The maximal time to wait for the background tasks to stop when closing
+     * the results, in seconds.
+     */
+    private static final long SHUTDOWN_TIMEOUT = 60;
+    /**
+     * The number of spectrum matches added at once to the identification
+     * when loading a session snapshot.
+     */
+    private static final int SNAPSHOT_BATCH_SIZE = 1000;
     /**
      * The color used for the sparkline bar chart plots.
      */
@@ -257,6 +367,10 @@ public class ResultsFrame extends javax.swing.JFrame {
      * The object cache used for the identification.
      */
     private ObjectsCache objectsCache = new ObjectsCache();
+    /**
+     * The memory governor sharing the memory between the caches.
+     */
+    private MemoryGovernor memoryGovernor = new MemoryGovernor(objectsCache);
     /**
      * The number of advocate types loaded.
      */
@@ -265,6 +379,10 @@ public class ResultsFrame extends javax.swing.JFrame {
      * The export settings dialog.
      */
     private ExportSettingsDialog exportSettingsDialog;
+    /**
+     * The number of batches to split the BLAST queries in.
+     */
+    private int blastQueryBatches = 1;
     /**
      * Exception handler.
      */
@@ -277,6 +395,62 @@ public class ResultsFrame extends javax.swing.JFrame {
      * The spectrum annotator to use for peptides.
      */
     private PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+    /**
+     * Cache of the spectrum annotations.
+     */
+    private final SpectrumAnnotationCache annotationCache = new SpectrumAnnotationCache(SpectrumAnnotationCache.DEFAULT_SIZE);
+    /**
+     * The executor loading and annotating the spectra in the background. A
+     * single thread is used so that the spectrum annotators are never shared.
+     */
+    private final ExecutorService annotationExecutor = Executors.newFixedThreadPool(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SpectrumAnnotation");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    /**
+     * The annotation of the spectrum requested last.
+     */
+    private Future<?> annotationFuture = null;
+    /**
+     * The number of the spectrum requested last. The spectra annotated for an
+     * older request are not displayed.
+     */
+    private volatile int annotationRequest = 0;
+    /**
+     * The scheduler of the background tasks.
+     */
+    private final TaskScheduler taskScheduler = new TaskScheduler("ResultsFrame", TaskScheduler.DEFAULT_INTERACTIVE_THREADS);
+    /**
+     * The key of the tasks updating the results displayed.
+     */
+    private static final String DISPLAY_TASK = "display";
+    /**
+     * The mass delta index of the current modification settings.
+     */
+    private volatile MassDeltaIndex massDeltaIndex = null;
+    /**
+     * The number of rows prefetched before and after the selected spectrum.
+     */
+    private static final int PREFETCH_ROWS = 3;
+    /**
+     * The maximal number of spectra for which the assumptions are kept in
+     * cache.
+     */
+    private static final int ASSUMPTIONS_CACHE_SIZE = 50;
+    /**
+     * The sorted assumptions of the spectra recently displayed or prefetched
+     * in access order, indexed by spectrum key.
+     */
+    private final LinkedHashMap<String, ArrayList<SpectrumIdentificationAssumption>> assumptionsCache = new LinkedHashMap<String, ArrayList<SpectrumIdentificationAssumption>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ArrayList<SpectrumIdentificationAssumption>> eldest) {
+            return size() > ASSUMPTIONS_CACHE_SIZE;
+        }
+    };
 
     /**
      * Creates a new ResultsPanel.
@@ -323,6 +497,7 @@ public class ResultsFrame extends javax.swing.JFrame {
         int cpt = 0;
         for (File tempFile : spectrumFileNames) {
             filesArray[cpt++] = tempFile.getName();
+            spectrumFiles.put(tempFile.getName(), tempFile);
         }
         spectrumFileComboBox.setModel(new DefaultComboBoxModel(filesArray));
 
@@ -642,8 +817,11 @@ public class ResultsFrame extends javax.swing.JFrame {
         exportTagMatchesMenuItem = new javax.swing.JMenuItem();
         exportPeptideMatchesMenuItem = new javax.swing.JMenuItem();
         exportBlastMatchesMenuItem = new javax.swing.JMenuItem();
+        exportColumnarMenuItem = new javax.swing.JMenuItem();
+        exportBlastQueriesMenuItem = new javax.swing.JMenuItem();
         viewMenu = new javax.swing.JMenu();
         fixedPtmsCheckBoxMenuItem = new javax.swing.JCheckBoxMenuItem();
+        statisticsMenuItem = new javax.swing.JMenuItem();
         helpMenu = new javax.swing.JMenu();
         helpMainMenuItem = new javax.swing.JMenuItem();
         jSeparator17 = new javax.swing.JPopupMenu.Separator();
@@ -1190,6 +1368,26 @@ public class ResultsFrame extends javax.swing.JFrame {
         });
         exportMenu.add(exportBlastMatchesMenuItem);
 
+        exportColumnarMenuItem.setMnemonic('C');
+        exportColumnarMenuItem.setText("Columnar (Binary)");
+        exportColumnarMenuItem.setToolTipText("Export the matches in a compressed binary columnar format");
+        exportColumnarMenuItem.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                exportColumnarMenuItemActionPerformed(evt);
+            }
+        });
+        exportMenu.add(exportColumnarMenuItem);
+
+        exportBlastQueriesMenuItem.setMnemonic('Q');
+        exportBlastQueriesMenuItem.setText("BLAST Queries");
+        exportBlastQueriesMenuItem.setToolTipText("Export the unique sequences as BLAST queries");
+        exportBlastQueriesMenuItem.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                exportBlastQueriesMenuItemActionPerformed(evt);
+            }
+        });
+        exportMenu.add(exportBlastQueriesMenuItem);
+
         menuBar.add(exportMenu);
 
         viewMenu.setMnemonic('V');
@@ -1204,6 +1402,16 @@ public class ResultsFrame extends javax.swing.JFrame {
         });
         viewMenu.add(fixedPtmsCheckBoxMenuItem);
 
+        statisticsMenuItem.setMnemonic('S');
+        statisticsMenuItem.setText("Statistics");
+        statisticsMenuItem.setToolTipText("Show the quality control statistics of the best matches");
+        statisticsMenuItem.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                statisticsMenuItemActionPerformed(evt);
+            }
+        });
+        viewMenu.add(statisticsMenuItem);
+
         menuBar.add(viewMenu);
 
         helpMenu.setMnemonic('H');
@@ -1267,9 +1475,44 @@ public class ResultsFrame extends javax.swing.JFrame {
      * @param evt
      */
     private void exitMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_exitMenuItemActionPerformed
-        closeConnectionsAndEmptyTempFolder();
-        deNovoGUI.setVisible(true);
-        dispose();
+
+        // the tasks are canceled and awaited before closing the files and the database they use
+        progressDialog = new ProgressDialogX(this,
+                Toolkit.getDefaultToolkit().getImage(getClass().getResource("/icons/denovogui.png")),
+                Toolkit.getDefaultToolkit().getImage(getClass().getResource("/icons/denovogui_orange.png")),
+                true);
+        progressDialog.setPrimaryProgressCounterIndeterminate(true);
+        progressDialog.setTitle("Closing. Please Wait...");
+        final ProgressDialogX closingDialog = progressDialog;
+
+        taskScheduler.showProgressDialog(closingDialog);
+        taskScheduler.shutdown();
+        annotationRequest++;
+        annotationExecutor.shutdown();
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long deadline = System.currentTimeMillis() + 1000 * SHUTDOWN_TIMEOUT;
+                    if (!taskScheduler.awaitTermination(deadline - System.currentTimeMillis())
+                            || !annotationExecutor.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                        closingDialog.appendReport("Background tasks still running after " + SHUTDOWN_TIMEOUT + " seconds, closing the results anyway.", true, true);
+                    }
+                } catch (InterruptedException e) {
+                    closingDialog.appendReport("Interrupted while waiting for the background tasks, closing the results anyway.", true, true);
+                }
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeConnectionsAndEmptyTempFolder();
+                        closingDialog.setRunFinished();
+                        deNovoGUI.setVisible(true);
+                        dispose();
+                    }
+                });
+            }
+        }, "ResultsFrameClosing").start();
     }//GEN-LAST:event_exitMenuItemActionPerformed
 
     /**
@@ -1593,23 +1836,15 @@ public class ResultsFrame extends javax.swing.JFrame {
         progressDialog.setPrimaryProgressCounterIndeterminate(true);
         progressDialog.setTitle("Sorting Spectrum Table. Please Wait...");
 
-        new Thread(new Runnable() {
-            public void run() {
-                try {
-                    progressDialog.setVisible(true);
-                } catch (IndexOutOfBoundsException e) {
-                    // ignore
-                }
-            }
-        }, "ProgressDialog").start();
+        taskScheduler.showProgressDialog(progressDialog);
 
-        new Thread("DisplayThread") {
+        taskScheduler.submit(DISPLAY_TASK, TaskScheduler.Priority.interactive, new Runnable() {
             @Override
             public void run() {
                 displayResults();
                 progressDialog.setRunFinished();
             }
-        }.start();
+        }, progressDialog);
     }//GEN-LAST:event_spectrumFileComboBoxActionPerformed
 
     /**
@@ -1656,10 +1891,11 @@ public class ResultsFrame extends javax.swing.JFrame {
         exportSettingsDialog = new ExportSettingsDialog(this, true);
 
         if (!exportSettingsDialog.canceled()) {
-            File selectedFile = Util.getUserSelectedFile(this, ".txt", "Text file (.txt)", "Select File", deNovoGUI.getLastSelectedFolder().getLastSelectedFolder(), "tag_matches.txt", false);
+            File selectedFile = getTextExportFile("tag_matches");
             if (selectedFile != null) {
                 deNovoGUI.getLastSelectedFolder().setLastSelectedFolder(selectedFile.getParentFile().getAbsolutePath());
-                exportIdentification(selectedFile, ExportType.tags, exportSettingsDialog.getThreshold(), exportSettingsDialog.isGreaterThenThreshold(), exportSettingsDialog.getNumberOfPeptides());
+                exportIdentification(selectedFile, ExportType.tags, exportSettingsDialog.getThreshold(), exportSettingsDialog.isGreaterThenThreshold(), exportSettingsDialog.getNumberOfPeptides(),
+                        exportSettingsDialog.getAdvocates(), exportSettingsDialog.getCharges());
             }
         }
     }//GEN-LAST:event_exportTagMatchesMenuItemActionPerformed
@@ -1688,6 +1924,76 @@ public class ResultsFrame extends javax.swing.JFrame {
         }
     }//GEN-LAST:event_fixedPtmsCheckBoxMenuItemActionPerformed
 
+    /**
+     * Show the quality control statistics of the best matches.
+     *
+     * @param evt
+     */
+    private void statisticsMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_statisticsMenuItemActionPerformed
+
+        if (qcStatistics == null) {
+            return;
+        }
+
+        if (qcStatistics.hasPrecursorMetrics()) {
+            showStatistics();
+            return;
+        }
+
+        // the precursor metrics are not computed when importing the results as reading all precursors is slow
+        progressDialog = new ProgressDialogX(this,
+                Toolkit.getDefaultToolkit().getImage(getClass().getResource("/icons/denovogui.png")),
+                Toolkit.getDefaultToolkit().getImage(getClass().getResource("/icons/denovogui_orange.png")),
+                true);
+        progressDialog.setPrimaryProgressCounterIndeterminate(true);
+        progressDialog.setTitle("Computing Precursor Statistics. Please Wait...");
+
+        taskScheduler.showProgressDialog(progressDialog);
+
+        final QcStatistics statistics = qcStatistics;
+
+        taskScheduler.submit(null, TaskScheduler.Priority.bulk, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SessionSnapshot snapshot = getMatchSnapshot();
+                    if (snapshot != null) {
+                        statistics.computePrecursorMetrics(snapshot, progressDialog);
+                    } else {
+                        statistics.computePrecursorMetrics(identification, progressDialog);
+                    }
+                    boolean cancelled = progressDialog.isRunCanceled();
+                    progressDialog.setRunFinished();
+                    if (!cancelled) {
+                        SwingUtilities.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                showStatistics();
+                            }
+                        });
+                    }
+                } catch (Exception e) {
+                    progressDialog.setRunFinished();
+                    catchException(e);
+                }
+            }
+        }, progressDialog);
+    }//GEN-LAST:event_statisticsMenuItemActionPerformed
+
+    /**
+     * Displays the quality control statistics of the best matches in a new
+     * dialog.
+     */
+    private void showStatistics() {
+        StatisticsPanel statisticsPanel = new StatisticsPanel(deNovoGUI);
+        statisticsPanel.setStatistics(qcStatistics);
+        JDialog statisticsDialog = new JDialog(this, "De Novo Statistics", false);
+        statisticsDialog.getContentPane().add(statisticsPanel);
+        statisticsDialog.setSize(1000, 750);
+        statisticsDialog.setLocationRelativeTo(this);
+        statisticsDialog.setVisible(true);
+    }
+
     /**
      * Export the matches in a BLAST supported format.
      *
@@ -1698,14 +2004,88 @@ public class ResultsFrame extends javax.swing.JFrame {
         exportSettingsDialog = new ExportSettingsDialog(this, true);
 
         if (!exportSettingsDialog.canceled()) {
-            File selectedFile = Util.getUserSelectedFile(this, ".txt", "Text file (.txt)", "Select File", deNovoGUI.getLastSelectedFolder().getLastSelectedFolder(), "blast_output.txt", false);
+            File selectedFile = getTextExportFile("blast_output");
             if (selectedFile != null) {
                 deNovoGUI.getLastSelectedFolder().setLastSelectedFolder(selectedFile.getParentFile().getAbsolutePath());
-                exportIdentification(selectedFile, ExportType.blast, exportSettingsDialog.getThreshold(), exportSettingsDialog.isGreaterThenThreshold(), exportSettingsDialog.getNumberOfPeptides());
+                exportIdentification(selectedFile, ExportType.blast, exportSettingsDialog.getThreshold(), exportSettingsDialog.isGreaterThenThreshold(), exportSettingsDialog.getNumberOfPeptides(),
+                        exportSettingsDialog.getAdvocates(), exportSettingsDialog.getCharges());
             }
         }
     }//GEN-LAST:event_exportBlastMatchesMenuItemActionPerformed
 
+    /**
+     * Lets the user select the destination of a text export. The file is gzip
+     * compressed if selected in the export settings dialog.
+     *
+     * @param fileName the default file name without extension
+     *
+     * @return the selected file, null if none
+     */
+    private File getTextExportFile(String fileName) {
+        String extension = ".txt";
+        String description = "Text file (.txt)";
+        if (exportSettingsDialog.isCompressed()) {
+            extension += CompressedFileHandler.GZIP_EXTENSION;
+            description = "Compressed text file (.txt.gz)";
+        }
+        return Util.getUserSelectedFile(this, extension, description, "Select File", deNovoGUI.getLastSelectedFolder().getLastSelectedFolder(), fileName + extension, false);
+    }
+
+    /**
+     * Export the matches in the binary columnar format.
+     *
+     * @param evt
+     */
+    private void exportColumnarMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_exportColumnarMenuItemActionPerformed
+
+        exportSettingsDialog = new ExportSettingsDialog(this, true);
+
+        if (!exportSettingsDialog.canceled()) {
+            File selectedFile = Util.getUserSelectedFile(this, ColumnarExporter.EXTENSION, "DeNovoGUI columnar file (" + ColumnarExporter.EXTENSION + ")", "Select File", deNovoGUI.getLastSelectedFolder().getLastSelectedFolder(), "denovo_matches" + ColumnarExporter.EXTENSION, false);
+            if (selectedFile != null) {
+                deNovoGUI.getLastSelectedFolder().setLastSelectedFolder(selectedFile.getParentFile().getAbsolutePath());
+                exportIdentification(selectedFile, ExportType.columnar, exportSettingsDialog.getThreshold(), exportSettingsDialog.isGreaterThenThreshold(), exportSettingsDialog.getNumberOfPeptides(),
+                        exportSettingsDialog.getAdvocates(), exportSettingsDialog.getCharges());
+            }
+        }
+    }//GEN-LAST:event_exportColumnarMenuItemActionPerformed
+
+    /**
+     * Export the unique sequences as BLAST queries.
+     *
+     * @param evt
+     */
+    private void exportBlastQueriesMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_exportBlastQueriesMenuItemActionPerformed
+
+        exportSettingsDialog = new ExportSettingsDialog(this, true);
+
+        if (!exportSettingsDialog.canceled()) {
+
+            String input = JOptionPane.showInputDialog(this, "Number of query files:", blastQueryBatches);
+
+            if (input != null) {
+                try {
+                    blastQueryBatches = Integer.parseInt(input.trim());
+                    if (blastQueryBatches < 1) {
+                        throw new NumberFormatException();
+                    }
+                } catch (NumberFormatException e) {
+                    blastQueryBatches = 1;
+                    JOptionPane.showMessageDialog(this, "Please provide a positive number of query files.", "Input Error", JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
+
+                String extension = exportSettingsDialog.isCompressed() ? ".fasta" + CompressedFileHandler.GZIP_EXTENSION : ".fasta";
+                File selectedFile = Util.getUserSelectedFile(this, extension, "FASTA file (" + extension + ")", "Select File", deNovoGUI.getLastSelectedFolder().getLastSelectedFolder(), "denovo_queries" + extension, false);
+                if (selectedFile != null) {
+                    deNovoGUI.getLastSelectedFolder().setLastSelectedFolder(selectedFile.getParentFile().getAbsolutePath());
+                    exportIdentification(selectedFile, ExportType.blastQueries, exportSettingsDialog.getThreshold(), exportSettingsDialog.isGreaterThenThreshold(), exportSettingsDialog.getNumberOfPeptides(),
+                            exportSettingsDialog.getAdvocates(), exportSettingsDialog.getCharges());
+                }
+            }
+        }
+    }//GEN-LAST:event_exportBlastQueriesMenuItemActionPerformed
+
     /**
      * Open the spectrum annotation preferences dialog.
      *
@@ -1726,7 +2106,7 @@ public class ResultsFrame extends javax.swing.JFrame {
 
         if (!exportSettingsDialog.canceled()) {
 
-            final File selectedFile = Util.getUserSelectedFile(this, ".txt", "Text file (.txt)", "Select File", deNovoGUI.getLastSelectedFolder().getLastSelectedFolder(), "peptide_matches.txt", false);
+            final File selectedFile = getTextExportFile("peptide_matches");
 
             if (selectedFile != null) {
 
@@ -1751,17 +2131,9 @@ public class ResultsFrame extends javax.swing.JFrame {
                 progressDialog.setPrimaryProgressCounterIndeterminate(true);
                 progressDialog.setTitle("Loading Protein Mapping. Please Wait...");
 
-                new Thread(new Runnable() {
-                    public void run() {
-                        try {
-                            progressDialog.setVisible(true);
-                        } catch (IndexOutOfBoundsException e) {
-                            // ignore
-                        }
-                    }
-                }, "ProgressDialog").start();
+                taskScheduler.showProgressDialog(progressDialog);
 
-                new Thread("ExportPeptidesThread") {
+                taskScheduler.submit(null, TaskScheduler.Priority.bulk, new Runnable() {
                     @Override
                     public void run() {
 
@@ -1779,8 +2151,9 @@ public class ResultsFrame extends javax.swing.JFrame {
                                 } else {
                                     progressDialog.setTitle("Exporting Matches. Please Wait...");
                                     deNovoGUI.getLastSelectedFolder().setLastSelectedFolder(selectedFile.getParentFile().getAbsolutePath());
-                                    TextExporter.exportPeptides(selectedFile, identification, searchParameters, progressDialog,
-                                            exportSettingsDialog.getThreshold(), exportSettingsDialog.isGreaterThenThreshold(), exportSettingsDialog.getNumberOfPeptides());
+                                    TextExporter.exportPeptides(selectedFile, identification, getMatchSnapshot(), searchParameters, progressDialog,
+                                            exportSettingsDialog.getThreshold(), exportSettingsDialog.isGreaterThenThreshold(), exportSettingsDialog.getNumberOfPeptides(),
+                                            exportSettingsDialog.getAdvocates(), exportSettingsDialog.getCharges());
                                     if (!progressDialog.isRunCanceled()) {
                                         progressDialog.setRunFinished();
                                         JOptionPane.showMessageDialog(ResultsFrame.this, "Matches exported to " + selectedFile.getAbsolutePath() + ".", "File Saved", JOptionPane.INFORMATION_MESSAGE);
@@ -1809,7 +2182,7 @@ public class ResultsFrame extends javax.swing.JFrame {
                             progressDialog.setRunFinished();
                         }
                     }
-                }.start();
+                }, progressDialog);
             }
         }
     }//GEN-LAST:event_exportPeptideMatchesMenuItemActionPerformed
@@ -1871,6 +2244,8 @@ public class ResultsFrame extends javax.swing.JFrame {
     private javax.swing.JMenu editMenu;
     private javax.swing.JMenuItem exitMenuItem;
     private javax.swing.JMenuItem exportBlastMatchesMenuItem;
+    private javax.swing.JMenuItem exportBlastQueriesMenuItem;
+    private javax.swing.JMenuItem exportColumnarMenuItem;
     private javax.swing.JMenu exportGraphicsMenu;
     private javax.swing.JMenu exportMenu;
     private javax.swing.JMenuItem exportPeptideMatchesMenuItem;
@@ -1923,6 +2298,7 @@ public class ResultsFrame extends javax.swing.JFrame {
     private javax.swing.JMenu splitterMenu7;
     private javax.swing.JMenu splitterMenu8;
     private javax.swing.JMenu splitterMenu9;
+    private javax.swing.JMenuItem statisticsMenuItem;
     private javax.swing.JMenu viewMenu;
     private javax.swing.JCheckBoxMenuItem xIonCheckBoxMenuItem;
     private javax.swing.JCheckBoxMenuItem yIonCheckBoxMenuItem;
@@ -1974,43 +2350,40 @@ public class ResultsFrame extends javax.swing.JFrame {
         waitingHandler.resetSecondaryProgressCounter();
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
 
-        UtilitiesUserPreferences userPreferences = UtilitiesUserPreferences.loadUserPreferences();
-        int memoryPreference = userPreferences.getMemoryPreference();
-        int nSequences = sequenceFactory.getNSequences();
-        int cacheSizeInMb = nSequences * 112 / 1048576; // 112 is the size taken by one protein
-        if (!sequenceFactory.isDefaultReversed() || cacheSizeInMb < memoryPreference / 4) {
-            nSequences = sequenceFactory.getNSequences();
-            sequenceFactory.setDecoyInMemory(true);
-        } else {
-            nSequences = sequenceFactory.getNTargetSequences();
-            sequenceFactory.setDecoyInMemory(false);
-        }
-        long availableCachSize = 1048576l * memoryPreference / 112; // 112 is the size taken by one protein
-        availableCachSize *= 0.8;
-        if (availableCachSize > nSequences) {
-            availableCachSize = nSequences;
-        } else {
+        if (!memoryGovernor.setSequenceCache(sequenceFactory, waitingHandler)) {
             waitingHandler.appendReport("Warning: DeNovoGUI cannot load your FASTA file into memory. This will slow down the processing. "
                     + "Note that using large large databases also increases the number of false positives. "
                     + "Try to either (i) use a smaller database, (ii) increase the memory provided to DeNovoGUI, or (iii) improve the reading speed by using an SSD disc. "
                     + "(See also http://compomics.github.io/projects/compomics-utilities/wiki/proteininference.html.)", true, true);
-
         }
-        int cacheSize = (int) availableCachSize;
-        sequenceFactory.setnCache(cacheSize);
 
-        PeptideMapper peptideMapper;
-        try {
-            peptideMapper = sequenceFactory.getDefaultPeptideMapper(sequenceMatchingPreferences, searchParameters, PeptideVariantsPreferences.getNoVariantPreferences(), waitingHandler, exceptionHandler);
-        } catch (SQLException e) {
-            waitingHandler.appendReport("Database " + sequenceFactory.getCurrentFastaFile().getName() + " could not be accessed, make sure that the file is not used by another program.", true, true);
-            e.printStackTrace();
-            waitingHandler.setRunCanceled();
+        // the index is saved next to the FASTA file, or next to the cache folder, which is emptied when closing, if the FASTA folder is read only
+        File indexFallbackFolder = new File(getCacheDirectory(getJarFilePath()).getParentFile(), FASTA_INDEX_DIRECTORY_NAME);
+        FastaSequenceIndex sequenceIndex = FastaSequenceIndex.getIndex(sequenceFactory.getCurrentFastaFile(), indexFallbackFolder, deNovoGUI.getSequenceMatchingPreferences(), waitingHandler);
+        if (waitingHandler.isRunCanceled()) {
             return false;
         }
-        int treeKeyLength = 0;
-        if (sequenceMatchingPreferences.getPeptideMapperType() == PeptideMapperType.tree) {
-            treeKeyLength = ((ProteinTree) peptideMapper).getInitialTagSize();
+
+        // the peptide mapper is only created if tags need to be mapped, and then reused by the next mappings
+        final WaitingHandler finalWaitingHandler = waitingHandler;
+        final SequenceMatchingPreferences mapperSequenceMatchingPreferences = sequenceMatchingPreferences;
+        Callable<PeptideMapper> peptideMapperFactory = new Callable<PeptideMapper>() {
+            @Override
+            public PeptideMapper call() throws Exception {
+                try {
+                    return getPeptideMapper(mapperSequenceMatchingPreferences, finalWaitingHandler);
+                } catch (SQLException e) {
+                    finalWaitingHandler.appendReport("Database " + sequenceFactory.getCurrentFastaFile().getName() + " could not be accessed, make sure that the file is not used by another program.", true, true);
+                    e.printStackTrace();
+                    finalWaitingHandler.setRunCanceled();
+                    return null;
+                }
+            }
+        };
+
+        // the mapping modifies the matches in the identification, the matches of a session snapshot are put there first
+        if (!loadSnapshotMatches(waitingHandler)) {
+            return false;
         }
 
         waitingHandler.setWaitingText("Mapping Tags (Step 2 of 2). Please Wait...");
@@ -2018,115 +2391,37 @@ public class ResultsFrame extends javax.swing.JFrame {
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         int total = identification.getSpectrumIdentificationSize();
         waitingHandler.setMaxSecondaryProgressCounter(total);
-        ((SpectrumTableModel) querySpectraTable.getModel()).setUpdate(false); // @TODO: remove when the objectDB is stable
-        TagMatcher tagMatcher = new TagMatcher(fixedModifications, variableModifications, deNovoGUI.getSequenceMatchingPreferences());
-
-        int progress = 0;
-        boolean peptideFound = false;
-        for (String spectrumFile : identification.getOrderedSpectrumFileNames()) {
-
-            PsmIterator psmIterator = identification.getPsmIterator(spectrumFile, true, waitingHandler);
-            SpectrumMatch spectrumMatch;
-
-            while ((spectrumMatch = psmIterator.next()) != null) {
-
-                String spectrumKey = spectrumMatch.getKey();
-                HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> allAssumptions = identification.getAssumptions(spectrumKey);
-
-                for (Advocate advocate : DeNovoGUI.implementedAlgorithms) {
-
-                    int advocateIndex = advocate.getIndex();
-                    HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> assumptionsMap = allAssumptions.get(advocateIndex);
-
-                    if (assumptionsMap != null) {
-                        ArrayList<Double> scores = new ArrayList<Double>(assumptionsMap.keySet());
-                        if (advocate.getIndex() == Advocate.pepnovo.getIndex()
-                                || advocate.getIndex() == Advocate.pNovo.getIndex()
-                                || advocate.getIndex() == Advocate.novor.getIndex()) {
-                            Collections.sort(scores, Collections.reverseOrder());
-                        } else {
-                            Collections.sort(scores);
-                        }
-
-                        for (int i = 0; i < scores.size() && i < numberOfMatches; i++) {
-
-                            double score = scores.get(i);
-                            ArrayList<SpectrumIdentificationAssumption> tempAssumptions = assumptionsMap.get(score);
-                            ArrayList<SpectrumIdentificationAssumption> denovoAssumptions = new ArrayList<SpectrumIdentificationAssumption>(tempAssumptions);
-
-                            for (SpectrumIdentificationAssumption assumption : denovoAssumptions) {
-
-                                boolean passesThreshold;
-
-                                if (greaterThan) {
-                                    passesThreshold = assumption.getScore() >= threshold;
-                                } else { // less than
-                                    passesThreshold = assumption.getScore() <= threshold;
-                                }
-
-                                if (passesThreshold) {
-                                    if (assumption instanceof TagAssumption) {
-                                        TagAssumption tagAssumption = (TagAssumption) assumption;
-                                        int longestAminoAcidSequence = tagAssumption.getTag().getLongestAminoAcidSequence().length();
-                                        if (longestAminoAcidSequence >= treeKeyLength) {
-                                            ArrayList<PeptideProteinMapping> proteinMapping = peptideMapper.getProteinMapping(
-                                                    tagAssumption.getTag(), tagMatcher, deNovoGUI.getSequenceMatchingPreferences(), searchParameters.getFragmentIonAccuracy());
-                                            for (Peptide peptide : PeptideProteinMapping.getPeptides(proteinMapping, deNovoGUI.getSequenceMatchingPreferences())) {
-                                                if (!peptideFound) {
-                                                    peptideFound = true;
-                                                }
-                                                PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, tagAssumption.getRank(),
-                                                        advocateIndex, assumption.getIdentificationCharge(), score, assumption.getIdentificationFile());
-                                                peptideAssumption.addUrParam(tagAssumption);
-                                                tempAssumptions.add(peptideAssumption);
-                                            }
-                                        }
-                                    } else if (assumption instanceof PeptideAssumption) {
-                                        if (!peptideFound) {
-                                            peptideFound = true;
-                                        }
-                                        PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
-                                        ArrayList<PeptideProteinMapping> proteinMapping = peptideMapper.getProteinMapping(
-                                                peptideAssumption.getPeptide().getSequence(), deNovoGUI.getSequenceMatchingPreferences());
-                                        HashSet<String> proteins = new HashSet<String>(proteinMapping.size());
-                                        for (PeptideProteinMapping peptideProteinMapping : proteinMapping) {
-                                            proteins.add(peptideProteinMapping.getProteinAccession());
-                                        }
-                                        ArrayList<String> sortedProteinList = new ArrayList<String>(proteins);
-                                        Collections.sort(sortedProteinList);
-                                        peptideAssumption.getPeptide().setParentProteins(sortedProteinList);
-                                    } else {
-                                        throw new UnsupportedOperationException("Peptide mapping not supported for assumption of type " + assumption.getClass() + ".");
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
 
-                identification.updateAssumptions(spectrumKey, allAssumptions);
+        // a snapshot still being written is abandoned, the snapshot is written again with the mapped peptides once the mapping is complete
+        taskScheduler.cancel(SNAPSHOT_TASK);
 
-                // free memory if needed
-                if (memoryUsed() > 0.8 && !objectsCache.isEmpty()) {
-                    objectsCache.reduceMemoryConsumption(0.5, null);
-                }
-                waitingHandler.increaseSecondaryProgressCounter();
-                waitingHandler.setWaitingText("Mapping Tags (Step 2 of 2, Spectrum " + ++progress + " of " + total + "). Please Wait...");
-
-                if (waitingHandler.isRunCanceled()) {
-                    break;
-                }
-            }
-
-            if (waitingHandler.isRunCanceled()) {
-                break;
+        ((SpectrumTableModel) querySpectraTable.getModel()).setUpdate(false); // @TODO: remove when the objectDB is stable
+        ProteinMappingHandler proteinMappingHandler = new ProteinMappingHandler(peptideMapperFactory, sequenceIndex, fixedModifications, variableModifications,
+                deNovoGUI.getSequenceMatchingPreferences(), searchParameters.getFragmentIonAccuracy(), Runtime.getRuntime().availableProcessors());
+        boolean peptideFound;
+        peptidesMapped = true;
+        try {
+            peptideFound = proteinMappingHandler.mapAssumptions(identification, threshold, greaterThan, numberOfMatches, memoryGovernor, resultSearchIndex, waitingHandler);
+        } finally {
+            // the peptides added by the mapping are searchable and displayed even if the mapping was canceled
+            if (resultSearchIndex != null) {
+                resultSearchIndex.commitMappedAssumptions();
             }
+            clearAssumptionsCache();
+        }
+        String identificationCacheReport = memoryGovernor.getIdentificationCacheReport();
+        if (identificationCacheReport != null) {
+            waitingHandler.appendReport(identificationCacheReport, true, true);
         }
 
         if (waitingHandler.isRunCanceled()) {
             return false;
         }
 
+        if (projectResultFiles != null) {
+            saveSessionSnapshot(projectResultFiles, identification, true);
+        }
+
         ((SpectrumTableModel) querySpectraTable.getModel()).setUpdate(true); //@TODO: remove when the objectDB is stable
         waitingHandler.setRunFinished();
 
@@ -2134,15 +2429,50 @@ public class ResultsFrame extends javax.swing.JFrame {
     }
 
     /**
-     * Returns the share of memory being used.
+     * Returns the peptide mapper of the FASTA file loaded in the sequence
+     * factory. The mapper is created by the first mapping and reused by the
+     * next ones as long as the FASTA file, the sequence matching preferences
+     * and the modifications of the search parameters are unchanged.
+     *
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param waitingHandler a waiting handler
      *
-     * @return the share of memory being used
+     * @return the peptide mapper
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a protein
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the back-end database
      */
-    public double memoryUsed() {
-        long usedMemory = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
-        long givenMemory = Runtime.getRuntime().maxMemory();
-        double ratio = usedMemory / givenMemory;
-        return ratio;
+    private synchronized PeptideMapper getPeptideMapper(SequenceMatchingPreferences sequenceMatchingPreferences, WaitingHandler waitingHandler)
+            throws IOException, ClassNotFoundException, InterruptedException, SQLException {
+
+        File fastaFile = sequenceFactory.getCurrentFastaFile();
+        String key = fastaFile.getAbsolutePath() + "_" + fastaFile.length() + "_" + fastaFile.lastModified() + "_"
+                + sequenceMatchingPreferences.getPeptideMapperType() + "_" + sequenceMatchingPreferences.getSequenceMatchingType() + "_"
+                + sequenceMatchingPreferences.getLimitX() + "_" + searchParameters.getPtmSettings().getAllModifications();
+
+        if (peptideMapper == null || !key.equals(peptideMapperKey)) {
+
+            // release the previous mapper before creating the new one
+            peptideMapper = null;
+            peptideMapperKey = null;
+
+            PeptideMapper newPeptideMapper = sequenceFactory.getDefaultPeptideMapper(sequenceMatchingPreferences, searchParameters, PeptideVariantsPreferences.getNoVariantPreferences(), waitingHandler, exceptionHandler);
+
+            // a mapper interrupted by a cancellation is not reused
+            if (waitingHandler.isRunCanceled()) {
+                return newPeptideMapper;
+            }
+            peptideMapper = newPeptideMapper;
+            peptideMapperKey = key;
+        }
+
+        return peptideMapper;
     }
 
     /**
@@ -2170,9 +2500,13 @@ public class ResultsFrame extends javax.swing.JFrame {
      */
     private void displayResults() {
 
+        synchronized (assumptionsCache) {
+            assumptionsCache.clear();
+        }
+
         orderedSpectrumTitles = null;
         try {
-            orderedSpectrumTitles = orderTitlesByScore(progressDialog);
+            orderedSpectrumTitles = orderTitlesByScore();
         } catch (Exception e) {
             JOptionPane.showMessageDialog(ResultsFrame.this, "An error occurred while sorting the results.", "Out File Error", JOptionPane.WARNING_MESSAGE);
             e.printStackTrace();
@@ -2180,18 +2514,29 @@ public class ResultsFrame extends javax.swing.JFrame {
         progressDialog.setPrimaryProgressCounterIndeterminate(true);
         progressDialog.setTitle("Updating Display. Please Wait...");
 
-        TableModel tableModel = new SpectrumTableModel(getSelectedSpectrumFile(), identification, orderedSpectrumTitles);
+        SpectrumColumnCache spectrumColumnCache = null;
+        try {
+            spectrumColumnCache = getSpectrumColumnCache(getSelectedSpectrumFile(), progressDialog);
+        } catch (Exception e) {
+            catchException(e);
+        }
+        if (spectrumColumnCache == null) {
+            return;
+        }
+
+        TableModel tableModel = new SpectrumTableModel(getSelectedSpectrumFile(), spectrumSummaryIndex, spectrumColumnCache, orderedSpectrumTitles);
         querySpectraTable.setModel(tableModel);
         setSpectrumTableProperties();
 
         ((DefaultTableModel) querySpectraTable.getModel()).fireTableDataChanged();
 
-        if (identification.getSpectrumIdentification(getSelectedSpectrumFile()) == null) {
+        int nIdentifiedSpectra = getNIdentifiedSpectra(getSelectedSpectrumFile());
+        if (nIdentifiedSpectra == 0) {
             ((TitledBorder) querySpectraPanel.getBorder()).setTitle("Query Spectra (?/"
                     + spectrumFactory.getNSpectra(getSelectedSpectrumFile()) + ")");
         } else {
             ((TitledBorder) querySpectraPanel.getBorder()).setTitle("Query Spectra ("
-                    + identification.getSpectrumIdentification(getSelectedSpectrumFile()).size() + "/"
+                    + nIdentifiedSpectra + "/"
                     + spectrumFactory.getNSpectra(getSelectedSpectrumFile()) + ")");
         }
 
@@ -2210,83 +2555,64 @@ public class ResultsFrame extends javax.swing.JFrame {
         setIconImage(Toolkit.getDefaultToolkit().getImage(getClass().getResource("/icons/denovogui.png")));
 
         // the spectrum file and the results file do not match...
-        if (identification.getSpectrumIdentification(getSelectedSpectrumFile()) == null) {
+        if (nIdentifiedSpectra == 0) {
             JOptionPane.showMessageDialog(ResultsFrame.this, "No identifications for the selected spectrum file."
                     + "\nPlease check that you loaded the correct files.", "File Errors", JOptionPane.ERROR_MESSAGE);
         }
     }
 
+    /**
+     * Returns the precursor and peak count columns of the given spectrum file.
+     * The columns are loaded or extracted upon first call and cached.
+     *
+     * @param spectrumFileName the name of the spectrum file
+     * @param waitingHandler the waiting handler
+     *
+     * @return the precursor and peak count columns of the given spectrum file,
+     * null if canceled
+     *
+     * @throws IOException thrown if an error occurs while reading the spectra
+     * @throws MzMLUnmarshallerException thrown if an error occurs while
+     * reading the spectra
+     */
+    private SpectrumColumnCache getSpectrumColumnCache(String spectrumFileName, WaitingHandler waitingHandler) throws IOException, MzMLUnmarshallerException {
+        SpectrumColumnCache spectrumColumnCache = spectrumColumnCaches.get(spectrumFileName);
+        if (spectrumColumnCache == null) {
+            File spectrumFile = spectrumFiles.get(spectrumFileName);
+            if (spectrumFile == null) {
+                throw new IllegalArgumentException("Spectrum file " + spectrumFileName + " not found.");
+            }
+            spectrumColumnCache = SpectrumColumnCache.getCache(spectrumFile, waitingHandler, exceptionHandler);
+            if (spectrumColumnCache != null) {
+                spectrumColumnCaches.put(spectrumFileName, spectrumColumnCache);
+            }
+        }
+        return spectrumColumnCache;
+    }
+
     /**
      * Returns a list of the spectrum titles of the selected mgf file ordered by
-     * max score.
+     * max score. The ordering is computed once per file and cached.
      *
      * @return a list of the spectrum titles of the selected mgf file ordered by
      * max score
-     * @throws SQLException
-     * @throws IOException
-     * @throws ClassNotFoundException
      */
-    private ArrayList<String> orderTitlesByScore(ProgressDialogX progressDialog) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+    private ArrayList<String> orderTitlesByScore() {
 
         String spectrumFile = getSelectedSpectrumFile();
-        progressDialog.setPrimaryProgressCounterIndeterminate(false);
-        progressDialog.resetPrimaryProgressCounter();
-        progressDialog.setMaxPrimaryProgressCounter(spectrumFactory.getNSpectra(spectrumFile));
-
-        // score to title map: advocate -> score -> titles
-        HashMap<Integer, HashMap<Double, ArrayList<String>>> titlesMap = new HashMap<Integer, HashMap<Double, ArrayList<String>>>();
-        ArrayList<String> noId = new ArrayList<String>();
-
-        for (String spectrumTitle : spectrumFactory.getSpectrumTitles(spectrumFile)) {
-
-            String spectrumKey = Spectrum.getSpectrumKey(spectrumFile, spectrumTitle);
+        ArrayList<String> spectrumTitles = spectrumFactory.getSpectrumTitles(spectrumFile);
 
-            if (identification.matchExists(spectrumKey)) {
-
-                for (Advocate advocate : DeNovoGUI.implementedAlgorithms) {
-
-                    int advocateId = advocate.getIndex();
-
-                    HashMap<Double, ArrayList<String>> advocateMap = titlesMap.get(advocateId);
-                    if (advocateMap == null) {
-                        advocateMap = new HashMap<Double, ArrayList<String>>();
-                        titlesMap.put(advocateId, advocateMap);
-                    }
-
-                    HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> allAssumptions = identification.getAssumptions(spectrumKey);
-                    HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> assumptionsMap = allAssumptions.get(advocateId);
-
-                    if (assumptionsMap != null) {
-                        double bestScore = DeNovoGUI.getBestScore(advocate, assumptionsMap.keySet());
-                        ArrayList<String> titles = advocateMap.get(bestScore);
-                        if (titles == null) {
-                            titles = new ArrayList<String>();
-                            advocateMap.put(bestScore, titles);
-                        }
-                        titles.add(spectrumTitle);
-                        break;
-                    }
-                }
-            } else {
-                noId.add(spectrumTitle);
-            }
-
-            progressDialog.increasePrimaryProgressCounter();
+        int[] order = spectrumScoreOrders.get(spectrumFile);
+        if (order == null) {
+            order = SpectrumScoreOrder.getOrder(spectrumFile, spectrumTitles, spectrumSummaryIndex, DeNovoGUI.implementedAlgorithms);
+            spectrumScoreOrders.put(spectrumFile, order);
         }
 
-        ArrayList<String> orderedTitles = new ArrayList<String>();
-        for (Advocate advocate : DeNovoGUI.implementedAlgorithms) {
-            HashMap<Double, ArrayList<String>> advocateMap = titlesMap.get(advocate.getIndex());
-            if (advocateMap != null) {
-                ArrayList<Double> scores = new ArrayList<Double>(advocateMap.keySet());
-                DeNovoGUI.sortScores(advocate, scores);
-                for (double score : scores) {
-                    orderedTitles.addAll(titlesMap.get(advocate.getIndex()).get(score));
-                }
-            }
+        ArrayList<String> orderedTitles = new ArrayList<String>(order.length);
+        for (int position : order) {
+            orderedTitles.add(spectrumTitles.get(position));
         }
 
-        orderedTitles.addAll(noId);
         return orderedTitles;
     }
 
@@ -2299,8 +2625,11 @@ public class ResultsFrame extends javax.swing.JFrame {
      * @param greaterThan use a greater than threshold for the scores
      * @param numberOfMatches the maximum number of matches to export per
      * spectrum
+     * @param advocates the indexes of the advocates to export, null for all
+     * @param charges the identification charges to export, null for all
      */
-    public void exportIdentification(File file, final ExportType exportType, final Double scoreThreshold, final Boolean greaterThan, final Integer numberOfMatches) {
+    public void exportIdentification(File file, final ExportType exportType, final Double scoreThreshold, final Boolean greaterThan, final Integer numberOfMatches,
+            final Collection<Integer> advocates, final Collection<Integer> charges) {
 
         final File finalFile = file;
 
@@ -2311,28 +2640,27 @@ public class ResultsFrame extends javax.swing.JFrame {
         progressDialog.setPrimaryProgressCounterIndeterminate(true);
         progressDialog.setTitle("Exporting Matches. Please Wait...");
 
-        new Thread(new Runnable() {
-            public void run() {
-                try {
-                    progressDialog.setVisible(true);
-                } catch (IndexOutOfBoundsException e) {
-                    // ignore
-                }
-            }
-        }, "ProgressDialog").start();
+        taskScheduler.showProgressDialog(progressDialog);
 
-        new Thread("exportThread") {
+        taskScheduler.submit(null, TaskScheduler.Priority.bulk, new Runnable() {
+            @Override
             public void run() {
                 try {
                     switch (exportType) {
                         case tags:
-                            TextExporter.exportTags(finalFile, identification, searchParameters, progressDialog, scoreThreshold, greaterThan, numberOfMatches);
+                            TextExporter.exportTags(finalFile, identification, getExportResultStore(), getMatchSnapshot(), searchParameters, progressDialog, scoreThreshold, greaterThan, numberOfMatches, advocates, charges);
                             break;
                         case peptides:
-                            TextExporter.exportPeptides(finalFile, identification, searchParameters, progressDialog, scoreThreshold, greaterThan, numberOfMatches);
+                            TextExporter.exportPeptides(finalFile, identification, getMatchSnapshot(), searchParameters, progressDialog, scoreThreshold, greaterThan, numberOfMatches, advocates, charges);
                             break;
                         case blast:
-                            TextExporter.exportBlastPSMs(finalFile, identification, searchParameters, progressDialog, scoreThreshold, greaterThan, numberOfMatches);
+                            TextExporter.exportBlastPSMs(finalFile, identification, getExportResultStore(), getMatchSnapshot(), searchParameters, progressDialog, scoreThreshold, greaterThan, numberOfMatches, advocates, charges);
+                            break;
+                        case columnar:
+                            ColumnarExporter.export(finalFile, identification, getExportResultStore(), getMatchSnapshot(), searchParameters, progressDialog, scoreThreshold, greaterThan, numberOfMatches, advocates, charges);
+                            break;
+                        case blastQueries:
+                            BlastQueryExporter.export(finalFile, identification, getExportResultStore(), getMatchSnapshot(), progressDialog, scoreThreshold, greaterThan, numberOfMatches, advocates, charges, blastQueryBatches);
                     }
 
                     boolean cancelled = progressDialog.isRunCanceled();
@@ -2347,7 +2675,55 @@ public class ResultsFrame extends javax.swing.JFrame {
                     e.printStackTrace();
                 }
             }
-        }.start();
+        }, progressDialog);
+    }
+
+    /**
+     * Returns the result store to select the exported matches on, null if the
+     * matches have to be selected on the identification because the protein
+     * mapping added peptides which are not in the store.
+     *
+     * @return the result store to select the exported matches on
+     */
+    private DeNovoResultStore getExportResultStore() {
+        return peptidesMapped ? null : resultStore;
+    }
+
+    /**
+     * Returns the session snapshot where to read the matches, null if they
+     * are all in the identification.
+     *
+     * @return the session snapshot where to read the matches
+     */
+    private SessionSnapshot getMatchSnapshot() {
+        SessionSnapshot snapshot = sessionSnapshot;
+        if (snapshot == null || nSnapshotMatchesLoaded == snapshot.getResultStore().getNSpectra()) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the number of identified spectra of a spectrum file.
+     *
+     * @param spectrumFile the name of the spectrum file
+     *
+     * @return the number of identified spectra of the spectrum file
+     */
+    private int getNIdentifiedSpectra(String spectrumFile) {
+        SessionSnapshot snapshot = getMatchSnapshot();
+        if (snapshot != null) {
+            DeNovoResultStore snapshotStore = snapshot.getResultStore();
+            int nIdentifiedSpectra = 0;
+            for (int i = 0; i < snapshotStore.getNSpectra(); i++) {
+                if (Spectrum.getSpectrumFile(snapshotStore.getSpectrumKey(i)).equals(spectrumFile)) {
+                    nIdentifiedSpectra++;
+                }
+            }
+            return nIdentifiedSpectra;
+        }
+        Collection<String> spectrumKeys = identification.getSpectrumIdentification(spectrumFile);
+        return spectrumKeys == null ? 0 : spectrumKeys.size();
     }
 
     /**
@@ -2365,8 +2741,19 @@ public class ResultsFrame extends javax.swing.JFrame {
      * @return the title of the selected spectrum
      */
     public String getSelectedSpectrumTitle() {
-        int selectedRow = querySpectraTable.getSelectedRow();
-        int modelRow = querySpectraTable.convertRowIndexToModel(selectedRow);
+        return getSpectrumTitle(querySpectraTable.getSelectedRow());
+    }
+
+    /**
+     * Returns the title of the spectrum displayed at the given row of the
+     * query spectra table.
+     *
+     * @param viewRow the row in the query spectra table
+     *
+     * @return the title of the spectrum
+     */
+    private String getSpectrumTitle(int viewRow) {
+        int modelRow = querySpectraTable.convertRowIndexToModel(viewRow);
         if (orderedSpectrumTitles != null) {
             return orderedSpectrumTitles.get(modelRow);
         } else {
@@ -2377,7 +2764,8 @@ public class ResultsFrame extends javax.swing.JFrame {
     /**
      * Updates the assumption table based on the selected line.
      *
-     * @param selectedPsmRow the selected PSM row
+     * @param selectedPsmRow the row of the PSM to select in the order of the
+     * assumptions, -1 to select the first row displayed
      */
     public void updateAssumptionsTable(int selectedPsmRow) {
 
@@ -2387,27 +2775,7 @@ public class ResultsFrame extends javax.swing.JFrame {
             if (querySpectraTable.getRowCount() > 0) {
 
                 String psmKey = Spectrum.getSpectrumKey(getSelectedSpectrumFile(), getSelectedSpectrumTitle());
-
-                if (identification.matchExists(psmKey)) {
-
-                    for (Advocate advocate : DeNovoGUI.implementedAlgorithms) {
-
-                        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> allAssumptions = identification.getAssumptions(psmKey);
-                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> assumptionsMap = allAssumptions.get(advocate.getIndex());
-
-                        if (assumptionsMap != null) {
-
-                            ArrayList<Double> scores = new ArrayList<Double>(assumptionsMap.keySet());
-                            DeNovoGUI.sortScores(advocate, scores);
-
-                            for (Double score : scores) {
-                                for (SpectrumIdentificationAssumption assumption : assumptionsMap.get(score)) {
-                                    assumptions.add(assumption);
-                                }
-                            }
-                        }
-                    }
-                }
+                assumptions.addAll(getSortedAssumptions(psmKey));
 
                 TableModel tableModel = new AssumptionsTableModel(assumptions, searchParameters.getPtmSettings(), !fixedPtmsCheckBoxMenuItem.isSelected());
                 deNovoMatchesTable.setModel(tableModel);
@@ -2417,8 +2785,9 @@ public class ResultsFrame extends javax.swing.JFrame {
 
                 if (deNovoMatchesTable.getRowCount() > 0) {
                     if (selectedPsmRow != -1 && selectedPsmRow < deNovoMatchesTable.getRowCount()) {
-                        deNovoMatchesTable.setRowSelectionInterval(selectedPsmRow, selectedPsmRow);
-                        deNovoMatchesTable.scrollRectToVisible(deNovoMatchesTable.getCellRect(selectedPsmRow, 0, false));
+                        int selectedViewRow = deNovoMatchesTable.convertRowIndexToView(selectedPsmRow);
+                        deNovoMatchesTable.setRowSelectionInterval(selectedViewRow, selectedViewRow);
+                        deNovoMatchesTable.scrollRectToVisible(deNovoMatchesTable.getCellRect(selectedViewRow, 0, false));
                     } else {
                         deNovoMatchesTable.setRowSelectionInterval(0, 0);
                     }
@@ -2428,6 +2797,7 @@ public class ResultsFrame extends javax.swing.JFrame {
                 deNovoMatchesPanel.repaint();
 
                 updateSpectrum();
+                prefetchNeighbours();
             }
 
         } catch (Exception e) {
@@ -2436,18 +2806,212 @@ public class ResultsFrame extends javax.swing.JFrame {
     }
 
     /**
-     * Update the spectrum and annotations.
+     * Returns the assumptions of a spectrum sorted by advocate and score. The
+     * assumptions of the spectra recently displayed or prefetched are kept in
+     * cache.
+     *
+     * @param spectrumKey the key of the spectrum
+     *
+     * @return the sorted assumptions of the spectrum
+     *
+     * @throws SQLException thrown if an SQL exception occurs
+     * @throws IOException thrown if an IO exception occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws InterruptedException thrown if the process is interrupted
      */
-    public void updateSpectrum() {
+    private ArrayList<SpectrumIdentificationAssumption> getSortedAssumptions(String spectrumKey)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        spectrumJPanel.removeAll();
+        synchronized (assumptionsCache) {
+            ArrayList<SpectrumIdentificationAssumption> cachedAssumptions = assumptionsCache.get(spectrumKey);
+            if (cachedAssumptions != null) {
+                return cachedAssumptions;
+            }
+        }
 
-        ((TitledBorder) spectrumViewerPanel.getBorder()).setTitle("Spectrum Viewer");
-        spectrumViewerPanel.repaint();
+        ArrayList<SpectrumIdentificationAssumption> sortedAssumptions = new ArrayList<SpectrumIdentificationAssumption>();
+
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> allAssumptions = null;
+        SessionSnapshot snapshot = getMatchSnapshot();
+        if (snapshot != null) {
+            SpectrumMatch spectrumMatch = null;
+            try {
+                spectrumMatch = snapshot.getSpectrumMatch(spectrumKey);
+            } catch (IOException e) {
+                e.printStackTrace();
+                discardSessionSnapshot(snapshot);
+            }
+            if (spectrumMatch != null) {
+                allAssumptions = spectrumMatch.getAssumptionsMap();
+            }
+        } else if (identification.matchExists(spectrumKey)) {
+            allAssumptions = identification.getAssumptions(spectrumKey);
+        }
+
+        if (allAssumptions != null) {
+
+            for (Advocate advocate : DeNovoGUI.implementedAlgorithms) {
+
+                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> assumptionsMap = allAssumptions.get(advocate.getIndex());
+
+                if (assumptionsMap != null) {
+
+                    ArrayList<Double> scores = new ArrayList<Double>(assumptionsMap.keySet());
+                    DeNovoGUI.sortScores(advocate, scores);
+
+                    for (Double score : scores) {
+                        for (SpectrumIdentificationAssumption assumption : assumptionsMap.get(score)) {
+                            sortedAssumptions.add(assumption);
+                        }
+                    }
+                }
+            }
+        }
+
+        synchronized (assumptionsCache) {
+            assumptionsCache.put(spectrumKey, sortedAssumptions);
+        }
+
+        return sortedAssumptions;
+    }
+
+    /**
+     * Clears the assumptions cache after the assumptions were modified. The
+     * prefetching in progress is stopped, the cache is cleared once the
+     * annotation thread is done with the spectra requested before, and the
+     * assumptions of the selected spectrum are displayed again.
+     */
+    private void clearAssumptionsCache() {
+
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+
+                // stop the prefetching in progress
+                annotationRequest++;
+
+                // the annotation thread might still put the assumptions it is loading in the cache
+                annotationExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (assumptionsCache) {
+                            assumptionsCache.clear();
+                        }
+                        SwingUtilities.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (identification != null && querySpectraTable.getSelectedRow() != -1) {
+                                    updateAssumptionsTable(-1);
+                                }
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Prefetches in the background the rows surrounding the selected spectrum
+     * in the current sort order, nearest rows first: the spectrum is loaded
+     * in the spectrum factory cache, the assumptions are loaded in the
+     * assumptions cache, and the first assumption is annotated. The
+     * prefetching stops as soon as another spectrum is requested.
+     */
+    private void prefetchNeighbours() {
+
+        int selectedRow = querySpectraTable.getSelectedRow();
+
+        if (selectedRow == -1) {
+            return;
+        }
+
+        String spectrumFile = getSelectedSpectrumFile();
+        final ArrayList<String> spectrumKeys = new ArrayList<String>(2 * PREFETCH_ROWS);
+
+        for (int i = 1; i <= PREFETCH_ROWS; i++) {
+            if (selectedRow + i < querySpectraTable.getRowCount()) {
+                spectrumKeys.add(Spectrum.getSpectrumKey(spectrumFile, getSpectrumTitle(selectedRow + i)));
+            }
+            if (selectedRow - i >= 0) {
+                spectrumKeys.add(Spectrum.getSpectrumKey(spectrumFile, getSpectrumTitle(selectedRow - i)));
+            }
+        }
+
+        // the specific annotation settings otherwise depend on the annotation menus of the displayed spectrum
+        final boolean annotate = defaultAnnotationCheckBoxMenuItem.isSelected();
+        final int request = annotationRequest;
+        // the annotation settings are modified in the event dispatch thread, the annotation thread uses a copy
+        final AnnotationSettings annotationSettings = annotationPreferences.clone();
+
+        annotationExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (String spectrumKey : spectrumKeys) {
+                        if (request != annotationRequest) {
+                            return;
+                        }
+                        prefetch(spectrumKey, annotate, annotationSettings);
+                    }
+                } catch (Exception e) {
+                    // the error will be reported if the spectrum is displayed
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads a spectrum and its assumptions, and annotates the first assumption
+     * using the default annotation settings.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @param annotate if true the first assumption is annotated
+     * @param annotationSettings a copy of the annotation settings owned by the
+     * annotation thread
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * loading or annotating the spectrum
+     */
+    private void prefetch(String spectrumKey, boolean annotate, AnnotationSettings annotationSettings) throws Exception {
+
+        if (!spectrumFactory.spectrumLoaded(spectrumKey)) {
+            return;
+        }
+
+        MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
+        ArrayList<SpectrumIdentificationAssumption> spectrumAssumptions = getSortedAssumptions(spectrumKey);
+
+        if (annotate && !spectrumAssumptions.isEmpty()) {
+            SpectrumIdentificationAssumption assumption = spectrumAssumptions.get(0);
+            SpecificAnnotationSettings specificAnnotationSettings = annotationSettings.getSpecificAnnotationPreferences(spectrumKey, assumption, SequenceMatchingPreferences.defaultStringMatching, SequenceMatchingPreferences.defaultStringMatching);
+            specificAnnotationSettings.clearNeutralLosses(); // Neutral losses are turned off by default in denovogui
+            String annotationKey = SpectrumAnnotationCache.getKey(spectrumKey, assumption, annotationSettings, specificAnnotationSettings);
+            if (annotationCache.get(annotationKey) == null) {
+                annotationCache.put(annotationKey, getAnnotations(spectrum, assumption, annotationSettings, specificAnnotationSettings));
+            }
+        }
+    }
+
+    /**
+     * Update the spectrum and annotations. The spectrum is loaded and
+     * annotated in the background, the annotated spectrum being displayed
+     * only if the selection did not change in the meantime.
+     */
+    public void updateSpectrum() {
+
+        // the spectrum requested previously is not needed anymore
+        final int request = ++annotationRequest;
+        if (annotationFuture != null) {
+            annotationFuture.cancel(false);
+            annotationFuture = null;
+        }
 
         exportSpectrumValuesJMenuItem.setVisible(deNovoMatchesTable.getSelectedRowCount() < 2);
 
         if (deNovoMatchesTable.getSelectedRowCount() > 2) {
+            clearSpectrum();
             JPanel tempPanel = new JPanel();
             tempPanel.setOpaque(false);
             JLabel tempLabel = new JLabel("Please select maximum two PSMs at the same time...");
@@ -2455,235 +3019,378 @@ public class ResultsFrame extends javax.swing.JFrame {
             tempPanel.setLayout(new GridBagLayout());
             tempPanel.add(tempLabel, new GridBagConstraints());
             spectrumJPanel.add(tempPanel);
+            spectrumJPanel.revalidate();
+            spectrumJPanel.repaint();
         } else {
 
-            String spectrumKey = Spectrum.getSpectrumKey(getSelectedSpectrumFile(), getSelectedSpectrumTitle());
+            final String spectrumKey = Spectrum.getSpectrumKey(getSelectedSpectrumFile(), getSelectedSpectrumTitle());
 
             if (spectrumFactory.spectrumLoaded(spectrumKey)) {
                 try {
-                    int maxPrecursorCharge = 1;
-                    ArrayList<ModificationMatch> allModifications = new ArrayList<ModificationMatch>();
+                    // the annotation settings depend on the annotation menus and are therefore gathered here,
+                    // the annotation thread works on copies as the menus modify the settings in the event dispatch thread
+                    final ArrayList<SpectrumIdentificationAssumption> selectedAssumptions = new ArrayList<SpectrumIdentificationAssumption>(2);
+                    final ArrayList<SpecificAnnotationSettings> selectedSettings = new ArrayList<SpecificAnnotationSettings>(2);
+                    for (int selectedRow : deNovoMatchesTable.getSelectedRows()) {
+                        SpectrumIdentificationAssumption assumption = assumptions.get(deNovoMatchesTable.convertRowIndexToModel(selectedRow));
+                        specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrumKey, assumption, SequenceMatchingPreferences.defaultStringMatching, SequenceMatchingPreferences.defaultStringMatching);
+                        updateAnnotationPreferences();
+                        selectedAssumptions.add(assumption);
+                        selectedSettings.add(specificAnnotationPreferences.clone());
+                    }
+                    final AnnotationSettings annotationSettings = annotationPreferences.clone();
+                    // the map of the compiled index is never modified, a new index is compiled when the modifications change
+                    final HashMap<Double, String> massDeltas = getCurrentMassDeltas();
+
+                    annotationFuture = annotationExecutor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                final AnnotatedSpectrum annotatedSpectrum = annotateSpectrum(request, spectrumKey, selectedAssumptions, annotationSettings, selectedSettings, massDeltas);
+                                if (annotatedSpectrum != null) {
+                                    SwingUtilities.invokeLater(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            if (request == annotationRequest) {
+                                                displaySpectrum(annotatedSpectrum);
+                                            }
+                                        }
+                                    });
+                                }
+                            } catch (final Exception e) {
+                                SwingUtilities.invokeLater(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        catchException(e);
+                                    }
+                                });
+                            }
+                        }
+                    });
+                } catch (Exception e) {
+                    catchException(e);
+                }
+            } else {
+                clearSpectrum();
+                spectrumJPanel.revalidate();
+                spectrumJPanel.repaint();
+            }
+        }
+    }
 
-                    MSnSpectrum currentSpectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
+    /**
+     * Removes the spectrum displayed and resets the spectrum viewer title.
+     */
+    private void clearSpectrum() {
+        spectrumJPanel.removeAll();
+        ((TitledBorder) spectrumViewerPanel.getBorder()).setTitle("Spectrum Viewer");
+        spectrumViewerPanel.repaint();
+    }
 
-                    // add the data to the spectrum panel
-                    Precursor precursor = currentSpectrum.getPrecursor();
-                    if (deNovoMatchesTable.getSelectedRow() != -1) {
+    /**
+     * Loads and annotates a spectrum for the given assumptions. The
+     * annotations are taken from the cache when available. This method is
+     * meant to be run outside the event dispatch thread, and returns null as
+     * soon as a newer spectrum is requested.
+     *
+     * @param request the number of the request
+     * @param spectrumKey the key of the spectrum
+     * @param selectedAssumptions the assumptions to annotate
+     * @param annotationSettings a copy of the annotation settings owned by the
+     * annotation thread
+     * @param selectedSettings copies of the specific annotation settings of
+     * every assumption owned by the annotation thread
+     * @param massDeltas the known mass deltas
+     *
+     * @return the annotated spectrum, null if not needed anymore
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * loading or annotating the spectrum
+     */
+    private AnnotatedSpectrum annotateSpectrum(int request, String spectrumKey, ArrayList<SpectrumIdentificationAssumption> selectedAssumptions,
+            AnnotationSettings annotationSettings, ArrayList<SpecificAnnotationSettings> selectedSettings, HashMap<Double, String> massDeltas) throws Exception {
 
-                        double[] intensitiesAsArray = currentSpectrum.getIntensityValuesAsArray();
+        MSnSpectrum currentSpectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
 
-                        if (deNovoMatchesTable.getSelectedRowCount() == 2) {
-                            intensitiesAsArray = currentSpectrum.getIntensityValuesNormalizedAsArray();
-                        }
+        if (request != annotationRequest) {
+            return null;
+        }
 
-                        SpectrumPanel spectrumPanel = new SpectrumPanel(
-                                currentSpectrum.getMzValuesAsArray(), intensitiesAsArray,
-                                precursor.getMz(), "",
-                                "", 40, false, false, false, 2, false);
-                        spectrumPanel.setBorder(null);
-
-                        SpectrumPanel.setKnownMassDeltas(getCurrentMassDeltas());
-                        spectrumPanel.setDeltaMassWindow(annotationPreferences.getFragmentIonAccuracy());
-
-                        // show all or just the annotated peaks
-                        spectrumPanel.showAnnotatedPeaksOnly(!annotationPreferences.showAllPeaks());
-                        spectrumPanel.setYAxisZoomExcludesBackgroundPeaks(annotationPreferences.yAxisZoomExcludesBackgroundPeaks());
-
-                        // add the mirrored spectrum
-                        if (deNovoMatchesTable.getSelectedRowCount() == 2) {
-                            spectrumPanel.addMirroredSpectrum(
-                                    currentSpectrum.getMzValuesAsArray(), currentSpectrum.getIntensityValuesNormalizedAsArray(), precursor.getMz(),
-                                    "", "", false,
-                                    Color.BLUE, Color.BLUE); // @TODO: remove hardcoded colors!
-                        }
+        AnnotatedSpectrum annotatedSpectrum = new AnnotatedSpectrum(currentSpectrum, selectedAssumptions, massDeltas);
 
-                        String modifiedSequence = "";
-
-                        // add the spectrum annotations
-                        for (int i = 0; i < deNovoMatchesTable.getSelectedRowCount(); i++) {
-
-                            SpectrumIdentificationAssumption assumption = assumptions.get(deNovoMatchesTable.convertRowIndexToModel(deNovoMatchesTable.getSelectedRows()[i]));
-                            specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrumKey, assumption, SequenceMatchingPreferences.defaultStringMatching, SequenceMatchingPreferences.defaultStringMatching);
-                            updateAnnotationPreferences();
-                            ArrayList<IonMatch> annotations;
-                            if (assumption instanceof TagAssumption) {
-                                TagAssumption tagAssumption = (TagAssumption) assumption;
-                                annotations = tagSpectrumAnnotator.getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences, currentSpectrum, tagAssumption.getTag());
-                            } else if (assumption instanceof PeptideAssumption) {
-                                PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
-                                annotations = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences, currentSpectrum, peptideAssumption.getPeptide());
-                            } else {
-                                throw new UnsupportedOperationException("Operation not supported for assumption of type " + assumption.getClass() + ".");
-                            }
-                            if (i == 0) {
-                                spectrumPanel.setAnnotations(SpectrumAnnotator.getSpectrumAnnotation(annotations));
+        for (int i = 0; i < selectedAssumptions.size(); i++) {
 
-                                // convert the amino acid scores to alpha levels
-                                ArrayList<float[]> alphaValues = null;
-                                if (assumption.getAminoAcidScores() != null && individualDeNovoCheckBoxMenuItem.isSelected()) {
-                                    alphaValues = convertAminoAcidScoresToAlphaValues(assumption.getAminoAcidScores());
-                                }
+            if (request != annotationRequest) {
+                return null;
+            }
 
-                                // add de novo sequencing
-                                if (assumption instanceof TagAssumption) {
-                                    TagAssumption tagAssumption = (TagAssumption) assumption;
-                                    spectrumPanel.addAutomaticDeNovoSequencing(tagAssumption.getTag(), annotations,
-                                            TagFragmentIon.B_ION, // @TODO: choose the fragment ion types from the annotation menu bar?
-                                            TagFragmentIon.Y_ION,
-                                            annotationPreferences.getDeNovoCharge(),
-                                            annotationPreferences.showForwardIonDeNovoTags(),
-                                            annotationPreferences.showRewindIonDeNovoTags(),
-                                            0.75, 1.0, alphaValues, !fixedPtmsCheckBoxMenuItem.isSelected(), false);
-                                } else if (assumption instanceof PeptideAssumption) {
-                                    PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
-                                    spectrumPanel.addAutomaticDeNovoSequencing(peptideAssumption.getPeptide(), annotations,
-                                            PeptideFragmentIon.B_ION, // @TODO: choose the fragment ion types from the annotation menu bar?
-                                            PeptideFragmentIon.Y_ION,
-                                            annotationPreferences.getDeNovoCharge(),
-                                            annotationPreferences.showForwardIonDeNovoTags(),
-                                            annotationPreferences.showRewindIonDeNovoTags(),
-                                            0.75, 1.0, alphaValues, !fixedPtmsCheckBoxMenuItem.isSelected(), false);
-                                } else {
-                                    throw new UnsupportedOperationException("Operation not supported for assumption of type " + assumption.getClass() + ".");
-                                }
-                            } else {
-                                spectrumPanel.setAnnotationsMirrored(SpectrumAnnotator.getSpectrumAnnotation(annotations));
+            SpectrumIdentificationAssumption assumption = selectedAssumptions.get(i);
+            SpecificAnnotationSettings specificAnnotationSettings = selectedSettings.get(i);
+            String annotationKey = SpectrumAnnotationCache.getKey(spectrumKey, assumption, annotationSettings, specificAnnotationSettings);
+            ArrayList<IonMatch> annotations = annotationCache.get(annotationKey);
 
-                                // convert the amino acid scores to alpha levels
-                                ArrayList<float[]> alphaValues = null;
-                                if (assumption.getAminoAcidScores() != null && individualDeNovoCheckBoxMenuItem.isSelected()) {
-                                    alphaValues = convertAminoAcidScoresToAlphaValues(assumption.getAminoAcidScores());
-                                }
+            if (annotations == null) {
+                annotations = getAnnotations(currentSpectrum, assumption, annotationSettings, specificAnnotationSettings);
+                annotationCache.put(annotationKey, annotations);
+            }
 
-                                // add de novo sequencing
-                                if (assumption instanceof TagAssumption) {
-                                    TagAssumption tagAssumption = (TagAssumption) assumption;
-                                    spectrumPanel.addAutomaticDeNovoSequencing(tagAssumption.getTag(), annotations,
-                                            TagFragmentIon.B_ION, // @TODO: choose the fragment ion types from the annotation menu bar?
-                                            TagFragmentIon.Y_ION,
-                                            annotationPreferences.getDeNovoCharge(),
-                                            annotationPreferences.showForwardIonDeNovoTags(),
-                                            annotationPreferences.showRewindIonDeNovoTags(),
-                                            0.75, 1.0, alphaValues, !fixedPtmsCheckBoxMenuItem.isSelected(), true);
-                                } else if (assumption instanceof PeptideAssumption) {
-                                    PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
-                                    spectrumPanel.addAutomaticDeNovoSequencing(peptideAssumption.getPeptide(), annotations,
-                                            PeptideFragmentIon.B_ION, // @TODO: choose the fragment ion types from the annotation menu bar?
-                                            PeptideFragmentIon.Y_ION,
-                                            annotationPreferences.getDeNovoCharge(),
-                                            annotationPreferences.showForwardIonDeNovoTags(),
-                                            annotationPreferences.showRewindIonDeNovoTags(),
-                                            0.75, 1.0, alphaValues, !fixedPtmsCheckBoxMenuItem.isSelected(), false);
-                                } else {
-                                    throw new UnsupportedOperationException("Operation not supported for assumption of type " + assumption.getClass() + ".");
-                                }
-                            }
+            annotatedSpectrum.annotations.add(annotations);
+        }
 
-                            spectrumJPanel.add(spectrumPanel);
-
-                            // get the modifications and update the modified sequence for the panel title
-                            if (assumption instanceof TagAssumption) {
-                                TagAssumption tagAssumption = (TagAssumption) assumption;
-                                Tag tag = tagAssumption.getTag();
-                                for (TagComponent tagComponent : tag.getContent()) {
-                                    if (tagComponent instanceof AminoAcidPattern) {
-                                        AminoAcidPattern aminoAcidPattern = (AminoAcidPattern) tagComponent;
-                                        for (int site = 1; site <= aminoAcidPattern.length(); site++) {
-                                            for (ModificationMatch modificationMatch : aminoAcidPattern.getModificationsAt(site)) {
-                                                allModifications.add(modificationMatch);
-                                            }
-                                        }
-                                    } else if (tagComponent instanceof AminoAcidSequence) {
-                                        AminoAcidSequence aminoAcidSequence = (AminoAcidSequence) tagComponent;
-                                        for (int site = 1; site <= aminoAcidSequence.length(); site++) {
-                                            for (ModificationMatch modificationMatch : aminoAcidSequence.getModificationsAt(site)) {
-                                                allModifications.add(modificationMatch);
-                                            }
-                                        }
-                                    } else if (tagComponent instanceof MassGap) {
-                                        // Nothing to do here
-                                    } else {
-                                        throw new UnsupportedOperationException("Annotation not supported for the tag component " + tagComponent.getClass() + ".");
-                                    }
-                                }
+        return annotatedSpectrum;
+    }
 
-                                if (!modifiedSequence.isEmpty()) {
-                                    modifiedSequence += " vs. ";
-                                }
+    /**
+     * Annotates a spectrum for the given assumption. This method is meant to
+     * be run in the annotation thread only.
+     *
+     * @param spectrum the spectrum
+     * @param assumption the assumption
+     * @param annotationSettings the annotation settings owned by the
+     * annotation thread
+     * @param specificAnnotationSettings the annotation settings specific to
+     * this spectrum and assumption
+     *
+     * @return the annotations
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * annotating the spectrum
+     */
+    private ArrayList<IonMatch> getAnnotations(MSnSpectrum spectrum, SpectrumIdentificationAssumption assumption, AnnotationSettings annotationSettings,
+            SpecificAnnotationSettings specificAnnotationSettings) throws Exception {
+        if (assumption instanceof TagAssumption) {
+            TagAssumption tagAssumption = (TagAssumption) assumption;
+            return tagSpectrumAnnotator.getSpectrumAnnotation(annotationSettings, specificAnnotationSettings, spectrum, tagAssumption.getTag());
+        } else if (assumption instanceof PeptideAssumption) {
+            PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+            return peptideSpectrumAnnotator.getSpectrumAnnotation(annotationSettings, specificAnnotationSettings, spectrum, peptideAssumption.getPeptide());
+        } else {
+            throw new UnsupportedOperationException("Operation not supported for assumption of type " + assumption.getClass() + ".");
+        }
+    }
+
+    /**
+     * Displays an annotated spectrum. This method must be called in the event
+     * dispatch thread.
+     *
+     * @param annotatedSpectrum the annotated spectrum
+     */
+    private void displaySpectrum(AnnotatedSpectrum annotatedSpectrum) {
+
+        clearSpectrum();
+
+        try {
+            int maxPrecursorCharge = 1;
+            ArrayList<ModificationMatch> allModifications = new ArrayList<ModificationMatch>();
+
+            MSnSpectrum currentSpectrum = annotatedSpectrum.spectrum;
+            ArrayList<SpectrumIdentificationAssumption> selectedAssumptions = annotatedSpectrum.assumptions;
+
+            // add the data to the spectrum panel
+            Precursor precursor = currentSpectrum.getPrecursor();
+            if (!selectedAssumptions.isEmpty()) {
+
+                double[] intensitiesAsArray = annotatedSpectrum.intensities;
+
+                if (selectedAssumptions.size() == 2) {
+                    intensitiesAsArray = annotatedSpectrum.normalizedIntensities;
+                }
+
+                SpectrumPanel spectrumPanel = new SpectrumPanel(
+                        annotatedSpectrum.mzValues, intensitiesAsArray,
+                        precursor.getMz(), "",
+                        "", 40, false, false, false, 2, false);
+                spectrumPanel.setBorder(null);
+
+                SpectrumPanel.setKnownMassDeltas(annotatedSpectrum.massDeltas);
+                spectrumPanel.setDeltaMassWindow(annotationPreferences.getFragmentIonAccuracy());
+
+                // show all or just the annotated peaks
+                spectrumPanel.showAnnotatedPeaksOnly(!annotationPreferences.showAllPeaks());
+                spectrumPanel.setYAxisZoomExcludesBackgroundPeaks(annotationPreferences.yAxisZoomExcludesBackgroundPeaks());
+
+                // add the mirrored spectrum
+                if (selectedAssumptions.size() == 2) {
+                    spectrumPanel.addMirroredSpectrum(
+                            annotatedSpectrum.mzValues, annotatedSpectrum.normalizedIntensities, precursor.getMz(),
+                            "", "", false,
+                            Color.BLUE, Color.BLUE); // @TODO: remove hardcoded colors!
+                }
+
+                String modifiedSequence = "";
+
+                // add the spectrum annotations
+                for (int i = 0; i < selectedAssumptions.size(); i++) {
 
-                                modifiedSequence += tag.getTaggedModifiedSequence(deNovoGUI.getSearchParameters().getPtmSettings(), false, false, true, false);
+                    SpectrumIdentificationAssumption assumption = selectedAssumptions.get(i);
+                    ArrayList<IonMatch> annotations = annotatedSpectrum.annotations.get(i);
+                    if (i == 0) {
+                        spectrumPanel.setAnnotations(SpectrumAnnotator.getSpectrumAnnotation(annotations));
 
-                            } else if (assumption instanceof PeptideAssumption) {
-                                PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
-                                Peptide peptide = peptideAssumption.getPeptide();
-                                if (peptide.isModified()) {
-                                    for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                        // convert the amino acid scores to alpha levels
+                        ArrayList<float[]> alphaValues = null;
+                        if (assumption.getAminoAcidScores() != null && individualDeNovoCheckBoxMenuItem.isSelected()) {
+                            alphaValues = convertAminoAcidScoresToAlphaValues(assumption.getAminoAcidScores());
+                        }
+
+                        // add de novo sequencing
+                        if (assumption instanceof TagAssumption) {
+                            TagAssumption tagAssumption = (TagAssumption) assumption;
+                            spectrumPanel.addAutomaticDeNovoSequencing(tagAssumption.getTag(), annotations,
+                                    TagFragmentIon.B_ION, // @TODO: choose the fragment ion types from the annotation menu bar?
+                                    TagFragmentIon.Y_ION,
+                                    annotationPreferences.getDeNovoCharge(),
+                                    annotationPreferences.showForwardIonDeNovoTags(),
+                                    annotationPreferences.showRewindIonDeNovoTags(),
+                                    0.75, 1.0, alphaValues, !fixedPtmsCheckBoxMenuItem.isSelected(), false);
+                        } else if (assumption instanceof PeptideAssumption) {
+                            PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+                            spectrumPanel.addAutomaticDeNovoSequencing(peptideAssumption.getPeptide(), annotations,
+                                    PeptideFragmentIon.B_ION, // @TODO: choose the fragment ion types from the annotation menu bar?
+                                    PeptideFragmentIon.Y_ION,
+                                    annotationPreferences.getDeNovoCharge(),
+                                    annotationPreferences.showForwardIonDeNovoTags(),
+                                    annotationPreferences.showRewindIonDeNovoTags(),
+                                    0.75, 1.0, alphaValues, !fixedPtmsCheckBoxMenuItem.isSelected(), false);
+                        } else {
+                            throw new UnsupportedOperationException("Operation not supported for assumption of type " + assumption.getClass() + ".");
+                        }
+                    } else {
+                        spectrumPanel.setAnnotationsMirrored(SpectrumAnnotator.getSpectrumAnnotation(annotations));
+
+                        // convert the amino acid scores to alpha levels
+                        ArrayList<float[]> alphaValues = null;
+                        if (assumption.getAminoAcidScores() != null && individualDeNovoCheckBoxMenuItem.isSelected()) {
+                            alphaValues = convertAminoAcidScoresToAlphaValues(assumption.getAminoAcidScores());
+                        }
+
+                        // add de novo sequencing
+                        if (assumption instanceof TagAssumption) {
+                            TagAssumption tagAssumption = (TagAssumption) assumption;
+                            spectrumPanel.addAutomaticDeNovoSequencing(tagAssumption.getTag(), annotations,
+                                    TagFragmentIon.B_ION, // @TODO: choose the fragment ion types from the annotation menu bar?
+                                    TagFragmentIon.Y_ION,
+                                    annotationPreferences.getDeNovoCharge(),
+                                    annotationPreferences.showForwardIonDeNovoTags(),
+                                    annotationPreferences.showRewindIonDeNovoTags(),
+                                    0.75, 1.0, alphaValues, !fixedPtmsCheckBoxMenuItem.isSelected(), true);
+                        } else if (assumption instanceof PeptideAssumption) {
+                            PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+                            spectrumPanel.addAutomaticDeNovoSequencing(peptideAssumption.getPeptide(), annotations,
+                                    PeptideFragmentIon.B_ION, // @TODO: choose the fragment ion types from the annotation menu bar?
+                                    PeptideFragmentIon.Y_ION,
+                                    annotationPreferences.getDeNovoCharge(),
+                                    annotationPreferences.showForwardIonDeNovoTags(),
+                                    annotationPreferences.showRewindIonDeNovoTags(),
+                                    0.75, 1.0, alphaValues, !fixedPtmsCheckBoxMenuItem.isSelected(), false);
+                        } else {
+                            throw new UnsupportedOperationException("Operation not supported for assumption of type " + assumption.getClass() + ".");
+                        }
+                    }
+
+                    spectrumJPanel.add(spectrumPanel);
+
+                    // get the modifications and update the modified sequence for the panel title
+                    if (assumption instanceof TagAssumption) {
+                        TagAssumption tagAssumption = (TagAssumption) assumption;
+                        Tag tag = tagAssumption.getTag();
+                        for (TagComponent tagComponent : tag.getContent()) {
+                            if (tagComponent instanceof AminoAcidPattern) {
+                                AminoAcidPattern aminoAcidPattern = (AminoAcidPattern) tagComponent;
+                                for (int site = 1; site <= aminoAcidPattern.length(); site++) {
+                                    for (ModificationMatch modificationMatch : aminoAcidPattern.getModificationsAt(site)) {
                                         allModifications.add(modificationMatch);
                                     }
                                 }
-
-                                if (!modifiedSequence.isEmpty()) {
-                                    modifiedSequence += " vs. ";
+                            } else if (tagComponent instanceof AminoAcidSequence) {
+                                AminoAcidSequence aminoAcidSequence = (AminoAcidSequence) tagComponent;
+                                for (int site = 1; site <= aminoAcidSequence.length(); site++) {
+                                    for (ModificationMatch modificationMatch : aminoAcidSequence.getModificationsAt(site)) {
+                                        allModifications.add(modificationMatch);
+                                    }
                                 }
-
-                                modifiedSequence += peptide.getTaggedModifiedSequence(deNovoGUI.getSearchParameters().getPtmSettings(), false, false, true, false);
+                            } else if (tagComponent instanceof MassGap) {
+                                // Nothing to do here
                             } else {
-                                throw new UnsupportedOperationException("Operation not supported for assumption of type " + assumption.getClass() + ".");
+                                throw new UnsupportedOperationException("Annotation not supported for the tag component " + tagComponent.getClass() + ".");
                             }
+                        }
 
-                            // Update max precursor charge
-                            if (assumption.getIdentificationCharge().value > maxPrecursorCharge) {
-                                maxPrecursorCharge = assumption.getIdentificationCharge().value;
-                            }
+                        if (!modifiedSequence.isEmpty()) {
+                            modifiedSequence += " vs. ";
                         }
 
-                        spectrumPanel.rescale(0.0, spectrumPanel.getMaxXAxisValue());
-
-                        // update the spectrum title
-                        if (deNovoMatchesTable.getSelectedRowCount() == 1) {
-                            double theoreticMz;
-                            SpectrumIdentificationAssumption assumption = assumptions.get(deNovoMatchesTable.convertRowIndexToModel(deNovoMatchesTable.getSelectedRow()));
-                            if (assumption instanceof TagAssumption) {
-                                TagAssumption tagAssumption = (TagAssumption) assumption;
-                                theoreticMz = tagAssumption.getTheoreticMz(true, true);
-                            } else if (assumption instanceof PeptideAssumption) {
-                                PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
-                                theoreticMz = peptideAssumption.getTheoreticMz();
-                            } else {
-                                throw new UnsupportedOperationException("Operation not supported for assumption of type " + assumption.getClass() + ".");
+                        modifiedSequence += tag.getTaggedModifiedSequence(deNovoGUI.getSearchParameters().getPtmSettings(), false, false, true, false);
+
+                    } else if (assumption instanceof PeptideAssumption) {
+                        PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+                        Peptide peptide = peptideAssumption.getPeptide();
+                        if (peptide.isModified()) {
+                            for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                                allModifications.add(modificationMatch);
                             }
+                        }
 
-                            ((TitledBorder) spectrumViewerPanel.getBorder()).setTitle(
-                                    "Spectrum Viewer (" + modifiedSequence
-                                    + "   " + maxPrecursorCharge + "   "
-                                    + Util.roundDouble(theoreticMz, 2) + " m/z)");
-                        } else if (deNovoMatchesTable.getSelectedRowCount() == 2) {
-                            ((TitledBorder) spectrumViewerPanel.getBorder()).setTitle(
-                                    "Spectrum Viewer (" + modifiedSequence + ")");
-                        } else if (deNovoMatchesTable.getSelectedRowCount() > 2) {
-                            ((TitledBorder) spectrumViewerPanel.getBorder()).setTitle(
-                                    "Spectrum Viewer (" + deNovoMatchesTable.getSelectedRowCount() + " PSMs)");
+                        if (!modifiedSequence.isEmpty()) {
+                            modifiedSequence += " vs. ";
                         }
 
-                        spectrumViewerPanel.repaint();
+                        modifiedSequence += peptide.getTaggedModifiedSequence(deNovoGUI.getSearchParameters().getPtmSettings(), false, false, true, false);
                     } else {
-                        // Show spectrum without identification.
-                        SpectrumPanel spectrumPanel = new SpectrumPanel(
-                                currentSpectrum.getMzValuesAsArray(), currentSpectrum.getIntensityValuesAsArray(),
-                                precursor.getMz(), "",
-                                "", 40, false, false, false, 2, false);
-                        spectrumPanel.setDeltaMassWindow(annotationPreferences.getFragmentIonAccuracy());
-                        SpectrumPanel.setKnownMassDeltas(getCurrentMassDeltas());
-                        spectrumPanel.setBorder(null);
-                        spectrumJPanel.add(spectrumPanel);
+                        throw new UnsupportedOperationException("Operation not supported for assumption of type " + assumption.getClass() + ".");
+                    }
+
+                    // Update max precursor charge
+                    if (assumption.getIdentificationCharge().value > maxPrecursorCharge) {
+                        maxPrecursorCharge = assumption.getIdentificationCharge().value;
                     }
+                }
 
-                    updateAnnotationMenus(maxPrecursorCharge, allModifications);
+                spectrumPanel.rescale(0.0, spectrumPanel.getMaxXAxisValue());
+
+                // update the spectrum title
+                if (selectedAssumptions.size() == 1) {
+                    double theoreticMz;
+                    SpectrumIdentificationAssumption assumption = selectedAssumptions.get(0);
+                    if (assumption instanceof TagAssumption) {
+                        TagAssumption tagAssumption = (TagAssumption) assumption;
+                        theoreticMz = tagAssumption.getTheoreticMz(true, true);
+                    } else if (assumption instanceof PeptideAssumption) {
+                        PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+                        theoreticMz = peptideAssumption.getTheoreticMz();
+                    } else {
+                        throw new UnsupportedOperationException("Operation not supported for assumption of type " + assumption.getClass() + ".");
+                    }
 
-                } catch (Exception e) {
-                    catchException(e);
+                    ((TitledBorder) spectrumViewerPanel.getBorder()).setTitle(
+                            "Spectrum Viewer (" + modifiedSequence
+                            + "   " + maxPrecursorCharge + "   "
+                            + Util.roundDouble(theoreticMz, 2) + " m/z)");
+                } else if (selectedAssumptions.size() == 2) {
+                    ((TitledBorder) spectrumViewerPanel.getBorder()).setTitle(
+                            "Spectrum Viewer (" + modifiedSequence + ")");
+                } else if (selectedAssumptions.size() > 2) {
+                    ((TitledBorder) spectrumViewerPanel.getBorder()).setTitle(
+                            "Spectrum Viewer (" + selectedAssumptions.size() + " PSMs)");
                 }
+
+                spectrumViewerPanel.repaint();
+            } else {
+                // Show spectrum without identification.
+                SpectrumPanel spectrumPanel = new SpectrumPanel(
+                        annotatedSpectrum.mzValues, annotatedSpectrum.intensities,
+                        precursor.getMz(), "",
+                        "", 40, false, false, false, 2, false);
+                spectrumPanel.setDeltaMassWindow(annotationPreferences.getFragmentIonAccuracy());
+                SpectrumPanel.setKnownMassDeltas(annotatedSpectrum.massDeltas);
+                spectrumPanel.setBorder(null);
+                spectrumJPanel.add(spectrumPanel);
             }
+
+            updateAnnotationMenus(maxPrecursorCharge, allModifications);
+
+        } catch (Exception e) {
+            catchException(e);
         }
 
         spectrumJPanel.revalidate();
@@ -2720,17 +3427,9 @@ public class ResultsFrame extends javax.swing.JFrame {
         progressDialog.setPrimaryProgressCounterIndeterminate(true);
         progressDialog.setTitle("Loading Results. Please Wait...");
 
-        new Thread(new Runnable() {
-            public void run() {
-                try {
-                    progressDialog.setVisible(true);
-                } catch (IndexOutOfBoundsException e) {
-                    // ignore
-                }
-            }
-        }, "ProgressDialog").start();
+        taskScheduler.showProgressDialog(progressDialog);
 
-        new Thread("DisplayThread") {
+        taskScheduler.submit(null, TaskScheduler.Priority.bulk, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -2740,12 +3439,22 @@ public class ResultsFrame extends javax.swing.JFrame {
                             File mgfFile = finalMgfFiles.get(i);
                             spectrumFactory.addSpectra(mgfFile, progressDialog);
                             fileNamesArray[i] = mgfFile.getName();
+                            spectrumFiles.put(mgfFile.getName(), mgfFile);
                         }
                         spectrumFileComboBox.setModel(new DefaultComboBoxModel(fileNamesArray));
                     }
 
-                    // import the de novo results
-                    identification = importDeNovoResults(finalOutFiles, searchParameters, progressDialog);
+                    // reopen the project from its snapshot if the results did not change, import the de novo results otherwise
+                    projectResultFiles = finalOutFiles;
+                    SessionSnapshot snapshot = openSessionSnapshot(finalOutFiles);
+                    if (snapshot != null) {
+                        identification = loadSessionSnapshot(snapshot, finalOutFiles, progressDialog);
+                    } else {
+                        identification = importDeNovoResults(finalOutFiles, searchParameters, progressDialog);
+                        if (identification != null && !progressDialog.isRunCanceled()) {
+                            saveSessionSnapshot(finalOutFiles, identification, false);
+                        }
+                    }
 
                     if (identification != null) {
                         displayResults();
@@ -2759,7 +3468,7 @@ public class ResultsFrame extends javax.swing.JFrame {
                     progressDialog.setRunFinished();
                 }
             }
-        }.start();
+        }, progressDialog);
     }
 
     /**
@@ -3247,16 +3956,12 @@ public class ResultsFrame extends javax.swing.JFrame {
     }
 
     /**
-     * Imports the de novo results from the given files and puts all matches in
-     * the identification.
+     * Creates the identification object and connects it to the database.
      *
-     * @param resultFiles the result files
-     * @param searchParameters the search parameters
-     * @param waitingHandler the waiting handler
-     * @return the Identification object
-     * @throws Exception thrown if an exception occurs
+     * @return the identification object, null if the database could not be
+     * created
      */
-    public Identification importDeNovoResults(ArrayList<File> resultFiles, SearchParameters searchParameters, WaitingHandler waitingHandler) throws Exception {
+    private Identification createIdentification() {
 
         // @TODO: let the user reference his project
         String projectReference = "DeNovoGUI";
@@ -3270,21 +3975,52 @@ public class ResultsFrame extends javax.swing.JFrame {
         ProteomicAnalysis analysis = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber);
         analysis.addIdentificationResults(IdentificationMethod.MS2_IDENTIFICATION, new Ms2Identification(identificationReference));
 
-        // The identification object
-        Identification tempIdentification = analysis.getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
+        // The identification object
+        Identification tempIdentification = analysis.getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
+
+        // The cache used whenever the identification becomes too big
+        String dbFolder = getCacheDirectory(getJarFilePath()).getAbsolutePath();
+        objectsCache.setAutomatedMemoryManagement(true);
+        try {
+            tempIdentification.establishConnection(dbFolder, true, objectsCache);
+        } catch (Exception e) {
+            JOptionPane.showMessageDialog(ResultsFrame.this, "An error occurred while creating the identification database. "
+                    + "Please make sure that no other instance of DeNovoGUI is running.", "Database Connection error", JOptionPane.WARNING_MESSAGE);
+            e.printStackTrace();
+            return null;
+        }
+
+        return tempIdentification;
+    }
+
+    /**
+     * Imports the de novo results from the given files and puts all matches in
+     * the identification.
+     *
+     * @param resultFiles the result files
+     * @param searchParameters the search parameters
+     * @param waitingHandler the waiting handler
+     * @return the Identification object
+     * @throws Exception thrown if an exception occurs
+     */
+    public Identification importDeNovoResults(ArrayList<File> resultFiles, SearchParameters searchParameters, WaitingHandler waitingHandler) throws Exception {
+
+        Identification tempIdentification = createIdentification();
 
-        // The cache used whenever the identification becomes too big
-        String dbFolder = getCacheDirectory(getJarFilePath()).getAbsolutePath();
-        objectsCache.setAutomatedMemoryManagement(true);
-        try {
-            tempIdentification.establishConnection(dbFolder, true, objectsCache);
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(ResultsFrame.this, "An error occurred while creating the identification database. "
-                    + "Please make sure that no other instance of DeNovoGUI is running.", "Database Connection error", JOptionPane.WARNING_MESSAGE);
-            e.printStackTrace();
+        if (tempIdentification == null) {
             return null;
         }
 
+        String dbFolder = getCacheDirectory(getJarFilePath()).getAbsolutePath();
+
+        if (resultStore != null) {
+            resultStore.close();
+        }
+        closeSessionSnapshot();
+        DeNovoResultStore tempResultStore = new DeNovoResultStore();
+        QcStatistics tempQcStatistics = new QcStatistics(searchParameters);
+        HashMap<String, SpectrumClusters> spectrumClusters = new HashMap<String, SpectrumClusters>();
+
         numAdvocatesLoaded = 0;
         boolean pepNovoDataLoaded = false;
         boolean direcTagDataLoaded = false;
@@ -3487,10 +4223,31 @@ public class ResultsFrame extends javax.swing.JFrame {
                                 } else {
                                     throw new UnsupportedOperationException("Operation not supported for assumption of type " + assumption.getClass() + ".");
                                 }
+
+                                tempResultStore.addAssumption(spectrumMatch.getKey(), assumption);
+                            }
+                        }
+                    }
+
+                    // aggregate the quality control statistics of the best matches, the precursor metrics are computed when displayed
+                    tempQcStatistics.addSpectrumMatch(assumptionsMap, null);
+                }
+
+                // propagate the matches of the cluster representatives to the other members of the clusters
+                ArrayList<SpectrumMatch> memberMatches = getClusterMemberMatches(spectrumMatches, resultFile.getParentFile(), spectrumClusters);
+                for (SpectrumMatch memberMatch : memberMatches) {
+                    String spectrumKey = memberMatch.getKey();
+                    HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = memberMatch.getAssumptionsMap();
+                    for (HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions : assumptionsMap.values()) {
+                        for (ArrayList<SpectrumIdentificationAssumption> scoreAssumptions : advocateAssumptions.values()) {
+                            for (SpectrumIdentificationAssumption assumption : scoreAssumptions) {
+                                tempResultStore.addAssumption(spectrumKey, assumption);
                             }
                         }
                     }
+                    tempQcStatistics.addSpectrumMatch(assumptionsMap, null);
                 }
+                spectrumMatches.addAll(memberMatches);
 
                 // put the matches in the identification object
                 tempIdentification.addSpectrumMatches(spectrumMatches);
@@ -3521,10 +4278,470 @@ public class ResultsFrame extends javax.swing.JFrame {
         }
 
         numAdvocatesLoaded = numberOfAdvocateLoaded;
+        qcStatistics = tempQcStatistics;
+
+        spectrumSummaryIndex = new SpectrumSummaryIndex(tempResultStore);
+        spectrumScoreOrders.clear();
+        progressDialog.setTitle("Indexing Results. Please Wait...");
+        resultSearchIndex = new ResultSearchIndex(tempResultStore, DeNovoGUI.implementedAlgorithms);
+
+        // move the result columns out of the heap if they exceed their budget
+        if (memoryGovernor.shouldSpill(tempResultStore, null)) {
+            tempResultStore.spill(new File(dbFolder, RESULT_STORE_FILE_NAME));
+        }
+        resultStore = tempResultStore;
+        peptidesMapped = false;
+        memoryGovernor.setResultStore(resultStore);
+
+        return tempIdentification;
+    }
+
+    /**
+     * Returns the matches of the spectra represented by another spectrum of
+     * their cluster when sequencing, carrying copies of the matches of the
+     * representative so that the protein mapping of a member does not modify
+     * the peptides of the other members.
+     *
+     * @param spectrumMatches the matches imported
+     * @param resultFolder the folder of the result files
+     * @param spectrumClusters the clusters already loaded indexed by spectrum
+     * file name, null if the spectrum file was not clustered
+     *
+     * @return the matches of the other members of the clusters
+     *
+     * @throws IOException thrown if an error occurred while reading the
+     * clusters
+     */
+    private ArrayList<SpectrumMatch> getClusterMemberMatches(LinkedList<SpectrumMatch> spectrumMatches, File resultFolder,
+            HashMap<String, SpectrumClusters> spectrumClusters) throws IOException {
+
+        ArrayList<SpectrumMatch> result = new ArrayList<SpectrumMatch>();
+
+        for (SpectrumMatch spectrumMatch : spectrumMatches) {
+
+            String spectrumFile = Spectrum.getSpectrumFile(spectrumMatch.getKey());
+            SpectrumClusters fileClusters;
+            if (spectrumClusters.containsKey(spectrumFile)) {
+                fileClusters = spectrumClusters.get(spectrumFile);
+            } else {
+                File clusterFile = SpectrumClusters.getClusterFile(resultFolder, spectrumFile);
+                fileClusters = clusterFile.exists() ? SpectrumClusters.load(clusterFile) : null;
+                spectrumClusters.put(spectrumFile, fileClusters);
+            }
+
+            if (fileClusters == null) {
+                continue;
+            }
+
+            ArrayList<String> members = fileClusters.getMembers(Spectrum.getSpectrumTitle(spectrumMatch.getKey()));
+
+            if (members != null) {
+                byte[] serializedAssumptions = serialize(spectrumMatch.getAssumptionsMap());
+                for (String member : members) {
+                    SpectrumMatch memberMatch = new SpectrumMatch(Spectrum.getSpectrumKey(spectrumFile, member));
+                    HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = deserializeAssumptions(serializedAssumptions);
+                    for (int advocate : assumptionsMap.keySet()) {
+                        for (ArrayList<SpectrumIdentificationAssumption> scoreAssumptions : assumptionsMap.get(advocate).values()) {
+                            for (SpectrumIdentificationAssumption assumption : scoreAssumptions) {
+                                memberMatch.addHit(advocate, assumption, advocate == Advocate.direcTag.getIndex());
+                            }
+                        }
+                    }
+                    result.add(memberMatch);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Serializes an object in memory.
+     *
+     * @param object the object to serialize
+     *
+     * @return the serialized object
+     *
+     * @throws IOException thrown if the object cannot be serialized
+     */
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes);
+        try {
+            objectOutputStream.writeObject(object);
+        } finally {
+            objectOutputStream.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns a new copy of serialized assumptions.
+     *
+     * @param serializedAssumptions the assumptions serialized using
+     * {@link #serialize(java.lang.Object)}
+     *
+     * @return a copy of the assumptions
+     *
+     * @throws IOException thrown if the assumptions cannot be deserialized
+     */
+    @SuppressWarnings("unchecked")
+    private static HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> deserializeAssumptions(byte[] serializedAssumptions) throws IOException {
+        ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(serializedAssumptions));
+        try {
+            return (HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>) objectInputStream.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Impossible to copy the assumptions.", e);
+        } finally {
+            objectInputStream.close();
+        }
+    }
+
+    /**
+     * Opens the session snapshot of the given result files.
+     *
+     * @param resultFiles the result files
+     *
+     * @return the session snapshot, null if none or if it does not match the
+     * result files, the spectrum files or the modifications anymore
+     */
+    private SessionSnapshot openSessionSnapshot(ArrayList<File> resultFiles) {
+
+        File snapshotFile = SessionSnapshot.getSnapshotFile(resultFiles);
+
+        if (!snapshotFile.exists()) {
+            return null;
+        }
+
+        try {
+            SessionSnapshot snapshot = SessionSnapshot.open(snapshotFile);
+            if (snapshot.isValidFor(resultFiles, spectrumFiles.values(), searchParameters.getPtmSettings())) {
+                return snapshot;
+            }
+            snapshot.close();
+        } catch (IOException e) {
+            // the snapshot is corrupted or outdated, the results are imported from the result files instead
+            e.printStackTrace();
+            snapshotFile.delete();
+        }
+
+        return null;
+    }
+
+    /**
+     * Loads the results from a session snapshot. The result store, summary
+     * index and quality control statistics are read from the snapshot, the
+     * result files and spectra are not parsed. The spectrum matches are not
+     * put in the identification: the display, the exports and the quality
+     * control read them from the snapshot one spectrum at a time, and they are
+     * only added to the identification before the protein mapping, which
+     * modifies them. If the snapshot includes the peptides of a protein
+     * mapping, its matches are read once to make these peptides searchable.
+     * The columns of the result store are verified in the background once the
+     * results are displayed. If a spectrum match of the snapshot is corrupted
+     * or cannot be deserialized, the snapshot is deleted and the results are
+     * imported from the result files instead.
+     *
+     * @param snapshot the session snapshot
+     * @param resultFiles the result files of the snapshot
+     * @param waitingHandler the waiting handler
+     *
+     * @return the Identification object, null if canceled or if the
+     * identification database could not be created
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    private Identification loadSessionSnapshot(SessionSnapshot snapshot, ArrayList<File> resultFiles, WaitingHandler waitingHandler) throws Exception {
+
+        Identification tempIdentification = createIdentification();
+
+        if (tempIdentification == null) {
+            snapshot.close();
+            return null;
+        }
+
+        if (resultStore != null) {
+            resultStore.close();
+        }
+        closeSessionSnapshot();
+
+        progressDialog.setTitle("Indexing Results. Please Wait...");
+
+        DeNovoResultStore tempResultStore = snapshot.getResultStore();
+        ResultSearchIndex tempResultSearchIndex = new ResultSearchIndex(tempResultStore, DeNovoGUI.implementedAlgorithms);
+
+        if (snapshot.isMapped()) {
+
+            progressDialog.setTitle("Loading Results. Reading Snapshot. Please Wait...");
+            // the peptides of the protein mapping are not in the result store, they are indexed from the matches
+            int nSpectra = tempResultStore.getNSpectra();
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(nSpectra);
+
+            for (int i = 0; i < nSpectra; i++) {
+
+                SpectrumMatch spectrumMatch;
+                try {
+                    spectrumMatch = snapshot.getSpectrumMatch(i);
+                } catch (IOException e) {
+                    // the snapshot is corrupted, import the results from the result files instead
+                    e.printStackTrace();
+                    snapshot.discard();
+                    tempIdentification.close();
+                    waitingHandler.appendReport("The session snapshot could not be read, importing the results again.", true, true);
+                    Identification importedIdentification = importDeNovoResults(resultFiles, searchParameters, waitingHandler);
+                    if (importedIdentification != null && !waitingHandler.isRunCanceled()) {
+                        saveSessionSnapshot(resultFiles, importedIdentification, false);
+                    }
+                    return importedIdentification;
+                }
+                tempResultSearchIndex.setMappedAssumptions(tempResultStore.getSpectrumKey(i), spectrumMatch.getAssumptionsMap());
+
+                waitingHandler.increaseSecondaryProgressCounter();
+                if (waitingHandler.isRunCanceled()) {
+                    snapshot.close();
+                    return null;
+                }
+            }
+
+            tempResultSearchIndex.commitMappedAssumptions();
+        }
+
+        setDisplayStatistics(snapshot.getDisplayStatistics());
+        numAdvocatesLoaded = snapshot.getNAdvocates();
+        qcStatistics = snapshot.getQcStatistics(searchParameters);
+
+        spectrumSummaryIndex = snapshot.getSpectrumSummaryIndex();
+        spectrumScoreOrders.clear();
+        resultSearchIndex = tempResultSearchIndex;
+
+        resultStore = tempResultStore;
+        peptidesMapped = snapshot.isMapped();
+        nSnapshotMatchesLoaded = 0;
+        snapshotDiscarded = false;
+        sessionSnapshot = snapshot;
+        memoryGovernor.setResultStore(resultStore);
+        verifySessionSnapshot(snapshot);
 
         return tempIdentification;
     }
 
+    /**
+     * Adds the spectrum matches of the session snapshot to the identification,
+     * if not done already. The loading resumes where it stopped if it was
+     * canceled before.
+     *
+     * @param waitingHandler the waiting handler
+     *
+     * @return true if all matches are in the identification, false if
+     * canceled or if the snapshot is corrupted
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    private synchronized boolean loadSnapshotMatches(WaitingHandler waitingHandler) throws Exception {
+
+        SessionSnapshot snapshot = getMatchSnapshot();
+
+        if (snapshot == null) {
+            return true;
+        }
+
+        int nSpectra = snapshot.getResultStore().getNSpectra();
+
+        waitingHandler.setWaitingText("Loading Matches. Please Wait...");
+        waitingHandler.resetSecondaryProgressCounter();
+        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+        waitingHandler.setMaxSecondaryProgressCounter(nSpectra);
+        waitingHandler.setSecondaryProgressCounter(nSnapshotMatchesLoaded);
+
+        LinkedList<SpectrumMatch> spectrumMatches = new LinkedList<SpectrumMatch>();
+
+        for (int i = nSnapshotMatchesLoaded; i < nSpectra; i++) {
+
+            try {
+                spectrumMatches.add(snapshot.getSpectrumMatch(i));
+            } catch (IOException e) {
+                e.printStackTrace();
+                discardSessionSnapshot(snapshot);
+                waitingHandler.setRunCanceled();
+                return false;
+            }
+
+            if (spectrumMatches.size() == SNAPSHOT_BATCH_SIZE || i == nSpectra - 1) {
+                identification.addSpectrumMatches(spectrumMatches);
+                spectrumMatches = new LinkedList<SpectrumMatch>();
+                nSnapshotMatchesLoaded = i + 1;
+            }
+
+            waitingHandler.increaseSecondaryProgressCounter();
+            if (waitingHandler.isRunCanceled()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Verifies the columns of the result store of a session snapshot in the
+     * background. If they are corrupted, the snapshot is deleted and the user
+     * is asked to reopen the results.
+     *
+     * @param snapshot the session snapshot
+     */
+    private void verifySessionSnapshot(final SessionSnapshot snapshot) {
+
+        taskScheduler.submit(null, TaskScheduler.Priority.background, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!snapshot.verifyColumns()) {
+                        discardSessionSnapshot(snapshot);
+                    }
+                } catch (InterruptedIOException e) {
+                    // the results were closed
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes a corrupted session snapshot and asks the user to reopen the
+     * results. The user is only warned once.
+     *
+     * @param snapshot the session snapshot
+     */
+    private void discardSessionSnapshot(SessionSnapshot snapshot) {
+
+        synchronized (snapshot) {
+            if (snapshotDiscarded) {
+                return;
+            }
+            snapshotDiscarded = true;
+        }
+
+        try {
+            snapshot.discard();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        JOptionPane.showMessageDialog(ResultsFrame.this, "The session snapshot of the results is corrupted and was deleted.\n"
+                + "Please reopen the results to import them again.", "Snapshot Error", JOptionPane.WARNING_MESSAGE);
+    }
+
+    /**
+     * Writes the session snapshot of the results in the background. The
+     * writing is abandoned if the matches are modified by the protein mapping
+     * in the meantime, the snapshot being written again once the mapping is
+     * complete.
+     *
+     * @param resultFiles the result files
+     * @param snapshotIdentification the identification containing the
+     * matches
+     * @param mapped true if the matches include the peptides of the protein
+     * mapping
+     */
+    private void saveSessionSnapshot(final ArrayList<File> resultFiles, final Identification snapshotIdentification, final boolean mapped) {
+
+        final File snapshotFile = SessionSnapshot.getSnapshotFile(resultFiles);
+        final ArrayList<File> projectSpectrumFiles = new ArrayList<File>(spectrumFiles.values());
+        final PtmSettings ptmSettings = searchParameters.getPtmSettings();
+        final int nAdvocates = numAdvocatesLoaded;
+        final HashMap<String, Double> displayStatistics = getDisplayStatistics();
+        final SpectrumSummaryIndex summaryIndex = spectrumSummaryIndex;
+        final QcStatistics snapshotQcStatistics = qcStatistics;
+
+        taskScheduler.submit(SNAPSHOT_TASK, TaskScheduler.Priority.background, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SessionSnapshot.write(snapshotFile, resultFiles, projectSpectrumFiles, ptmSettings, nAdvocates,
+                            displayStatistics, summaryIndex, snapshotQcStatistics, snapshotIdentification, mapped, null);
+                } catch (Exception e) {
+                    // the project can still be reopened from the result files
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the session snapshot the results were loaded from, if any.
+     *
+     * @throws IOException thrown if an error occurs while closing the file
+     */
+    private void closeSessionSnapshot() throws IOException {
+        if (sessionSnapshot != null) {
+            sessionSnapshot.close();
+            sessionSnapshot = null;
+            nSnapshotMatchesLoaded = 0;
+        }
+    }
+
+    /**
+     * Returns the statistics used to scale the display, indexed by name.
+     *
+     * @return the statistics used to scale the display
+     */
+    private HashMap<String, Double> getDisplayStatistics() {
+        HashMap<String, Double> displayStatistics = new HashMap<String, Double>();
+        displayStatistics.put("minRankScore", minRankScore);
+        displayStatistics.put("maxRankScore", maxRankScore);
+        displayStatistics.put("maxPepnovoScore", maxPepnovoScore);
+        displayStatistics.put("minDirectTagEvalue", minDirectTagEvalue);
+        displayStatistics.put("maxDirectTagEvalue", maxDirectTagEvalue);
+        displayStatistics.put("minPNovoScore", minPNovoScore);
+        displayStatistics.put("maxPNovoScore", maxPNovoScore);
+        displayStatistics.put("minNovorScore", minNovorScore);
+        displayStatistics.put("maxNovorScore", maxNovorScore);
+        displayStatistics.put("maxNGap", maxNGap);
+        displayStatistics.put("maxCGap", maxCGap);
+        displayStatistics.put("maxIdentificationMz", maxIdentificationMz);
+        displayStatistics.put("maxIdentificationCharge", maxIdentificationCharge);
+        return displayStatistics;
+    }
+
+    /**
+     * Sets the statistics used to scale the display. The statistics not
+     * provided are left unchanged.
+     *
+     * @param displayStatistics the statistics used to scale the display,
+     * indexed by name
+     */
+    private void setDisplayStatistics(HashMap<String, Double> displayStatistics) {
+        minRankScore = getDisplayStatistic(displayStatistics, "minRankScore", minRankScore);
+        maxRankScore = getDisplayStatistic(displayStatistics, "maxRankScore", maxRankScore);
+        maxPepnovoScore = getDisplayStatistic(displayStatistics, "maxPepnovoScore", maxPepnovoScore);
+        minDirectTagEvalue = getDisplayStatistic(displayStatistics, "minDirectTagEvalue", minDirectTagEvalue);
+        maxDirectTagEvalue = getDisplayStatistic(displayStatistics, "maxDirectTagEvalue", maxDirectTagEvalue);
+        minPNovoScore = getDisplayStatistic(displayStatistics, "minPNovoScore", minPNovoScore);
+        maxPNovoScore = getDisplayStatistic(displayStatistics, "maxPNovoScore", maxPNovoScore);
+        minNovorScore = getDisplayStatistic(displayStatistics, "minNovorScore", minNovorScore);
+        maxNovorScore = getDisplayStatistic(displayStatistics, "maxNovorScore", maxNovorScore);
+        maxNGap = getDisplayStatistic(displayStatistics, "maxNGap", maxNGap);
+        maxCGap = getDisplayStatistic(displayStatistics, "maxCGap", maxCGap);
+        maxIdentificationMz = getDisplayStatistic(displayStatistics, "maxIdentificationMz", maxIdentificationMz);
+        maxIdentificationCharge = getDisplayStatistic(displayStatistics, "maxIdentificationCharge", maxIdentificationCharge);
+    }
+
+    /**
+     * Returns a display statistic, or the given default value if not
+     * provided.
+     *
+     * @param displayStatistics the statistics indexed by name
+     * @param name the name of the statistic
+     * @param defaultValue the default value
+     *
+     * @return the value of the statistic
+     */
+    private static double getDisplayStatistic(HashMap<String, Double> displayStatistics, String name, double defaultValue) {
+        Double value = displayStatistics.get(name);
+        return value == null ? defaultValue : value;
+    }
+
     /**
      * Close the DB connection and empty the temp folder.
      */
@@ -3554,6 +4771,10 @@ public class ResultsFrame extends javax.swing.JFrame {
 //                @Override
 //                public void run() {
             try {
+                if (resultStore != null) {
+                    resultStore.close();
+                }
+                closeSessionSnapshot();
                 identification.close();
                 DerbyUtil.closeConnection();
                 File matchFolder = getCacheDirectory(getJarFilePath());
@@ -3581,7 +4802,8 @@ public class ResultsFrame extends javax.swing.JFrame {
      *
      * @param spectrumFileName the spectrum file name
      * @param spectrumTitle the spectrum title
-     * @param psmRow the row number of the PSM
+     * @param psmRow the row number of the PSM in the order of the
+     * assumptions, -1 to only select the spectrum
      */
     public void setSelectedPsm(final String spectrumFileName, final String spectrumTitle, final int psmRow) {
 
@@ -3594,7 +4816,7 @@ public class ResultsFrame extends javax.swing.JFrame {
                 int spectrumRowIndex = querySpectraTable.convertRowIndexToView(orderedSpectrumTitles.indexOf(spectrumTitle));
                 querySpectraTable.setRowSelectionInterval(spectrumRowIndex, spectrumRowIndex);
                 querySpectraTable.scrollRectToVisible(querySpectraTable.getCellRect(spectrumRowIndex, 0, false));
-                updateAssumptionsTable(deNovoMatchesTable.convertRowIndexToView(psmRow));
+                updateAssumptionsTable(psmRow);
             }
         });
     }
@@ -3624,6 +4846,7 @@ public class ResultsFrame extends javax.swing.JFrame {
      */
     public void setAnnotationPreferences(AnnotationSettings annotationPreferences) {
         this.annotationPreferences = annotationPreferences;
+        annotationCache.clear();
     }
 
     /**
@@ -3632,70 +4855,59 @@ public class ResultsFrame extends javax.swing.JFrame {
      * @return the current delta masses
      */
     public HashMap<Double, String> getCurrentMassDeltas() {
+        return getMassDeltaIndex().getMassDeltas();
+    }
 
-        HashMap<Double, String> knownMassDeltas = new HashMap<Double, String>();
-
-        // add the monoisotopic amino acids masses
-        knownMassDeltas.put(AminoAcid.A.getMonoisotopicMass(), "A");
-        knownMassDeltas.put(AminoAcid.R.getMonoisotopicMass(), "R");
-        knownMassDeltas.put(AminoAcid.N.getMonoisotopicMass(), "N");
-        knownMassDeltas.put(AminoAcid.D.getMonoisotopicMass(), "D");
-        knownMassDeltas.put(AminoAcid.C.getMonoisotopicMass(), "C");
-        knownMassDeltas.put(AminoAcid.Q.getMonoisotopicMass(), "Q");
-        knownMassDeltas.put(AminoAcid.E.getMonoisotopicMass(), "E");
-        knownMassDeltas.put(AminoAcid.G.getMonoisotopicMass(), "G");
-        knownMassDeltas.put(AminoAcid.H.getMonoisotopicMass(), "H");
-        knownMassDeltas.put(AminoAcid.I.getMonoisotopicMass(), "I/L");
-        knownMassDeltas.put(AminoAcid.K.getMonoisotopicMass(), "K");
-        knownMassDeltas.put(AminoAcid.M.getMonoisotopicMass(), "M");
-        knownMassDeltas.put(AminoAcid.F.getMonoisotopicMass(), "F");
-        knownMassDeltas.put(AminoAcid.P.getMonoisotopicMass(), "P");
-        knownMassDeltas.put(AminoAcid.S.getMonoisotopicMass(), "S");
-        knownMassDeltas.put(AminoAcid.T.getMonoisotopicMass(), "T");
-        knownMassDeltas.put(AminoAcid.W.getMonoisotopicMass(), "W");
-        knownMassDeltas.put(AminoAcid.Y.getMonoisotopicMass(), "Y");
-        knownMassDeltas.put(AminoAcid.V.getMonoisotopicMass(), "V");
-        knownMassDeltas.put(AminoAcid.U.getMonoisotopicMass(), "U");
-        knownMassDeltas.put(AminoAcid.O.getMonoisotopicMass(), "O");
-
-        // add default neutral losses
-//        knownMassDeltas.put(NeutralLoss.H2O.mass, "H2O");
-//        knownMassDeltas.put(NeutralLoss.NH3.mass, "NH3");
-//        knownMassDeltas.put(NeutralLoss.CH4OS.mass, "CH4OS");
-//        knownMassDeltas.put(NeutralLoss.H3PO4.mass, "H3PO4");
-//        knownMassDeltas.put(NeutralLoss.HPO3.mass, "HPO3");
-//        knownMassDeltas.put(4d, "18O"); // @TODO: should this be added to neutral losses??
-//        knownMassDeltas.put(44d, "PEG"); // @TODO: should this be added to neutral losses??
-        // add the modifications
-        PtmSettings modificationProfile = searchParameters.getPtmSettings();
-        ArrayList<String> modificationList = modificationProfile.getAllModifications();
-        Collections.sort(modificationList);
-
-        // iterate the modifications list and add the non-terminal modifications
-        for (String modification : modificationList) {
-            PTM ptm = ptmFactory.getPTM(modification);
-
-            if (ptm != null) {
-
-                String shortName = ptm.getShortName();
-                AminoAcidPattern ptmPattern = ptm.getPattern();
-                double mass = ptm.getMass();
-
-                if (ptm.getType() == PTM.MODAA && ptmPattern != null) {
-                    for (Character aa : ptmPattern.getAminoAcidsAtTarget()) {
-                        if (!knownMassDeltas.containsValue(aa + "<" + shortName + ">")) {
-                            AminoAcid aminoAcid = AminoAcid.getAminoAcid(aa);
-                            knownMassDeltas.put(mass + aminoAcid.getMonoisotopicMass(),
-                                    aa + "<" + shortName + ">");
-                        }
-                    }
-                }
-            } else {
-                System.out.println("Error: PTM not found: " + modification);
-            }
+    /**
+     * Returns the mass delta index of the current modification settings. The
+     * index is compiled again only when the modifications change.
+     *
+     * @return the mass delta index of the current modification settings
+     */
+    public MassDeltaIndex getMassDeltaIndex() {
+        MassDeltaIndex index = massDeltaIndex;
+        PtmSettings ptmSettings = searchParameters.getPtmSettings();
+        if (index == null || !index.isCompiledFor(ptmSettings)) {
+            index = new MassDeltaIndex(ptmSettings, false);
+            massDeltaIndex = index;
         }
+        return index;
+    }
+
+    /**
+     * Returns the columnar store of the de novo results.
+     *
+     * @return the columnar store of the de novo results
+     */
+    public DeNovoResultStore getResultStore() {
+        return resultStore;
+    }
+
+    /**
+     * Returns the summary of the de novo results per spectrum.
+     *
+     * @return the summary of the de novo results per spectrum
+     */
+    public SpectrumSummaryIndex getSpectrumSummaryIndex() {
+        return spectrumSummaryIndex;
+    }
+
+    /**
+     * Returns the scheduler of the background tasks.
+     *
+     * @return the scheduler of the background tasks
+     */
+    public TaskScheduler getTaskScheduler() {
+        return taskScheduler;
+    }
 
-        return knownMassDeltas;
+    /**
+     * Returns the search index of the de novo results.
+     *
+     * @return the search index of the de novo results
+     */
+    public ResultSearchIndex getResultSearchIndex() {
+        return resultSearchIndex;
     }
 
     /**
@@ -3791,4 +5003,56 @@ public class ResultsFrame extends javax.swing.JFrame {
 
         return alphaValues;
     }
+
+    /**
+     * A spectrum loaded and annotated in the background, ready for display.
+     */
+    private static class AnnotatedSpectrum {
+
+        /**
+         * The spectrum.
+         */
+        private final MSnSpectrum spectrum;
+        /**
+         * The m/z values of the spectrum.
+         */
+        private final double[] mzValues;
+        /**
+         * The intensities of the spectrum.
+         */
+        private final double[] intensities;
+        /**
+         * The normalized intensities of the spectrum.
+         */
+        private final double[] normalizedIntensities;
+        /**
+         * The assumptions annotated.
+         */
+        private final ArrayList<SpectrumIdentificationAssumption> assumptions;
+        /**
+         * The annotations of every assumption.
+         */
+        private final ArrayList<ArrayList<IonMatch>> annotations;
+        /**
+         * The known mass deltas.
+         */
+        private final HashMap<Double, String> massDeltas;
+
+        /**
+         * Constructor.
+         *
+         * @param spectrum the spectrum
+         * @param assumptions the assumptions to annotate
+         * @param massDeltas the known mass deltas
+         */
+        private AnnotatedSpectrum(MSnSpectrum spectrum, ArrayList<SpectrumIdentificationAssumption> assumptions, HashMap<Double, String> massDeltas) {
+            this.spectrum = spectrum;
+            this.assumptions = assumptions;
+            this.massDeltas = massDeltas;
+            mzValues = spectrum.getMzValuesAsArray();
+            intensities = spectrum.getIntensityValuesAsArray();
+            normalizedIntensities = assumptions.size() == 2 ? spectrum.getIntensityValuesNormalizedAsArray() : null;
+            annotations = new ArrayList<ArrayList<IonMatch>>(assumptions.size());
+        }
+    }
 }
@@ -0,0 +1,169 @@
+package com.compomics.denovogui.gui;
+
+import com.compomics.denovogui.mapping.ProteinMappingCache;
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.NeutralLoss;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bounded cache of the spectrum annotations displayed in the results frame.
+ * The annotations are indexed by spectrum, assumption and annotation
+ * settings, so that going back to a spectrum does not rerun the annotator.
+ * The least recently used annotations are evicted when the cache is full.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class SpectrumAnnotationCache {
+
+    /**
+     * The default maximal number of annotations in cache.
+     */
+    public static final int DEFAULT_SIZE = 500;
+    /**
+     * The maximal number of annotations in cache.
+     */
+    private final int size;
+    /**
+     * The annotations in access order.
+     */
+    private final LinkedHashMap<String, ArrayList<IonMatch>> annotations;
+
+    /**
+     * Constructor.
+     *
+     * @param size the maximal number of annotations in cache
+     */
+    public SpectrumAnnotationCache(int size) {
+        this.size = size;
+        annotations = new LinkedHashMap<String, ArrayList<IonMatch>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ArrayList<IonMatch>> eldest) {
+                return size() > SpectrumAnnotationCache.this.size;
+            }
+        };
+    }
+
+    /**
+     * Returns the annotations in cache for the given key, null if not in
+     * cache.
+     *
+     * @param key the key of the annotations
+     *
+     * @return the annotations in cache
+     */
+    public synchronized ArrayList<IonMatch> get(String key) {
+        return annotations.get(key);
+    }
+
+    /**
+     * Adds annotations to the cache.
+     *
+     * @param key the key of the annotations
+     * @param ionMatches the annotations
+     */
+    public synchronized void put(String key, ArrayList<IonMatch> ionMatches) {
+        annotations.put(key, ionMatches);
+    }
+
+    /**
+     * Empties the cache.
+     */
+    public synchronized void clear() {
+        annotations.clear();
+    }
+
+    /**
+     * Returns the number of annotations in cache.
+     *
+     * @return the number of annotations in cache
+     */
+    public synchronized int size() {
+        return annotations.size();
+    }
+
+    /**
+     * Returns the key of the annotations of a spectrum for a given assumption
+     * and annotation settings. The ion types, neutral losses and charges are
+     * written in a fixed order, so that the key does not depend on the order
+     * in which they were selected.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @param assumption the assumption
+     * @param annotationSettings the general annotation settings
+     * @param specificAnnotationSettings the annotation settings specific to
+     * this spectrum and assumption
+     *
+     * @return the key of the annotations
+     */
+    public static String getKey(String spectrumKey, SpectrumIdentificationAssumption assumption,
+            AnnotationSettings annotationSettings, SpecificAnnotationSettings specificAnnotationSettings) {
+
+        StringBuilder key = new StringBuilder(spectrumKey);
+        key.append('|').append(assumption.getAdvocate()).append('|').append(assumption.getIdentificationCharge().value).append('|');
+
+        if (assumption instanceof TagAssumption) {
+            key.append(ProteinMappingCache.getTagKey(((TagAssumption) assumption).getTag()));
+        } else if (assumption instanceof PeptideAssumption) {
+            key.append("P:").append(((PeptideAssumption) assumption).getPeptide().getKey());
+        } else {
+            throw new UnsupportedOperationException("Annotation not supported for assumption of type " + assumption.getClass() + ".");
+        }
+
+        key.append('|').append(annotationSettings.getFragmentIonAccuracy())
+                .append('|').append(annotationSettings.getIntensityLimit())
+                .append('|').append(annotationSettings.getTiesResolution())
+                .append('|').append(annotationSettings.getDeNovoCharge())
+                .append('|');
+
+        Map<Ion.IonType, ? extends Collection<Integer>> ionTypes = specificAnnotationSettings.getIonTypes();
+        for (Map.Entry<Ion.IonType, ? extends Collection<Integer>> entry : new TreeMap<Ion.IonType, Collection<Integer>>(ionTypes).entrySet()) {
+            key.append(entry.getKey().ordinal()).append(':');
+            appendSorted(key, new ArrayList<Integer>(entry.getValue()));
+            key.append(';');
+        }
+
+        key.append('|');
+        ArrayList<String> lossNames = new ArrayList<String>();
+        for (NeutralLoss neutralLoss : specificAnnotationSettings.getNeutralLossesMap().getAccountedNeutralLosses()) {
+            lossNames.add(neutralLoss.name);
+        }
+        Collections.sort(lossNames);
+        for (String lossName : lossNames) {
+            key.append(lossName).append(';');
+        }
+
+        key.append('|');
+        appendSorted(key, new ArrayList<Integer>(specificAnnotationSettings.getSelectedCharges()));
+
+        return key.toString();
+    }
+
+    /**
+     * Sorts the given integers and appends them to a key, separated by
+     * commas.
+     *
+     * @param key the key
+     * @param values the integers, sorted in place
+     */
+    private static void appendSorted(StringBuilder key, ArrayList<Integer> values) {
+        Collections.sort(values);
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(values.get(i));
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.compomics.denovogui.gui;
+
+import com.compomics.util.gui.waiting.waitinghandlers.ProgressDialogX;
+import com.compomics.util.waiting.WaitingHandler;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scheduler of the background tasks of the results display. The tasks are run
+ * in bounded pools of threads: the interactive tasks, like searches and
+ * display updates, have their own threads so that they never wait for the bulk
+ * tasks, like exports and protein mapping, which are run one at a time at a
+ * lower thread priority. The background tasks nobody waits for, like the
+ * writing of session snapshots, have their own thread at the lowest priority
+ * so that they never delay the bulk tasks.
+ *
+ * Tasks submitted with a key supersede the pending or running task of the same
+ * key. A superseded task is canceled through its waiting handler when it has
+ * one, and otherwise polls isCanceled(). The tasks are never interrupted, as
+ * they read the memory mapped files and the database, whose channels are
+ * closed on interruption. A superseded task which did not start is not run,
+ * and its waiting handler is set as finished.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class TaskScheduler {
+
+    /**
+     * The priority of a task.
+     */
+    public enum Priority {
+
+        /**
+         * Tasks the user is waiting for.
+         */
+        interactive,
+        /**
+         * Long running tasks processing the whole project.
+         */
+        bulk,
+        /**
+         * Long running tasks the user is not waiting for.
+         */
+        background
+    }
+    /**
+     * The default number of threads used for the interactive tasks.
+     */
+    public static final int DEFAULT_INTERACTIVE_THREADS = 2;
+    /**
+     * The pool running the interactive tasks.
+     */
+    private final ExecutorService interactivePool;
+    /**
+     * The pool running the bulk tasks.
+     */
+    private final ExecutorService bulkPool;
+    /**
+     * The pool running the background tasks.
+     */
+    private final ExecutorService backgroundPool;
+    /**
+     * The pool displaying the modal progress dialogs.
+     */
+    private final ExecutorService dialogPool;
+    /**
+     * The task pending or running for every key.
+     */
+    private final HashMap<String, ScheduledTask> currentTasks = new HashMap<String, ScheduledTask>();
+    /**
+     * All tasks pending or running, with or without key.
+     */
+    private final HashSet<ScheduledTask> pendingTasks = new HashSet<ScheduledTask>();
+    /**
+     * The task run by the current thread.
+     */
+    private static final ThreadLocal<ScheduledTask> currentTask = new ThreadLocal<ScheduledTask>();
+
+    /**
+     * Constructor.
+     *
+     * @param name the name of the scheduler, used to name the threads
+     * @param nInteractiveThreads the number of threads used for the
+     * interactive tasks
+     */
+    public TaskScheduler(String name, int nInteractiveThreads) {
+        interactivePool = Executors.newFixedThreadPool(nInteractiveThreads, getThreadFactory(name + "-Interactive", Thread.NORM_PRIORITY));
+        bulkPool = Executors.newFixedThreadPool(1, getThreadFactory(name + "-Bulk", Thread.NORM_PRIORITY - 1));
+        backgroundPool = Executors.newFixedThreadPool(1, getThreadFactory(name + "-Background", Thread.MIN_PRIORITY));
+        dialogPool = Executors.newCachedThreadPool(getThreadFactory(name + "-ProgressDialog", Thread.NORM_PRIORITY));
+    }
+
+    /**
+     * Returns a factory of daemon threads.
+     *
+     * @param prefix the prefix of the thread names
+     * @param priority the priority of the threads
+     *
+     * @return a factory of daemon threads
+     */
+    private static ThreadFactory getThreadFactory(final String prefix, final int priority) {
+        return new ThreadFactory() {
+
+            /**
+             * The number of threads created.
+             */
+            private final AtomicInteger nThreads = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + "-" + nThreads.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(priority);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Submits a task without waiting handler.
+     *
+     * @param key the key of the task, superseding the previous task of the
+     * same key, null if the task supersedes no other task
+     * @param priority the priority of the task
+     * @param task the task
+     *
+     * @return the future of the task
+     */
+    public Future<?> submit(String key, Priority priority, Runnable task) {
+        return submit(key, priority, task, null);
+    }
+
+    /**
+     * Submits a task.
+     *
+     * @param key the key of the task, superseding the previous task of the
+     * same key, null if the task supersedes no other task
+     * @param priority the priority of the task
+     * @param task the task
+     * @param waitingHandler the waiting handler of the task, used to cancel
+     * it, can be null
+     *
+     * @return the future of the task
+     */
+    public synchronized Future<?> submit(String key, Priority priority, Runnable task, WaitingHandler waitingHandler) {
+
+        if (key != null) {
+            cancel(key);
+        }
+
+        ScheduledTask scheduledTask = new ScheduledTask(key, task, waitingHandler);
+        pendingTasks.add(scheduledTask);
+        scheduledTask.future = getPool(priority).submit(scheduledTask);
+
+        if (key != null) {
+            currentTasks.put(key, scheduledTask);
+        }
+
+        return scheduledTask.future;
+    }
+
+    /**
+     * Returns the pool running the tasks of the given priority.
+     *
+     * @param priority the priority of the tasks
+     *
+     * @return the pool running the tasks
+     */
+    private ExecutorService getPool(Priority priority) {
+        switch (priority) {
+            case interactive:
+                return interactivePool;
+            case background:
+                return backgroundPool;
+            default:
+                return bulkPool;
+        }
+    }
+
+    /**
+     * Cancels the task of the given key, if any.
+     *
+     * @param key the key of the task
+     */
+    public synchronized void cancel(String key) {
+        ScheduledTask scheduledTask = currentTasks.remove(key);
+        if (scheduledTask != null) {
+            scheduledTask.cancel();
+        }
+    }
+
+    /**
+     * Indicates whether the task run by the calling thread was canceled. The
+     * tasks submitted without waiting handler poll this method to stop.
+     *
+     * @return true if the task run by the calling thread was canceled, false
+     * if not or if the calling thread is not run by a scheduler
+     */
+    public static boolean isCanceled() {
+        ScheduledTask scheduledTask = currentTask.get();
+        return scheduledTask != null && scheduledTask.canceled;
+    }
+
+    /**
+     * Indicates whether a task of the given key is pending or running.
+     *
+     * @param key the key of the task
+     *
+     * @return true if a task of the given key is pending or running
+     */
+    public synchronized boolean isRunning(String key) {
+        return currentTasks.containsKey(key);
+    }
+
+    /**
+     * Displays a modal progress dialog without blocking the calling thread.
+     *
+     * @param progressDialog the progress dialog
+     */
+    public void showProgressDialog(final ProgressDialogX progressDialog) {
+        dialogPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    progressDialog.setVisible(true);
+                } catch (IndexOutOfBoundsException e) {
+                    // ignore
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancels all tasks, with or without key, and stops the threads. The
+     * running tasks are not interrupted, awaitTermination() waits for them to
+     * stop.
+     */
+    public synchronized void shutdown() {
+        for (ScheduledTask scheduledTask : new ArrayList<ScheduledTask>(pendingTasks)) {
+            scheduledTask.cancel();
+        }
+        currentTasks.clear();
+        interactivePool.shutdown();
+        bulkPool.shutdown();
+        backgroundPool.shutdown();
+        dialogPool.shutdown();
+    }
+
+    /**
+     * Waits for the tasks submitted to terminate after a shutdown. The
+     * timeout applies to all pools together.
+     *
+     * @param timeout the maximal time to wait in milliseconds
+     *
+     * @return true if all tasks terminated
+     *
+     * @throws InterruptedException thrown if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        for (ExecutorService pool : new ExecutorService[]{interactivePool, bulkPool, backgroundPool}) {
+            if (!pool.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes a task from the current tasks once done.
+     *
+     * @param scheduledTask the task
+     */
+    private synchronized void done(ScheduledTask scheduledTask) {
+        pendingTasks.remove(scheduledTask);
+        if (scheduledTask.key != null && currentTasks.get(scheduledTask.key) == scheduledTask) {
+            currentTasks.remove(scheduledTask.key);
+        }
+    }
+
+    /**
+     * A task submitted to the scheduler.
+     */
+    private class ScheduledTask implements Runnable {
+
+        /**
+         * The key of the task, can be null.
+         */
+        private final String key;
+        /**
+         * The task to run.
+         */
+        private final Runnable task;
+        /**
+         * The waiting handler of the task, can be null.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Set when the task is started or canceled, whichever comes first.
+         */
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        /**
+         * Set when the task is canceled.
+         */
+        private volatile boolean canceled = false;
+        /**
+         * The future of the task.
+         */
+        private Future<?> future;
+
+        /**
+         * Constructor.
+         *
+         * @param key the key of the task, can be null
+         * @param task the task to run
+         * @param waitingHandler the waiting handler of the task, can be null
+         */
+        public ScheduledTask(String key, Runnable task, WaitingHandler waitingHandler) {
+            this.key = key;
+            this.task = task;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public void run() {
+            currentTask.set(this);
+            try {
+                if (claimed.compareAndSet(false, true)
+                        && (waitingHandler == null || !waitingHandler.isRunCanceled())) {
+                    task.run();
+                }
+            } finally {
+                currentTask.remove();
+                done(this);
+            }
+        }
+
+        /**
+         * Cancels the task. A task which did not start is not run, and its
+         * waiting handler is set as finished. A running task is canceled
+         * through its waiting handler, or through isCanceled() if it has none,
+         * and is never interrupted.
+         */
+        public void cancel() {
+            canceled = true;
+            boolean started = !claimed.compareAndSet(false, true);
+            if (waitingHandler != null) {
+                waitingHandler.setRunCanceled();
+                if (!started) {
+                    waitingHandler.setRunFinished();
+                }
+            }
+            future.cancel(false);
+            if (!started) {
+                // the executor will not run the task
+                done(this);
+            }
+        }
+    }
+}
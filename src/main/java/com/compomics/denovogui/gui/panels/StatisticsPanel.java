@@ -1,6 +1,16 @@
 package com.compomics.denovogui.gui.panels;
 
 import com.compomics.denovogui.gui.DeNovoGUI;
+import com.compomics.denovogui.gui.qc.QcHistogram;
+import com.compomics.denovogui.gui.qc.QcMetric;
+import com.compomics.denovogui.gui.qc.QcStatistics;
+import com.compomics.denovogui.gui.qc.StreamingHistogram;
+import com.compomics.util.Util;
+import com.compomics.util.experiment.identification.Advocate;
+import java.awt.GridLayout;
+import org.jfree.chart.ChartPanel;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.title.TextTitle;
 
 /**
  *
@@ -24,6 +34,55 @@ public class StatisticsPanel extends javax.swing.JPanel {
         this.deNovoGUI = deNovoGUI;
     }
 
+    /**
+     * Displays the histograms of the quality control metrics, with the median
+     * and quartiles of every advocate below the title.
+     *
+     * @param statistics the quality control statistics
+     */
+    public void setStatistics(QcStatistics statistics) {
+        deNovoHistogramPlotPanel.removeAll();
+        deNovoHistogramPlotPanel.setLayout(new GridLayout(0, 2));
+        for (QcMetric metric : QcMetric.values()) {
+            QcHistogram histogram = new QcHistogram(statistics, metric);
+            JFreeChart chart = histogram.getChart();
+            String quantiles = getQuantiles(statistics, metric);
+            if (!quantiles.isEmpty()) {
+                chart.addSubtitle(new TextTitle(quantiles));
+            }
+            deNovoHistogramPlotPanel.add(new ChartPanel(chart));
+        }
+        deNovoHistogramPlotPanel.revalidate();
+        deNovoHistogramPlotPanel.repaint();
+    }
+
+    /**
+     * Returns the median and quartiles of a metric for every advocate, e.g.
+     * "PepNovo+: median 12.5 (Q1 10.2, Q3 15.1)".
+     *
+     * @param statistics the quality control statistics
+     * @param metric the metric
+     *
+     * @return the median and quartiles of the metric, empty if no values
+     */
+    private static String getQuantiles(QcStatistics statistics, QcMetric metric) {
+        StringBuilder result = new StringBuilder();
+        for (int advocateIndex : statistics.getAdvocates()) {
+            StreamingHistogram histogram = statistics.getHistogram(advocateIndex, metric);
+            if (histogram != null && histogram.getCount() > 0) {
+                if (result.length() > 0) {
+                    result.append("; ");
+                }
+                Advocate advocate = Advocate.getAdvocate(advocateIndex);
+                result.append(advocate != null ? advocate.getName() : Integer.toString(advocateIndex))
+                        .append(": median ").append(Util.roundDouble(histogram.getQuantile(0.5), 2))
+                        .append(" (Q1 ").append(Util.roundDouble(histogram.getQuantile(0.25), 2))
+                        .append(", Q3 ").append(Util.roundDouble(histogram.getQuantile(0.75), 2)).append(")");
+            }
+        }
+        return result.toString();
+    }
+
     /**
      * This method is called from within the constructor to initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is always
@@ -39,7 +98,7 @@ public class StatisticsPanel extends javax.swing.JPanel {
 
         statisticsPanel.setBackground(new java.awt.Color(230, 230, 230));
 
-        deNovoHistogramPanel.setBorder(javax.swing.BorderFactory.createTitledBorder("De Novo Score Histogram"));
+        deNovoHistogramPanel.setBorder(javax.swing.BorderFactory.createTitledBorder("De Novo Statistics"));
         deNovoHistogramPanel.setOpaque(false);
 
         deNovoHistogramPlotPanel.setLayout(new javax.swing.BoxLayout(deNovoHistogramPlotPanel, javax.swing.BoxLayout.LINE_AXIS));
@@ -0,0 +1,116 @@
+package com.compomics.denovogui.gui.qc;
+
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.Identification;
+import java.io.IOException;
+import java.sql.SQLException;
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.xy.XYBarRenderer;
+import org.jfree.data.xy.XYIntervalSeries;
+import org.jfree.data.xy.XYIntervalSeriesCollection;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * Histogram of a quality control metric of the best matches, with one series
+ * per advocate.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class QcHistogram extends Chart {
+
+    /**
+     * The quality control statistics.
+     */
+    protected QcStatistics statistics;
+    /**
+     * The metric displayed.
+     */
+    protected QcMetric metric;
+
+    /**
+     * Constructs the histogram of a metric from precomputed statistics.
+     *
+     * @param statistics the quality control statistics
+     * @param metric the metric to display
+     */
+    public QcHistogram(QcStatistics statistics, QcMetric metric) {
+        super(null);
+        this.statistics = statistics;
+        this.metric = metric;
+        setChart();
+    }
+
+    /**
+     * Constructs the histogram of the scores computing the statistics from
+     * the given identification.
+     *
+     * @param identification the identification
+     */
+    protected QcHistogram(Identification identification) {
+        super(identification);
+    }
+
+    @Override
+    protected void process(Identification identification) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        try {
+            statistics = QcStatistics.getStatistics(identification, null);
+        } catch (MzMLUnmarshallerException e) {
+            throw new IOException("An error occurred while reading the precursors.", e);
+        }
+        if (metric == null) {
+            metric = QcMetric.score;
+        }
+        setChart();
+    }
+
+    @Override
+    protected void setChart() {
+
+        XYIntervalSeriesCollection dataset = new XYIntervalSeriesCollection();
+
+        for (int advocateIndex : statistics.getAdvocates()) {
+            StreamingHistogram histogram = statistics.getHistogram(advocateIndex, metric);
+            if (histogram != null && histogram.getCount() > 0) {
+                Advocate advocate = Advocate.getAdvocate(advocateIndex);
+                XYIntervalSeries series = new XYIntervalSeries(advocate != null ? advocate.getName() : Integer.toString(advocateIndex));
+                for (int bin = 0; bin < histogram.getNBins(); bin++) {
+                    long binCount = histogram.getBinCount(bin);
+                    if (binCount > 0) {
+                        double start = histogram.getBinStart(bin);
+                        double end = start + histogram.getBinWidth();
+                        series.add((start + end) / 2, start, end, binCount, 0, binCount);
+                    }
+                }
+                dataset.addSeries(series);
+            }
+        }
+
+        chart = ChartFactory.createHistogram(getChartTitle(),
+                metric.name,
+                "Frequency",
+                dataset,
+                PlotOrientation.VERTICAL,
+                true,
+                true,
+                false);
+
+        XYPlot plot = (XYPlot) chart.getPlot();
+        plot.setBackgroundAlpha(0f);
+        plot.setForegroundAlpha(0.7f);
+        plot.setDomainGridlinesVisible(false);
+        plot.setRangeGridlinesVisible(false);
+        plot.setOutlineVisible(false);
+
+        XYBarRenderer renderer = new XYBarRenderer();
+        renderer.setShadowVisible(false);
+        plot.setRenderer(renderer);
+    }
+
+    @Override
+    public String getChartTitle() {
+        return "De Novo " + metric.name + " Histogram";
+    }
+}
@@ -0,0 +1,59 @@
+package com.compomics.denovogui.gui.qc;
+
+/**
+ * The metrics aggregated for the quality control of the de novo results.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public enum QcMetric {
+
+    /**
+     * The score of the best match.
+     */
+    score("Score", 0.001),
+    /**
+     * The identification charge of the best match.
+     */
+    charge("Charge", 1),
+    /**
+     * The precursor m/z.
+     */
+    precursorMz("Precursor m/z", 1),
+    /**
+     * The length of the longest amino acid sequence of the best match.
+     */
+    tagLength("Tag Length", 1),
+    /**
+     * The N-terminal gap of the best tag.
+     */
+    nGap("N-Gap", 1),
+    /**
+     * The C-terminal gap of the best tag.
+     */
+    cGap("C-Gap", 1),
+    /**
+     * The precursor mass error of the best match in ppm.
+     */
+    massError("Mass Error (ppm)", 0.1);
+
+    /**
+     * The name of the metric.
+     */
+    public final String name;
+    /**
+     * The initial width of the histogram bins.
+     */
+    public final double binWidth;
+
+    /**
+     * Constructor.
+     *
+     * @param name the name of the metric
+     * @param binWidth the initial width of the histogram bins
+     */
+    private QcMetric(String name, double binWidth) {
+        this.name = name;
+        this.binWidth = binWidth;
+    }
+}
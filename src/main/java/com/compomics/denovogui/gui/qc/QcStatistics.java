@@ -0,0 +1,387 @@
+package com.compomics.denovogui.gui.qc;
+
+import com.compomics.denovogui.gui.DeNovoGUI;
+import com.compomics.denovogui.results.DeNovoResultStore;
+import com.compomics.denovogui.results.SessionSnapshot;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * Quality control statistics of the de novo results. The best match of every
+ * spectrum is aggregated per advocate in a streaming histogram per metric, so
+ * that the statistics are computed in a single pass over the matches, or while
+ * importing them, using constant memory. As reading the precursors of all
+ * spectra is expensive, the precursor metrics can be left out when importing
+ * the matches and computed when first displayed.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class QcStatistics {
+
+    /**
+     * The search parameters used to compute the mass errors, null if not
+     * available.
+     */
+    private final SearchParameters searchParameters;
+    /**
+     * The histograms indexed by advocate and metric.
+     */
+    private final HashMap<Integer, EnumMap<QcMetric, StreamingHistogram>> histograms = new HashMap<Integer, EnumMap<QcMetric, StreamingHistogram>>();
+    /**
+     * The metrics computed from the precursors of the spectra.
+     */
+    private static final QcMetric[] PRECURSOR_METRICS = {QcMetric.precursorMz, QcMetric.massError};
+    /**
+     * Boolean indicating whether the precursor metrics were computed.
+     */
+    private boolean precursorMetrics = false;
+
+    /**
+     * Constructor.
+     *
+     * @param searchParameters the search parameters used to compute the mass
+     * errors, null if not available
+     */
+    public QcStatistics(SearchParameters searchParameters) {
+        this.searchParameters = searchParameters;
+    }
+
+    /**
+     * Computes the statistics of an identification in a single pass over the
+     * matches. The precursors are taken from the spectrum factory when the
+     * spectra are loaded.
+     *
+     * @param identification the identification
+     * @param searchParameters the search parameters used to compute the mass
+     * errors, null if not available
+     *
+     * @return the statistics of the identification
+     *
+     * @throws IOException thrown if an IO exception occurs
+     * @throws SQLException thrown if an SQL exception occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws MzMLUnmarshallerException thrown if a precursor cannot be
+     * extracted from a spectrum
+     */
+    public static QcStatistics getStatistics(Identification identification, SearchParameters searchParameters)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+
+        QcStatistics statistics = new QcStatistics(searchParameters);
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+
+        for (String spectrumFile : identification.getSpectrumFiles()) {
+
+            PsmIterator psmIterator = identification.getPsmIterator(spectrumFile, true, null);
+            SpectrumMatch spectrumMatch;
+
+            while ((spectrumMatch = psmIterator.next()) != null) {
+                String spectrumKey = spectrumMatch.getKey();
+                Precursor precursor = spectrumFactory.spectrumLoaded(spectrumKey) ? spectrumFactory.getPrecursor(spectrumKey) : null;
+                statistics.addSpectrumMatch(spectrumMatch.getAssumptionsMap(), precursor);
+            }
+        }
+
+        statistics.precursorMetrics = true;
+
+        return statistics;
+    }
+
+    /**
+     * Computes the precursor metrics of an identification in a single pass
+     * over the matches, replacing the precursor metrics computed previously.
+     * The precursors are taken from the spectrum factory when the spectra are
+     * loaded.
+     *
+     * @param identification the identification
+     * @param waitingHandler waiting handler displaying progress to the user and
+     * allowing to cancel the process
+     *
+     * @throws IOException thrown if an IO exception occurs
+     * @throws SQLException thrown if an SQL exception occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws MzMLUnmarshallerException thrown if a precursor cannot be
+     * extracted from a spectrum
+     */
+    public void computePrecursorMetrics(Identification identification, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+
+        resetPrecursorMetrics();
+
+        waitingHandler.resetSecondaryProgressCounter();
+        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+        waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
+
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+
+        for (String spectrumFile : identification.getSpectrumFiles()) {
+
+            PsmIterator psmIterator = identification.getPsmIterator(spectrumFile, true, null);
+            SpectrumMatch spectrumMatch;
+
+            while ((spectrumMatch = psmIterator.next()) != null) {
+                String spectrumKey = spectrumMatch.getKey();
+                if (spectrumFactory.spectrumLoaded(spectrumKey)) {
+                    addMatches(spectrumMatch.getAssumptionsMap(), spectrumFactory.getPrecursor(spectrumKey), false);
+                }
+                waitingHandler.increaseSecondaryProgressCounter();
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
+            }
+        }
+
+        synchronized (this) {
+            precursorMetrics = true;
+        }
+    }
+
+    /**
+     * Computes the precursor metrics of the matches of a session snapshot,
+     * read one spectrum at a time without filling the identification. See
+     * computePrecursorMetrics(Identification, WaitingHandler).
+     *
+     * @param snapshot the session snapshot
+     * @param waitingHandler waiting handler displaying progress to the user and
+     * allowing to cancel the process
+     *
+     * @throws IOException thrown if an IO exception occurs or if a match of
+     * the snapshot cannot be read
+     * @throws SQLException thrown if an SQL exception occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws MzMLUnmarshallerException thrown if a precursor cannot be
+     * extracted from a spectrum
+     */
+    public void computePrecursorMetrics(SessionSnapshot snapshot, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+
+        resetPrecursorMetrics();
+
+        DeNovoResultStore resultStore = snapshot.getResultStore();
+        int nSpectra = resultStore.getNSpectra();
+
+        waitingHandler.resetSecondaryProgressCounter();
+        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+        waitingHandler.setMaxSecondaryProgressCounter(nSpectra);
+
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+
+        for (int i = 0; i < nSpectra; i++) {
+            String spectrumKey = resultStore.getSpectrumKey(i);
+            if (spectrumFactory.spectrumLoaded(spectrumKey)) {
+                addMatches(snapshot.getSpectrumMatch(i).getAssumptionsMap(), spectrumFactory.getPrecursor(spectrumKey), false);
+            }
+            waitingHandler.increaseSecondaryProgressCounter();
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+        }
+
+        synchronized (this) {
+            precursorMetrics = true;
+        }
+    }
+
+    /**
+     * Replaces the precursor metrics by empty histograms.
+     */
+    private synchronized void resetPrecursorMetrics() {
+        for (int advocate : histograms.keySet()) {
+            for (QcMetric metric : PRECURSOR_METRICS) {
+                histograms.get(advocate).put(metric, new StreamingHistogram(StreamingHistogram.DEFAULT_BINS, metric.binWidth));
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the precursor metrics were computed.
+     *
+     * @return true if the precursor metrics were computed
+     */
+    public synchronized boolean hasPrecursorMetrics() {
+        return precursorMetrics;
+    }
+
+    /**
+     * Sets whether the precursor metrics were computed, e.g. when read from a
+     * session snapshot.
+     *
+     * @param precursorMetrics true if the precursor metrics were computed
+     */
+    public synchronized void setPrecursorMetrics(boolean precursorMetrics) {
+        this.precursorMetrics = precursorMetrics;
+    }
+
+    /**
+     * Adds the best match of every advocate of a spectrum to the statistics.
+     *
+     * @param assumptionsMap the matches of the spectrum indexed by advocate
+     * and score
+     * @param precursor the precursor of the spectrum, null if not available,
+     * in which case the precursor metrics are left out
+     *
+     * @throws IOException thrown if an IO exception occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     */
+    public void addSpectrumMatch(HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap, Precursor precursor)
+            throws IOException, InterruptedException {
+        addMatches(assumptionsMap, precursor, true);
+    }
+
+    /**
+     * Adds the best match of every advocate of a spectrum to the statistics.
+     *
+     * @param assumptionsMap the matches of the spectrum indexed by advocate
+     * and score
+     * @param precursor the precursor of the spectrum, null if not available
+     * @param matchMetrics if true the metrics of the matches are added,
+     * otherwise only the precursor metrics
+     *
+     * @throws IOException thrown if an IO exception occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     */
+    private synchronized void addMatches(HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap, Precursor precursor,
+            boolean matchMetrics) throws IOException, InterruptedException {
+
+        for (Map.Entry<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> entry : assumptionsMap.entrySet()) {
+
+            Advocate advocate = getImplementedAdvocate(entry.getKey());
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = entry.getValue();
+
+            if (advocate == null || advocateMap == null || advocateMap.isEmpty()) {
+                continue;
+            }
+
+            double bestScore = DeNovoGUI.getBestScore(advocate, advocateMap.keySet());
+            ArrayList<SpectrumIdentificationAssumption> bestAssumptions = advocateMap.get(bestScore);
+
+            if (bestAssumptions == null || bestAssumptions.isEmpty()) {
+                continue;
+            }
+
+            SpectrumIdentificationAssumption assumption = bestAssumptions.get(0);
+            EnumMap<QcMetric, StreamingHistogram> advocateHistograms = getHistograms(advocate.getIndex());
+
+            if (matchMetrics) {
+                advocateHistograms.get(QcMetric.score).add(bestScore);
+                advocateHistograms.get(QcMetric.charge).add(assumption.getIdentificationCharge().value);
+
+                if (assumption instanceof TagAssumption) {
+                    Tag tag = ((TagAssumption) assumption).getTag();
+                    advocateHistograms.get(QcMetric.tagLength).add(tag.getLongestAminoAcidSequence().length());
+                    advocateHistograms.get(QcMetric.nGap).add(tag.getNTerminalGap());
+                    advocateHistograms.get(QcMetric.cGap).add(tag.getCTerminalGap());
+                } else if (assumption instanceof PeptideAssumption) {
+                    advocateHistograms.get(QcMetric.tagLength).add(((PeptideAssumption) assumption).getPeptide().getSequence().length());
+                } else {
+                    throw new UnsupportedOperationException("Statistics not implemented for assumption of type " + assumption.getClass() + ".");
+                }
+            }
+
+            if (precursor != null) {
+                advocateHistograms.get(QcMetric.precursorMz).add(precursor.getMz());
+                if (searchParameters != null) {
+                    advocateHistograms.get(QcMetric.massError).add(assumption.getDeltaMass(precursor.getMz(), true,
+                            searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the implemented advocate of the given index, null if not
+     * implemented.
+     *
+     * @param index the index of the advocate
+     *
+     * @return the implemented advocate
+     */
+    private static Advocate getImplementedAdvocate(int index) {
+        for (Advocate advocate : DeNovoGUI.implementedAlgorithms) {
+            if (advocate.getIndex() == index) {
+                return advocate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the histograms of the given advocate, creating them if needed.
+     *
+     * @param advocate the index of the advocate
+     *
+     * @return the histograms of the advocate
+     */
+    private EnumMap<QcMetric, StreamingHistogram> getHistograms(int advocate) {
+        EnumMap<QcMetric, StreamingHistogram> advocateHistograms = histograms.get(advocate);
+        if (advocateHistograms == null) {
+            advocateHistograms = new EnumMap<QcMetric, StreamingHistogram>(QcMetric.class);
+            for (QcMetric metric : QcMetric.values()) {
+                advocateHistograms.put(metric, new StreamingHistogram(StreamingHistogram.DEFAULT_BINS, metric.binWidth));
+            }
+            histograms.put(advocate, advocateHistograms);
+        }
+        return advocateHistograms;
+    }
+
+    /**
+     * Sets the histogram of a metric for the given advocate, e.g. when read
+     * from a session snapshot.
+     *
+     * @param advocate the index of the advocate
+     * @param metric the metric
+     * @param histogram the histogram of the metric
+     */
+    public synchronized void setHistogram(int advocate, QcMetric metric, StreamingHistogram histogram) {
+        getHistograms(advocate).put(metric, histogram);
+    }
+
+    /**
+     * Returns the indexes of the advocates with statistics, sorted.
+     *
+     * @return the indexes of the advocates with statistics
+     */
+    public synchronized ArrayList<Integer> getAdvocates() {
+        ArrayList<Integer> advocates = new ArrayList<Integer>(histograms.keySet());
+        Collections.sort(advocates);
+        return advocates;
+    }
+
+    /**
+     * Returns the histogram of a metric for the given advocate, null if the
+     * advocate has no statistics.
+     *
+     * @param advocate the index of the advocate
+     * @param metric the metric
+     *
+     * @return the histogram of the metric
+     */
+    public synchronized StreamingHistogram getHistogram(int advocate, QcMetric metric) {
+        EnumMap<QcMetric, StreamingHistogram> advocateHistograms = histograms.get(advocate);
+        if (advocateHistograms == null) {
+            return null;
+        }
+        return advocateHistograms.get(metric);
+    }
+}
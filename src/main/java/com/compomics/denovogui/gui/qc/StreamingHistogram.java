@@ -0,0 +1,262 @@
+package com.compomics.denovogui.gui.qc;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of a stream of values using a fixed number of bins. The bins are
+ * merged two by two whenever a value falls outside the histogram, so that the
+ * memory used does not depend on the number of values and no value needs to
+ * be buffered. The quantiles are estimated from the bins, the error being at
+ * most the width of a bin.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class StreamingHistogram {
+
+    /**
+     * The default number of bins.
+     */
+    public static final int DEFAULT_BINS = 64;
+    /**
+     * The number of values per bin.
+     */
+    private final long[] counts;
+    /**
+     * The lower bound of the first bin, a multiple of the bin width.
+     */
+    private double origin = 0;
+    /**
+     * The width of the bins.
+     */
+    private double binWidth;
+    /**
+     * The number of values.
+     */
+    private long count = 0;
+    /**
+     * The sum of the values.
+     */
+    private double sum = 0;
+    /**
+     * The smallest value.
+     */
+    private double min = Double.NaN;
+    /**
+     * The largest value.
+     */
+    private double max = Double.NaN;
+
+    /**
+     * Constructor.
+     *
+     * @param nBins the number of bins
+     * @param binWidth the initial width of the bins, i.e. the resolution of the
+     * histogram for values in a narrow range
+     */
+    public StreamingHistogram(int nBins, double binWidth) {
+        if (nBins < 2 || binWidth <= 0) {
+            throw new IllegalArgumentException("At least two bins of positive width are needed.");
+        }
+        counts = new long[nBins];
+        this.binWidth = binWidth;
+    }
+
+    /**
+     * Constructor restoring a histogram from its state, e.g. when read from a
+     * session snapshot.
+     *
+     * @param counts the number of values per bin
+     * @param origin the lower bound of the first bin
+     * @param binWidth the width of the bins
+     * @param count the number of values
+     * @param sum the sum of the values
+     * @param min the smallest value
+     * @param max the largest value
+     */
+    public StreamingHistogram(long[] counts, double origin, double binWidth, long count, double sum, double min, double max) {
+        this(counts.length, binWidth);
+        System.arraycopy(counts, 0, this.counts, 0, counts.length);
+        this.origin = origin;
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Adds a value to the histogram. Values which are not finite are ignored.
+     *
+     * @param value the value
+     */
+    public void add(double value) {
+
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+
+        if (count == 0) {
+            origin = Math.floor(value / binWidth) * binWidth;
+            min = value;
+            max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        while (min < origin || max >= origin + counts.length * binWidth) {
+            widen();
+        }
+
+        counts[getBin(value)]++;
+        count++;
+        sum += value;
+    }
+
+    /**
+     * Returns the index of the bin of the given value.
+     *
+     * @param value the value
+     *
+     * @return the index of the bin
+     */
+    private int getBin(double value) {
+        int bin = (int) Math.floor((value - origin) / binWidth);
+        return Math.max(0, Math.min(counts.length - 1, bin));
+    }
+
+    /**
+     * Doubles the width of the bins. As the bin boundaries are multiples of
+     * the bin width, every bin falls entirely in a new bin.
+     */
+    private void widen() {
+
+        double oldOrigin = origin;
+        double oldWidth = binWidth;
+        long[] oldCounts = counts.clone();
+
+        binWidth = 2 * oldWidth;
+        origin = Math.floor(min / binWidth) * binWidth;
+
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < oldCounts.length; i++) {
+            if (oldCounts[i] > 0) {
+                counts[getBin(oldOrigin + (i + 0.5) * oldWidth)] += oldCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the number of values.
+     *
+     * @return the number of values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the mean of the values, NaN if empty.
+     *
+     * @return the mean of the values
+     */
+    public double getMean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * Returns the sum of the values.
+     *
+     * @return the sum of the values
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Returns the smallest value, NaN if empty.
+     *
+     * @return the smallest value
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the largest value, NaN if empty.
+     *
+     * @return the largest value
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the number of bins.
+     *
+     * @return the number of bins
+     */
+    public int getNBins() {
+        return counts.length;
+    }
+
+    /**
+     * Returns the width of the bins.
+     *
+     * @return the width of the bins
+     */
+    public double getBinWidth() {
+        return binWidth;
+    }
+
+    /**
+     * Returns the lower bound of the given bin.
+     *
+     * @param bin the index of the bin
+     *
+     * @return the lower bound of the bin
+     */
+    public double getBinStart(int bin) {
+        return origin + bin * binWidth;
+    }
+
+    /**
+     * Returns the number of values in the given bin.
+     *
+     * @param bin the index of the bin
+     *
+     * @return the number of values in the bin
+     */
+    public long getBinCount(int bin) {
+        return counts[bin];
+    }
+
+    /**
+     * Returns an estimate of the given quantile, interpolating linearly within
+     * the bins. NaN if empty.
+     *
+     * @param quantile the quantile, between 0 and 1
+     *
+     * @return the estimated value of the quantile
+     */
+    public double getQuantile(double quantile) {
+
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        double target = quantile * count;
+        long cumulative = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0 && cumulative + counts[i] >= target) {
+                double fraction = (target - cumulative) / counts[i];
+                double value = getBinStart(i) + fraction * binWidth;
+                return Math.max(min, Math.min(max, value));
+            }
+            cumulative += counts[i];
+        }
+
+        return max;
+    }
+}
@@ -1,14 +1,10 @@
 package com.compomics.denovogui.gui.tablemodels;
 
-import com.compomics.util.experiment.identification.Advocate;
-import com.compomics.util.experiment.identification.Identification;
-import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
-import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
-import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.denovogui.io.SpectrumColumnCache;
+import com.compomics.denovogui.results.SpectrumSummaryIndex;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import java.util.ArrayList;
-import java.util.HashMap;
 import javax.swing.table.DefaultTableModel;
 
 /**
@@ -24,9 +20,13 @@ public class SpectrumTableModel extends DefaultTableModel {
      */
     private SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
     /**
-     * The identification
+     * The summary of the de novo results per spectrum.
      */
-    private Identification identification;
+    private SpectrumSummaryIndex summaryIndex;
+    /**
+     * The precursor and peak count columns of the spectrum file.
+     */
+    private SpectrumColumnCache columnCache;
     /**
      * The name of the spectrum file.
      */
@@ -35,6 +35,16 @@ public class SpectrumTableModel extends DefaultTableModel {
      * The ordered spectrum keys.
      */
     private ArrayList<String> orderedSpectrumTitles = null;
+    /**
+     * The index of the spectrum of every row in the summary index, -1 if no
+     * result.
+     */
+    private int[] spectrumIndexes;
+    /**
+     * The index of the spectrum of every row in the column cache, -1 if not
+     * found.
+     */
+    private int[] columnIndexes;
     /**
      * Boolean indicating whether the content of the table should be updated.
      */
@@ -50,18 +60,28 @@ public class SpectrumTableModel extends DefaultTableModel {
      * Constructor.
      *
      * @param spectrumFile the spectrum file
-     * @param identification the identifications
+     * @param summaryIndex the summary of the de novo results per spectrum
+     * @param columnCache the precursor and peak count columns of the spectrum
+     * file
      * @param orderedSpectrumTitles the spectrum keys in the desired order. If
      * null the default order will be used
      */
-    public SpectrumTableModel(String spectrumFile, Identification identification, ArrayList<String> orderedSpectrumTitles) {
+    public SpectrumTableModel(String spectrumFile, SpectrumSummaryIndex summaryIndex, SpectrumColumnCache columnCache, ArrayList<String> orderedSpectrumTitles) {
         this.spectrumFile = spectrumFile;
-        this.identification = identification;
+        this.summaryIndex = summaryIndex;
+        this.columnCache = columnCache;
         if (orderedSpectrumTitles != null) {
             this.orderedSpectrumTitles = orderedSpectrumTitles;
         } else {
             this.orderedSpectrumTitles = spectrumFactory.getSpectrumTitles(spectrumFile);
         }
+        spectrumIndexes = new int[this.orderedSpectrumTitles.size()];
+        columnIndexes = new int[this.orderedSpectrumTitles.size()];
+        for (int i = 0; i < spectrumIndexes.length; i++) {
+            String spectrumTitle = this.orderedSpectrumTitles.get(i);
+            spectrumIndexes[i] = summaryIndex.getSpectrumIndex(Spectrum.getSpectrumKey(spectrumFile, spectrumTitle));
+            columnIndexes[i] = columnCache.getIndex(spectrumTitle);
+        }
     }
 
     @Override
@@ -120,152 +140,50 @@ public class SpectrumTableModel extends DefaultTableModel {
             case 0:
                 return row + 1;
             case 1:
-                try {
-                    String spectrumKey = Spectrum.getSpectrumKey(spectrumFile, spectrumTitle);
-                    if (update && identification.matchExists(spectrumKey)) {
-                        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> allAssumptions = identification.getAssumptions(spectrumKey);
-                        return allAssumptions.keySet().size();
-                    }
-                    return 0; // no match found
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    return null;
+                if (update) {
+                    return summaryIndex.getNAdvocates(spectrumIndexes[row]);
                 }
+                return 0; // no match found
             case 2:
                 return spectrumTitle;
             case 3:
-                try {
-                    Precursor precursor = spectrumFactory.getPrecursor(spectrumFile, spectrumTitle);
-                    return precursor.getMz();
-                } catch (Exception e) {
-                    e.printStackTrace();
+                if (columnIndexes[row] == -1) {
                     return null;
                 }
+                return columnCache.getMz(columnIndexes[row]);
             case 4:
-                try {
-                    Precursor precursor = spectrumFactory.getPrecursor(spectrumFile, spectrumTitle);
-                    if (precursor.getPossibleCharges().size() == 1) {
-                        return precursor.getPossibleCharges().get(0).value;
-                    } else if (precursor.getPossibleCharges().size() > 1) {
-                        return precursor.getPossibleCharges().get(0).value; // @TODO: better support for multiple charges
-                    } else {
-                        return null;
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
+                if (columnIndexes[row] == -1 || columnCache.getCharge(columnIndexes[row]) == 0) {
                     return null;
                 }
+                return columnCache.getCharge(columnIndexes[row]); // @TODO: better support for multiple charges
             case 5:
-                try {
-                    Precursor precursor = spectrumFactory.getPrecursor(spectrumFile, spectrumTitle);
-                    return precursor.getIntensity();
-                } catch (Exception e) {
-                    e.printStackTrace();
+                if (columnIndexes[row] == -1) {
                     return null;
                 }
+                return columnCache.getIntensity(columnIndexes[row]);
             case 6:
-                try {
-                    Precursor precursor = spectrumFactory.getPrecursor(spectrumFile, spectrumTitle);
-                    return precursor.getRt();
-                } catch (Exception e) {
-                    e.printStackTrace();
+                if (columnIndexes[row] == -1) {
                     return null;
                 }
+                return columnCache.getRt(columnIndexes[row]);
             case 7:
-                try {
-                    MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumFile, spectrumTitle);
-                    return spectrum.getPeakList().size();
-                } catch (Exception e) {
-                    e.printStackTrace();
+                if (columnIndexes[row] == -1) {
                     return null;
                 }
+                return columnCache.getPeakCount(columnIndexes[row]);
             case 8:
-                try {
-                    String spectrumKey = Spectrum.getSpectrumKey(spectrumFile, spectrumTitle);
-                    if (update && identification.matchExists(spectrumKey)) {
-                        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> allAssumptions = identification.getAssumptions(spectrumKey);
-                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> hitMap = allAssumptions.get(Advocate.pepnovo.getIndex());
-                        if (hitMap != null) {
-                            double bestScore = 0;
-                            for (double score : hitMap.keySet()) {
-                                if (score > bestScore) {
-                                    bestScore = score;
-                                }
-                            }
-                            return bestScore;
-                        }
-                    }
-                    return null;
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    return null;
-                }
             case 9:
-                try {
-                    String spectrumKey = Spectrum.getSpectrumKey(spectrumFile, spectrumTitle);
-                    if (update && identification.matchExists(spectrumKey)) {
-                        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> allAssumptions = identification.getAssumptions(spectrumKey);
-                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> hitMap = allAssumptions.get(Advocate.direcTag.getIndex());
-                        if (hitMap != null) {
-                            double bestScore = 0;
-                            for (double score : hitMap.keySet()) {
-                                if (bestScore == 0 || score < bestScore) {
-                                    bestScore = score;
-                                }
-                            }
-                            return bestScore;
-                        }
-                    }
-                    return null;
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    return null;
-                }
             case 10:
-                try {
-                    String spectrumKey = Spectrum.getSpectrumKey(spectrumFile, spectrumTitle);
-                    if (update && identification.matchExists(spectrumKey)) {
-                        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> allAssumptions = identification.getAssumptions(spectrumKey);
-                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> hitMap = allAssumptions.get(Advocate.pNovo.getIndex());
-                        if (hitMap != null) {
-                            double bestScore = 0;
-                            for (double score : hitMap.keySet()) {
-                                if (score > bestScore) {
-                                    bestScore = score;
-                                }
-                            }
-                            return bestScore;
-                        }
-                    }
-                    return null;
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    return null;
-                }
             case 11:
-                try {
-                    String spectrumKey = Spectrum.getSpectrumKey(spectrumFile, spectrumTitle);
-                    if (update && identification.matchExists(spectrumKey)) {
-                        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> allAssumptions = identification.getAssumptions(spectrumKey);
-                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> hitMap = allAssumptions.get(Advocate.novor.getIndex());
-                        if (hitMap != null) {
-                            double bestScore = 0;
-                            for (double score : hitMap.keySet()) {
-                                if (score > bestScore) {
-                                    bestScore = score;
-                                }
-                            }
-                            return bestScore;
-                        }
+                if (update) {
+                    double bestScore = summaryIndex.getBestScore(spectrumIndexes[row], column - 8);
+                    if (!Double.isNaN(bestScore)) {
+                        return bestScore;
                     }
-                    return null;
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    return null;
                 }
+                return null;
             case 12:
-                String spectrumKey = Spectrum.getSpectrumKey(spectrumFile, spectrumTitle);
-                return identification.matchExists(spectrumKey);
+                return spectrumIndexes[row] != -1;
             default:
                 return null;
         }
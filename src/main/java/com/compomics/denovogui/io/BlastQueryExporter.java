@@ -0,0 +1,405 @@
+package com.compomics.denovogui.io;
+
+import com.compomics.denovogui.results.DeNovoResultStore;
+import com.compomics.denovogui.results.SessionSnapshot;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * Exports the de novo sequences as BLAST queries. Every sequence is exported
+ * only once for the whole project, the spectra supporting every query are
+ * listed in a side table, and the queries can be split in batches of
+ * balanced size for parallel searches.
+ *
+ * For a destination file queries.fasta, the queries are written to
+ * queries.fasta, or to queries_1.fasta, queries_2.fasta, etc. when using
+ * batches, and the side table is written to queries_spectra.txt. The side
+ * table is compressed as well when the destination file is compressed, there
+ * are never more batches than queries, and the files are deleted if the export
+ * is canceled or fails.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class BlastQueryExporter {
+
+    /**
+     * The separator used in the side table.
+     */
+    private static final String SEPARATOR = "\t";
+    /**
+     * The prefix of the query names.
+     */
+    public static final String QUERY_PREFIX = "query_";
+    /**
+     * The suffix of the side table file.
+     */
+    public static final String SPECTRA_SUFFIX = "_spectra.txt";
+    /**
+     * The index of every unique sequence.
+     */
+    private final HashMap<String, Integer> queryIndexes = new HashMap<String, Integer>();
+    /**
+     * The unique sequences in order of appearance.
+     */
+    private final ArrayList<String> querySequences = new ArrayList<String>();
+    /**
+     * The number of hits supporting every unique sequence.
+     */
+    private int[] queryCounts = new int[1024];
+
+    /**
+     * Constructor.
+     */
+    private BlastQueryExporter() {
+    }
+
+    /**
+     * Exports the unique sequences of the matches as BLAST queries.
+     *
+     * @param destinationFile the destination FASTA file
+     * @param identification the identification object containing
+     * identification details
+     * @param resultStore the result store where to read the matches, null to
+     * read them from the identification or the session snapshot
+     * @param snapshot the session snapshot where to read the matches, null to
+     * read them from the identification
+     * @param waitingHandler waiting handler displaying progress to the user and
+     * allowing to cancel the process
+     * @param scoreThreshold de novo score threshold
+     * @param greaterThan use greater than threshold
+     * @param aNumberOfMatches the maximum number of matches to export per
+     * spectrum
+     * @param advocates the indexes of the advocates to export, null for all
+     * @param charges the identification charges to export, null for all
+     * @param nBatches the number of batches to split the queries in, reduced
+     * to the number of queries if needed
+     *
+     * @throws IOException thrown if an IO exception occurs
+     * @throws SQLException thrown if an SQL exception occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws MzMLUnmarshallerException thrown if a precursor cannot be
+     * extracted from a spectrum
+     * @throws InterruptedException thrown if the process is interrupted
+     */
+    public static void export(File destinationFile, Identification identification, DeNovoResultStore resultStore, SessionSnapshot snapshot, WaitingHandler waitingHandler,
+            Double scoreThreshold, boolean greaterThan, Integer aNumberOfMatches,
+            Collection<Integer> advocates, Collection<Integer> charges, int nBatches)
+            throws IOException, SQLException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
+
+        if (nBatches < 1) {
+            throw new IllegalArgumentException("The number of batches should be at least 1.");
+        }
+
+        BlastQueryExporter exporter = new BlastQueryExporter();
+        ExportQuery exportQuery = new ExportQuery(scoreThreshold, greaterThan, aNumberOfMatches);
+        exportQuery.setAdvocates(advocates);
+        exportQuery.setCharges(charges);
+
+        if (waitingHandler != null) {
+            waitingHandler.setWaitingText("Exporting BLAST Queries - Writing File. Please Wait...");
+            // reset the progress bar
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(ExportEngine.getNSpectra(identification, snapshot));
+        }
+
+        String baseName = getBaseName(destinationFile);
+        String spectraFileName = baseName + SPECTRA_SUFFIX;
+        if (CompressedFileHandler.isCompressed(destinationFile)) {
+            spectraFileName += CompressedFileHandler.GZIP_EXTENSION;
+        }
+        File spectraFile = new File(destinationFile.getParentFile(), spectraFileName);
+        ArrayList<File> outputFiles = new ArrayList<File>();
+        boolean completed = false;
+
+        try {
+            Writer writer = CompressedFileHandler.getWriter(spectraFile);
+            outputFiles.add(spectraFile);
+
+            try {
+                BufferedWriter spectraWriter = new BufferedWriter(writer);
+
+                try {
+                    spectraWriter.write("Query" + SEPARATOR + "File Name" + SEPARATOR + "Spectrum Title" + SEPARATOR + "Algorithm" + SEPARATOR
+                            + "Rank" + SEPARATOR + "Score");
+                    spectraWriter.newLine();
+
+                    for (Map.Entry<String, Collection<String>> entry : ExportEngine.getSpectrumKeys(identification, snapshot).entrySet()) {
+                        String spectrumFile = entry.getKey();
+                        for (String spectrumKey : entry.getValue()) {
+                            if (snapshot != null || identification.matchExists(spectrumKey)) {
+
+                                String spectrumTitle = Spectrum.getSpectrumTitle(spectrumKey);
+
+                                if (resultStore != null) {
+                                    // the sequences, advocates, ranks and scores are all in the store, the matches are not loaded
+                                    int spectrumIndex = resultStore.getSpectrumIndex(spectrumKey);
+                                    if (spectrumIndex != -1) {
+                                        for (int row : exportQuery.select(resultStore, spectrumIndex)) {
+                                            exporter.writeHit(spectraWriter, spectrumFile, spectrumTitle, resultStore.getSequence(row), resultStore.getAdvocate(row),
+                                                    resultStore.getRank(row), resultStore.getScore(row));
+                                        }
+                                    }
+                                } else {
+                                    for (SpectrumIdentificationAssumption assumption : exportQuery.select(ExportEngine.getAssumptions(spectrumKey, identification, snapshot))) {
+                                        exporter.writeHit(spectraWriter, spectrumFile, spectrumTitle, getSequence(assumption), assumption.getAdvocate(),
+                                                assumption.getRank(), assumption.getScore());
+                                    }
+                                }
+
+                                if (waitingHandler != null) {
+                                    waitingHandler.increaseSecondaryProgressCounter();
+                                    if (waitingHandler.isRunCanceled()) {
+                                        return;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                } finally {
+                    spectraWriter.close();
+                }
+            } finally {
+                writer.close();
+            }
+
+            if (nBatches == 1) {
+                outputFiles.add(destinationFile);
+                exporter.writeQueries(destinationFile, exporter.getAllQueries());
+            } else {
+                int[][] batches = exporter.getBatches(Math.min(nBatches, Math.max(1, exporter.querySequences.size())));
+                for (int i = 0; i < batches.length; i++) {
+                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    File batchFile = new File(destinationFile.getParentFile(), baseName + "_" + (i + 1) + getExtension(destinationFile));
+                    outputFiles.add(batchFile);
+                    exporter.writeQueries(batchFile, batches[i]);
+                }
+            }
+
+            completed = true;
+
+        } finally {
+            if (!completed) {
+                for (File outputFile : outputFiles) {
+                    outputFile.delete();
+                }
+            }
+        }
+
+        if (waitingHandler != null) {
+            int nHits = 0;
+            for (int i = 0; i < exporter.querySequences.size(); i++) {
+                nHits += exporter.queryCounts[i];
+            }
+            waitingHandler.appendReport(exporter.querySequences.size() + " unique queries exported for " + nHits + " matches.", true, true);
+        }
+    }
+
+    /**
+     * Returns the sequence to use as query for the given assumption.
+     *
+     * @param assumption the assumption
+     *
+     * @return the sequence to use as query
+     */
+    private static String getSequence(SpectrumIdentificationAssumption assumption) {
+        if (assumption instanceof TagAssumption) {
+            return ((TagAssumption) assumption).getTag().getLongestAminoAcidSequence();
+        } else if (assumption instanceof PeptideAssumption) {
+            return ((PeptideAssumption) assumption).getPeptide().getSequence();
+        } else {
+            throw new UnsupportedOperationException("Export not implemented for assumption of type " + assumption.getClass() + ".");
+        }
+    }
+
+    /**
+     * Registers a hit and writes it to the spectra table. Empty sequences are
+     * ignored.
+     *
+     * @param spectraWriter the writer of the spectra table
+     * @param spectrumFile the name of the spectrum file
+     * @param spectrumTitle the title of the spectrum
+     * @param sequence the sequence of the hit
+     * @param advocate the index of the advocate
+     * @param rank the rank of the hit
+     * @param score the score of the hit
+     *
+     * @throws IOException thrown if an IO exception occurs
+     */
+    private void writeHit(BufferedWriter spectraWriter, String spectrumFile, String spectrumTitle, String sequence, int advocate, int rank, double score)
+            throws IOException {
+        if (sequence.length() > 0) {
+            int queryIndex = addHit(sequence);
+            spectraWriter.write(QUERY_PREFIX + queryIndex + SEPARATOR + spectrumFile + SEPARATOR + spectrumTitle + SEPARATOR
+                    + Advocate.getAdvocate(advocate).getName() + SEPARATOR + rank + SEPARATOR + score);
+            spectraWriter.newLine();
+        }
+    }
+
+    /**
+     * Registers a hit for the given sequence.
+     *
+     * @param sequence the sequence
+     *
+     * @return the index of the query
+     */
+    private int addHit(String sequence) {
+        Integer queryIndex = queryIndexes.get(sequence);
+        if (queryIndex == null) {
+            queryIndex = querySequences.size();
+            queryIndexes.put(sequence, queryIndex);
+            querySequences.add(sequence);
+            if (queryIndex == queryCounts.length) {
+                queryCounts = Arrays.copyOf(queryCounts, 2 * queryCounts.length);
+            }
+        }
+        queryCounts[queryIndex]++;
+        return queryIndex;
+    }
+
+    /**
+     * Returns the indexes of all queries.
+     *
+     * @return the indexes of all queries
+     */
+    private int[] getAllQueries() {
+        int[] result = new int[querySequences.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = i;
+        }
+        return result;
+    }
+
+    /**
+     * Splits the queries in batches of balanced number of residues. The
+     * longest queries are distributed first, every query going to the batch
+     * with the fewest residues. Within a batch the queries are sorted by
+     * index.
+     *
+     * @param nBatches the number of batches
+     *
+     * @return the indexes of the queries of every batch
+     */
+    private int[][] getBatches(int nBatches) {
+
+        Integer[] order = new Integer[querySequences.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return querySequences.get(o2).length() - querySequences.get(o1).length();
+            }
+        });
+
+        final long[] batchSizes = new long[nBatches];
+        PriorityQueue<Integer> smallestBatch = new PriorityQueue<Integer>(nBatches, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int result = Long.compare(batchSizes[o1], batchSizes[o2]);
+                return result != 0 ? result : o1 - o2;
+            }
+        });
+        ArrayList<ArrayList<Integer>> batchQueries = new ArrayList<ArrayList<Integer>>(nBatches);
+        for (int i = 0; i < nBatches; i++) {
+            smallestBatch.add(i);
+            batchQueries.add(new ArrayList<Integer>());
+        }
+
+        for (Integer queryIndex : order) {
+            int batch = smallestBatch.poll();
+            batchQueries.get(batch).add(queryIndex);
+            batchSizes[batch] += querySequences.get(queryIndex).length();
+            smallestBatch.add(batch);
+        }
+
+        int[][] batches = new int[nBatches][];
+        for (int i = 0; i < nBatches; i++) {
+            ArrayList<Integer> queries = batchQueries.get(i);
+            Collections.sort(queries);
+            batches[i] = new int[queries.size()];
+            for (int j = 0; j < queries.size(); j++) {
+                batches[i][j] = queries.get(j);
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * Writes the given queries in the FASTA format. The header of every query
+     * contains its name and the number of matches supporting it.
+     *
+     * @param file the file to write
+     * @param queries the indexes of the queries to write
+     *
+     * @throws IOException thrown if an IO exception occurs
+     */
+    private void writeQueries(File file, int[] queries) throws IOException {
+        Writer writer = CompressedFileHandler.getWriter(file);
+        try {
+            BufferedWriter b = new BufferedWriter(writer);
+            try {
+                for (int queryIndex : queries) {
+                    b.write(">" + QUERY_PREFIX + queryIndex + " matches=" + queryCounts[queryIndex]);
+                    b.newLine();
+                    b.write(querySequences.get(queryIndex));
+                    b.newLine();
+                }
+            } finally {
+                b.close();
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns the name of the given file without extension, the gzip
+     * extension being ignored.
+     *
+     * @param file the file
+     *
+     * @return the name of the file without extension
+     */
+    private static String getBaseName(File file) {
+        String fileName = CompressedFileHandler.getUncompressedName(file);
+        int index = fileName.lastIndexOf(".");
+        return index > 0 ? fileName.substring(0, index) : fileName;
+    }
+
+    /**
+     * Returns the extension of the given file including the gzip extension
+     * if any.
+     *
+     * @param file the file
+     *
+     * @return the extension of the file
+     */
+    private static String getExtension(File file) {
+        String fileName = file.getName();
+        String baseName = getBaseName(file);
+        return fileName.substring(baseName.length());
+    }
+}
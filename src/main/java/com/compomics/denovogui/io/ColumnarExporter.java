@@ -0,0 +1,395 @@
+package com.compomics.denovogui.io;
+
+import com.compomics.denovogui.results.DeNovoResultStore;
+import com.compomics.denovogui.results.SessionSnapshot;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.experiment.refinementparameters.PepnovoAssumptionDetails;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * Exports the de novo matches in a compressed binary columnar file. Every
+ * column is stored in its own deflate compressed block, and a footer lists the
+ * name, type and location of every column, so that a reader can decompress only
+ * the columns it needs. The file can be read using the ColumnarResultReader.
+ *
+ * The file layout is: the magic number and version, the column blocks, the
+ * footer (number of rows, number of columns, and for every column its name,
+ * type, offset and length), the offset of the footer and the magic number.
+ * The columns are compressed to temporary files next to the destination file
+ * while the rows are added, and concatenated once all rows are written.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class ColumnarExporter {
+
+    /**
+     * The magic number identifying the files.
+     */
+    public static final int MAGIC_NUMBER = 0x44474331;
+    /**
+     * The version of the file format.
+     */
+    public static final int VERSION = 1;
+    /**
+     * The extension of the files.
+     */
+    public static final String EXTENSION = ".dgc";
+    /**
+     * Type of the integer columns.
+     */
+    public static final byte TYPE_INT = 0;
+    /**
+     * Type of the double columns, NaN for missing values.
+     */
+    public static final byte TYPE_DOUBLE = 1;
+    /**
+     * Type of the string columns, empty for missing values.
+     */
+    public static final byte TYPE_STRING = 2;
+    /**
+     * The spectrum file column.
+     */
+    public static final String SPECTRUM_FILE = "spectrum_file";
+    /**
+     * The spectrum title column.
+     */
+    public static final String SPECTRUM_TITLE = "spectrum_title";
+    /**
+     * The precursor retention time column.
+     */
+    public static final String RETENTION_TIME = "retention_time";
+    /**
+     * The precursor m/z column.
+     */
+    public static final String MEASURED_MZ = "measured_mz";
+    /**
+     * The advocate index column.
+     */
+    public static final String ADVOCATE = "advocate";
+    /**
+     * The rank column.
+     */
+    public static final String RANK = "rank";
+    /**
+     * The score column.
+     */
+    public static final String SCORE = "score";
+    /**
+     * The PepNovo rank score column.
+     */
+    public static final String PEPNOVO_RANK_SCORE = "pepnovo_rank_score";
+    /**
+     * The tag or peptide sequence column.
+     */
+    public static final String SEQUENCE = "sequence";
+    /**
+     * The longest amino acid sequence column.
+     */
+    public static final String LONGEST_AMINO_ACID_SEQUENCE = "longest_amino_acid_sequence";
+    /**
+     * The modified sequence column.
+     */
+    public static final String MODIFIED_SEQUENCE = "modified_sequence";
+    /**
+     * The N-terminal gap column.
+     */
+    public static final String N_GAP = "n_gap";
+    /**
+     * The C-terminal gap column.
+     */
+    public static final String C_GAP = "c_gap";
+    /**
+     * The theoretic mass column.
+     */
+    public static final String THEORETIC_MASS = "theoretic_mass";
+    /**
+     * The identification charge column.
+     */
+    public static final String CHARGE = "charge";
+    /**
+     * The mass error in Da column.
+     */
+    public static final String MASS_ERROR_DA = "mass_error_da";
+    /**
+     * The mass error in ppm column.
+     */
+    public static final String MASS_ERROR_PPM = "mass_error_ppm";
+    /**
+     * The names of the columns in file order.
+     */
+    private static final String[] COLUMN_NAMES = {SPECTRUM_FILE, SPECTRUM_TITLE, RETENTION_TIME, MEASURED_MZ, ADVOCATE, RANK, SCORE, PEPNOVO_RANK_SCORE,
+        SEQUENCE, LONGEST_AMINO_ACID_SEQUENCE, MODIFIED_SEQUENCE, N_GAP, C_GAP, THEORETIC_MASS, CHARGE, MASS_ERROR_DA, MASS_ERROR_PPM};
+    /**
+     * The types of the columns in file order.
+     */
+    private static final byte[] COLUMN_TYPES = {TYPE_STRING, TYPE_STRING, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_INT, TYPE_INT, TYPE_DOUBLE, TYPE_DOUBLE,
+        TYPE_STRING, TYPE_STRING, TYPE_STRING, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_INT, TYPE_DOUBLE, TYPE_DOUBLE};
+
+    /**
+     * Empty default constructor.
+     */
+    private ColumnarExporter() {
+    }
+
+    /**
+     * Exports the de novo matches to a given file.
+     *
+     * @param destinationFile the destination file
+     * @param identification the identification object containing
+     * identification details
+     * @param resultStore the result store used to select the matches to
+     * export, null to select them on the matches of the identification
+     * @param snapshot the session snapshot where to read the matches, null to
+     * read them from the identification
+     * @param searchParameters the search parameters used for the search
+     * @param waitingHandler waiting handler displaying progress to the user and
+     * allowing to cancel the process
+     * @param scoreThreshold de novo score threshold
+     * @param greaterThan use greater than threshold
+     * @param aNumberOfMatches the maximum number of matches to export per
+     * spectrum
+     * @param advocates the indexes of the advocates to export, null for all
+     * @param charges the identification charges to export, null for all
+     *
+     * @throws IOException thrown if an IO exception occurs
+     * @throws SQLException thrown if an SQL exception occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws MzMLUnmarshallerException thrown if a precursor cannot be
+     * extracted from a spectrum
+     * @throws InterruptedException thrown if the process is interrupted
+     */
+    public static void export(File destinationFile, Identification identification, DeNovoResultStore resultStore, SessionSnapshot snapshot, SearchParameters searchParameters,
+            WaitingHandler waitingHandler, Double scoreThreshold, boolean greaterThan, Integer aNumberOfMatches,
+            Collection<Integer> advocates, Collection<Integer> charges)
+            throws IOException, SQLException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
+
+        ExportQuery exportQuery = new ExportQuery(scoreThreshold, greaterThan, aNumberOfMatches);
+        exportQuery.setAdvocates(advocates);
+        exportQuery.setCharges(charges);
+
+        if (waitingHandler != null) {
+            waitingHandler.setWaitingText("Exporting Spectra - Writing File. Please Wait...");
+            // reset the progress bar
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(ExportEngine.getNSpectra(identification, snapshot));
+        }
+
+        // every column is compressed to its own temporary file while the rows are added
+        File[] columnFiles = new File[COLUMN_NAMES.length];
+        Deflater[] deflaters = new Deflater[COLUMN_NAMES.length];
+        DataOutputStream[] columns = new DataOutputStream[COLUMN_NAMES.length];
+        boolean outputStarted = false, completed = false;
+
+        try {
+            for (int i = 0; i < columns.length; i++) {
+                columnFiles[i] = new File(destinationFile.getParentFile(), destinationFile.getName() + "_" + COLUMN_NAMES[i] + ".tmp");
+                deflaters[i] = new Deflater(Deflater.BEST_SPEED);
+                columns[i] = new DataOutputStream(new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(columnFiles[i]), 1 << 16), deflaters[i], 1 << 16));
+            }
+
+            int nRows = 0;
+            SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+
+            for (Map.Entry<String, Collection<String>> entry : ExportEngine.getSpectrumKeys(identification, snapshot).entrySet()) {
+                String mgfFile = entry.getKey();
+                for (String spectrumKey : entry.getValue()) {
+                    if (snapshot != null || identification.matchExists(spectrumKey)) {
+
+                        // the match is only read if the store has rows to export
+                        int spectrumIndex = resultStore == null ? -1 : resultStore.getSpectrumIndex(spectrumKey);
+                        if (resultStore == null || spectrumIndex != -1 && !exportQuery.select(resultStore, spectrumIndex).isEmpty()) {
+
+                            String spectrumTitle = Spectrum.getSpectrumTitle(spectrumKey);
+                            Precursor precursor = spectrumFactory.getPrecursor(spectrumKey);
+
+                            // export all matches above the score threshold up to the given user selected amount
+                            for (SpectrumIdentificationAssumption assumption : exportQuery.select(ExportEngine.getAssumptions(spectrumKey, identification, snapshot))) {
+                                writeRow(columns, mgfFile, spectrumTitle, precursor, assumption, searchParameters);
+                                nRows++;
+                            }
+                        }
+
+                        if (waitingHandler != null) {
+                            waitingHandler.increaseSecondaryProgressCounter();
+                            if (waitingHandler.isRunCanceled()) {
+                                return;
+                            }
+                        }
+                    }
+                }
+            }
+
+            for (int i = 0; i < columns.length; i++) {
+                columns[i].close();
+                columns[i] = null;
+            }
+
+            RandomAccessFile output = new RandomAccessFile(destinationFile, "rw");
+            outputStarted = true;
+
+            try {
+                output.setLength(0);
+                output.writeInt(MAGIC_NUMBER);
+                output.writeInt(VERSION);
+
+                FileChannel outputChannel = output.getChannel();
+                long[] offsets = new long[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    offsets[i] = output.getFilePointer();
+                    appendFile(columnFiles[i], outputChannel);
+                }
+
+                long footerOffset = output.getFilePointer();
+                output.writeInt(nRows);
+                output.writeInt(columns.length);
+                for (int i = 0; i < columns.length; i++) {
+                    output.writeUTF(COLUMN_NAMES[i]);
+                    output.writeByte(COLUMN_TYPES[i]);
+                    output.writeLong(offsets[i]);
+                    long end = i + 1 < columns.length ? offsets[i + 1] : footerOffset;
+                    output.writeLong(end - offsets[i]);
+                }
+                output.writeLong(footerOffset);
+                output.writeInt(MAGIC_NUMBER);
+            } finally {
+                output.close();
+            }
+
+            completed = true;
+
+        } finally {
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i] != null) {
+                    try {
+                        columns[i].close();
+                    } catch (IOException e) {
+                        // the column is discarded
+                    }
+                }
+                if (deflaters[i] != null) {
+                    deflaters[i].end();
+                }
+                if (columnFiles[i] != null) {
+                    columnFiles[i].delete();
+                }
+            }
+            if (outputStarted && !completed) {
+                destinationFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Appends the content of a file to a channel at its current position.
+     *
+     * @param file the file to append
+     * @param channel the channel
+     *
+     * @throws IOException thrown if an IO exception occurs
+     */
+    private static void appendFile(File file, FileChannel channel) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            FileChannel inputChannel = inputStream.getChannel();
+            long size = inputChannel.size();
+            long position = 0;
+            while (position < size) {
+                position += inputChannel.transferTo(position, size - position, channel);
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Appends a row to the columns.
+     *
+     * @param columns the columns
+     * @param spectrumFile the spectrum file
+     * @param spectrumTitle the spectrum title
+     * @param precursor the precursor of the spectrum
+     * @param assumption the assumption
+     * @param searchParameters the search parameters
+     *
+     * @throws IOException thrown if an IO exception occurs
+     * @throws InterruptedException thrown if the process is interrupted
+     */
+    private static void writeRow(DataOutputStream[] columns, String spectrumFile, String spectrumTitle, Precursor precursor,
+            SpectrumIdentificationAssumption assumption, SearchParameters searchParameters) throws IOException, InterruptedException {
+
+        String sequence, longestSequence, modifiedSequence;
+        double nGap, cGap, mass;
+
+        if (assumption instanceof TagAssumption) {
+            Tag tag = ((TagAssumption) assumption).getTag();
+            sequence = tag.asSequence();
+            longestSequence = tag.getLongestAminoAcidSequence();
+            modifiedSequence = tag.getTaggedModifiedSequence(searchParameters.getPtmSettings(), false, false, true, false);
+            nGap = tag.getNTerminalGap();
+            cGap = tag.getCTerminalGap();
+            mass = tag.getMass();
+        } else if (assumption instanceof PeptideAssumption) {
+            PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+            sequence = peptideAssumption.getPeptide().getSequence();
+            longestSequence = sequence;
+            modifiedSequence = peptideAssumption.getPeptide().getTaggedModifiedSequence(searchParameters.getPtmSettings(), false, false, true, false);
+            nGap = 0;
+            cGap = 0;
+            mass = peptideAssumption.getPeptide().getMass();
+        } else {
+            throw new UnsupportedOperationException("Export not implemented for assumption of type " + assumption.getClass() + ".");
+        }
+
+        double pepnovoRankScore = Double.NaN;
+        if (assumption.getAdvocate() == Advocate.pepnovo.getIndex()) {
+            PepnovoAssumptionDetails pepnovoAssumptionDetails = new PepnovoAssumptionDetails();
+            pepnovoAssumptionDetails = (PepnovoAssumptionDetails) assumption.getUrParam(pepnovoAssumptionDetails);
+            if (pepnovoAssumptionDetails != null) {
+                pepnovoRankScore = pepnovoAssumptionDetails.getRankScore();
+            }
+        }
+
+        int column = 0;
+        columns[column++].writeUTF(spectrumFile);
+        columns[column++].writeUTF(spectrumTitle);
+        columns[column++].writeDouble(precursor.getRt());
+        columns[column++].writeDouble(precursor.getMz());
+        columns[column++].writeInt(assumption.getAdvocate());
+        columns[column++].writeInt(assumption.getRank());
+        columns[column++].writeDouble(assumption.getScore());
+        columns[column++].writeDouble(pepnovoRankScore);
+        columns[column++].writeUTF(sequence);
+        columns[column++].writeUTF(longestSequence);
+        columns[column++].writeUTF(modifiedSequence);
+        columns[column++].writeDouble(nGap);
+        columns[column++].writeDouble(cGap);
+        columns[column++].writeDouble(mass);
+        columns[column++].writeInt(assumption.getIdentificationCharge().value);
+        columns[column++].writeDouble(assumption.getDeltaMass(precursor.getMz(), false, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
+        columns[column++].writeDouble(assumption.getDeltaMass(precursor.getMz(), true, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
+    }
+}
@@ -0,0 +1,285 @@
+package com.compomics.denovogui.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reader for the binary columnar files written by the ColumnarExporter. Only
+ * the footer is read when opening a file, the columns are streamed from the
+ * file and decompressed on demand.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class ColumnarResultReader {
+
+    /**
+     * The file read.
+     */
+    private RandomAccessFile file;
+    /**
+     * The number of rows.
+     */
+    private int nRows;
+    /**
+     * The names of the columns in file order.
+     */
+    private ArrayList<String> columnNames;
+    /**
+     * The type of every column.
+     */
+    private HashMap<String, Byte> columnTypes;
+    /**
+     * The offset of every column.
+     */
+    private HashMap<String, Long> columnOffsets;
+    /**
+     * The compressed length of every column.
+     */
+    private HashMap<String, Long> columnLengths;
+
+    /**
+     * Constructor. Opens the file and reads its footer.
+     *
+     * @param columnarFile the file to read
+     *
+     * @throws IOException thrown if the file cannot be read or is not a
+     * columnar export
+     */
+    public ColumnarResultReader(File columnarFile) throws IOException {
+
+        file = new RandomAccessFile(columnarFile, "r");
+
+        try {
+            if (file.length() < 20 || file.readInt() != ColumnarExporter.MAGIC_NUMBER) {
+                throw new IOException(columnarFile.getAbsolutePath() + " is not a DeNovoGUI columnar export.");
+            }
+            int version = file.readInt();
+            if (version > ColumnarExporter.VERSION) {
+                throw new IOException("Version " + version + " of the columnar export format is not supported.");
+            }
+
+            file.seek(file.length() - 12);
+            long footerOffset = file.readLong();
+            if (file.readInt() != ColumnarExporter.MAGIC_NUMBER) {
+                throw new IOException("The columnar export " + columnarFile.getAbsolutePath() + " is incomplete.");
+            }
+
+            file.seek(footerOffset);
+            nRows = file.readInt();
+            int nColumns = file.readInt();
+            columnNames = new ArrayList<String>(nColumns);
+            columnTypes = new HashMap<String, Byte>(nColumns);
+            columnOffsets = new HashMap<String, Long>(nColumns);
+            columnLengths = new HashMap<String, Long>(nColumns);
+            for (int i = 0; i < nColumns; i++) {
+                String name = file.readUTF();
+                columnNames.add(name);
+                columnTypes.put(name, file.readByte());
+                columnOffsets.put(name, file.readLong());
+                columnLengths.put(name, file.readLong());
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the number of rows
+     */
+    public int getNRows() {
+        return nRows;
+    }
+
+    /**
+     * Returns the names of the columns in file order.
+     *
+     * @return the names of the columns
+     */
+    public ArrayList<String> getColumnNames() {
+        return columnNames;
+    }
+
+    /**
+     * Returns the type of a column as defined in the ColumnarExporter.
+     *
+     * @param columnName the name of the column
+     *
+     * @return the type of the column
+     */
+    public byte getColumnType(String columnName) {
+        Byte type = columnTypes.get(columnName);
+        if (type == null) {
+            throw new IllegalArgumentException("Column " + columnName + " not found.");
+        }
+        return type;
+    }
+
+    /**
+     * Returns the values of an integer column.
+     *
+     * @param columnName the name of the column
+     *
+     * @return the values of the column
+     *
+     * @throws IOException thrown if the column cannot be read
+     */
+    public int[] getIntColumn(String columnName) throws IOException {
+        DataInputStream column = openColumn(columnName, ColumnarExporter.TYPE_INT);
+        try {
+            int[] values = new int[nRows];
+            for (int i = 0; i < nRows; i++) {
+                values[i] = column.readInt();
+            }
+            return values;
+        } finally {
+            column.close();
+        }
+    }
+
+    /**
+     * Returns the values of a double column.
+     *
+     * @param columnName the name of the column
+     *
+     * @return the values of the column
+     *
+     * @throws IOException thrown if the column cannot be read
+     */
+    public double[] getDoubleColumn(String columnName) throws IOException {
+        DataInputStream column = openColumn(columnName, ColumnarExporter.TYPE_DOUBLE);
+        try {
+            double[] values = new double[nRows];
+            for (int i = 0; i < nRows; i++) {
+                values[i] = column.readDouble();
+            }
+            return values;
+        } finally {
+            column.close();
+        }
+    }
+
+    /**
+     * Returns the values of a string column.
+     *
+     * @param columnName the name of the column
+     *
+     * @return the values of the column
+     *
+     * @throws IOException thrown if the column cannot be read
+     */
+    public String[] getStringColumn(String columnName) throws IOException {
+        DataInputStream column = openColumn(columnName, ColumnarExporter.TYPE_STRING);
+        try {
+            String[] values = new String[nRows];
+            for (int i = 0; i < nRows; i++) {
+                values[i] = column.readUTF();
+            }
+            return values;
+        } finally {
+            column.close();
+        }
+    }
+
+    /**
+     * Returns a stream decompressing the given column. The inflater is
+     * created by the stream and therefore released when the stream is
+     * closed.
+     *
+     * @param columnName the name of the column
+     * @param expectedType the expected type of the column
+     *
+     * @return a stream decompressing the column
+     *
+     * @throws IOException thrown if the column cannot be read
+     */
+    private DataInputStream openColumn(String columnName, byte expectedType) throws IOException {
+        if (getColumnType(columnName) != expectedType) {
+            throw new IllegalArgumentException("Column " + columnName + " is not of type " + expectedType + ".");
+        }
+        InputStream compressed = new BufferedInputStream(new ColumnInputStream(file.getChannel(), columnOffsets.get(columnName), columnLengths.get(columnName)), 1 << 16);
+        InputStream inputStream = new InflaterInputStream(compressed);
+        return new DataInputStream(new BufferedInputStream(inputStream, 1 << 16));
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException thrown if the file cannot be closed
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Stream on a section of a file channel. The section is read using
+     * absolute positions so that several columns can be read at the same
+     * time.
+     */
+    private static class ColumnInputStream extends InputStream {
+
+        /**
+         * The channel of the file.
+         */
+        private final FileChannel channel;
+        /**
+         * The position of the next byte to read.
+         */
+        private long position;
+        /**
+         * The end of the section.
+         */
+        private final long end;
+
+        /**
+         * Constructor.
+         *
+         * @param channel the channel of the file
+         * @param offset the offset of the section
+         * @param length the length of the section
+         */
+        public ColumnInputStream(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int toRead = (int) Math.min(length, end - position);
+            int read = channel.read(ByteBuffer.wrap(buffer, offset, toRead), position);
+            if (read == -1) {
+                throw new IOException("Unexpected end of the columnar export.");
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+}
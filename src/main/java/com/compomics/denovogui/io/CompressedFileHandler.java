@@ -0,0 +1,254 @@
+package com.compomics.denovogui.io;
+
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Helper class for the reading and writing of gzip compressed files. Files are
+ * considered compressed when their name ends with the gzip extension.
+ * Compressed spectrum files are decompressed next to the results, where the
+ * sequencing tools and the spectrum factory can access them.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class CompressedFileHandler {
+
+    /**
+     * The extension of the gzip compressed files.
+     */
+    public static final String GZIP_EXTENSION = ".gz";
+    /**
+     * The size of the buffers used for reading and writing.
+     */
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Empty default constructor.
+     */
+    private CompressedFileHandler() {
+    }
+
+    /**
+     * Indicates whether the given file is gzip compressed.
+     *
+     * @param file the file
+     *
+     * @return true if the file is gzip compressed
+     */
+    public static boolean isCompressed(File file) {
+        return file.getName().toLowerCase().endsWith(GZIP_EXTENSION);
+    }
+
+    /**
+     * Returns the name of the given file without the gzip extension.
+     *
+     * @param file the file
+     *
+     * @return the name of the file without the gzip extension
+     */
+    public static String getUncompressedName(File file) {
+        String fileName = file.getName();
+        if (isCompressed(file)) {
+            return fileName.substring(0, fileName.length() - GZIP_EXTENSION.length());
+        }
+        return fileName;
+    }
+
+    /**
+     * Returns a buffered reader on the given file, decompressing it on the fly
+     * if needed.
+     *
+     * @param file the file to read
+     *
+     * @return a buffered reader on the file
+     *
+     * @throws IOException thrown if the file cannot be opened
+     */
+    public static BufferedReader getReader(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            if (isCompressed(file)) {
+                inputStream = new GZIPInputStream(inputStream, BUFFER_SIZE);
+            }
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+        return new BufferedReader(new InputStreamReader(inputStream), BUFFER_SIZE);
+    }
+
+    /**
+     * Returns a writer on the given file, compressing the content on the fly
+     * if the file name ends with the gzip extension.
+     *
+     * @param file the file to write
+     *
+     * @return a writer on the file
+     *
+     * @throws IOException thrown if the file cannot be opened
+     */
+    public static Writer getWriter(File file) throws IOException {
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            if (isCompressed(file)) {
+                outputStream = new GZIPOutputStream(outputStream, BUFFER_SIZE);
+            }
+        } catch (IOException e) {
+            outputStream.close();
+            throw e;
+        }
+        return new OutputStreamWriter(outputStream);
+    }
+
+    /**
+     * Returns the spectrum files to process: the uncompressed files are
+     * returned as they are, and the compressed files are decompressed in the
+     * given folder. A decompressed file newer than its compressed file is
+     * reused.
+     *
+     * @param spectrumFiles the spectrum files
+     * @param folder the folder where to decompress the compressed files
+     * @param waitingHandler waiting handler displaying the progress and the
+     * time spent decompressing, can be null
+     *
+     * @return the uncompressed spectrum files
+     *
+     * @throws IOException thrown if a file cannot be decompressed
+     */
+    public static ArrayList<File> getUncompressedFiles(List<File> spectrumFiles, File folder, WaitingHandler waitingHandler) throws IOException {
+
+        ArrayList<File> result = new ArrayList<File>(spectrumFiles.size());
+
+        for (File spectrumFile : spectrumFiles) {
+
+            if (!isCompressed(spectrumFile)) {
+                result.add(spectrumFile);
+                continue;
+            }
+
+            File destination = new File(folder, getUncompressedName(spectrumFile));
+
+            if (!destination.exists() || destination.lastModified() < spectrumFile.lastModified()) {
+
+                long start = System.currentTimeMillis();
+                decompress(spectrumFile, destination, waitingHandler);
+
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        destination.delete();
+                        return result;
+                    }
+                    double seconds = (System.currentTimeMillis() - start) / 1000.0;
+                    waitingHandler.appendReport("Decompressed " + spectrumFile.getName() + " (" + toMb(spectrumFile.length()) + " MB read, "
+                            + toMb(destination.length()) + " MB written) in " + seconds + " s.", true, true);
+                }
+            }
+
+            result.add(destination);
+        }
+
+        return result;
+    }
+
+    /**
+     * Decompresses a gzip compressed file. The file is written to a temporary
+     * file which is renamed when complete, and deleted otherwise.
+     *
+     * @param compressedFile the compressed file
+     * @param destination the destination file
+     * @param waitingHandler waiting handler displaying the progress and
+     * allowing the user to cancel the process, can be null
+     *
+     * @throws IOException thrown if the file cannot be decompressed
+     */
+    public static void decompress(File compressedFile, File destination, WaitingHandler waitingHandler) throws IOException {
+
+        File tempFile = new File(destination.getParentFile(), destination.getName() + "_temp");
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(100);
+        }
+
+        boolean renamed = false;
+
+        try {
+            FileInputStream fileInputStream = new FileInputStream(compressedFile);
+
+            try {
+                InputStream inputStream = new GZIPInputStream(fileInputStream, BUFFER_SIZE);
+                OutputStream outputStream = new FileOutputStream(tempFile);
+
+                try {
+                    long fileLength = compressedFile.length();
+                    long progressStep = Math.max(fileLength / 100, 1);
+                    long nextProgress = progressStep;
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+
+                    while ((read = inputStream.read(buffer)) != -1) {
+                        outputStream.write(buffer, 0, read);
+
+                        if (waitingHandler != null) {
+                            long position = fileInputStream.getChannel().position();
+                            while (position >= nextProgress) {
+                                waitingHandler.increaseSecondaryProgressCounter();
+                                nextProgress += progressStep;
+                            }
+                            if (waitingHandler.isRunCanceled()) {
+                                break;
+                            }
+                        }
+                    }
+                } finally {
+                    outputStream.close();
+                    inputStream.close();
+                }
+            } finally {
+                fileInputStream.close();
+            }
+
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return;
+            }
+
+            if (destination.exists() && !destination.delete()) {
+                throw new IOException("Impossible to replace " + destination.getAbsolutePath() + ".");
+            }
+            if (!tempFile.renameTo(destination)) {
+                throw new IOException("Impossible to rename " + tempFile.getAbsolutePath() + " to " + destination.getName() + ".");
+            }
+            renamed = true;
+        } finally {
+            if (!renamed) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Converts bytes to MB.
+     *
+     * @param bytes the number of bytes
+     *
+     * @return the number of MB
+     */
+    private static long toMb(long bytes) {
+        return bytes / 1048576;
+    }
+}
@@ -0,0 +1,503 @@
+package com.compomics.denovogui.io;
+
+import com.compomics.denovogui.results.DeNovoResultStore;
+import com.compomics.denovogui.results.SessionSnapshot;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * Exports the results of the identification spectrum by spectrum. The
+ * matches to export are selected by the calling thread and sent in batches to
+ * a pool of threads formatting the rows in reusable buffers. The formatted
+ * batches are written by the calling thread in the order of the spectra.
+ *
+ * When a result store is given, the matches are selected on the rows of the
+ * store first, and only the spectra having matches to export are read from
+ * the identification. When a session snapshot is given, the spectra are listed
+ * from its result store and the matches read from the snapshot, so that the
+ * identification does not need to be filled.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class ExportEngine {
+
+    /**
+     * The number of spectra per batch.
+     */
+    public static final int BATCH_SIZE = 256;
+    /**
+     * The line separator.
+     */
+    public static final String NEW_LINE = System.getProperty("line.separator");
+    /**
+     * The number of threads to use.
+     */
+    private int nThreads;
+    /**
+     * The buffers available for formatting.
+     */
+    private ConcurrentLinkedQueue<StringBuilder> buffers = new ConcurrentLinkedQueue<StringBuilder>();
+
+    /**
+     * Interface for the formatting of the export of a spectrum.
+     */
+    public interface SpectrumFormatter {
+
+        /**
+         * Appends the rows of the given spectrum to the output.
+         *
+         * @param exportedSpectrum the spectrum to export
+         * @param output the output
+         *
+         * @throws Exception exception thrown whenever an error occurred while
+         * formatting the spectrum
+         */
+        public void format(ExportedSpectrum exportedSpectrum, StringBuilder output) throws Exception;
+    }
+
+    /**
+     * The details of a spectrum needed for the export.
+     */
+    public static class ExportedSpectrum {
+
+        /**
+         * The name of the spectrum file.
+         */
+        private final String spectrumFile;
+        /**
+         * The key of the spectrum.
+         */
+        private final String spectrumKey;
+        /**
+         * The precursor of the spectrum, null if no match is exported.
+         */
+        private final Precursor precursor;
+        /**
+         * The assumptions to export in export order, null if the spectrum is
+         * not identified.
+         */
+        private final ArrayList<SpectrumIdentificationAssumption> selectedAssumptions;
+        /**
+         * Indicates whether the spectrum has matches passing the filters of
+         * the export, regardless of the score threshold.
+         */
+        private final boolean candidates;
+
+        /**
+         * Constructor.
+         *
+         * @param spectrumFile the name of the spectrum file
+         * @param spectrumKey the key of the spectrum
+         * @param precursor the precursor of the spectrum, null if no match is
+         * exported
+         * @param selectedAssumptions the assumptions to export in export
+         * order, null if the spectrum is not identified
+         * @param candidates indicates whether the spectrum has matches passing
+         * the filters of the export, regardless of the score threshold
+         */
+        public ExportedSpectrum(String spectrumFile, String spectrumKey, Precursor precursor,
+                ArrayList<SpectrumIdentificationAssumption> selectedAssumptions, boolean candidates) {
+            this.spectrumFile = spectrumFile;
+            this.spectrumKey = spectrumKey;
+            this.precursor = precursor;
+            this.selectedAssumptions = selectedAssumptions;
+            this.candidates = candidates;
+        }
+
+        /**
+         * Returns the name of the spectrum file.
+         *
+         * @return the name of the spectrum file
+         */
+        public String getSpectrumFile() {
+            return spectrumFile;
+        }
+
+        /**
+         * Returns the key of the spectrum.
+         *
+         * @return the key of the spectrum
+         */
+        public String getSpectrumKey() {
+            return spectrumKey;
+        }
+
+        /**
+         * Returns the precursor of the spectrum, null if no match is
+         * exported.
+         *
+         * @return the precursor of the spectrum
+         */
+        public Precursor getPrecursor() {
+            return precursor;
+        }
+
+        /**
+         * Returns the assumptions to export in export order, null if the
+         * spectrum is not identified.
+         *
+         * @return the assumptions to export
+         */
+        public ArrayList<SpectrumIdentificationAssumption> getSelectedAssumptions() {
+            return selectedAssumptions;
+        }
+
+        /**
+         * Indicates whether the spectrum has matches passing the filters of
+         * the export, regardless of the score threshold.
+         *
+         * @return true if the spectrum has matches passing the filters
+         */
+        public boolean hasCandidates() {
+            return candidates;
+        }
+
+        /**
+         * Indicates whether the spectrum is identified.
+         *
+         * @return true if the spectrum is identified
+         */
+        public boolean isIdentified() {
+            return selectedAssumptions != null;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param nThreads the number of threads to use
+     */
+    public ExportEngine(int nThreads) {
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Exports the spectra of the identification.
+     *
+     * @param writer the writer
+     * @param identification the identification
+     * @param resultStore the result store used to select the matches to
+     * export, null to select them on the matches of the identification
+     * @param snapshot the session snapshot where to read the matches, null to
+     * read them from the identification
+     * @param exportQuery the selection of the matches to export
+     * @param formatter the formatter of the spectra
+     * @param includeUnidentified if true the spectra without match are also
+     * sent to the formatter
+     * @param waitingHandler waiting handler displaying progress to the user and
+     * allowing to cancel the process, can be null
+     *
+     * @return true if the export completed, false if canceled
+     *
+     * @throws IOException thrown if an IO exception occurs
+     * @throws SQLException thrown if an SQL exception occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws MzMLUnmarshallerException thrown if a precursor cannot be
+     * extracted from a spectrum
+     * @throws InterruptedException thrown if the process is interrupted
+     */
+    public boolean export(Writer writer, Identification identification, DeNovoResultStore resultStore, SessionSnapshot snapshot, ExportQuery exportQuery, final SpectrumFormatter formatter,
+            boolean includeUnidentified, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
+
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        LinkedList<Future<StringBuilder>> pendingBatches = new LinkedList<Future<StringBuilder>>();
+        LinkedList<Integer> pendingProgress = new LinkedList<Integer>();
+
+        try {
+            ArrayList<ExportedSpectrum> batch = new ArrayList<ExportedSpectrum>(BATCH_SIZE);
+            int batchProgress = 0;
+
+            for (Map.Entry<String, Collection<String>> entry : getSpectrumKeys(identification, snapshot).entrySet()) {
+                String spectrumFile = entry.getKey();
+                for (String spectrumKey : entry.getValue()) {
+
+                    if (snapshot != null || identification.matchExists(spectrumKey)) {
+                        batch.add(getExportedSpectrum(spectrumFile, spectrumKey, identification, resultStore, snapshot, exportQuery, spectrumFactory));
+                        batchProgress++;
+                    } else if (includeUnidentified) {
+                        batch.add(new ExportedSpectrum(spectrumFile, spectrumKey, null, null, false));
+                    }
+
+                    if (batch.size() == BATCH_SIZE) {
+                        pendingBatches.add(submit(pool, batch, formatter));
+                        pendingProgress.add(batchProgress);
+                        batch = new ArrayList<ExportedSpectrum>(BATCH_SIZE);
+                        batchProgress = 0;
+                    }
+
+                    // write the completed batches in order, wait if too many batches are pending
+                    while (!pendingBatches.isEmpty() && (pendingBatches.getFirst().isDone() || pendingBatches.size() > 2 * nThreads)) {
+                        if (!write(writer, pendingBatches.removeFirst(), pendingProgress.removeFirst(), waitingHandler)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                pendingBatches.add(submit(pool, batch, formatter));
+                pendingProgress.add(batchProgress);
+            }
+
+            while (!pendingBatches.isEmpty()) {
+                if (!write(writer, pendingBatches.removeFirst(), pendingProgress.removeFirst(), waitingHandler)) {
+                    return false;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the keys of the identified spectra indexed by spectrum file, in
+     * the order of the identification, or of the result store of the session
+     * snapshot if given.
+     *
+     * @param identification the identification
+     * @param snapshot the session snapshot where to read the matches, null to
+     * read them from the identification
+     *
+     * @return the keys of the identified spectra indexed by spectrum file
+     */
+    public static LinkedHashMap<String, Collection<String>> getSpectrumKeys(Identification identification, SessionSnapshot snapshot) {
+
+        LinkedHashMap<String, Collection<String>> result = new LinkedHashMap<String, Collection<String>>();
+
+        if (snapshot == null) {
+            for (String spectrumFile : identification.getSpectrumFiles()) {
+                result.put(spectrumFile, identification.getSpectrumIdentification(spectrumFile));
+            }
+        } else {
+            DeNovoResultStore resultStore = snapshot.getResultStore();
+            for (int i = 0; i < resultStore.getNSpectra(); i++) {
+                String spectrumKey = resultStore.getSpectrumKey(i);
+                String spectrumFile = Spectrum.getSpectrumFile(spectrumKey);
+                Collection<String> fileKeys = result.get(spectrumFile);
+                if (fileKeys == null) {
+                    fileKeys = new ArrayList<String>();
+                    result.put(spectrumFile, fileKeys);
+                }
+                fileKeys.add(spectrumKey);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the number of identified spectra.
+     *
+     * @param identification the identification
+     * @param snapshot the session snapshot where to read the matches, null to
+     * read them from the identification
+     *
+     * @return the number of identified spectra
+     */
+    public static int getNSpectra(Identification identification, SessionSnapshot snapshot) {
+        if (snapshot != null) {
+            return snapshot.getResultStore().getNSpectra();
+        }
+        return identification.getSpectrumIdentificationSize();
+    }
+
+    /**
+     * Returns the assumptions of a spectrum indexed by algorithm and score.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @param identification the identification
+     * @param snapshot the session snapshot where to read the matches, null to
+     * read them from the identification
+     *
+     * @return the assumptions of the spectrum
+     *
+     * @throws IOException thrown if an IO exception occurs
+     * @throws SQLException thrown if an SQL exception occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws InterruptedException thrown if the process is interrupted
+     */
+    public static HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> getAssumptions(String spectrumKey, Identification identification, SessionSnapshot snapshot)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        if (snapshot != null) {
+            SpectrumMatch spectrumMatch = snapshot.getSpectrumMatch(spectrumKey);
+            if (spectrumMatch == null) {
+                return new HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>(0);
+            }
+            return spectrumMatch.getAssumptionsMap();
+        }
+        return identification.getAssumptions(spectrumKey);
+    }
+
+    /**
+     * Returns the details of an identified spectrum needed for the export.
+     * The match is read only if the result store is null or holds rows to
+     * export for the spectrum.
+     *
+     * @param spectrumFile the name of the spectrum file
+     * @param spectrumKey the key of the spectrum
+     * @param identification the identification
+     * @param resultStore the result store, can be null
+     * @param snapshot the session snapshot where to read the match, null to
+     * read it from the identification
+     * @param exportQuery the selection of the matches to export
+     * @param spectrumFactory the spectrum factory
+     *
+     * @return the details of the spectrum needed for the export
+     *
+     * @throws IOException thrown if an IO exception occurs
+     * @throws SQLException thrown if an SQL exception occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws MzMLUnmarshallerException thrown if a precursor cannot be
+     * extracted from a spectrum
+     * @throws InterruptedException thrown if the process is interrupted
+     */
+    private static ExportedSpectrum getExportedSpectrum(String spectrumFile, String spectrumKey, Identification identification, DeNovoResultStore resultStore,
+            SessionSnapshot snapshot, ExportQuery exportQuery, SpectrumFactory spectrumFactory)
+            throws IOException, SQLException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
+
+        if (resultStore != null) {
+            int spectrumIndex = resultStore.getSpectrumIndex(spectrumKey);
+            if (spectrumIndex == -1) {
+                return new ExportedSpectrum(spectrumFile, spectrumKey, null, new ArrayList<SpectrumIdentificationAssumption>(0), false);
+            }
+            if (exportQuery.select(resultStore, spectrumIndex).isEmpty()) {
+                return new ExportedSpectrum(spectrumFile, spectrumKey, null, new ArrayList<SpectrumIdentificationAssumption>(0),
+                        exportQuery.hasCandidates(resultStore, spectrumIndex));
+            }
+        }
+
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = getAssumptions(spectrumKey, identification, snapshot);
+        ArrayList<SpectrumIdentificationAssumption> selectedAssumptions = exportQuery.select(assumptions);
+        Precursor precursor = selectedAssumptions.isEmpty() ? null : spectrumFactory.getPrecursor(spectrumKey);
+
+        return new ExportedSpectrum(spectrumFile, spectrumKey, precursor, selectedAssumptions, exportQuery.hasCandidates(assumptions));
+    }
+
+    /**
+     * Submits the formatting of a batch of spectra.
+     *
+     * @param pool the pool of threads
+     * @param batch the batch of spectra
+     * @param formatter the formatter
+     *
+     * @return the future of the formatted batch
+     */
+    private Future<StringBuilder> submit(ExecutorService pool, final ArrayList<ExportedSpectrum> batch, final SpectrumFormatter formatter) {
+        return pool.submit(new Callable<StringBuilder>() {
+            @Override
+            public StringBuilder call() throws Exception {
+                StringBuilder output = buffers.poll();
+                if (output == null) {
+                    output = new StringBuilder(1 << 16);
+                }
+                for (ExportedSpectrum exportedSpectrum : batch) {
+                    formatter.format(exportedSpectrum, output);
+                }
+                return output;
+            }
+        });
+    }
+
+    /**
+     * Writes a formatted batch and recycles its buffer.
+     *
+     * @param writer the writer
+     * @param formattedBatch the future of the formatted batch
+     * @param progress the number of identified spectra in the batch
+     * @param waitingHandler the waiting handler, can be null
+     *
+     * @return true if the export should continue, false if canceled
+     *
+     * @throws IOException thrown if an IO exception occurs
+     * @throws SQLException thrown if an SQL exception occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws MzMLUnmarshallerException thrown if a precursor cannot be
+     * extracted from a spectrum
+     * @throws InterruptedException thrown if the process is interrupted
+     */
+    private boolean write(Writer writer, Future<StringBuilder> formattedBatch, int progress, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
+
+        StringBuilder output = getResult(formattedBatch);
+        writer.append(output);
+        output.setLength(0);
+        buffers.add(output);
+
+        if (waitingHandler != null) {
+            waitingHandler.increaseSecondaryProgressCounter(progress);
+            if (waitingHandler.isRunCanceled()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Waits for the formatting of a batch and rethrows the exception thrown
+     * while formatting if any.
+     *
+     * @param future the future of the formatted batch
+     *
+     * @return the formatted batch
+     *
+     * @throws IOException thrown if an IO exception occurs
+     * @throws SQLException thrown if an SQL exception occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws MzMLUnmarshallerException thrown if a precursor cannot be
+     * extracted from a spectrum
+     * @throws InterruptedException thrown if the process is interrupted
+     */
+    private static StringBuilder getResult(Future<StringBuilder> future)
+            throws IOException, SQLException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            } else if (cause instanceof MzMLUnmarshallerException) {
+                throw (MzMLUnmarshallerException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package com.compomics.denovogui.io;
+
+import com.compomics.denovogui.results.DeNovoResultStore;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Selection of the matches to export for a spectrum. The advocate, charge and
+ * type filters are applied while scanning the matches, the best scoring
+ * matches of every advocate are selected using a heap bounded by the number of
+ * matches still to export, and the scan stops as soon as the maximal number of
+ * matches is reached.
+ *
+ * As in the previous versions of the exports, the matches are ranked by
+ * advocate and by decreasing score, the number of matches is counted before
+ * the score threshold, and the matches not passing the threshold are not
+ * exported.
+ *
+ * The selection can also be made on the rows of the result store, in which
+ * case the matches not exported do not need to be loaded from the
+ * identification.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class ExportQuery {
+
+    /**
+     * The default maximal number of matches to export per spectrum.
+     */
+    public static final int DEFAULT_NUMBER_OF_MATCHES = 10;
+    /**
+     * The score threshold.
+     */
+    private final double threshold;
+    /**
+     * If true the scores must be greater than or equal to the threshold,
+     * lower than or equal otherwise.
+     */
+    private final boolean greaterThan;
+    /**
+     * The maximal number of matches to export per spectrum.
+     */
+    private final int numberOfMatches;
+    /**
+     * The indexes of the advocates to export, null for all.
+     */
+    private HashSet<Integer> advocates = null;
+    /**
+     * The identification charges to export, null for all.
+     */
+    private HashSet<Integer> charges = null;
+    /**
+     * The type of assumption to export, null for all.
+     */
+    private Class<? extends SpectrumIdentificationAssumption> assumptionType = null;
+
+    /**
+     * Constructor.
+     *
+     * @param scoreThreshold the score threshold, null for 0
+     * @param greaterThan if true the scores must be greater than or equal to
+     * the threshold, lower than or equal otherwise
+     * @param numberOfMatches the maximal number of matches to export per
+     * spectrum, null for the default
+     */
+    public ExportQuery(Double scoreThreshold, boolean greaterThan, Integer numberOfMatches) {
+        this.threshold = scoreThreshold == null ? 0 : scoreThreshold;
+        this.greaterThan = greaterThan;
+        this.numberOfMatches = numberOfMatches == null ? DEFAULT_NUMBER_OF_MATCHES : numberOfMatches;
+    }
+
+    /**
+     * Restricts the export to the given advocates.
+     *
+     * @param advocateIndexes the indexes of the advocates to export, null for
+     * all
+     */
+    public void setAdvocates(Collection<Integer> advocateIndexes) {
+        advocates = advocateIndexes == null ? null : new HashSet<Integer>(advocateIndexes);
+    }
+
+    /**
+     * Restricts the export to the given identification charges.
+     *
+     * @param identificationCharges the identification charges to export, null
+     * for all
+     */
+    public void setCharges(Collection<Integer> identificationCharges) {
+        charges = identificationCharges == null ? null : new HashSet<Integer>(identificationCharges);
+    }
+
+    /**
+     * Restricts the export to the given type of assumption.
+     *
+     * @param assumptionType the type of assumption to export, null for all
+     */
+    public void setAssumptionType(Class<? extends SpectrumIdentificationAssumption> assumptionType) {
+        this.assumptionType = assumptionType;
+    }
+
+    /**
+     * Returns the maximal number of matches to export per spectrum.
+     *
+     * @return the maximal number of matches to export per spectrum
+     */
+    public int getNumberOfMatches() {
+        return numberOfMatches;
+    }
+
+    /**
+     * Indicates whether a score passes the threshold.
+     *
+     * @param score the score
+     *
+     * @return true if the score passes the threshold
+     */
+    public boolean passesThreshold(double score) {
+        if (greaterThan) {
+            return score >= threshold;
+        } else {
+            return score <= threshold;
+        }
+    }
+
+    /**
+     * Indicates whether an assumption passes the advocate, charge and type
+     * filters.
+     *
+     * @param assumption the assumption
+     *
+     * @return true if the assumption passes the filters
+     */
+    private boolean accept(SpectrumIdentificationAssumption assumption) {
+        return (assumptionType == null || assumptionType.isInstance(assumption))
+                && (charges == null || charges.contains(assumption.getIdentificationCharge().value));
+    }
+
+    /**
+     * Indicates whether the advocate filter retains the matches of the given
+     * advocate.
+     *
+     * @param advocate the index of the advocate
+     * @param advocateMap the matches of the advocate indexed by score
+     *
+     * @return true if the matches of the advocate should be scanned
+     */
+    private boolean accept(Integer advocate, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap) {
+        return advocateMap != null && !advocateMap.isEmpty() && (advocates == null || advocates.contains(advocate));
+    }
+
+    /**
+     * Returns the matches to export in export order.
+     *
+     * @param assumptionsMap the matches of the spectrum indexed by advocate
+     * and score
+     *
+     * @return the matches to export
+     */
+    public ArrayList<SpectrumIdentificationAssumption> select(HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap) {
+
+        ArrayList<SpectrumIdentificationAssumption> result = new ArrayList<SpectrumIdentificationAssumption>(Math.min(numberOfMatches, 16));
+        int remaining = numberOfMatches;
+
+        for (Map.Entry<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> entry : assumptionsMap.entrySet()) {
+
+            if (remaining <= 0) {
+                break;
+            }
+
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = entry.getValue();
+
+            if (accept(entry.getKey(), advocateMap)) {
+                for (Double score : getTopScores(advocateMap, remaining)) {
+                    for (SpectrumIdentificationAssumption assumption : advocateMap.get(score)) {
+                        if (accept(assumption)) {
+                            if (passesThreshold(assumption.getScore())) {
+                                result.add(assumption);
+                            }
+                            if (--remaining == 0) {
+                                break;
+                            }
+                        }
+                    }
+                    if (remaining == 0) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Indicates whether the spectrum has matches passing the advocate, charge
+     * and type filters, regardless of the score threshold.
+     *
+     * @param assumptionsMap the matches of the spectrum indexed by advocate
+     * and score
+     *
+     * @return true if the spectrum has matches passing the filters
+     */
+    public boolean hasCandidates(HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap) {
+        for (Map.Entry<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> entry : assumptionsMap.entrySet()) {
+            if (accept(entry.getKey(), entry.getValue())) {
+                for (ArrayList<SpectrumIdentificationAssumption> assumptions : entry.getValue().values()) {
+                    for (SpectrumIdentificationAssumption assumption : assumptions) {
+                        if (accept(assumption)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Indicates whether a row of the result store passes the advocate, charge
+     * and type filters.
+     *
+     * @param resultStore the result store
+     * @param row the row
+     *
+     * @return true if the row passes the filters
+     */
+    private boolean accept(DeNovoResultStore resultStore, int row) {
+        if (advocates != null && !advocates.contains(resultStore.getAdvocate(row))) {
+            return false;
+        }
+        if (charges != null && !charges.contains(resultStore.getCharge(row))) {
+            return false;
+        }
+        if (assumptionType != null) {
+            Class<? extends SpectrumIdentificationAssumption> rowType = resultStore.getTagId(row) == -1 ? PeptideAssumption.class : TagAssumption.class;
+            return assumptionType.isAssignableFrom(rowType);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the rows of the result store to export for the given spectrum,
+     * in export order. The rows are grouped by advocate and by score like the
+     * matches of a spectrum match so that the same matches are selected as
+     * when selecting from the identification.
+     *
+     * @param resultStore the result store
+     * @param spectrumIndex the index of the spectrum in the store
+     *
+     * @return the rows to export
+     */
+    public ArrayList<Integer> select(DeNovoResultStore resultStore, int spectrumIndex) {
+
+        HashMap<Integer, HashMap<Double, ArrayList<Integer>>> rowsMap = new HashMap<Integer, HashMap<Double, ArrayList<Integer>>>();
+
+        for (int row = resultStore.getFirstRow(spectrumIndex); row != -1; row = resultStore.getNextRow(row)) {
+            if (accept(resultStore, row)) {
+                int advocate = resultStore.getAdvocate(row);
+                HashMap<Double, ArrayList<Integer>> advocateRows = rowsMap.get(advocate);
+                if (advocateRows == null) {
+                    advocateRows = new HashMap<Double, ArrayList<Integer>>();
+                    rowsMap.put(advocate, advocateRows);
+                }
+                double score = resultStore.getScore(row);
+                ArrayList<Integer> scoreRows = advocateRows.get(score);
+                if (scoreRows == null) {
+                    scoreRows = new ArrayList<Integer>(1);
+                    advocateRows.put(score, scoreRows);
+                }
+                scoreRows.add(row);
+            }
+        }
+
+        ArrayList<Integer> result = new ArrayList<Integer>(Math.min(numberOfMatches, 16));
+        int remaining = numberOfMatches;
+
+        for (HashMap<Double, ArrayList<Integer>> advocateRows : rowsMap.values()) {
+
+            if (remaining <= 0) {
+                break;
+            }
+
+            ArrayList<Double> scores = new ArrayList<Double>(advocateRows.keySet());
+            Collections.sort(scores, Collections.reverseOrder());
+
+            for (Double score : scores) {
+                for (int row : advocateRows.get(score)) {
+                    if (passesThreshold(score)) {
+                        result.add(row);
+                    }
+                    if (--remaining == 0) {
+                        break;
+                    }
+                }
+                if (remaining == 0) {
+                    break;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Indicates whether the given spectrum of the result store has rows
+     * passing the advocate, charge and type filters, regardless of the score
+     * threshold.
+     *
+     * @param resultStore the result store
+     * @param spectrumIndex the index of the spectrum in the store
+     *
+     * @return true if the spectrum has rows passing the filters
+     */
+    public boolean hasCandidates(DeNovoResultStore resultStore, int spectrumIndex) {
+        for (int row = resultStore.getFirstRow(spectrumIndex); row != -1; row = resultStore.getNextRow(row)) {
+            if (accept(resultStore, row)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the highest scores of an advocate, in decreasing order, holding
+     * at least the given number of matches passing the filters. The scores are
+     * selected using a min heap from which the lowest score is removed as long
+     * as the other scores hold enough matches.
+     *
+     * @param advocateMap the matches of the advocate indexed by score
+     * @param nMatches the number of matches needed
+     *
+     * @return the highest scores in decreasing order
+     */
+    private ArrayList<Double> getTopScores(HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap, int nMatches) {
+
+        boolean filtered = assumptionType != null || charges != null;
+        PriorityQueue<Double> heap = new PriorityQueue<Double>(Math.min(advocateMap.size(), nMatches + 1));
+        HashMap<Double, Integer> counts = filtered ? new HashMap<Double, Integer>() : null;
+        int total = 0;
+
+        for (Map.Entry<Double, ArrayList<SpectrumIdentificationAssumption>> entry : advocateMap.entrySet()) {
+
+            Double score = entry.getKey();
+
+            // skip the scores which cannot make it to the heap
+            if (total >= nMatches && score.compareTo(heap.peek()) <= 0) {
+                continue;
+            }
+
+            int count = getCount(entry.getValue(), filtered);
+            if (count == 0) {
+                continue;
+            }
+            if (filtered) {
+                counts.put(score, count);
+            }
+            heap.add(score);
+            total += count;
+
+            // remove the lowest scores as long as the others hold enough matches
+            while (total - getCount(heap.peek(), advocateMap, counts) >= nMatches) {
+                total -= getCount(heap.poll(), advocateMap, counts);
+            }
+        }
+
+        ArrayList<Double> scores = new ArrayList<Double>(heap);
+        Collections.sort(scores, Collections.reverseOrder());
+        return scores;
+    }
+
+    /**
+     * Returns the number of matches of a score in the heap.
+     *
+     * @param score the score
+     * @param advocateMap the matches of the advocate indexed by score
+     * @param counts the number of matches passing the filters per score, null
+     * if no filter is used
+     *
+     * @return the number of matches of the score
+     */
+    private static int getCount(Double score, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap, HashMap<Double, Integer> counts) {
+        if (counts != null) {
+            return counts.get(score);
+        }
+        return advocateMap.get(score).size();
+    }
+
+    /**
+     * Returns the number of matches passing the filters in the given list.
+     *
+     * @param assumptions the matches
+     * @param filtered if false all matches are counted
+     *
+     * @return the number of matches passing the filters
+     */
+    private int getCount(ArrayList<SpectrumIdentificationAssumption> assumptions, boolean filtered) {
+        if (!filtered) {
+            return assumptions.size();
+        }
+        int count = 0;
+        for (SpectrumIdentificationAssumption assumption : assumptions) {
+            if (accept(assumption)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -18,7 +18,15 @@ public enum ExportType {
     /**
      * BLAST.
      */
-    blast(0, "Tag", "Export de novo tag sequences results blasted to protein sequences.");
+    blast(0, "Tag", "Export de novo tag sequences results blasted to protein sequences."),
+    /**
+     * Binary columnar.
+     */
+    columnar(2, "Columnar", "Export de novo results in a compressed binary columnar format."),
+    /**
+     * BLAST queries.
+     */
+    blastQueries(3, "BLAST Queries", "Export the unique de novo sequences as BLAST queries.");
     /**
      * The id number of this export type.
      */
@@ -78,10 +86,12 @@ public enum ExportType {
      * @return a list of available export types
      */
     public static ExportType[] getExportTypes() {
-        ExportType[] options = new ExportType[3];
+        ExportType[] options = new ExportType[5];
         options[0] = tags;
         options[1] = peptides;
         options[2] = blast;
+        options[3] = columnar;
+        options[4] = blastQueries;
         return options;
     }
 
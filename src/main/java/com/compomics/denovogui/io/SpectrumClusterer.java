@@ -0,0 +1,436 @@
+package com.compomics.denovogui.io;
+
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * Groups the repeated acquisitions of a precursor: two spectra are clustered
+ * when their precursor m/z match within the precursor tolerance, they have
+ * the same charges, their retention times are within the retention time
+ * window, and the cosine similarity of their binned peak vectors is above the
+ * similarity threshold. The vectors are computed in parallel, and the spectra
+ * are then clustered in parallel per window of precursor m/z. Every window
+ * also clusters the spectra of the next window within the precursor tolerance
+ * of its upper bound, these spectra are kept in the clusters seeded in the
+ * window so that no cluster is split at the window bounds. The representative
+ * of a cluster is the member with the highest total ion current.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class SpectrumClusterer {
+
+    /**
+     * The width of the m/z bins of the peak vectors.
+     */
+    public static final double BIN_WIDTH = 1.0005;
+    /**
+     * The number of most intense peaks in the peak vectors.
+     */
+    public static final int N_VECTOR_PEAKS = 50;
+    /**
+     * The number of spectra processed per task.
+     */
+    public static final int BATCH_SIZE = 1000;
+    /**
+     * The minimal width of the precursor m/z windows clustered in parallel.
+     */
+    public static final double WINDOW_WIDTH = 10.0;
+    /**
+     * The precursor m/z tolerance.
+     */
+    private final double precursorTolerance;
+    /**
+     * Boolean indicating whether the precursor tolerance is in ppm.
+     */
+    private final boolean ppm;
+    /**
+     * The retention time window in seconds.
+     */
+    private final double rtWindow;
+    /**
+     * The minimal cosine similarity of two spectra of a cluster.
+     */
+    private final double minSimilarity;
+    /**
+     * The number of threads to use.
+     */
+    private final int nThreads;
+
+    /**
+     * Constructor.
+     *
+     * @param precursorTolerance the precursor m/z tolerance
+     * @param ppm true if the precursor tolerance is in ppm
+     * @param rtWindow the retention time window in seconds
+     * @param minSimilarity the minimal cosine similarity of two spectra of a
+     * cluster
+     * @param nThreads the number of threads to use
+     */
+    public SpectrumClusterer(double precursorTolerance, boolean ppm, double rtWindow, double minSimilarity, int nThreads) {
+        this.precursorTolerance = precursorTolerance;
+        this.ppm = ppm;
+        this.rtWindow = rtWindow;
+        this.minSimilarity = minSimilarity;
+        this.nThreads = Math.max(1, nThreads);
+    }
+
+    /**
+     * Clusters the spectra of a file loaded in the spectrum factory.
+     *
+     * @param fileName the name of the spectrum file
+     * @param spectrumTitles the titles of the spectra
+     * @param waitingHandler the waiting handler
+     *
+     * @return the index of the representative of every spectrum, null if the
+     * process was canceled
+     *
+     * @throws IOException thrown if an error occurred while reading the
+     * spectra
+     * @throws MzMLUnmarshallerException thrown if an error occurred while
+     * reading the spectra
+     * @throws InterruptedException thrown if the threads are interrupted
+     */
+    public int[] cluster(final String fileName, final ArrayList<String> spectrumTitles, WaitingHandler waitingHandler)
+            throws IOException, MzMLUnmarshallerException, InterruptedException {
+
+        final int nSpectra = spectrumTitles.size();
+        final double[] mzs = new double[nSpectra];
+        final double[] rts = new double[nSpectra];
+        final String[] charges = new String[nSpectra];
+        final double[] tics = new double[nSpectra];
+        final int[][] bins = new int[nSpectra][];
+        final float[][] weights = new float[nSpectra][];
+        final SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+
+        waitingHandler.resetSecondaryProgressCounter();
+        waitingHandler.setMaxSecondaryProgressCounter(2 * nSpectra);
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
+        try {
+
+            // compute the peak vectors
+            ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int batchStart = 0; batchStart < nSpectra; batchStart += BATCH_SIZE) {
+                final int start = batchStart;
+                final int end = Math.min(batchStart + BATCH_SIZE, nSpectra);
+                futures.add(pool.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        for (int i = start; i < end; i++) {
+                            MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(Spectrum.getSpectrumKey(fileName, spectrumTitles.get(i)));
+                            Precursor precursor = spectrum.getPrecursor();
+                            mzs[i] = precursor.getMz();
+                            rts[i] = precursor.getRt();
+                            charges[i] = precursor.getPossibleChargesAsString();
+                            tics[i] = setVector(spectrum.getPeakMap(), i, bins, weights);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                if (waitingHandler.isRunCanceled()) {
+                    return null;
+                }
+                getResult(futures.get(i));
+                waitingHandler.increaseSecondaryProgressCounter(Math.min(BATCH_SIZE, nSpectra - i * BATCH_SIZE));
+            }
+
+            // sort by precursor m/z and split in overlapping windows
+            Integer[] order = new Integer[nSpectra];
+            for (int i = 0; i < nSpectra; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Double.compare(mzs[o1], mzs[o2]);
+                }
+            });
+
+            final int[] representatives = new int[nSpectra];
+            if (nSpectra == 0) {
+                return representatives;
+            }
+            double windowWidth = Math.max(WINDOW_WIDTH, 2 * getTolerance(mzs[order[nSpectra - 1]]));
+            ArrayList<Future<HashMap<Integer, Integer>>> windowFutures = new ArrayList<Future<HashMap<Integer, Integer>>>();
+            ArrayList<Integer> windowSizes = new ArrayList<Integer>();
+            int windowStart = 0;
+            while (windowStart < nSpectra) {
+                double windowEnd = (Math.floor(mzs[order[windowStart]] / windowWidth) + 1) * windowWidth;
+                double overlapEnd = windowEnd + getTolerance(windowEnd);
+                int ownedEnd = windowStart;
+                while (ownedEnd < nSpectra && mzs[order[ownedEnd]] < windowEnd) {
+                    ownedEnd++;
+                }
+                int blockEnd = ownedEnd;
+                while (blockEnd < nSpectra && mzs[order[blockEnd]] <= overlapEnd) {
+                    blockEnd++;
+                }
+                final Integer[] block = Arrays.copyOfRange(order, windowStart, blockEnd);
+                final double end = windowEnd;
+                windowSizes.add(ownedEnd - windowStart);
+                windowFutures.add(pool.submit(new Callable<HashMap<Integer, Integer>>() {
+                    @Override
+                    public HashMap<Integer, Integer> call() throws Exception {
+                        return clusterBlock(block, end, mzs, rts, charges, tics, bins, weights, representatives);
+                    }
+                }));
+                windowStart = ownedEnd;
+            }
+            HashMap<Integer, Integer> overlapRepresentatives = new HashMap<Integer, Integer>();
+            for (int i = 0; i < windowFutures.size(); i++) {
+                if (waitingHandler.isRunCanceled()) {
+                    return null;
+                }
+                overlapRepresentatives.putAll(getResult(windowFutures.get(i)));
+                waitingHandler.increaseSecondaryProgressCounter(windowSizes.get(i));
+            }
+
+            // the spectra clustered with the previous window keep this cluster, the spectra they represent follow them
+            for (Map.Entry<Integer, Integer> entry : overlapRepresentatives.entrySet()) {
+                representatives[entry.getKey()] = entry.getValue();
+            }
+            for (int i = 0; i < nSpectra; i++) {
+                while (representatives[representatives[i]] != representatives[i]) {
+                    representatives[i] = representatives[representatives[i]];
+                }
+            }
+
+            return representatives;
+
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Clusters the spectra of a window sorted by precursor m/z. A spectrum
+     * joins the first open cluster matching its seed, and the representative
+     * of every cluster is the member with the highest total ion current. The
+     * representatives of the spectra of the window are set, the clusters
+     * seeded by the spectra of the next window are left to the next window.
+     *
+     * @param block the indexes of the spectra of the window followed by the
+     * spectra of the next window within the precursor tolerance, sorted by
+     * precursor m/z
+     * @param windowEnd the upper bound of the window, exclusive
+     * @param mzs the precursor m/z of the spectra
+     * @param rts the retention times of the spectra
+     * @param charges the charges of the spectra
+     * @param tics the total ion currents of the spectra
+     * @param bins the bins of the peak vectors
+     * @param weights the weights of the peak vectors
+     * @param representatives the array where to set the representative of
+     * every spectrum of the window
+     *
+     * @return the representatives of the spectra of the next window clustered
+     * with the spectra of this window
+     */
+    private HashMap<Integer, Integer> clusterBlock(Integer[] block, double windowEnd, double[] mzs, double[] rts, String[] charges, double[] tics,
+            int[][] bins, float[][] weights, int[] representatives) {
+
+        // the seed of every open cluster and its members
+        ArrayList<Integer> seeds = new ArrayList<Integer>();
+        HashMap<Integer, ArrayList<Integer>> clusters = new HashMap<Integer, ArrayList<Integer>>();
+        int firstOpen = 0;
+        int nOwnedSeeds = 0;
+
+        for (int spectrum : block) {
+
+            while (firstOpen < seeds.size() && mzs[spectrum] - mzs[seeds.get(firstOpen)] > getTolerance(mzs[seeds.get(firstOpen)])) {
+                firstOpen++;
+            }
+
+            ArrayList<Integer> cluster = null;
+            for (int i = firstOpen; i < seeds.size(); i++) {
+                int seed = seeds.get(i);
+                if (charges[seed].equals(charges[spectrum])
+                        && (rts[seed] <= 0 || rts[spectrum] <= 0 || Math.abs(rts[seed] - rts[spectrum]) <= rtWindow)
+                        && getSimilarity(bins[seed], weights[seed], bins[spectrum], weights[spectrum]) >= minSimilarity) {
+                    cluster = clusters.get(seed);
+                    break;
+                }
+            }
+
+            if (cluster == null) {
+                cluster = new ArrayList<Integer>(1);
+                seeds.add(spectrum);
+                clusters.put(spectrum, cluster);
+                if (mzs[spectrum] < windowEnd) {
+                    nOwnedSeeds++;
+                }
+            }
+            cluster.add(spectrum);
+        }
+
+        HashMap<Integer, Integer> overlapRepresentatives = new HashMap<Integer, Integer>();
+        for (int i = 0; i < nOwnedSeeds; i++) {
+            ArrayList<Integer> cluster = clusters.get(seeds.get(i));
+            int representative = cluster.get(0);
+            for (int member : cluster) {
+                if (tics[member] > tics[representative]) {
+                    representative = member;
+                }
+            }
+            for (int member : cluster) {
+                if (mzs[member] < windowEnd) {
+                    representatives[member] = representative;
+                } else {
+                    overlapRepresentatives.put(member, representative);
+                }
+            }
+        }
+
+        return overlapRepresentatives;
+    }
+
+    /**
+     * Sets the binned peak vector of a spectrum: the square root of the
+     * intensities of the most intense peaks summed per bin and normalized to
+     * unit length, with the bins sorted.
+     *
+     * @param peakMap the peaks of the spectrum
+     * @param index the index of the spectrum
+     * @param bins the bins of the peak vectors
+     * @param weights the weights of the peak vectors
+     *
+     * @return the total ion current of the spectrum
+     */
+    private static double setVector(HashMap<Double, Peak> peakMap, int index, int[][] bins, float[][] weights) {
+
+        Peak[] peaks = peakMap.values().toArray(new Peak[peakMap.size()]);
+        double tic = 0;
+        for (Peak peak : peaks) {
+            tic += peak.getIntensity();
+        }
+        Arrays.sort(peaks, new Comparator<Peak>() {
+            @Override
+            public int compare(Peak o1, Peak o2) {
+                return Double.compare(o2.getIntensity(), o1.getIntensity());
+            }
+        });
+
+        int nPeaks = Math.min(peaks.length, N_VECTOR_PEAKS);
+        Peak[] topPeaks = Arrays.copyOf(peaks, nPeaks);
+        Arrays.sort(topPeaks, new Comparator<Peak>() {
+            @Override
+            public int compare(Peak o1, Peak o2) {
+                return Double.compare(o1.getMz(), o2.getMz());
+            }
+        });
+
+        int[] peakBins = new int[nPeaks];
+        float[] peakWeights = new float[nPeaks];
+        int nBins = 0;
+        double norm = 0;
+        for (Peak peak : topPeaks) {
+            int bin = (int) (peak.getMz() / BIN_WIDTH);
+            float weight = (float) Math.sqrt(peak.getIntensity());
+            if (nBins > 0 && peakBins[nBins - 1] == bin) {
+                norm -= peakWeights[nBins - 1] * peakWeights[nBins - 1];
+                peakWeights[nBins - 1] += weight;
+            } else {
+                peakBins[nBins] = bin;
+                peakWeights[nBins] = weight;
+                nBins++;
+            }
+            norm += peakWeights[nBins - 1] * peakWeights[nBins - 1];
+        }
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < nBins; i++) {
+            peakWeights[i] /= norm;
+        }
+
+        bins[index] = Arrays.copyOf(peakBins, nBins);
+        weights[index] = Arrays.copyOf(peakWeights, nBins);
+
+        return tic;
+    }
+
+    /**
+     * Returns the cosine similarity of two normalized binned vectors.
+     *
+     * @param bins1 the bins of the first vector
+     * @param weights1 the weights of the first vector
+     * @param bins2 the bins of the second vector
+     * @param weights2 the weights of the second vector
+     *
+     * @return the cosine similarity
+     */
+    private static double getSimilarity(int[] bins1, float[] weights1, int[] bins2, float[] weights2) {
+        double result = 0;
+        int i = 0, j = 0;
+        while (i < bins1.length && j < bins2.length) {
+            if (bins1[i] == bins2[j]) {
+                result += weights1[i] * weights2[j];
+                i++;
+                j++;
+            } else if (bins1[i] < bins2[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the absolute precursor tolerance at the given m/z.
+     *
+     * @param mz the m/z
+     *
+     * @return the absolute precursor tolerance
+     */
+    private double getTolerance(double mz) {
+        return ppm ? mz * precursorTolerance / 1000000 : precursorTolerance;
+    }
+
+    /**
+     * Waits for a task, unwrapping the cause of the execution exceptions.
+     *
+     * @param <T> the type of result of the task
+     * @param future the future of the task
+     *
+     * @return the result of the task
+     *
+     * @throws IOException thrown if an error occurred while reading the
+     * spectra
+     * @throws MzMLUnmarshallerException thrown if an error occurred while
+     * reading the spectra
+     * @throws InterruptedException thrown if the thread is interrupted
+     */
+    private static <T> T getResult(Future<T> future) throws IOException, MzMLUnmarshallerException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof MzMLUnmarshallerException) {
+                throw (MzMLUnmarshallerException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("An error occurred while clustering the spectra.", cause);
+        }
+    }
+}
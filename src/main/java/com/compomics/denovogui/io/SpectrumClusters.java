@@ -0,0 +1,221 @@
+package com.compomics.denovogui.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The clusters of spectra of a spectrum file: only the representative of
+ * every cluster is sequenced, and its matches are propagated to the other
+ * members of the cluster when importing the results. The clusters are saved
+ * next to the result files, one cluster per line, the titles of the
+ * representative and of the other members separated by tabs, the
+ * backslashes, tabs and line breaks of the titles being escaped.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class SpectrumClusters {
+
+    /**
+     * The extension of the cluster files.
+     */
+    public static final String EXTENSION = ".clusters";
+    /**
+     * The separator of the titles.
+     */
+    public static final String SEPARATOR = "\t";
+    /**
+     * The titles of the other members of every cluster indexed by the title of
+     * the representative.
+     */
+    private final HashMap<String, ArrayList<String>> clusters = new HashMap<String, ArrayList<String>>();
+
+    /**
+     * Constructor.
+     */
+    public SpectrumClusters() {
+    }
+
+    /**
+     * Returns the file where the clusters of a spectrum file are saved.
+     *
+     * @param folder the folder of the result files
+     * @param spectrumFileName the name of the spectrum file
+     *
+     * @return the cluster file
+     */
+    public static File getClusterFile(File folder, String spectrumFileName) {
+        return new File(folder, spectrumFileName + EXTENSION);
+    }
+
+    /**
+     * Adds a cluster.
+     *
+     * @param representative the title of the representative spectrum
+     * @param members the titles of the other members of the cluster
+     */
+    public void addCluster(String representative, ArrayList<String> members) {
+        clusters.put(representative, members);
+    }
+
+    /**
+     * Returns the titles of the other members of the cluster of the given
+     * representative, null if none.
+     *
+     * @param representative the title of the representative spectrum
+     *
+     * @return the titles of the other members of the cluster
+     */
+    public ArrayList<String> getMembers(String representative) {
+        return clusters.get(representative);
+    }
+
+    /**
+     * Returns the number of clusters with more than one member.
+     *
+     * @return the number of clusters
+     */
+    public int getNClusters() {
+        return clusters.size();
+    }
+
+    /**
+     * Returns the number of spectra represented by another spectrum.
+     *
+     * @return the number of spectra represented by another spectrum
+     */
+    public int getNMembers() {
+        int result = 0;
+        for (ArrayList<String> members : clusters.values()) {
+            result += members.size();
+        }
+        return result;
+    }
+
+    /**
+     * Saves the clusters to a file.
+     *
+     * @param file the file
+     *
+     * @throws IOException thrown if an error occurred while writing the file
+     */
+    public void save(File file) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+        try {
+            for (Map.Entry<String, ArrayList<String>> entry : clusters.entrySet()) {
+                writer.write(escape(entry.getKey()));
+                for (String member : entry.getValue()) {
+                    writer.write(SEPARATOR);
+                    writer.write(escape(member));
+                }
+                writer.newLine();
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Loads the clusters from a file.
+     *
+     * @param file the file
+     *
+     * @return the clusters
+     *
+     * @throws IOException thrown if an error occurred while reading the file
+     */
+    public static SpectrumClusters load(File file) throws IOException {
+        SpectrumClusters result = new SpectrumClusters();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] titles = line.split(SEPARATOR, -1);
+                if (titles.length > 1) {
+                    ArrayList<String> members = new ArrayList<String>(titles.length - 1);
+                    for (int i = 1; i < titles.length; i++) {
+                        members.add(unescape(titles[i]));
+                    }
+                    result.addCluster(unescape(titles[0]), members);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    /**
+     * Escapes the backslashes, tabs and line breaks of a title.
+     *
+     * @param title the title
+     *
+     * @return the escaped title
+     */
+    private static String escape(String title) {
+        StringBuilder result = new StringBuilder(title.length());
+        for (int i = 0; i < title.length(); i++) {
+            char c = title.charAt(i);
+            switch (c) {
+                case '\\':
+                    result.append("\\\\");
+                    break;
+                case '\t':
+                    result.append("\\t");
+                    break;
+                case '\n':
+                    result.append("\\n");
+                    break;
+                case '\r':
+                    result.append("\\r");
+                    break;
+                default:
+                    result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Restores a title escaped by {@link #escape(java.lang.String)}.
+     *
+     * @param title the escaped title
+     *
+     * @return the title
+     */
+    private static String unescape(String title) {
+        StringBuilder result = new StringBuilder(title.length());
+        for (int i = 0; i < title.length(); i++) {
+            char c = title.charAt(i);
+            if (c == '\\' && i + 1 < title.length()) {
+                char next = title.charAt(++i);
+                switch (next) {
+                    case 't':
+                        result.append('\t');
+                        break;
+                    case 'n':
+                        result.append('\n');
+                        break;
+                    case 'r':
+                        result.append('\r');
+                        break;
+                    default:
+                        result.append(next);
+                }
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
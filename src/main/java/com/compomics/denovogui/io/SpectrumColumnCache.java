@@ -0,0 +1,388 @@
+package com.compomics.denovogui.io;
+
+import com.compomics.util.exceptions.ExceptionHandler;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * Precursor and peak count columns of a spectrum file: m/z, charge, intensity,
+ * retention time and number of peaks of every spectrum stored in primitive
+ * arrays. The columns are extracted once from the spectrum factory and saved
+ * next to the spectrum factory index so that the spectrum table never needs
+ * to load the spectra again.
+ *
+ * @author Harald Barsnes
+ * @author Marc Vaudel
+ */
+public class SpectrumColumnCache {
+
+    /**
+     * The extension of the cache files.
+     */
+    public static final String EXTENSION = ".columns";
+    /**
+     * The version of the cache file format.
+     */
+    private static final int VERSION = 2;
+    /**
+     * The length of the spectrum file when the cache was built.
+     */
+    private long spectrumFileLength;
+    /**
+     * The last modification time of the spectrum file when the cache was
+     * built.
+     */
+    private long spectrumFileLastModified;
+    /**
+     * The spectrum titles in the order of the file.
+     */
+    private String[] titles;
+    /**
+     * Spectrum title to index map.
+     */
+    private HashMap<String, Integer> titleIndexes;
+    /**
+     * The precursor m/z values.
+     */
+    private double[] mzs;
+    /**
+     * The first precursor charge, 0 if none.
+     */
+    private int[] charges;
+    /**
+     * The precursor intensities.
+     */
+    private double[] intensities;
+    /**
+     * The precursor retention times, -1 if none.
+     */
+    private double[] rts;
+    /**
+     * The number of peaks.
+     */
+    private int[] peakCounts;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the number of spectra
+     */
+    private SpectrumColumnCache(int capacity) {
+        titles = new String[capacity];
+        titleIndexes = new HashMap<String, Integer>(capacity);
+        mzs = new double[capacity];
+        charges = new int[capacity];
+        intensities = new double[capacity];
+        rts = new double[capacity];
+        peakCounts = new int[capacity];
+    }
+
+    /**
+     * Returns the cache of the given spectrum file. The cache is loaded from
+     * the cache file if up to date, otherwise it is extracted from the
+     * spectrum factory, where the spectrum file must be loaded, and saved.
+     * The errors occurring while reading or saving the cache file are sent to
+     * the exception handler, the cache is then extracted again or kept in
+     * memory only.
+     *
+     * @param spectrumFile the spectrum file
+     * @param waitingHandler the waiting handler
+     * @param exceptionHandler the exception handler
+     *
+     * @return the cache of the given spectrum file, null if canceled
+     *
+     * @throws IOException thrown if an error occurs while reading the spectra
+     * @throws MzMLUnmarshallerException thrown if an error occurs while
+     * reading the spectra
+     */
+    public static SpectrumColumnCache getCache(File spectrumFile, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler)
+            throws IOException, MzMLUnmarshallerException {
+
+        File cacheFile = getCacheFile(spectrumFile);
+
+        if (cacheFile.exists()) {
+            try {
+                SpectrumColumnCache cache = load(cacheFile);
+                if (cache != null && cache.isUpToDate(spectrumFile)) {
+                    return cache;
+                }
+            } catch (IOException e) {
+                exceptionHandler.catchException(e);
+            }
+        }
+
+        SpectrumColumnCache cache = extract(spectrumFile, waitingHandler);
+
+        if (cache != null) {
+            try {
+                cache.save(cacheFile);
+            } catch (IOException e) {
+                cacheFile.delete();
+                exceptionHandler.catchException(e);
+            }
+        }
+
+        return cache;
+    }
+
+    /**
+     * Returns the file where the cache of the given spectrum file is saved.
+     *
+     * @param spectrumFile the spectrum file
+     *
+     * @return the cache file
+     */
+    public static File getCacheFile(File spectrumFile) {
+        return new File(spectrumFile.getParentFile(), spectrumFile.getName() + EXTENSION);
+    }
+
+    /**
+     * Indicates whether the cache corresponds to the current version of the
+     * spectrum file.
+     *
+     * @param spectrumFile the spectrum file
+     *
+     * @return true if the cache is up to date
+     */
+    public boolean isUpToDate(File spectrumFile) {
+        return spectrumFile.length() == spectrumFileLength && spectrumFile.lastModified() == spectrumFileLastModified;
+    }
+
+    /**
+     * Extracts the columns of a spectrum file from the spectrum factory. The
+     * titles and precursors are read from the index of the factory, the
+     * spectra are read once to count their peaks.
+     *
+     * @param spectrumFile the spectrum file
+     * @param waitingHandler the waiting handler
+     *
+     * @return the extracted columns, null if canceled
+     *
+     * @throws IOException thrown if an error occurs while reading the spectra
+     * @throws MzMLUnmarshallerException thrown if an error occurs while
+     * reading the spectra
+     */
+    private static SpectrumColumnCache extract(File spectrumFile, WaitingHandler waitingHandler) throws IOException, MzMLUnmarshallerException {
+
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+        String fileName = spectrumFile.getName();
+        ArrayList<String> spectrumTitles = spectrumFactory.getSpectrumTitles(fileName);
+        if (spectrumTitles == null) {
+            throw new IllegalArgumentException("Spectrum file " + fileName + " not loaded in the spectrum factory.");
+        }
+
+        SpectrumColumnCache cache = new SpectrumColumnCache(spectrumTitles.size());
+        cache.spectrumFileLength = spectrumFile.length();
+        cache.spectrumFileLastModified = spectrumFile.lastModified();
+
+        for (int i = 0; i < spectrumTitles.size(); i++) {
+            String title = spectrumTitles.get(i);
+            String spectrumKey = Spectrum.getSpectrumKey(fileName, title);
+            Precursor precursor = spectrumFactory.getPrecursor(spectrumKey);
+            ArrayList<Charge> charges = precursor.getPossibleCharges();
+            int charge = charges == null || charges.isEmpty() ? 0 : charges.get(0).value;
+            MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
+            cache.set(i, title, precursor.getMz(), charge, precursor.getIntensity(), precursor.getRt(), spectrum.getPeakMap().size());
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return null;
+            }
+        }
+
+        return cache;
+    }
+
+    /**
+     * Sets the values of the spectrum at the given index.
+     *
+     * @param index the index of the spectrum
+     * @param title the spectrum title
+     * @param mz the precursor m/z
+     * @param charge the precursor charge
+     * @param intensity the precursor intensity
+     * @param rt the precursor retention time
+     * @param peakCount the number of peaks
+     */
+    private void set(int index, String title, double mz, int charge, double intensity, double rt, int peakCount) {
+        titles[index] = title;
+        titleIndexes.put(title, index);
+        mzs[index] = mz;
+        charges[index] = charge;
+        intensities[index] = intensity;
+        rts[index] = rt;
+        peakCounts[index] = peakCount;
+    }
+
+    /**
+     * Saves the cache to the given file.
+     *
+     * @param cacheFile the file where to save the cache
+     *
+     * @throws IOException thrown if an error occurs while writing the file
+     */
+    public void save(File cacheFile) throws IOException {
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)));
+        try {
+            out.writeInt(VERSION);
+            out.writeLong(spectrumFileLength);
+            out.writeLong(spectrumFileLastModified);
+            out.writeInt(titles.length);
+            for (int i = 0; i < titles.length; i++) {
+                out.writeUTF(titles[i]);
+                out.writeDouble(mzs[i]);
+                out.writeInt(charges[i]);
+                out.writeDouble(intensities[i]);
+                out.writeDouble(rts[i]);
+                out.writeInt(peakCounts[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Loads a cache from the given file.
+     *
+     * @param cacheFile the cache file
+     *
+     * @return the cache, null if the file format version is outdated
+     *
+     * @throws IOException thrown if an error occurs while reading the file
+     */
+    private static SpectrumColumnCache load(File cacheFile) throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+        try {
+            int version = in.readInt();
+            if (version != VERSION) {
+                return null;
+            }
+            long spectrumFileLength = in.readLong();
+            long spectrumFileLastModified = in.readLong();
+            int nSpectra = in.readInt();
+            SpectrumColumnCache cache = new SpectrumColumnCache(nSpectra);
+            cache.spectrumFileLength = spectrumFileLength;
+            cache.spectrumFileLastModified = spectrumFileLastModified;
+            for (int i = 0; i < nSpectra; i++) {
+                String title = in.readUTF();
+                double mz = in.readDouble();
+                int charge = in.readInt();
+                double intensity = in.readDouble();
+                double rt = in.readDouble();
+                int peakCount = in.readInt();
+                cache.set(i, title, mz, charge, intensity, rt, peakCount);
+            }
+            return cache;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the number of spectra.
+     *
+     * @return the number of spectra
+     */
+    public int getNSpectra() {
+        return titles.length;
+    }
+
+    /**
+     * Returns the index of the spectrum with the given title, -1 if not
+     * found.
+     *
+     * @param spectrumTitle the spectrum title
+     *
+     * @return the index of the spectrum
+     */
+    public int getIndex(String spectrumTitle) {
+        Integer index = titleIndexes.get(spectrumTitle);
+        if (index == null) {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the title of the spectrum at the given index.
+     *
+     * @param index the index of the spectrum
+     *
+     * @return the spectrum title
+     */
+    public String getTitle(int index) {
+        return titles[index];
+    }
+
+    /**
+     * Returns the precursor m/z of the spectrum at the given index.
+     *
+     * @param index the index of the spectrum
+     *
+     * @return the precursor m/z
+     */
+    public double getMz(int index) {
+        return mzs[index];
+    }
+
+    /**
+     * Returns the first precursor charge of the spectrum at the given index,
+     * 0 if none.
+     *
+     * @param index the index of the spectrum
+     *
+     * @return the precursor charge
+     */
+    public int getCharge(int index) {
+        return charges[index];
+    }
+
+    /**
+     * Returns the precursor intensity of the spectrum at the given index.
+     *
+     * @param index the index of the spectrum
+     *
+     * @return the precursor intensity
+     */
+    public double getIntensity(int index) {
+        return intensities[index];
+    }
+
+    /**
+     * Returns the precursor retention time of the spectrum at the given
+     * index, -1 if none.
+     *
+     * @param index the index of the spectrum
+     *
+     * @return the precursor retention time
+     */
+    public double getRt(int index) {
+        return rts[index];
+    }
+
+    /**
+     * Returns the number of peaks of the spectrum at the given index.
+     *
+     * @param index the index of the spectrum
+     *
+     * @return the number of peaks
+     */
+    public int getPeakCount(int index) {
+        return peakCounts[index];
+    }
+}
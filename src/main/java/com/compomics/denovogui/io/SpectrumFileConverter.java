@@ -0,0 +1,653 @@
+package com.compomics.denovogui.io;
+
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Converts the spectrum files to the mgf files processed by the sequencing
+ * tools. The mzML and mzXML files are streamed and the spectra passing the MS
+ * level and charge filters are written to an mgf file in a single pass,
+ * without intermediate copy. The gzip compressed files are decompressed on the
+ * fly. A converted mgf file newer than its source and converted with the same
+ * charge range, as recorded in its conversion stamp, is reused.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class SpectrumFileConverter {
+
+    /**
+     * The mzML extension.
+     */
+    public static final String MZML_EXTENSION = ".mzml";
+    /**
+     * The mzXML extension.
+     */
+    public static final String MZXML_EXTENSION = ".mzxml";
+    /**
+     * The MS level of the spectra sequenced.
+     */
+    public static final int MS_LEVEL = 2;
+    /**
+     * The extension of the conversion stamp files.
+     */
+    public static final String STAMP_EXTENSION = ".conversion";
+    /**
+     * The separator used in the conversion stamp files.
+     */
+    private static final String SEPARATOR = "\t";
+    /**
+     * The size of the buffer of the mgf writer.
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+    /**
+     * The number of spectra between two progress updates.
+     */
+    private static final int PROGRESS_STEP = 1000;
+
+    /**
+     * The mgf writer.
+     */
+    private final BufferedWriter writer;
+    /**
+     * The minimal charge of the spectra to write.
+     */
+    private final int minCharge;
+    /**
+     * The maximal charge of the spectra to write.
+     */
+    private final int maxCharge;
+    /**
+     * The waiting handler, can be null.
+     */
+    private final WaitingHandler waitingHandler;
+    /**
+     * The number of spectra written.
+     */
+    private int nWritten = 0;
+    /**
+     * The number of spectra filtered out.
+     */
+    private int nFiltered = 0;
+    /**
+     * The inflater used to decompress the binary arrays.
+     */
+    private final Inflater inflater = new Inflater();
+
+    /**
+     * Constructor.
+     *
+     * @param writer the mgf writer
+     * @param minCharge the minimal charge of the spectra to write
+     * @param maxCharge the maximal charge of the spectra to write
+     * @param waitingHandler the waiting handler, can be null
+     */
+    private SpectrumFileConverter(BufferedWriter writer, int minCharge, int maxCharge, WaitingHandler waitingHandler) {
+        this.writer = writer;
+        this.minCharge = minCharge;
+        this.maxCharge = maxCharge;
+        this.waitingHandler = waitingHandler;
+    }
+
+    /**
+     * Indicates whether the given file is an mzML or mzXML file, possibly gzip
+     * compressed.
+     *
+     * @param file the file
+     *
+     * @return true if the file is an mzML or mzXML file
+     */
+    public static boolean isXmlSpectrumFile(File file) {
+        String fileName = CompressedFileHandler.getUncompressedName(file).toLowerCase();
+        return fileName.endsWith(MZML_EXTENSION) || fileName.endsWith(MZXML_EXTENSION);
+    }
+
+    /**
+     * Indicates whether the given file is a spectrum file supported as input:
+     * mgf, mzML or mzXML, possibly gzip compressed.
+     *
+     * @param file the file
+     *
+     * @return true if the file is supported
+     */
+    public static boolean isSupported(File file) {
+        return isXmlSpectrumFile(file) || CompressedFileHandler.getUncompressedName(file).toLowerCase().endsWith(".mgf");
+    }
+
+    /**
+     * Returns the extensions of the spectrum files supported as input.
+     *
+     * @return the extensions of the spectrum files supported
+     */
+    public static ArrayList<String> getSupportedExtensions() {
+        ArrayList<String> extensions = new ArrayList<String>();
+        for (String extension : new String[]{".mgf", ".mzML", ".mzXML"}) {
+            extensions.add(extension);
+            extensions.add(extension + CompressedFileHandler.GZIP_EXTENSION);
+        }
+        return extensions;
+    }
+
+    /**
+     * Returns the mgf files to process: the mgf files are returned as they
+     * are, the compressed mgf files are decompressed, and the mzML and mzXML
+     * files are converted in the given folder unless an up to date conversion
+     * exists.
+     *
+     * @param spectrumFiles the spectrum files
+     * @param folder the folder where to write the mgf files
+     * @param searchParameters the search parameters giving the charge range
+     * @param waitingHandler waiting handler displaying the progress and
+     * allowing the user to cancel the process, can be null
+     *
+     * @return the mgf files
+     *
+     * @throws IOException thrown if a file cannot be read or written
+     */
+    public static ArrayList<File> getMgfFiles(List<File> spectrumFiles, File folder, SearchParameters searchParameters, WaitingHandler waitingHandler) throws IOException {
+
+        ArrayList<File> mgfFiles = new ArrayList<File>(spectrumFiles.size());
+
+        for (File spectrumFile : spectrumFiles) {
+            if (isXmlSpectrumFile(spectrumFile)) {
+                String fileName = CompressedFileHandler.getUncompressedName(spectrumFile);
+                File mgfFile = new File(folder, fileName.substring(0, fileName.lastIndexOf(".")) + ".mgf");
+                int minCharge = searchParameters.getMinChargeSearched().value;
+                int maxCharge = searchParameters.getMaxChargeSearched().value;
+                if (isConversionValid(spectrumFile, mgfFile, minCharge, maxCharge)) {
+                    if (waitingHandler != null) {
+                        waitingHandler.appendReport("Reusing the conversion of " + spectrumFile.getName() + " to " + mgfFile.getName() + ".", true, true);
+                    }
+                } else {
+                    convert(spectrumFile, mgfFile, minCharge, maxCharge, waitingHandler);
+                }
+                mgfFiles.add(mgfFile);
+            } else {
+                mgfFiles.addAll(CompressedFileHandler.getUncompressedFiles(Collections.singletonList(spectrumFile), folder, waitingHandler));
+            }
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                break;
+            }
+        }
+
+        return mgfFiles;
+    }
+
+    /**
+     * Indicates whether an mgf file converted from the given spectrum file can
+     * be reused, i.e. whether it is newer than the spectrum file and its
+     * conversion stamp matches the charge range.
+     *
+     * @param spectrumFile the mzML or mzXML file, possibly gzip compressed
+     * @param mgfFile the converted mgf file
+     * @param minCharge the minimal charge
+     * @param maxCharge the maximal charge
+     *
+     * @return true if the converted mgf file can be reused
+     */
+    public static boolean isConversionValid(File spectrumFile, File mgfFile, int minCharge, int maxCharge) {
+
+        File stampFile = getStampFile(mgfFile);
+
+        if (!mgfFile.exists() || !stampFile.exists() || mgfFile.lastModified() < spectrumFile.lastModified()) {
+            return false;
+        }
+
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(stampFile));
+            try {
+                String line = reader.readLine();
+                if (line == null) {
+                    return false;
+                }
+                String[] split = line.split(SEPARATOR);
+                return split.length == 2
+                        && Integer.parseInt(split[0]) == minCharge
+                        && Integer.parseInt(split[1]) == maxCharge;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            return false;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the conversion stamp file of the given converted mgf file.
+     *
+     * @param mgfFile the converted mgf file
+     *
+     * @return the conversion stamp file
+     */
+    public static File getStampFile(File mgfFile) {
+        return new File(mgfFile.getParentFile(), mgfFile.getName() + STAMP_EXTENSION);
+    }
+
+    /**
+     * Converts an mzML or mzXML file to mgf. Only the MS2 spectra with peaks
+     * and with a charge in the given range, or without charge, are written.
+     * The file is written to a temporary file which is renamed when complete,
+     * and deleted if the conversion fails or is canceled. The charge range is
+     * then recorded in the conversion stamp of the mgf file.
+     *
+     * @param spectrumFile the mzML or mzXML file, possibly gzip compressed
+     * @param mgfFile the mgf file to write
+     * @param minCharge the minimal charge
+     * @param maxCharge the maximal charge
+     * @param waitingHandler waiting handler displaying the progress and
+     * allowing the user to cancel the process, can be null
+     *
+     * @throws IOException thrown if the file cannot be read or written
+     */
+    public static void convert(File spectrumFile, File mgfFile, int minCharge, int maxCharge, WaitingHandler waitingHandler) throws IOException {
+
+        long start = System.currentTimeMillis();
+
+        if (waitingHandler != null) {
+            waitingHandler.setWaitingText("Converting " + spectrumFile.getName() + ". Please Wait...");
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        File tempFile = new File(mgfFile.getParentFile(), mgfFile.getName() + "_temp");
+        File stampFile = getStampFile(mgfFile);
+        stampFile.delete();
+        SpectrumFileConverter converter;
+        boolean completed = false;
+
+        try {
+            InputStream inputStream = new FileInputStream(spectrumFile);
+
+            try {
+                if (CompressedFileHandler.isCompressed(spectrumFile)) {
+                    inputStream = new GZIPInputStream(inputStream, CompressedFileHandler.BUFFER_SIZE);
+                }
+                BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile), BUFFER_SIZE);
+
+                try {
+                    converter = new SpectrumFileConverter(writer, minCharge, maxCharge, waitingHandler);
+                    XMLStreamReader reader = getXMLInputFactory().createXMLStreamReader(inputStream);
+
+                    try {
+                        if (CompressedFileHandler.getUncompressedName(spectrumFile).toLowerCase().endsWith(MZML_EXTENSION)) {
+                            converter.convertMzML(reader);
+                        } else {
+                            converter.convertMzXML(reader);
+                        }
+                    } finally {
+                        reader.close();
+                        converter.inflater.end();
+                    }
+                } finally {
+                    writer.close();
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException("Error while parsing " + spectrumFile.getName() + ".", e);
+            } catch (DataFormatException e) {
+                throw new IOException("Error while decompressing the peaks of " + spectrumFile.getName() + ".", e);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Error while parsing " + spectrumFile.getName() + ".", e);
+            } finally {
+                inputStream.close();
+            }
+
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return;
+            }
+
+            if (mgfFile.exists() && !mgfFile.delete()) {
+                throw new IOException("Impossible to replace " + mgfFile.getAbsolutePath() + ".");
+            }
+            if (!tempFile.renameTo(mgfFile)) {
+                throw new IOException("Impossible to rename " + tempFile.getAbsolutePath() + " to " + mgfFile.getName() + ".");
+            }
+            completed = true;
+
+            BufferedWriter stampWriter = new BufferedWriter(new FileWriter(stampFile));
+            try {
+                stampWriter.write(minCharge + SEPARATOR + maxCharge);
+                stampWriter.newLine();
+            } finally {
+                stampWriter.close();
+            }
+
+        } finally {
+            if (!completed) {
+                tempFile.delete();
+            }
+        }
+
+        if (waitingHandler != null) {
+            double seconds = (System.currentTimeMillis() - start) / 1000.0;
+            waitingHandler.appendReport("Converted " + spectrumFile.getName() + " to " + mgfFile.getName() + " (" + converter.nWritten
+                    + " spectra written, " + converter.nFiltered + " filtered out) in " + seconds + " s.", true, true);
+        }
+    }
+
+    /**
+     * Returns an XML input factory which does not resolve the DTDs and
+     * external entities of the files parsed.
+     *
+     * @return an XML input factory
+     */
+    private static XMLInputFactory getXMLInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Converts the spectra of an mzML file.
+     *
+     * @param reader the XML reader positioned at the start of the file
+     *
+     * @throws XMLStreamException thrown if the file cannot be parsed
+     * @throws DataFormatException thrown if a binary array cannot be
+     * decompressed
+     * @throws IOException thrown if the mgf file cannot be written
+     */
+    private void convertMzML(XMLStreamReader reader) throws XMLStreamException, DataFormatException, IOException {
+
+        String title = null;
+        int msLevel = 0;
+        double precursorMz = 0, precursorIntensity = 0, retentionTime = -1;
+        int charge = 0;
+        double[] mzArray = null, intensityArray = null;
+
+        // state of the binary array being parsed
+        boolean doublePrecision = false, zlib = false, mzValues = false, intensityValues = false;
+
+        while (reader.hasNext()) {
+
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+
+                String element = reader.getLocalName();
+
+                if (element.equals("spectrum")) {
+                    title = reader.getAttributeValue(null, "id");
+                    msLevel = 0;
+                    precursorMz = 0;
+                    precursorIntensity = 0;
+                    retentionTime = -1;
+                    charge = 0;
+                    mzArray = null;
+                    intensityArray = null;
+                } else if (element.equals("binaryDataArray")) {
+                    doublePrecision = false;
+                    zlib = false;
+                    mzValues = false;
+                    intensityValues = false;
+                } else if (element.equals("cvParam") && title != null) {
+                    String accession = reader.getAttributeValue(null, "accession");
+                    String value = reader.getAttributeValue(null, "value");
+                    if (accession.equals("MS:1000511")) {
+                        msLevel = Integer.parseInt(value);
+                    } else if (accession.equals("MS:1000744")) {
+                        precursorMz = Double.parseDouble(value);
+                    } else if (accession.equals("MS:1000041")) {
+                        charge = Integer.parseInt(value);
+                    } else if (accession.equals("MS:1000042")) {
+                        precursorIntensity = Double.parseDouble(value);
+                    } else if (accession.equals("MS:1000016")) {
+                        retentionTime = Double.parseDouble(value);
+                        String unit = reader.getAttributeValue(null, "unitAccession");
+                        if ("UO:0000031".equals(unit)) {
+                            retentionTime *= 60;
+                        }
+                    } else if (accession.equals("MS:1000523")) {
+                        doublePrecision = true;
+                    } else if (accession.equals("MS:1000521")) {
+                        doublePrecision = false;
+                    } else if (accession.equals("MS:1000574")) {
+                        zlib = true;
+                    } else if (accession.equals("MS:1000514")) {
+                        mzValues = true;
+                    } else if (accession.equals("MS:1000515")) {
+                        intensityValues = true;
+                    } else if (accession.equals("MS:1002312") || accession.equals("MS:1002313") || accession.equals("MS:1002314")) {
+                        throw new IOException("MS-Numpress compressed binary arrays are not supported, please convert the file without MS-Numpress compression.");
+                    }
+                } else if (element.equals("binary") && (mzValues || intensityValues)) {
+                    if (msLevel != MS_LEVEL) {
+                        reader.getElementText();
+                    } else {
+                        double[] values = decode(reader.getElementText(), doublePrecision, zlib, ByteOrder.LITTLE_ENDIAN);
+                        if (mzValues) {
+                            mzArray = values;
+                        } else {
+                            intensityArray = values;
+                        }
+                    }
+                }
+
+            } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("spectrum")) {
+
+                if (msLevel == MS_LEVEL) {
+                    writeSpectrum(title, precursorMz, precursorIntensity, charge, retentionTime, mzArray, intensityArray);
+                }
+                title = null;
+
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts the spectra of an mzXML file.
+     *
+     * @param reader the XML reader positioned at the start of the file
+     *
+     * @throws XMLStreamException thrown if the file cannot be parsed
+     * @throws DataFormatException thrown if the peaks cannot be decompressed
+     * @throws IOException thrown if the mgf file cannot be written
+     */
+    private void convertMzXML(XMLStreamReader reader) throws XMLStreamException, DataFormatException, IOException {
+
+        String title = null;
+        int msLevel = 0;
+        double precursorMz = 0, precursorIntensity = 0, retentionTime = -1;
+        int charge = 0;
+
+        while (reader.hasNext()) {
+
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+
+                String element = reader.getLocalName();
+
+                if (element.equals("scan")) {
+                    // the spectra are written when their peaks are read, the nested scans simply replace the current one
+                    title = "scan=" + reader.getAttributeValue(null, "num");
+                    String msLevelValue = reader.getAttributeValue(null, "msLevel");
+                    msLevel = msLevelValue == null ? 0 : Integer.parseInt(msLevelValue);
+                    precursorMz = 0;
+                    precursorIntensity = 0;
+                    charge = 0;
+                    retentionTime = parseDuration(reader.getAttributeValue(null, "retentionTime"));
+                } else if (element.equals("precursorMz")) {
+                    String intensityValue = reader.getAttributeValue(null, "precursorIntensity");
+                    if (intensityValue != null) {
+                        precursorIntensity = Double.parseDouble(intensityValue);
+                    }
+                    String chargeValue = reader.getAttributeValue(null, "precursorCharge");
+                    if (chargeValue != null) {
+                        charge = Integer.parseInt(chargeValue);
+                    }
+                    precursorMz = Double.parseDouble(reader.getElementText().trim());
+                } else if (element.equals("peaks")) {
+                    if (msLevel != MS_LEVEL) {
+                        reader.getElementText();
+                    } else {
+                        boolean doublePrecision = "64".equals(reader.getAttributeValue(null, "precision"));
+                        boolean zlib = "zlib".equals(reader.getAttributeValue(null, "compressionType"));
+                        double[] pairs = decode(reader.getElementText(), doublePrecision, zlib, ByteOrder.BIG_ENDIAN);
+                        double[] mzArray = new double[pairs.length / 2];
+                        double[] intensityArray = new double[pairs.length / 2];
+                        for (int i = 0; i < mzArray.length; i++) {
+                            mzArray[i] = pairs[2 * i];
+                            intensityArray[i] = pairs[2 * i + 1];
+                        }
+                        writeSpectrum(title, precursorMz, precursorIntensity, charge, retentionTime, mzArray, intensityArray);
+
+                        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a spectrum to the mgf file if it passes the filters.
+     *
+     * @param title the spectrum title
+     * @param precursorMz the precursor m/z
+     * @param precursorIntensity the precursor intensity, 0 if unknown
+     * @param charge the precursor charge, 0 if unknown
+     * @param retentionTime the retention time in seconds, negative if unknown
+     * @param mzArray the m/z of the peaks
+     * @param intensityArray the intensity of the peaks
+     *
+     * @throws IOException thrown if the mgf file cannot be written
+     */
+    private void writeSpectrum(String title, double precursorMz, double precursorIntensity, int charge, double retentionTime,
+            double[] mzArray, double[] intensityArray) throws IOException {
+
+        if (mzArray == null || intensityArray == null || mzArray.length == 0 || mzArray.length != intensityArray.length
+                || precursorMz <= 0 || charge != 0 && (charge < minCharge || charge > maxCharge)) {
+            nFiltered++;
+            return;
+        }
+
+        writer.write("BEGIN IONS");
+        writer.newLine();
+        writer.write("TITLE=" + title);
+        writer.newLine();
+        writer.write("PEPMASS=" + precursorMz);
+        if (precursorIntensity > 0) {
+            writer.write(" " + precursorIntensity);
+        }
+        writer.newLine();
+        if (charge != 0) {
+            writer.write("CHARGE=" + charge + "+");
+            writer.newLine();
+        }
+        if (retentionTime >= 0) {
+            writer.write("RTINSECONDS=" + retentionTime);
+            writer.newLine();
+        }
+        for (int i = 0; i < mzArray.length; i++) {
+            writer.write(mzArray[i] + " " + intensityArray[i]);
+            writer.newLine();
+        }
+        writer.write("END IONS");
+        writer.newLine();
+        writer.newLine();
+
+        nWritten++;
+
+        if (waitingHandler != null && (nWritten + nFiltered) % PROGRESS_STEP == 0) {
+            waitingHandler.setWaitingText("Converting spectra (" + nWritten + " written). Please Wait...");
+        }
+    }
+
+    /**
+     * Decodes a base64 encoded binary array.
+     *
+     * @param base64 the base64 encoded array
+     * @param doublePrecision true for 64 bits values, false for 32 bits
+     * @param zlib true if the array is zlib compressed
+     * @param byteOrder the byte order
+     *
+     * @return the values of the array
+     *
+     * @throws DataFormatException thrown if the array cannot be decompressed
+     */
+    private double[] decode(String base64, boolean doublePrecision, boolean zlib, ByteOrder byteOrder) throws DataFormatException {
+
+        byte[] bytes = Base64.getMimeDecoder().decode(base64.trim());
+
+        if (zlib) {
+            inflater.reset();
+            inflater.setInput(bytes);
+            byte[] buffer = new byte[Math.max(4 * bytes.length, 1024)];
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == buffer.length) {
+                    byte[] newBuffer = new byte[2 * buffer.length];
+                    System.arraycopy(buffer, 0, newBuffer, 0, length);
+                    buffer = newBuffer;
+                }
+                int read = inflater.inflate(buffer, length, buffer.length - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += read;
+            }
+            bytes = new byte[length];
+            System.arraycopy(buffer, 0, bytes, 0, length);
+        }
+
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes).order(byteOrder);
+        int valueSize = doublePrecision ? 8 : 4;
+        double[] values = new double[bytes.length / valueSize];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = doublePrecision ? byteBuffer.getDouble() : byteBuffer.getFloat();
+        }
+        return values;
+    }
+
+    /**
+     * Parses an XML duration of the form PT12.3S as used for the retention
+     * time in mzXML files.
+     *
+     * @param duration the duration
+     *
+     * @return the duration in seconds, -1 if not available
+     */
+    private static double parseDuration(String duration) {
+        if (duration == null || !duration.startsWith("PT")) {
+            return -1;
+        }
+        double seconds = 0;
+        int start = 2;
+        for (int i = 2; i < duration.length(); i++) {
+            char c = duration.charAt(i);
+            if (c == 'H' || c == 'M' || c == 'S') {
+                double value = Double.parseDouble(duration.substring(start, i));
+                seconds += c == 'H' ? 3600 * value : c == 'M' ? 60 * value : value;
+                start = i + 1;
+            }
+        }
+        return seconds;
+    }
+}
@@ -0,0 +1,328 @@
+package com.compomics.denovogui.io;
+
+import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
+import com.compomics.util.experiment.io.massspectrometry.MgfReader;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.io.SerializationUtils;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads spectrum files in the spectrum factory, indexing the mgf files
+ * concurrently beforehand. The index of a file is reused when its stamp, the
+ * size and last modification time of the spectrum file when it was indexed,
+ * matches the file, or, for the indexes written by the spectrum factory which
+ * have no stamp, when the last modification time saved in the index matches
+ * the file. The spectrum factory then only reads the existing indexes. The
+ * files whose index cannot be written, e.g. in a read only folder, are
+ * indexed by the spectrum factory. The number of files indexed at the same
+ * time is bounded, as indexing is limited by the storage rather than by the
+ * processors.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class SpectrumIndexer {
+
+    /**
+     * The default maximal number of files indexed at the same time.
+     */
+    public static final int DEFAULT_THREADS = 4;
+    /**
+     * The extension of the spectrum factory index files.
+     */
+    public static final String INDEX_EXTENSION = ".cui";
+    /**
+     * The extension of the index stamp files.
+     */
+    public static final String STAMP_EXTENSION = ".stamp";
+    /**
+     * The separator used in the stamp files.
+     */
+    private static final String SEPARATOR = "\t";
+    /**
+     * The maximal number of files indexed at the same time.
+     */
+    private final int nThreads;
+
+    /**
+     * Constructor.
+     *
+     * @param nThreads the maximal number of files indexed at the same time
+     */
+    public SpectrumIndexer(int nThreads) {
+        this.nThreads = Math.max(1, nThreads);
+    }
+
+    /**
+     * Returns the default number of files indexed at the same time for the
+     * given number of processing threads.
+     *
+     * @param nThreads the number of processing threads
+     *
+     * @return the default number of files indexed at the same time
+     */
+    public static int getDefaultThreads(int nThreads) {
+        return Math.max(1, Math.min(nThreads, DEFAULT_THREADS));
+    }
+
+    /**
+     * Indexes the given spectrum files which do not have a valid index, and
+     * adds them to the spectrum factory.
+     *
+     * @param spectrumFiles the spectrum files
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException thrown if an error occurred while reading a file or
+     * writing an index
+     * @throws ClassNotFoundException thrown if an index cannot be read
+     * @throws InterruptedException thrown if the threads are interrupted
+     */
+    public void addSpectra(List<File> spectrumFiles, WaitingHandler waitingHandler) throws IOException, ClassNotFoundException, InterruptedException {
+
+        ArrayList<File> toIndex = new ArrayList<File>();
+        for (File spectrumFile : spectrumFiles) {
+            if (spectrumFile.getName().toLowerCase().endsWith(".mgf") && !isIndexValid(spectrumFile)) {
+                toIndex.add(spectrumFile);
+            }
+        }
+
+        if (spectrumFiles.size() > toIndex.size()) {
+            waitingHandler.appendReport("Reusing the index of " + (spectrumFiles.size() - toIndex.size()) + " of " + spectrumFiles.size() + " spectrum files.", true, true);
+        }
+
+        if (!toIndex.isEmpty()) {
+
+            int nIndexingThreads = Math.min(nThreads, toIndex.size());
+            waitingHandler.appendReport("Indexing " + toIndex.size() + " spectrum file" + (toIndex.size() > 1 ? "s" : "")
+                    + " using " + nIndexingThreads + " thread" + (nIndexingThreads > 1 ? "s" : "") + ".", true, true);
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(toIndex.size());
+
+            ExecutorService pool = Executors.newFixedThreadPool(nIndexingThreads);
+            final AtomicInteger nFailed = new AtomicInteger();
+
+            try {
+                ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(toIndex.size());
+                for (final File spectrumFile : toIndex) {
+                    futures.add(pool.submit(new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            if (!index(spectrumFile)) {
+                                nFailed.incrementAndGet();
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Object> future : futures) {
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    getResult(future);
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+
+            if (nFailed.get() > 0) {
+                waitingHandler.appendReport("The index of " + nFailed.get() + " spectrum file" + (nFailed.get() > 1 ? "s" : "")
+                        + " could not be written, the spectra will be indexed while loading.", true, true);
+            }
+
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        // the spectrum factory now only reads the indexes
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+        for (File spectrumFile : spectrumFiles) {
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+            spectrumFactory.addSpectra(spectrumFile, waitingHandler);
+        }
+    }
+
+    /**
+     * Indexes an mgf file and writes the index and its stamp next to the
+     * file. If the index cannot be written, the partial files are deleted and
+     * the file is left to the spectrum factory.
+     *
+     * @param spectrumFile the mgf file
+     *
+     * @return true if the index was written, false otherwise
+     *
+     * @throws IOException thrown if an error occurred while reading the file
+     */
+    private static boolean index(File spectrumFile) throws IOException {
+        long size = spectrumFile.length();
+        long lastModified = spectrumFile.lastModified();
+        MgfIndex mgfIndex = MgfReader.getIndexMap(spectrumFile, null);
+        File indexFile = getIndexFile(spectrumFile);
+        File stampFile = getStampFile(spectrumFile);
+        try {
+            SerializationUtils.writeObject(mgfIndex, indexFile);
+            writeStamp(stampFile, size, lastModified);
+            return true;
+        } catch (IOException e) {
+            indexFile.delete();
+            stampFile.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Indicates whether the index of a spectrum file can be reused, i.e.
+     * whether the index exists and its stamp matches the size and last
+     * modification time of the file. The indexes written by the spectrum
+     * factory have no stamp, they are reused if the last modification time
+     * saved in the index matches the file, and stamped for the next time.
+     *
+     * @param spectrumFile the spectrum file
+     *
+     * @return true if the index can be reused
+     */
+    public static boolean isIndexValid(File spectrumFile) {
+
+        File indexFile = getIndexFile(spectrumFile);
+        File stampFile = getStampFile(spectrumFile);
+
+        if (!indexFile.exists()) {
+            return false;
+        }
+
+        if (!stampFile.exists()) {
+            return isFactoryIndexValid(spectrumFile, indexFile, stampFile);
+        }
+
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(stampFile));
+            try {
+                String line = reader.readLine();
+                if (line == null) {
+                    return false;
+                }
+                String[] split = line.split(SEPARATOR);
+                return split.length == 2
+                        && Long.parseLong(split[0]) == spectrumFile.length()
+                        && Long.parseLong(split[1]) == spectrumFile.lastModified();
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            return false;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Indicates whether an index written by the spectrum factory can be
+     * reused, i.e. whether the last modification time saved in the index
+     * matches the file, in which case the index is stamped.
+     *
+     * @param spectrumFile the spectrum file
+     * @param indexFile the index file
+     * @param stampFile the stamp file
+     *
+     * @return true if the index can be reused
+     */
+    private static boolean isFactoryIndexValid(File spectrumFile, File indexFile, File stampFile) {
+        try {
+            MgfIndex mgfIndex = (MgfIndex) SerializationUtils.readObject(indexFile);
+            Long indexLastModified = mgfIndex.getLastModified();
+            if (indexLastModified == null || indexLastModified != spectrumFile.lastModified()) {
+                return false;
+            }
+        } catch (Exception e) {
+            return false;
+        }
+        try {
+            writeStamp(stampFile, spectrumFile.length(), spectrumFile.lastModified());
+        } catch (IOException e) {
+            // the index will be checked again next time
+            stampFile.delete();
+        }
+        return true;
+    }
+
+    /**
+     * Writes the stamp of an index.
+     *
+     * @param stampFile the stamp file
+     * @param size the size of the spectrum file when indexed
+     * @param lastModified the last modification time of the spectrum file when
+     * indexed
+     *
+     * @throws IOException thrown if an error occurred while writing the stamp
+     */
+    private static void writeStamp(File stampFile, long size, long lastModified) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new FileWriter(stampFile));
+        try {
+            writer.write(size + SEPARATOR + lastModified);
+            writer.newLine();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns the index file used by the spectrum factory for the given
+     * spectrum file.
+     *
+     * @param spectrumFile the spectrum file
+     *
+     * @return the index file
+     */
+    public static File getIndexFile(File spectrumFile) {
+        return new File(spectrumFile.getParentFile(), spectrumFile.getName() + INDEX_EXTENSION);
+    }
+
+    /**
+     * Returns the stamp file of the index of the given spectrum file.
+     *
+     * @param spectrumFile the spectrum file
+     *
+     * @return the stamp file
+     */
+    public static File getStampFile(File spectrumFile) {
+        return new File(spectrumFile.getParentFile(), spectrumFile.getName() + INDEX_EXTENSION + STAMP_EXTENSION);
+    }
+
+    /**
+     * Waits for a task, unwrapping the cause of the execution exceptions.
+     *
+     * @param future the future of the task
+     *
+     * @throws IOException thrown if an error occurred while indexing
+     * @throws InterruptedException thrown if the thread is interrupted
+     */
+    private static void getResult(Future<Object> future) throws IOException, InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("An error occurred while indexing the spectra.", cause);
+        }
+    }
+}
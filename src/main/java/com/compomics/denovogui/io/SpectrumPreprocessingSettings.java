@@ -0,0 +1,314 @@
+package com.compomics.denovogui.io;
+
+import com.compomics.util.experiment.identification.Advocate;
+
+/**
+ * Settings of the spectrum preprocessing shared by all sequencing algorithms:
+ * precursor peak removal, relative intensity threshold, deisotoping and
+ * retention of the most intense peaks per m/z window, the quality triage of
+ * the spectra, and the clustering of the repeated acquisitions of a
+ * precursor. The peak reduction, the triage and the clustering are disabled by
+ * default.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class SpectrumPreprocessingSettings {
+
+    /**
+     * The default number of peaks retained per m/z window.
+     */
+    public static final int DEFAULT_PEAKS_PER_WINDOW = 10;
+    /**
+     * The default width of the m/z windows.
+     */
+    public static final double DEFAULT_WINDOW_WIDTH = 100.0;
+    /**
+     * The default retention time window of the clusters in seconds.
+     */
+    public static final double DEFAULT_CLUSTER_RT_WINDOW = 60.0;
+    /**
+     * The default minimal cosine similarity of two spectra of a cluster.
+     */
+    public static final double DEFAULT_CLUSTER_SIMILARITY = 0.9;
+    /**
+     * Boolean indicating whether the peaks of the spectra should be reduced.
+     */
+    private boolean enabled = false;
+    /**
+     * The number of most intense peaks retained per m/z window, 0 to retain
+     * all peaks.
+     */
+    private int peaksPerWindow = DEFAULT_PEAKS_PER_WINDOW;
+    /**
+     * The width of the m/z windows.
+     */
+    private double windowWidth = DEFAULT_WINDOW_WIDTH;
+    /**
+     * The intensity threshold relative to the most intense peak of the
+     * spectrum, between 0 and 1, 0 to retain all peaks.
+     */
+    private double intensityThreshold = 0.0;
+    /**
+     * Boolean indicating whether the peaks of the unfragmented precursor
+     * should be removed.
+     */
+    private boolean removePrecursor = true;
+    /**
+     * Boolean indicating whether the isotopic peaks should be removed.
+     */
+    private boolean deisotope = false;
+    /**
+     * The minimal quality of the spectra to sequence, between 0 and 1, 0 to
+     * sequence all spectra.
+     */
+    private double qualityThreshold = 0.0;
+    /**
+     * The algorithm sequencing the spectra below the quality threshold as
+     * well, null if these spectra are not sequenced.
+     */
+    private Advocate lowQualityAdvocate = null;
+    /**
+     * Boolean indicating whether the repeated acquisitions of a precursor
+     * should be clustered and only the representative of every cluster
+     * sequenced.
+     */
+    private boolean clustering = false;
+    /**
+     * The retention time window of the clusters in seconds.
+     */
+    private double clusterRtWindow = DEFAULT_CLUSTER_RT_WINDOW;
+    /**
+     * The minimal cosine similarity of two spectra of a cluster.
+     */
+    private double clusterSimilarity = DEFAULT_CLUSTER_SIMILARITY;
+
+    /**
+     * Constructor.
+     */
+    public SpectrumPreprocessingSettings() {
+    }
+
+    /**
+     * Indicates whether the peaks of the spectra should be reduced.
+     *
+     * @return true if the peaks of the spectra should be reduced
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets whether the peaks of the spectra should be reduced.
+     *
+     * @param enabled true if the peaks of the spectra should be reduced
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the number of most intense peaks retained per m/z window, 0 if
+     * all peaks are retained.
+     *
+     * @return the number of peaks retained per m/z window
+     */
+    public int getPeaksPerWindow() {
+        return peaksPerWindow;
+    }
+
+    /**
+     * Sets the number of most intense peaks retained per m/z window, 0 to
+     * retain all peaks.
+     *
+     * @param peaksPerWindow the number of peaks retained per m/z window
+     */
+    public void setPeaksPerWindow(int peaksPerWindow) {
+        this.peaksPerWindow = peaksPerWindow;
+    }
+
+    /**
+     * Returns the width of the m/z windows.
+     *
+     * @return the width of the m/z windows
+     */
+    public double getWindowWidth() {
+        return windowWidth;
+    }
+
+    /**
+     * Sets the width of the m/z windows.
+     *
+     * @param windowWidth the width of the m/z windows
+     */
+    public void setWindowWidth(double windowWidth) {
+        this.windowWidth = windowWidth;
+    }
+
+    /**
+     * Returns the intensity threshold relative to the most intense peak of the
+     * spectrum.
+     *
+     * @return the relative intensity threshold
+     */
+    public double getIntensityThreshold() {
+        return intensityThreshold;
+    }
+
+    /**
+     * Sets the intensity threshold relative to the most intense peak of the
+     * spectrum, between 0 and 1, 0 to retain all peaks.
+     *
+     * @param intensityThreshold the relative intensity threshold
+     */
+    public void setIntensityThreshold(double intensityThreshold) {
+        this.intensityThreshold = intensityThreshold;
+    }
+
+    /**
+     * Indicates whether the peaks of the unfragmented precursor should be
+     * removed.
+     *
+     * @return true if the precursor peaks should be removed
+     */
+    public boolean isRemovePrecursor() {
+        return removePrecursor;
+    }
+
+    /**
+     * Sets whether the peaks of the unfragmented precursor should be removed.
+     *
+     * @param removePrecursor true if the precursor peaks should be removed
+     */
+    public void setRemovePrecursor(boolean removePrecursor) {
+        this.removePrecursor = removePrecursor;
+    }
+
+    /**
+     * Indicates whether the isotopic peaks should be removed.
+     *
+     * @return true if the isotopic peaks should be removed
+     */
+    public boolean isDeisotope() {
+        return deisotope;
+    }
+
+    /**
+     * Sets whether the isotopic peaks should be removed.
+     *
+     * @param deisotope true if the isotopic peaks should be removed
+     */
+    public void setDeisotope(boolean deisotope) {
+        this.deisotope = deisotope;
+    }
+
+    /**
+     * Indicates whether the spectra below the quality threshold should be
+     * skipped.
+     *
+     * @return true if the spectra below the quality threshold should be
+     * skipped
+     */
+    public boolean isTriageEnabled() {
+        return qualityThreshold > 0;
+    }
+
+    /**
+     * Returns the minimal quality of the spectra to sequence, 0 if all spectra
+     * are sequenced.
+     *
+     * @return the minimal quality of the spectra to sequence
+     */
+    public double getQualityThreshold() {
+        return qualityThreshold;
+    }
+
+    /**
+     * Sets the minimal quality of the spectra to sequence, between 0 and 1, 0
+     * to sequence all spectra.
+     *
+     * @param qualityThreshold the minimal quality of the spectra to sequence
+     */
+    public void setQualityThreshold(double qualityThreshold) {
+        this.qualityThreshold = qualityThreshold;
+    }
+
+    /**
+     * Returns the algorithm sequencing the spectra below the quality threshold
+     * as well, null if these spectra are not sequenced.
+     *
+     * @return the algorithm sequencing the spectra below the quality threshold
+     */
+    public Advocate getLowQualityAdvocate() {
+        return lowQualityAdvocate;
+    }
+
+    /**
+     * Sets the algorithm sequencing the spectra below the quality threshold as
+     * well, null if these spectra should not be sequenced.
+     *
+     * @param lowQualityAdvocate the algorithm sequencing the spectra below the
+     * quality threshold
+     */
+    public void setLowQualityAdvocate(Advocate lowQualityAdvocate) {
+        this.lowQualityAdvocate = lowQualityAdvocate;
+    }
+
+    /**
+     * Indicates whether the repeated acquisitions of a precursor should be
+     * clustered and only the representative of every cluster sequenced.
+     *
+     * @return true if the spectra should be clustered
+     */
+    public boolean isClustering() {
+        return clustering;
+    }
+
+    /**
+     * Sets whether the repeated acquisitions of a precursor should be
+     * clustered and only the representative of every cluster sequenced.
+     *
+     * @param clustering true if the spectra should be clustered
+     */
+    public void setClustering(boolean clustering) {
+        this.clustering = clustering;
+    }
+
+    /**
+     * Returns the retention time window of the clusters in seconds.
+     *
+     * @return the retention time window of the clusters
+     */
+    public double getClusterRtWindow() {
+        return clusterRtWindow;
+    }
+
+    /**
+     * Sets the retention time window of the clusters in seconds.
+     *
+     * @param clusterRtWindow the retention time window of the clusters
+     */
+    public void setClusterRtWindow(double clusterRtWindow) {
+        this.clusterRtWindow = clusterRtWindow;
+    }
+
+    /**
+     * Returns the minimal cosine similarity of two spectra of a cluster.
+     *
+     * @return the minimal cosine similarity of two spectra of a cluster
+     */
+    public double getClusterSimilarity() {
+        return clusterSimilarity;
+    }
+
+    /**
+     * Sets the minimal cosine similarity of two spectra of a cluster, between
+     * 0 and 1.
+     *
+     * @param clusterSimilarity the minimal cosine similarity of two spectra of
+     * a cluster
+     */
+    public void setClusterSimilarity(double clusterSimilarity) {
+        this.clusterSimilarity = clusterSimilarity;
+    }
+}
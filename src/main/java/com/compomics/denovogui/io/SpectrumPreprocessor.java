@@ -0,0 +1,721 @@
+package com.compomics.denovogui.io;
+
+import com.compomics.util.experiment.biology.ions.ElementaryIon;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.preferences.IdentificationParameters;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * Reduces the peak lists of a spectrum file once before sequencing, so that
+ * all algorithms, and all the chunks of a file, read the reduced spectra,
+ * skips the spectra below the quality threshold, and keeps only the
+ * representative of every cluster of spectra. The spectra are processed in
+ * parallel by batches and written in the order of the original file. The
+ * reduced file has the name of the original file so that the result files can
+ * be mapped back to the original spectra.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class SpectrumPreprocessor {
+
+    /**
+     * The mass difference between two isotopic peaks.
+     */
+    public static final double ISOTOPE_SPACING = 1.00335;
+    /**
+     * The maximal charge considered when deisotoping.
+     */
+    public static final int MAX_ISOTOPE_CHARGE = 4;
+    /**
+     * The maximal fragment ion tolerance in Da at which the isotopes are
+     * removed. At lower accuracies, the tolerance window around the isotope
+     * spacing at high charges contains unrelated peaks, and the deisotoping
+     * is skipped.
+     */
+    public static final double MAX_DEISOTOPING_TOLERANCE = 0.05;
+    /**
+     * The number of spectra processed per batch.
+     */
+    public static final int BATCH_SIZE = 1000;
+    /**
+     * The name of the folder where the file containing all spectra, including
+     * the ones below the quality threshold, is written.
+     */
+    public static final String ALL_SPECTRA_FOLDER = "all";
+    /**
+     * The preprocessing settings.
+     */
+    private final SpectrumPreprocessingSettings settings;
+    /**
+     * The absolute fragment ion tolerance in Da.
+     */
+    private final double fragmentTolerance;
+    /**
+     * Boolean indicating whether the isotopic peaks are removed.
+     */
+    private final boolean deisotope;
+    /**
+     * The number of threads to use.
+     */
+    private final int nThreads;
+    /**
+     * The quality scorer, null if the triage is disabled.
+     */
+    private final SpectrumQualityScorer qualityScorer;
+    /**
+     * The spectrum clusterer, null if the clustering is disabled.
+     */
+    private final SpectrumClusterer spectrumClusterer;
+    /**
+     * The clusters of the last preprocessed file, null if the clustering is
+     * disabled.
+     */
+    private SpectrumClusters spectrumClusters = null;
+    /**
+     * The last reduced file, null if none.
+     */
+    private File reducedFile = null;
+    /**
+     * The file containing all spectra for the low quality algorithm, null if
+     * not written.
+     */
+    private File allSpectraFile = null;
+    /**
+     * The number of spectra retained in the last preprocessed file.
+     */
+    private int nRetained = 0;
+    /**
+     * The number of spectra below the quality threshold in the last
+     * preprocessed file.
+     */
+    private int nRejected = 0;
+    /**
+     * The comparator sorting peaks by decreasing intensity.
+     */
+    private static final Comparator<Peak> DECREASING_INTENSITY = new Comparator<Peak>() {
+        @Override
+        public int compare(Peak o1, Peak o2) {
+            return Double.compare(o2.getIntensity(), o1.getIntensity());
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param settings the preprocessing settings
+     * @param searchParameters the search parameters, used for the fragment ion
+     * tolerance and the modifications
+     * @param nThreads the number of threads to use
+     */
+    public SpectrumPreprocessor(SpectrumPreprocessingSettings settings, SearchParameters searchParameters, int nThreads) {
+        this.settings = settings;
+        this.nThreads = Math.max(1, nThreads);
+        double tolerance = searchParameters.getFragmentIonAccuracy();
+        if (searchParameters.getFragmentAccuracyType() == SearchParameters.MassAccuracyType.PPM) {
+            tolerance = IdentificationParameters.getDaTolerance(tolerance, 1000); //@TODO: make the reference mass a user parameter?
+        }
+        this.fragmentTolerance = tolerance;
+        deisotope = settings.isDeisotope() && tolerance <= MAX_DEISOTOPING_TOLERANCE;
+        qualityScorer = settings.isTriageEnabled() ? new SpectrumQualityScorer(searchParameters, tolerance) : null;
+        spectrumClusterer = settings.isClustering() ? new SpectrumClusterer(searchParameters.getPrecursorAccuracy(),
+                searchParameters.getPrecursorAccuracyType() == SearchParameters.MassAccuracyType.PPM,
+                settings.getClusterRtWindow(), settings.getClusterSimilarity(), this.nThreads) : null;
+    }
+
+    /**
+     * Writes the reduced spectra of a spectrum file loaded in the spectrum
+     * factory to a file of the same name in the given folder. When the triage
+     * is enabled, only the spectra above the quality threshold are written,
+     * and if an algorithm is set to sequence the low quality spectra, all
+     * spectra are written to a file of the same name in the all spectra
+     * subfolder. When the clustering is enabled, only the representative of
+     * every cluster is written.
+     *
+     * @param spectrumFile the spectrum file
+     * @param destinationFolder the folder where to write the reduced file
+     * @param waitingHandler the waiting handler
+     *
+     * @return the reduced file, null if the process was canceled
+     *
+     * @throws IOException thrown if an error occurred while reading or writing
+     * the spectra
+     * @throws MzMLUnmarshallerException thrown if an error occurred while
+     * reading the spectra
+     * @throws InterruptedException thrown if the threads are interrupted
+     */
+    public File preprocess(File spectrumFile, File destinationFolder, WaitingHandler waitingHandler) throws IOException, MzMLUnmarshallerException, InterruptedException {
+
+        final SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+        final String fileName = spectrumFile.getName();
+
+        reducedFile = new File(destinationFolder, fileName);
+        createFolder(destinationFolder);
+        allSpectraFile = null;
+        if (qualityScorer != null && settings.getLowQualityAdvocate() != null) {
+            File allSpectraFolder = new File(destinationFolder, ALL_SPECTRA_FOLDER);
+            createFolder(allSpectraFolder);
+            allSpectraFile = new File(allSpectraFolder, fileName);
+        }
+        nRetained = 0;
+        nRejected = 0;
+        spectrumClusters = null;
+
+        ArrayList<String> spectrumTitles = spectrumFactory.getSpectrumTitles(fileName);
+
+        // keep only the representative of every cluster
+        if (spectrumClusterer != null) {
+            int[] representatives = spectrumClusterer.cluster(fileName, spectrumTitles, waitingHandler);
+            if (representatives == null) {
+                allSpectraFile = null;
+                reducedFile = null;
+                return null;
+            }
+            spectrumClusters = getClusters(spectrumTitles, representatives);
+            ArrayList<String> representativeTitles = new ArrayList<String>(spectrumTitles.size() - spectrumClusters.getNMembers());
+            for (int i = 0; i < representatives.length; i++) {
+                if (representatives[i] == i) {
+                    representativeTitles.add(spectrumTitles.get(i));
+                }
+            }
+            waitingHandler.appendReport("Clustering of " + fileName + " grouped " + (spectrumClusters.getNClusters() + spectrumClusters.getNMembers())
+                    + " spectra in " + spectrumClusters.getNClusters() + " clusters, " + representativeTitles.size() + " of " + spectrumTitles.size()
+                    + " spectra remaining.", true, true);
+            spectrumTitles = representativeTitles;
+        }
+
+        waitingHandler.resetSecondaryProgressCounter();
+        waitingHandler.setMaxSecondaryProgressCounter(spectrumTitles.size());
+
+        long peaksBefore = 0, peaksAfter = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        BufferedWriter writer = new BufferedWriter(new FileWriter(reducedFile));
+        BufferedWriter allSpectraWriter = allSpectraFile == null ? null : new BufferedWriter(new FileWriter(allSpectraFile));
+
+        try {
+            for (int batchStart = 0; batchStart < spectrumTitles.size() && !waitingHandler.isRunCanceled(); batchStart += BATCH_SIZE) {
+
+                int batchEnd = Math.min(batchStart + BATCH_SIZE, spectrumTitles.size());
+                ArrayList<Future<ProcessedSpectrum>> batch = new ArrayList<Future<ProcessedSpectrum>>(batchEnd - batchStart);
+
+                for (final String spectrumTitle : spectrumTitles.subList(batchStart, batchEnd)) {
+                    batch.add(pool.submit(new Callable<ProcessedSpectrum>() {
+                        @Override
+                        public ProcessedSpectrum call() throws Exception {
+                            MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(Spectrum.getSpectrumKey(fileName, spectrumTitle));
+                            return process(spectrum, fileName, spectrumTitle);
+                        }
+                    }));
+                }
+
+                for (Future<ProcessedSpectrum> future : batch) {
+
+                    if (waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+
+                    ProcessedSpectrum processedSpectrum = getResult(future);
+                    peaksBefore += processedSpectrum.nPeaksBefore;
+                    peaksAfter += processedSpectrum.nPeaksAfter;
+
+                    if (processedSpectrum.retained) {
+                        writer.write(processedSpectrum.mgf);
+                        nRetained++;
+                    } else {
+                        nRejected++;
+                    }
+                    if (allSpectraWriter != null) {
+                        allSpectraWriter.write(processedSpectrum.mgf);
+                    }
+
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            writer.close();
+            if (allSpectraWriter != null) {
+                allSpectraWriter.close();
+            }
+        }
+
+        if (waitingHandler.isRunCanceled()) {
+            delete(allSpectraFile);
+            delete(reducedFile);
+            allSpectraFile = null;
+            reducedFile = null;
+            spectrumClusters = null;
+            return null;
+        }
+
+        if (settings.isEnabled()) {
+            waitingHandler.appendReport("Preprocessing of " + fileName + " retained " + peaksAfter + " of " + peaksBefore + " peaks.", true, true);
+        }
+
+        return reducedFile;
+    }
+
+    /**
+     * Returns the clusters of the spectra.
+     *
+     * @param spectrumTitles the titles of the spectra
+     * @param representatives the index of the representative of every
+     * spectrum
+     *
+     * @return the clusters of the spectra
+     */
+    private static SpectrumClusters getClusters(ArrayList<String> spectrumTitles, int[] representatives) {
+        HashMap<Integer, ArrayList<String>> members = new HashMap<Integer, ArrayList<String>>();
+        for (int i = 0; i < representatives.length; i++) {
+            if (representatives[i] != i) {
+                ArrayList<String> clusterMembers = members.get(representatives[i]);
+                if (clusterMembers == null) {
+                    clusterMembers = new ArrayList<String>(1);
+                    members.put(representatives[i], clusterMembers);
+                }
+                clusterMembers.add(spectrumTitles.get(i));
+            }
+        }
+        SpectrumClusters result = new SpectrumClusters();
+        for (Map.Entry<Integer, ArrayList<String>> entry : members.entrySet()) {
+            result.addCluster(spectrumTitles.get(entry.getKey()), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the result of a future, unwrapping the cause of the execution
+     * exceptions.
+     *
+     * @param future the future
+     *
+     * @return the result of the future
+     *
+     * @throws IOException thrown if an error occurred while reading the
+     * spectra
+     * @throws MzMLUnmarshallerException thrown if an error occurred while
+     * reading the spectra
+     * @throws InterruptedException thrown if the thread is interrupted
+     */
+    private static ProcessedSpectrum getResult(Future<ProcessedSpectrum> future) throws IOException, MzMLUnmarshallerException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof MzMLUnmarshallerException) {
+                throw (MzMLUnmarshallerException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("An error occurred while preprocessing the spectra.", cause);
+        }
+    }
+
+    /**
+     * Creates a folder if it does not exist.
+     *
+     * @param folder the folder
+     *
+     * @throws IOException thrown if the folder cannot be created
+     */
+    private static void createFolder(File folder) throws IOException {
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new IOException("Impossible to create the folder " + folder.getAbsolutePath() + ".");
+        }
+    }
+
+    /**
+     * Reduces and scores a spectrum.
+     *
+     * @param spectrum the spectrum
+     * @param fileName the name of the spectrum file
+     * @param spectrumTitle the title of the spectrum
+     *
+     * @return the processed spectrum
+     */
+    private ProcessedSpectrum process(MSnSpectrum spectrum, String fileName, String spectrumTitle) {
+
+        HashMap<Double, Peak> peakMap = spectrum.getPeakMap();
+        ProcessedSpectrum result = new ProcessedSpectrum();
+        result.nPeaksBefore = peakMap.size();
+        result.retained = qualityScorer == null
+                || qualityScorer.getQuality(peakMap.values(), spectrum.getPrecursor()) >= settings.getQualityThreshold();
+
+        if (settings.isEnabled()) {
+            HashMap<Double, Peak> reducedPeakMap = getReducedPeakMap(peakMap.values(), spectrum.getPrecursor());
+            MSnSpectrum reducedSpectrum = new MSnSpectrum(2, spectrum.getPrecursor(), spectrumTitle, reducedPeakMap, fileName);
+            reducedSpectrum.setScanNumber(spectrum.getScanNumber());
+            result.nPeaksAfter = reducedPeakMap.size();
+            result.mgf = reducedSpectrum.asMgf();
+        } else {
+            result.nPeaksAfter = result.nPeaksBefore;
+            result.mgf = spectrum.asMgf();
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the last reduced file, null if none.
+     *
+     * @return the last reduced file
+     */
+    public File getReducedFile() {
+        return reducedFile;
+    }
+
+    /**
+     * Returns the file containing all spectra, including the ones below the
+     * quality threshold, for the low quality algorithm, null if not written.
+     *
+     * @return the file containing all spectra
+     */
+    public File getAllSpectraFile() {
+        return allSpectraFile;
+    }
+
+    /**
+     * Returns the clusters of the last preprocessed file, null if the
+     * clustering is disabled.
+     *
+     * @return the clusters of the last preprocessed file
+     */
+    public SpectrumClusters getSpectrumClusters() {
+        return spectrumClusters;
+    }
+
+    /**
+     * Returns the number of spectra retained in the last preprocessed file.
+     *
+     * @return the number of spectra retained
+     */
+    public int getNRetained() {
+        return nRetained;
+    }
+
+    /**
+     * Returns the number of spectra below the quality threshold in the last
+     * preprocessed file.
+     *
+     * @return the number of spectra below the quality threshold
+     */
+    public int getNRejected() {
+        return nRejected;
+    }
+
+    /**
+     * Deletes a reduced file and its folder if empty.
+     *
+     * @param reducedFile the reduced file, can be null
+     */
+    public static void delete(File reducedFile) {
+        if (reducedFile != null && reducedFile.exists() && !reducedFile.delete()) {
+            reducedFile.deleteOnExit();
+        }
+        File folder = reducedFile == null ? null : reducedFile.getParentFile();
+        if (folder != null) {
+            String[] content = folder.list();
+            if (content != null && content.length == 0) {
+                folder.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the peaks retained from the given peaks according to the
+     * preprocessing settings.
+     *
+     * @param peaks the peaks of the spectrum
+     * @param precursor the precursor of the spectrum
+     *
+     * @return the retained peaks indexed by m/z
+     */
+    public HashMap<Double, Peak> getReducedPeakMap(Collection<Peak> peaks, Precursor precursor) {
+
+        // sort by m/z
+        Peak[] sortedPeaks = peaks.toArray(new Peak[peaks.size()]);
+        Arrays.sort(sortedPeaks, new Comparator<Peak>() {
+            @Override
+            public int compare(Peak o1, Peak o2) {
+                return Double.compare(o1.getMz(), o2.getMz());
+            }
+        });
+        boolean[] removed = new boolean[sortedPeaks.length];
+
+        // precursor peaks
+        if (settings.isRemovePrecursor() && precursor != null) {
+            for (double precursorMz : getPrecursorMzs(precursor)) {
+                for (int i = getLowerBound(sortedPeaks, precursorMz - fragmentTolerance); i < sortedPeaks.length && sortedPeaks[i].getMz() <= precursorMz + fragmentTolerance; i++) {
+                    removed[i] = true;
+                }
+            }
+        }
+
+        // intensity threshold
+        if (settings.getIntensityThreshold() > 0) {
+            double maxIntensity = 0;
+            for (int i = 0; i < sortedPeaks.length; i++) {
+                if (!removed[i]) {
+                    maxIntensity = Math.max(maxIntensity, sortedPeaks[i].getIntensity());
+                }
+            }
+            double threshold = settings.getIntensityThreshold() * maxIntensity;
+            for (int i = 0; i < sortedPeaks.length; i++) {
+                if (sortedPeaks[i].getIntensity() < threshold) {
+                    removed[i] = true;
+                }
+            }
+        }
+
+        // isotopes
+        if (deisotope) {
+            deisotope(sortedPeaks, removed, getMaxCharge(precursor));
+        }
+
+        // most intense peaks per window
+        HashMap<Double, Peak> result = new HashMap<Double, Peak>(sortedPeaks.length);
+        int peaksPerWindow = settings.getPeaksPerWindow();
+        double windowWidth = settings.getWindowWidth();
+
+        if (peaksPerWindow > 0 && windowWidth > 0) {
+            ArrayList<Peak> window = new ArrayList<Peak>();
+            long currentWindow = Long.MIN_VALUE;
+            for (int i = 0; i < sortedPeaks.length; i++) {
+                if (removed[i]) {
+                    continue;
+                }
+                long peakWindow = (long) Math.floor(sortedPeaks[i].getMz() / windowWidth);
+                if (peakWindow != currentWindow) {
+                    addMostIntense(window, peaksPerWindow, result);
+                    window.clear();
+                    currentWindow = peakWindow;
+                }
+                window.add(sortedPeaks[i]);
+            }
+            addMostIntense(window, peaksPerWindow, result);
+        } else {
+            for (int i = 0; i < sortedPeaks.length; i++) {
+                if (!removed[i]) {
+                    result.put(sortedPeaks[i].getMz(), sortedPeaks[i]);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds the most intense peaks of a window to the given map.
+     *
+     * @param window the peaks of the window
+     * @param nPeaks the number of peaks to add
+     * @param peakMap the map where to add the peaks
+     */
+    private static void addMostIntense(ArrayList<Peak> window, int nPeaks, HashMap<Double, Peak> peakMap) {
+        if (window.size() > nPeaks) {
+            Collections.sort(window, DECREASING_INTENSITY);
+        }
+        for (int i = 0; i < window.size() && i < nPeaks; i++) {
+            Peak peak = window.get(i);
+            peakMap.put(peak.getMz(), peak);
+        }
+    }
+
+    /**
+     * Indicates whether the isotopic peaks are removed, i.e. whether the
+     * deisotoping is enabled and the fragment ion tolerance does not exceed
+     * MAX_DEISOTOPING_TOLERANCE.
+     *
+     * @return true if the isotopic peaks are removed
+     */
+    public boolean isDeisotoping() {
+        return deisotope;
+    }
+
+    /**
+     * Removes the isotopic peaks, keeping the monoisotopic peak of every
+     * isotopic envelope. The peaks are processed by decreasing intensity and a
+     * following peak is considered isotopic when it is less intense than the
+     * previous peak of the envelope.
+     *
+     * @param sortedPeaks the peaks sorted by m/z
+     * @param removed the peaks removed
+     * @param maxCharge the maximal charge considered
+     */
+    private void deisotope(Peak[] sortedPeaks, boolean[] removed, int maxCharge) {
+
+        Integer[] order = new Integer[sortedPeaks.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final Peak[] peaks = sortedPeaks;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return DECREASING_INTENSITY.compare(peaks[o1], peaks[o2]);
+            }
+        });
+
+        for (int index : order) {
+            if (removed[index]) {
+                continue;
+            }
+            for (int charge = maxCharge; charge >= 1; charge--) {
+                int current = index;
+                boolean found = false;
+                while (true) {
+                    int next = getIsotope(sortedPeaks, removed, current, charge);
+                    if (next == -1) {
+                        break;
+                    }
+                    removed[next] = true;
+                    current = next;
+                    found = true;
+                }
+                if (found) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the most intense next isotope of a peak, -1 if
+     * none.
+     *
+     * @param sortedPeaks the peaks sorted by m/z
+     * @param removed the peaks removed
+     * @param index the index of the peak
+     * @param charge the charge of the isotopic envelope
+     *
+     * @return the index of the next isotope
+     */
+    private int getIsotope(Peak[] sortedPeaks, boolean[] removed, int index, int charge) {
+        double targetMz = sortedPeaks[index].getMz() + ISOTOPE_SPACING / charge;
+        double intensity = sortedPeaks[index].getIntensity();
+        int result = -1;
+        for (int i = getLowerBound(sortedPeaks, targetMz - fragmentTolerance); i < sortedPeaks.length && sortedPeaks[i].getMz() <= targetMz + fragmentTolerance; i++) {
+            if (!removed[i] && i != index && sortedPeaks[i].getIntensity() < intensity
+                    && (result == -1 || sortedPeaks[i].getIntensity() > sortedPeaks[result].getIntensity())) {
+                result = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the m/z of the unfragmented precursor at its charges and at the
+     * lower charges it can be reduced to.
+     *
+     * @param precursor the precursor
+     *
+     * @return the m/z of the precursor peaks
+     */
+    private static ArrayList<Double> getPrecursorMzs(Precursor precursor) {
+        ArrayList<Double> result = new ArrayList<Double>();
+        double precursorMz = precursor.getMz();
+        result.add(precursorMz);
+        double protonMass = ElementaryIon.proton.getTheoreticMass();
+        for (Charge charge : precursor.getPossibleCharges()) {
+            double mass = (precursorMz - protonMass) * charge.value;
+            for (int reducedCharge = 1; reducedCharge < charge.value; reducedCharge++) {
+                result.add((mass + reducedCharge * protonMass) / reducedCharge);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the maximal charge considered for the isotopic envelopes of a
+     * spectrum.
+     *
+     * @param precursor the precursor of the spectrum, can be null
+     *
+     * @return the maximal charge
+     */
+    private static int getMaxCharge(Precursor precursor) {
+        int result = 1;
+        if (precursor != null) {
+            for (Charge charge : precursor.getPossibleCharges()) {
+                result = Math.max(result, charge.value);
+            }
+        }
+        if (result == 1) {
+            result = 2;
+        }
+        return Math.min(result, MAX_ISOTOPE_CHARGE);
+    }
+
+    /**
+     * Returns the index of the first peak with an m/z greater than or equal to
+     * the given m/z.
+     *
+     * @param sortedPeaks the peaks sorted by m/z
+     * @param mz the m/z
+     *
+     * @return the index of the first peak with an m/z greater than or equal to
+     * the given m/z, the number of peaks if none
+     */
+    private static int getLowerBound(Peak[] sortedPeaks, double mz) {
+        int low = 0;
+        int high = sortedPeaks.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedPeaks[middle].getMz() < mz) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * A spectrum processed for writing.
+     */
+    private static class ProcessedSpectrum {
+
+        /**
+         * The spectrum as MGF.
+         */
+        private String mgf;
+        /**
+         * Boolean indicating whether the spectrum is above the quality
+         * threshold.
+         */
+        private boolean retained;
+        /**
+         * The number of peaks before reduction.
+         */
+        private int nPeaksBefore;
+        /**
+         * The number of peaks after reduction.
+         */
+        private int nPeaksAfter;
+    }
+}
@@ -0,0 +1,189 @@
+package com.compomics.denovogui.io;
+
+import com.compomics.denovogui.util.MassDeltaIndex;
+import com.compomics.util.experiment.biology.ions.ElementaryIon;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Fast estimation of the quality of a spectrum, used to skip the spectra which
+ * are unlikely to be sequenced before running the algorithms. The quality is
+ * the average of four scores between 0 and 1: the number of peaks, the share
+ * of the total ion current carried by the most intense peaks, the number of
+ * complementary fragment ions and the number of amino acid mass gaps between
+ * the most intense peaks. The scorer is immutable and can be shared between
+ * threads.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class SpectrumQualityScorer {
+
+    /**
+     * The number of peaks giving a full peak count score.
+     */
+    public static final int REFERENCE_PEAK_COUNT = 50;
+    /**
+     * The number of most intense peaks used for the total ion current score.
+     */
+    public static final int N_TIC_PEAKS = 20;
+    /**
+     * The number of most intense peaks inspected for complementary ions and
+     * amino acid gaps.
+     */
+    public static final int N_INSPECTED_PEAKS = 50;
+    /**
+     * The number of complementary ion pairs giving a full complementary ions
+     * score.
+     */
+    public static final int REFERENCE_COMPLEMENTS = 5;
+    /**
+     * The number of amino acid gaps giving a full gap score.
+     */
+    public static final int REFERENCE_GAPS = 10;
+    /**
+     * The absolute fragment ion tolerance in Da.
+     */
+    private final double fragmentTolerance;
+    /**
+     * The index of the amino acid masses.
+     */
+    private final MassDeltaIndex massDeltaIndex;
+    /**
+     * The largest amino acid mass.
+     */
+    private final double maxGap;
+
+    /**
+     * Constructor.
+     *
+     * @param searchParameters the search parameters, used for the
+     * modifications
+     * @param fragmentTolerance the absolute fragment ion tolerance in Da
+     */
+    public SpectrumQualityScorer(SearchParameters searchParameters, double fragmentTolerance) {
+        this.fragmentTolerance = fragmentTolerance;
+        massDeltaIndex = new MassDeltaIndex(searchParameters.getPtmSettings(), false);
+        maxGap = massDeltaIndex.getMass(massDeltaIndex.size() - 1) + fragmentTolerance;
+    }
+
+    /**
+     * Returns the quality of a spectrum, between 0 and 1.
+     *
+     * @param peaks the peaks of the spectrum
+     * @param precursor the precursor of the spectrum, can be null
+     *
+     * @return the quality of the spectrum
+     */
+    public double getQuality(Collection<Peak> peaks, Precursor precursor) {
+
+        int nPeaks = peaks.size();
+        if (nPeaks == 0) {
+            return 0.0;
+        }
+
+        // peak count
+        double peakScore = Math.min(1.0, ((double) nPeaks) / REFERENCE_PEAK_COUNT);
+
+        // share of the total ion current in the most intense peaks
+        Peak[] sortedPeaks = peaks.toArray(new Peak[nPeaks]);
+        Arrays.sort(sortedPeaks, new Comparator<Peak>() {
+            @Override
+            public int compare(Peak o1, Peak o2) {
+                return Double.compare(o2.getIntensity(), o1.getIntensity());
+            }
+        });
+        double tic = 0, topTic = 0;
+        for (int i = 0; i < nPeaks; i++) {
+            tic += sortedPeaks[i].getIntensity();
+            if (i < N_TIC_PEAKS) {
+                topTic += sortedPeaks[i].getIntensity();
+            }
+        }
+        double ticScore = tic > 0 ? topTic / tic : 0.0;
+
+        // the most intense peaks sorted by m/z
+        int nInspected = Math.min(nPeaks, N_INSPECTED_PEAKS);
+        double[] mzs = new double[nInspected];
+        for (int i = 0; i < nInspected; i++) {
+            mzs[i] = sortedPeaks[i].getMz();
+        }
+        Arrays.sort(mzs);
+
+        double complementScore = precursor == null ? 0.0 : Math.min(1.0, ((double) getComplementCount(mzs, precursor)) / REFERENCE_COMPLEMENTS);
+        double gapScore = Math.min(1.0, ((double) getGapCount(mzs)) / REFERENCE_GAPS);
+
+        return (peakScore + ticScore + complementScore + gapScore) / 4;
+    }
+
+    /**
+     * Returns the largest number of pairs of singly charged complementary ions
+     * found for the possible charges of the precursor.
+     *
+     * @param mzs the m/z of the peaks inspected, sorted
+     * @param precursor the precursor
+     *
+     * @return the number of complementary ion pairs
+     */
+    private int getComplementCount(double[] mzs, Precursor precursor) {
+
+        double protonMass = ElementaryIon.proton.getTheoreticMass();
+        ArrayList<Integer> charges = new ArrayList<Integer>();
+        for (Charge charge : precursor.getPossibleCharges()) {
+            charges.add(charge.value);
+        }
+        if (charges.isEmpty()) {
+            charges.add(2);
+        }
+
+        int result = 0;
+        for (int charge : charges) {
+            double complementSum = (precursor.getMz() - protonMass) * charge + 2 * protonMass;
+            int count = 0;
+            for (int i = 0; i < mzs.length; i++) {
+                double target = complementSum - mzs[i];
+                if (target <= mzs[i]) {
+                    break;
+                }
+                int j = Arrays.binarySearch(mzs, target - fragmentTolerance);
+                if (j < 0) {
+                    j = -j - 1;
+                }
+                if (j < mzs.length && mzs[j] <= target + fragmentTolerance) {
+                    count++;
+                }
+            }
+            result = Math.max(result, count);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of pairs of peaks separated by an amino acid mass.
+     *
+     * @param mzs the m/z of the peaks inspected, sorted
+     *
+     * @return the number of amino acid gaps
+     */
+    private int getGapCount(double[] mzs) {
+        int count = 0;
+        for (int i = 0; i < mzs.length; i++) {
+            for (int j = i + 1; j < mzs.length; j++) {
+                double gap = mzs[j] - mzs[i];
+                if (gap > maxGap) {
+                    break;
+                }
+                if (massDeltaIndex.getClosestLabel(gap, fragmentTolerance) != null) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
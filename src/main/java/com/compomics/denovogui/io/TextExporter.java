@@ -1,5 +1,7 @@
 package com.compomics.denovogui.io;
 
+import com.compomics.denovogui.results.DeNovoResultStore;
+import com.compomics.denovogui.results.SessionSnapshot;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.identification.Advocate;
 import com.compomics.util.experiment.identification.Identification;
@@ -11,15 +13,15 @@ import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
 import com.compomics.util.experiment.massspectrometry.Precursor;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
-import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.experiment.refinementparameters.PepnovoAssumptionDetails;
 import com.compomics.util.waiting.WaitingHandler;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
@@ -47,6 +49,8 @@ public class TextExporter {
      * @param destinationFile the destination file
      * @param identification the identification object containing identification
      * details
+     * @param snapshot the session snapshot where to read the matches, null to
+     * read them from the identification
      * @param searchParameters the search parameters used for the search
      * @param waitingHandler waiting handler displaying progress to the user and
      * allowing to cancel the process
@@ -54,6 +58,8 @@ public class TextExporter {
      * @param greaterThan use greater than threshold
      * @param aNumberOfMatches the maximum number of matches to export per
      * spectrum
+     * @param advocates the indexes of the advocates to export, null for all
+     * @param charges the identification charges to export, null for all
      *
      * @throws IOException thrown if an IO exception occurs
      * @throws SQLException thrown if an SQL exception occurs
@@ -62,20 +68,12 @@ public class TextExporter {
      * extracted from a spectrum
      * @throws InterruptedException thrown if the process is interrupted
      */
-    public static void exportPeptides(File destinationFile, Identification identification, SearchParameters searchParameters,
-            WaitingHandler waitingHandler, Double scoreThreshold, boolean greaterThan, Integer aNumberOfMatches)
+    public static void exportPeptides(File destinationFile, Identification identification, SessionSnapshot snapshot, final SearchParameters searchParameters,
+            WaitingHandler waitingHandler, Double scoreThreshold, final boolean greaterThan, Integer aNumberOfMatches,
+            Collection<Integer> advocates, Collection<Integer> charges)
             throws IOException, SQLException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
 
-        FileWriter f = new FileWriter(destinationFile);
-
-        double threshold = 0;
-        if (scoreThreshold != null) {
-            threshold = scoreThreshold;
-        }
-        int numberOfMatches = 10;
-        if (aNumberOfMatches != null) {
-            numberOfMatches = aNumberOfMatches;
-        }
+        Writer f = CompressedFileHandler.getWriter(destinationFile);
 
         try {
             BufferedWriter b = new BufferedWriter(f);
@@ -93,151 +91,20 @@ public class TextExporter {
                     waitingHandler.setWaitingText("Exporting Spectra - Writing File. Please Wait...");
                     // reset the progress bar
                     waitingHandler.resetSecondaryProgressCounter();
-                    waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
+                    waitingHandler.setMaxSecondaryProgressCounter(ExportEngine.getNSpectra(identification, snapshot));
                 }
 
-                for (String mgfFile : identification.getSpectrumFiles()) {
-                    for (String spectrumKey : identification.getSpectrumIdentification(mgfFile)) {
-                        if (identification.matchExists(spectrumKey)) {
-
-                            StringBuilder spectrumDetails = new StringBuilder();
-
-                            String spectrumTitle = Spectrum.getSpectrumTitle(spectrumKey);
-                            spectrumDetails.append(mgfFile).append(SEPARATOR).append(spectrumTitle).append(SEPARATOR);
-
-                            Precursor precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
-                            spectrumDetails.append(precursor.getRt()).append(SEPARATOR).append(precursor.getMz()).append(SEPARATOR).append(precursor.getPossibleChargesAsString()).append(SEPARATOR);
-
-                            ArrayList<PeptideAssumption> assumptions = new ArrayList<PeptideAssumption>();
-                            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = identification.getAssumptions(spectrumKey);
-
-                            for (int algorithmId : assumptionsMap.keySet()) {
-                                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptionsMap.get(algorithmId);
-                                if (advocateMap != null) {
-                                    ArrayList<Double> scores = new ArrayList<Double>(advocateMap.keySet());
-                                    Collections.sort(scores, Collections.reverseOrder());
-                                    for (Double score : scores) {
-                                        for (SpectrumIdentificationAssumption assumption : advocateMap.get(score)) {
-                                            if (assumption instanceof PeptideAssumption) {
-                                                PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
-                                                assumptions.add(peptideAssumption);
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-
-                            // export all matches above the score threshold up to the given user selected amount
-                            for (int i = 0; i < assumptions.size() && i < numberOfMatches; i++) {
-
-                                PeptideAssumption peptideAssumption = assumptions.get(i);
-
-                                boolean passesThreshold;
-
-                                if (greaterThan) {
-                                    passesThreshold = peptideAssumption.getScore() >= threshold;
-                                } else { // less than
-                                    passesThreshold = peptideAssumption.getScore() <= threshold;
-                                }
-
-                                if (passesThreshold) {
-
-                                    b.write(spectrumDetails.toString());
-                                    b.write(peptideAssumption.getRank() + SEPARATOR);
-
-                                    Peptide peptide = peptideAssumption.getPeptide();
-                                    String proteinText = "";
-                                    ArrayList<String> proteins = peptide.getParentProteinsNoRemapping();
-                                    if (proteins != null) {
-                                        Collections.sort(proteins);
-                                        for (String accession : proteins) {
-                                            if (!proteinText.equals("")) {
-                                                proteinText += SEPARATOR_2;
-                                            }
-                                            proteinText += accession;
-                                        }
-                                    }
-                                    b.write(proteinText + SEPARATOR);
-
-                                    b.write(peptide.getSequence() + SEPARATOR);
-                                    b.write(getPeptideModificationsAsString(peptide) + SEPARATOR);
-                                    b.write(peptide.getTaggedModifiedSequence(searchParameters.getPtmSettings(), false, false, true, false) + SEPARATOR);
-
-                                    // tag section if any
-                                    TagAssumption tagAssumption = new TagAssumption();
-                                    tagAssumption = (TagAssumption) peptideAssumption.getUrParam(tagAssumption);
-                                    if (tagAssumption != null) {
-                                        Tag tag = tagAssumption.getTag();
-                                        b.write(tag.asSequence() + SEPARATOR);
-                                        b.write(tag.getLongestAminoAcidSequence() + SEPARATOR);
-                                        b.write(Tag.getTagModificationsAsString(tag) + SEPARATOR);
-                                        b.write(tag.getTaggedModifiedSequence(searchParameters.getPtmSettings(), false, false, true, false) + SEPARATOR);
-                                        if (tagAssumption.getAdvocate() == Advocate.pepnovo.getIndex()) {
-                                            PepnovoAssumptionDetails pepnovoAssumptionDetails = new PepnovoAssumptionDetails();
-                                            pepnovoAssumptionDetails = (PepnovoAssumptionDetails) tagAssumption.getUrParam(pepnovoAssumptionDetails);
-                                            b.write(pepnovoAssumptionDetails.getRankScore() + SEPARATOR);
-                                            b.write(tagAssumption.getScore() + SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR);
-                                        } else if (tagAssumption.getAdvocate() == Advocate.direcTag.getIndex()) {
-                                            b.write(SEPARATOR + SEPARATOR + tagAssumption.getScore() + SEPARATOR + SEPARATOR + SEPARATOR);
-                                        } else if (tagAssumption.getAdvocate() == Advocate.pNovo.getIndex()) {
-                                            b.write(SEPARATOR + SEPARATOR + SEPARATOR + tagAssumption.getScore() + SEPARATOR + SEPARATOR);
-                                        } else if (tagAssumption.getAdvocate() == Advocate.novor.getIndex()) {
-                                            b.write(SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR + tagAssumption.getScore() + SEPARATOR);
-                                        }
-                                        b.write(tag.getNTerminalGap() + SEPARATOR);
-                                        b.write(tag.getCTerminalGap() + SEPARATOR);
-                                        b.write(tag.getMass() + SEPARATOR);
-                                        b.write(tagAssumption.getIdentificationCharge().value + SEPARATOR);
-                                        double massDeviation = tagAssumption.getDeltaMass(precursor.getMz(), false, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
-                                        b.write(massDeviation + SEPARATOR);
-                                        massDeviation = tagAssumption.getDeltaMass(precursor.getMz(), true, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
-                                        b.write(massDeviation + SEPARATOR);
-                                    } else if (peptideAssumption.getAdvocate() == Advocate.novor.getIndex()) {
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR + peptideAssumption.getScore() + SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);  
-                                    } else {
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                        b.write(SEPARATOR);
-                                    }
-                                    Double massDeviation = peptideAssumption.getDeltaMass(precursor.getMz(), false, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
-                                    b.write(massDeviation + SEPARATOR);
-                                    massDeviation = peptideAssumption.getDeltaMass(precursor.getMz(), true, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
-                                    b.write(massDeviation + SEPARATOR);
-                                    b.write(peptideAssumption.getIsotopeNumber(precursor.getMz(), searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()) + SEPARATOR);
-                                    b.newLine();
-                                }
-                            }
-                            if (waitingHandler != null) {
-                                waitingHandler.increaseSecondaryProgressCounter();
-                                if (waitingHandler.isRunCanceled()) {
-                                    return;
-                                }
-                            }
-                        }
+                ExportQuery exportQuery = new ExportQuery(scoreThreshold, greaterThan, aNumberOfMatches);
+                exportQuery.setAdvocates(advocates);
+                exportQuery.setCharges(charges);
+                exportQuery.setAssumptionType(PeptideAssumption.class);
+                // the peptides of the protein mapping are not in the result store
+                new ExportEngine(Runtime.getRuntime().availableProcessors()).export(b, identification, null, snapshot, exportQuery, new ExportEngine.SpectrumFormatter() {
+                    @Override
+                    public void format(ExportEngine.ExportedSpectrum exportedSpectrum, StringBuilder output) throws Exception {
+                        formatPeptides(exportedSpectrum, output, searchParameters);
                     }
-                }
+                }, false, waitingHandler);
             } finally {
                 b.close();
             }
@@ -246,12 +113,98 @@ public class TextExporter {
         }
     }
 
+    /**
+     * Appends the peptide matching results of a spectrum to the given output.
+     *
+     * @param exportedSpectrum the spectrum to export
+     * @param output the output
+     * @param searchParameters the search parameters used for the search
+     *
+     * @throws InterruptedException thrown if the process is interrupted
+     */
+    private static void formatPeptides(ExportEngine.ExportedSpectrum exportedSpectrum, StringBuilder output, SearchParameters searchParameters)
+            throws InterruptedException {
+
+        ArrayList<SpectrumIdentificationAssumption> selectedAssumptions = exportedSpectrum.getSelectedAssumptions();
+        if (selectedAssumptions.isEmpty()) {
+            return;
+        }
+
+        Precursor precursor = exportedSpectrum.getPrecursor();
+        String spectrumTitle = Spectrum.getSpectrumTitle(exportedSpectrum.getSpectrumKey());
+        StringBuilder spectrumDetails = new StringBuilder();
+        spectrumDetails.append(exportedSpectrum.getSpectrumFile()).append(SEPARATOR).append(spectrumTitle).append(SEPARATOR);
+        spectrumDetails.append(precursor.getRt()).append(SEPARATOR).append(precursor.getMz()).append(SEPARATOR).append(precursor.getPossibleChargesAsString()).append(SEPARATOR);
+
+        // export all matches above the score threshold up to the given user selected amount
+        for (SpectrumIdentificationAssumption assumption : selectedAssumptions) {
+
+            PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+
+            output.append(spectrumDetails);
+            output.append(peptideAssumption.getRank()).append(SEPARATOR);
+
+            Peptide peptide = peptideAssumption.getPeptide();
+            ArrayList<String> proteins = peptide.getParentProteinsNoRemapping();
+            if (proteins != null) {
+                Collections.sort(proteins);
+                for (int j = 0; j < proteins.size(); j++) {
+                    if (j > 0) {
+                        output.append(SEPARATOR_2);
+                    }
+                    output.append(proteins.get(j));
+                }
+            }
+            output.append(SEPARATOR);
+
+            output.append(peptide.getSequence()).append(SEPARATOR);
+            output.append(getPeptideModificationsAsString(peptide)).append(SEPARATOR);
+            output.append(peptide.getTaggedModifiedSequence(searchParameters.getPtmSettings(), false, false, true, false)).append(SEPARATOR);
+
+            // tag section if any
+            TagAssumption tagAssumption = new TagAssumption();
+            tagAssumption = (TagAssumption) peptideAssumption.getUrParam(tagAssumption);
+            if (tagAssumption != null) {
+                Tag tag = tagAssumption.getTag();
+                output.append(tag.asSequence()).append(SEPARATOR);
+                output.append(tag.getLongestAminoAcidSequence()).append(SEPARATOR);
+                output.append(Tag.getTagModificationsAsString(tag)).append(SEPARATOR);
+                output.append(tag.getTaggedModifiedSequence(searchParameters.getPtmSettings(), false, false, true, false)).append(SEPARATOR);
+                appendScores(output, tagAssumption);
+                output.append(tag.getNTerminalGap()).append(SEPARATOR);
+                output.append(tag.getCTerminalGap()).append(SEPARATOR);
+                output.append(tag.getMass()).append(SEPARATOR);
+                output.append(tagAssumption.getIdentificationCharge().value).append(SEPARATOR);
+                double massDeviation = tagAssumption.getDeltaMass(precursor.getMz(), false, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
+                output.append(massDeviation).append(SEPARATOR);
+                massDeviation = tagAssumption.getDeltaMass(precursor.getMz(), true, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
+                output.append(massDeviation).append(SEPARATOR);
+            } else if (peptideAssumption.getAdvocate() == Advocate.novor.getIndex()) {
+                appendSeparators(output, 8);
+                output.append(peptideAssumption.getScore());
+                appendSeparators(output, 7);
+            } else {
+                appendSeparators(output, 15);
+            }
+            Double massDeviation = peptideAssumption.getDeltaMass(precursor.getMz(), false, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
+            output.append(massDeviation).append(SEPARATOR);
+            massDeviation = peptideAssumption.getDeltaMass(precursor.getMz(), true, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
+            output.append(massDeviation).append(SEPARATOR);
+            output.append(peptideAssumption.getIsotopeNumber(precursor.getMz(), searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection())).append(SEPARATOR);
+            output.append(ExportEngine.NEW_LINE);
+        }
+    }
+
     /**
      * Exports the identification results to a given file.
      *
      * @param destinationFile the destination file
      * @param identification the identification object containing identification
      * details
+     * @param resultStore the result store used to select the matches to
+     * export, null to select them on the matches of the identification
+     * @param snapshot the session snapshot where to read the matches, null to
+     * read them from the identification
      * @param searchParameters the search parameters used for the search
      * @param waitingHandler waiting handler displaying progress to the user and
      * allowing to cancel the process
@@ -259,6 +212,8 @@ public class TextExporter {
      * @param greaterThan use greater than threshold
      * @param aNumberOfMatches the maximum number of matches to export per
      * spectrum
+     * @param advocates the indexes of the advocates to export, null for all
+     * @param charges the identification charges to export, null for all
      *
      * @throws IOException thrown if an IO exception occurs
      * @throws SQLException thrown if an SQL exception occurs
@@ -267,20 +222,12 @@ public class TextExporter {
      * extracted from a spectrum
      * @throws InterruptedException thrown if the process is interrupted
      */
-    public static void exportTags(File destinationFile, Identification identification, SearchParameters searchParameters,
-            WaitingHandler waitingHandler, Double scoreThreshold, boolean greaterThan, Integer aNumberOfMatches)
+    public static void exportTags(File destinationFile, Identification identification, DeNovoResultStore resultStore, SessionSnapshot snapshot, final SearchParameters searchParameters,
+            WaitingHandler waitingHandler, Double scoreThreshold, final boolean greaterThan, Integer aNumberOfMatches,
+            Collection<Integer> advocates, Collection<Integer> charges)
             throws IOException, SQLException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
 
-        FileWriter f = new FileWriter(destinationFile);
-
-        double threshold = 0;
-        if (scoreThreshold != null) {
-            threshold = scoreThreshold;
-        }
-        int numberOfMatches = 10;
-        if (aNumberOfMatches != null) {
-            numberOfMatches = aNumberOfMatches;
-        }
+        Writer f = CompressedFileHandler.getWriter(destinationFile);
 
         try {
             BufferedWriter b = new BufferedWriter(f);
@@ -296,73 +243,21 @@ public class TextExporter {
                     waitingHandler.setWaitingText("Exporting Spectra - Writing File. Please Wait...");
                     // reset the progress bar
                     waitingHandler.resetSecondaryProgressCounter();
-                    waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
+                    waitingHandler.setMaxSecondaryProgressCounter(ExportEngine.getNSpectra(identification, snapshot));
                 }
 
-                for (String mgfFile : identification.getSpectrumFiles()) {
-                    for (String spectrumKey : identification.getSpectrumIdentification(mgfFile)) {
-                        if (identification.matchExists(spectrumKey)) {
-
-                            String spectrumTitle = Spectrum.getSpectrumTitle(spectrumKey);
-                            StringBuilder spectrumDetails = new StringBuilder();
-
-                            spectrumDetails.append(mgfFile).append(SEPARATOR).append(spectrumTitle).append(SEPARATOR);
-
-                            Precursor precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
-                            spectrumDetails.append(precursor.getRt()).append(SEPARATOR).append(precursor.getMz()).append(SEPARATOR).append(precursor.getPossibleChargesAsString()).append(SEPARATOR);
-
-                            ArrayList<SpectrumIdentificationAssumption> allAssumptions = new ArrayList<SpectrumIdentificationAssumption>();
-                            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = identification.getAssumptions(spectrumKey);
-
-                            for (int algorithmId : assumptionsMap.keySet()) {
-                                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptionsMap.get(algorithmId);
-                                if (advocateMap != null) {
-                                    ArrayList<Double> scores = new ArrayList<Double>(advocateMap.keySet());
-                                    Collections.sort(scores, Collections.reverseOrder());
-                                    for (Double score : scores) {
-                                        for (SpectrumIdentificationAssumption assumption : advocateMap.get(score)) {
-                                            allAssumptions.add(assumption);
-                                        }
-                                    }
-                                }
-                            }
-
-                            int rank = 0;
-
-                            // export all matches above the score threshold up to the given user selected amount
-                            for (int i = 0; i < allAssumptions.size() && i < numberOfMatches; i++) {
-
-                                SpectrumIdentificationAssumption assumption = allAssumptions.get(i);
-
-                                boolean passesThreshold;
-
-                                if (greaterThan) {
-                                    passesThreshold = assumption.getScore() >= threshold;
-                                } else { // less than
-                                    passesThreshold = assumption.getScore() <= threshold;
-                                }
-
-                                if (passesThreshold) {
-                                    b.write(spectrumDetails.toString());
-                                    b.write(++rank + SEPARATOR);
-                                    writeTagExportLine(b, assumption, searchParameters);
-                                    b.newLine();
-                                }
-                            }
-                            if (allAssumptions.isEmpty()) {
-                                b.newLine();
-                            }
-                            if (waitingHandler != null) {
-                                waitingHandler.increaseSecondaryProgressCounter();
-                                if (waitingHandler.isRunCanceled()) {
-                                    return;
-                                }
-                            }
+                ExportQuery exportQuery = new ExportQuery(scoreThreshold, greaterThan, aNumberOfMatches);
+                exportQuery.setAdvocates(advocates);
+                exportQuery.setCharges(charges);
+                new ExportEngine(Runtime.getRuntime().availableProcessors()).export(b, identification, resultStore, snapshot, exportQuery, new ExportEngine.SpectrumFormatter() {
+                    @Override
+                    public void format(ExportEngine.ExportedSpectrum exportedSpectrum, StringBuilder output) throws Exception {
+                        if (exportedSpectrum.isIdentified()) {
+                            formatTags(exportedSpectrum, output, searchParameters);
                         }
-
-                        b.newLine();
+                        output.append(ExportEngine.NEW_LINE);
                     }
-                }
+                }, true, waitingHandler);
             } finally {
                 b.close();
             }
@@ -371,6 +266,44 @@ public class TextExporter {
         }
     }
 
+    /**
+     * Appends the identification results of a spectrum to the given output.
+     *
+     * @param exportedSpectrum the spectrum to export
+     * @param output the output
+     * @param searchParameters the search parameters used for the search
+     *
+     * @throws InterruptedException thrown if the process is interrupted
+     */
+    private static void formatTags(ExportEngine.ExportedSpectrum exportedSpectrum, StringBuilder output, SearchParameters searchParameters)
+            throws InterruptedException {
+
+        ArrayList<SpectrumIdentificationAssumption> selectedAssumptions = exportedSpectrum.getSelectedAssumptions();
+        if (selectedAssumptions.isEmpty()) {
+            if (!exportedSpectrum.hasCandidates()) {
+                output.append(ExportEngine.NEW_LINE);
+            }
+            return;
+        }
+
+        Precursor precursor = exportedSpectrum.getPrecursor();
+        String spectrumTitle = Spectrum.getSpectrumTitle(exportedSpectrum.getSpectrumKey());
+        StringBuilder spectrumDetails = new StringBuilder();
+        spectrumDetails.append(exportedSpectrum.getSpectrumFile()).append(SEPARATOR).append(spectrumTitle).append(SEPARATOR);
+        spectrumDetails.append(precursor.getRt()).append(SEPARATOR).append(precursor.getMz()).append(SEPARATOR).append(precursor.getPossibleChargesAsString()).append(SEPARATOR);
+
+
+        int rank = 0;
+
+        // export all matches above the score threshold up to the given user selected amount
+        for (SpectrumIdentificationAssumption assumption : selectedAssumptions) {
+            output.append(spectrumDetails);
+            output.append(++rank).append(SEPARATOR);
+            appendTagExportLine(output, assumption, searchParameters);
+            output.append(ExportEngine.NEW_LINE);
+        }
+    }
+
     /**
      * Writes the details on the given assumption to the given writer in the
      * form of a tag export.
@@ -385,12 +318,29 @@ public class TextExporter {
      * interrupted
      */
     public static void writeTagExportLine(BufferedWriter b, SpectrumIdentificationAssumption assumption, SearchParameters searchParameters) throws IOException, InterruptedException {
+        StringBuilder output = new StringBuilder();
+        appendTagExportLine(output, assumption, searchParameters);
+        b.write(output.toString());
+    }
+
+    /**
+     * Appends the details on the given assumption to the given output in the
+     * form of a tag export.
+     *
+     * @param output the output
+     * @param assumption the assumption to write
+     * @param searchParameters the search parameters
+     *
+     * @throws java.lang.InterruptedException exception thrown if a thread is
+     * interrupted
+     */
+    public static void appendTagExportLine(StringBuilder output, SpectrumIdentificationAssumption assumption, SearchParameters searchParameters) throws InterruptedException {
         if (assumption instanceof TagAssumption) {
             TagAssumption tagAssumption = (TagAssumption) assumption;
-            writeTagExportLine(b, tagAssumption, searchParameters);
+            appendTagExportLine(output, tagAssumption, searchParameters);
         } else if (assumption instanceof PeptideAssumption) {
             PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
-            writeTagExportLine(b, peptideAssumption, searchParameters);
+            appendTagExportLine(output, peptideAssumption, searchParameters);
         } else {
             throw new UnsupportedOperationException("Export not implemented for assumption of type " + assumption.getClass() + ".");
         }
@@ -410,28 +360,34 @@ public class TextExporter {
      * interrupted
      */
     public static void writeTagExportLine(BufferedWriter b, PeptideAssumption peptideAssumption, SearchParameters searchParameters) throws IOException, InterruptedException {
+        StringBuilder output = new StringBuilder();
+        appendTagExportLine(output, peptideAssumption, searchParameters);
+        b.write(output.toString());
+    }
+
+    /**
+     * Appends the details on the given peptide assumption to the given output
+     * in the form of a tag export.
+     *
+     * @param output the output
+     * @param peptideAssumption the peptide assumption to write
+     * @param searchParameters the search parameters
+     *
+     * @throws java.lang.InterruptedException exception thrown if a thread is
+     * interrupted
+     */
+    public static void appendTagExportLine(StringBuilder output, PeptideAssumption peptideAssumption, SearchParameters searchParameters) throws InterruptedException {
 
         Peptide peptide = peptideAssumption.getPeptide();
-        b.write(peptide.getSequence() + SEPARATOR);
-        b.write(peptide.getSequence() + SEPARATOR);
-        b.write(Peptide.getPeptideModificationsAsString(peptide, true) + SEPARATOR);
-        b.write(peptide.getTaggedModifiedSequence(searchParameters.getPtmSettings(), false, false, true, false) + SEPARATOR);
-        if (peptideAssumption.getAdvocate() == Advocate.pepnovo.getIndex()) {
-            PepnovoAssumptionDetails pepnovoAssumptionDetails = new PepnovoAssumptionDetails();
-            pepnovoAssumptionDetails = (PepnovoAssumptionDetails) peptideAssumption.getUrParam(pepnovoAssumptionDetails);
-            b.write(pepnovoAssumptionDetails.getRankScore() + SEPARATOR);
-            b.write(peptideAssumption.getScore() + SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR);
-        } else if (peptideAssumption.getAdvocate() == Advocate.direcTag.getIndex()) {
-            b.write(SEPARATOR + SEPARATOR + peptideAssumption.getScore() + SEPARATOR + SEPARATOR + SEPARATOR);
-        } else if (peptideAssumption.getAdvocate() == Advocate.pNovo.getIndex()) {
-            b.write(SEPARATOR + SEPARATOR + SEPARATOR + peptideAssumption.getScore() + SEPARATOR + SEPARATOR);
-        } else if (peptideAssumption.getAdvocate() == Advocate.novor.getIndex()) {
-            b.write(SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR + peptideAssumption.getScore() + SEPARATOR);
-        }
-        b.write(0 + SEPARATOR);
-        b.write(0 + SEPARATOR);
-        b.write(peptide.getMass() + SEPARATOR);
-        b.write(peptideAssumption.getIdentificationCharge().value + SEPARATOR);
+        output.append(peptide.getSequence()).append(SEPARATOR);
+        output.append(peptide.getSequence()).append(SEPARATOR);
+        output.append(Peptide.getPeptideModificationsAsString(peptide, true)).append(SEPARATOR);
+        output.append(peptide.getTaggedModifiedSequence(searchParameters.getPtmSettings(), false, false, true, false)).append(SEPARATOR);
+        appendScores(output, peptideAssumption);
+        output.append(0).append(SEPARATOR);
+        output.append(0).append(SEPARATOR);
+        output.append(peptide.getMass()).append(SEPARATOR);
+        output.append(peptideAssumption.getIdentificationCharge().value).append(SEPARATOR);
     }
 
     /**
@@ -446,28 +402,72 @@ public class TextExporter {
      * writing.
      */
     public static void writeTagExportLine(BufferedWriter b, TagAssumption tagAssumption, SearchParameters searchParameters) throws IOException {
+        StringBuilder output = new StringBuilder();
+        appendTagExportLine(output, tagAssumption, searchParameters);
+        b.write(output.toString());
+    }
+
+    /**
+     * Appends the details on the given tag assumption to the given output in
+     * the form of a tag export.
+     *
+     * @param output the output
+     * @param tagAssumption the tag assumption to write
+     * @param searchParameters the search parameters
+     */
+    public static void appendTagExportLine(StringBuilder output, TagAssumption tagAssumption, SearchParameters searchParameters) {
 
         Tag tag = tagAssumption.getTag();
-        b.write(tag.asSequence() + SEPARATOR);
-        b.write(tag.getLongestAminoAcidSequence() + SEPARATOR);
-        b.write(Tag.getTagModificationsAsString(tag) + SEPARATOR);
-        b.write(tag.getTaggedModifiedSequence(searchParameters.getPtmSettings(), false, false, true, false) + SEPARATOR);
-        if (tagAssumption.getAdvocate() == Advocate.pepnovo.getIndex()) {
+        output.append(tag.asSequence()).append(SEPARATOR);
+        output.append(tag.getLongestAminoAcidSequence()).append(SEPARATOR);
+        output.append(Tag.getTagModificationsAsString(tag)).append(SEPARATOR);
+        output.append(tag.getTaggedModifiedSequence(searchParameters.getPtmSettings(), false, false, true, false)).append(SEPARATOR);
+        appendScores(output, tagAssumption);
+        output.append(tag.getNTerminalGap()).append(SEPARATOR);
+        output.append(tag.getCTerminalGap()).append(SEPARATOR);
+        output.append(tag.getMass()).append(SEPARATOR);
+        output.append(tagAssumption.getIdentificationCharge().value).append(SEPARATOR);
+    }
+
+    /**
+     * Appends the score columns of an assumption: PepNovo rank score, PepNovo
+     * score, DirecTag e-value, pNovo+ score and Novor score.
+     *
+     * @param output the output
+     * @param assumption the assumption
+     */
+    private static void appendScores(StringBuilder output, SpectrumIdentificationAssumption assumption) {
+        if (assumption.getAdvocate() == Advocate.pepnovo.getIndex()) {
             PepnovoAssumptionDetails pepnovoAssumptionDetails = new PepnovoAssumptionDetails();
-            pepnovoAssumptionDetails = (PepnovoAssumptionDetails) tagAssumption.getUrParam(pepnovoAssumptionDetails);
-            b.write(pepnovoAssumptionDetails.getRankScore() + SEPARATOR);
-            b.write(tagAssumption.getScore() + SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR);
-        } else if (tagAssumption.getAdvocate() == Advocate.direcTag.getIndex()) {
-            b.write(SEPARATOR + SEPARATOR + tagAssumption.getScore() + SEPARATOR + SEPARATOR + SEPARATOR);
-        } else if (tagAssumption.getAdvocate() == Advocate.pNovo.getIndex()) {
-            b.write(SEPARATOR + SEPARATOR + SEPARATOR + tagAssumption.getScore() + SEPARATOR + SEPARATOR);
-        } else if (tagAssumption.getAdvocate() == Advocate.novor.getIndex()) {
-            b.write(SEPARATOR + SEPARATOR + SEPARATOR + SEPARATOR + tagAssumption.getScore() + SEPARATOR);
+            pepnovoAssumptionDetails = (PepnovoAssumptionDetails) assumption.getUrParam(pepnovoAssumptionDetails);
+            output.append(pepnovoAssumptionDetails.getRankScore()).append(SEPARATOR);
+            output.append(assumption.getScore());
+            appendSeparators(output, 4);
+        } else if (assumption.getAdvocate() == Advocate.direcTag.getIndex()) {
+            appendSeparators(output, 2);
+            output.append(assumption.getScore());
+            appendSeparators(output, 3);
+        } else if (assumption.getAdvocate() == Advocate.pNovo.getIndex()) {
+            appendSeparators(output, 3);
+            output.append(assumption.getScore());
+            appendSeparators(output, 2);
+        } else if (assumption.getAdvocate() == Advocate.novor.getIndex()) {
+            appendSeparators(output, 4);
+            output.append(assumption.getScore());
+            appendSeparators(output, 1);
+        }
+    }
+
+    /**
+     * Appends separators to the given output.
+     *
+     * @param output the output
+     * @param n the number of separators
+     */
+    private static void appendSeparators(StringBuilder output, int n) {
+        for (int i = 0; i < n; i++) {
+            output.append(SEPARATOR);
         }
-        b.write(tag.getNTerminalGap() + SEPARATOR);
-        b.write(tag.getCTerminalGap() + SEPARATOR);
-        b.write(tag.getMass() + SEPARATOR);
-        b.write(tagAssumption.getIdentificationCharge().value + SEPARATOR);
     }
 
     /**
@@ -476,6 +476,10 @@ public class TextExporter {
      * @param destinationFile the destination file
      * @param identification the identification object containing identification
      * details
+     * @param resultStore the result store used to select the matches to
+     * export, null to select them on the matches of the identification
+     * @param snapshot the session snapshot where to read the matches, null to
+     * read them from the identification
      * @param searchParameters the search parameters used for the search
      * @param waitingHandler waiting handler displaying progress to the user and
      * allowing to cancel the process.
@@ -483,6 +487,8 @@ public class TextExporter {
      * @param greaterThan use greater than threshold
      * @param aNumberOfMatches the maximum number of matches to export per
      * spectrum
+     * @param advocates the indexes of the advocates to export, null for all
+     * @param charges the identification charges to export, null for all
      *
      * @throws IOException thrown if an IO exception occurs
      * @throws SQLException thrown if an SQL exception occurs
@@ -491,18 +497,11 @@ public class TextExporter {
      * extracted from a spectrum
      * @throws InterruptedException thrown if the process is interrupted
      */
-    public static void exportBlastPSMs(File destinationFile, Identification identification, SearchParameters searchParameters, WaitingHandler waitingHandler,
-            Double scoreThreshold, boolean greaterThan, Integer aNumberOfMatches) throws IOException, SQLException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
+    public static void exportBlastPSMs(File destinationFile, Identification identification, DeNovoResultStore resultStore, SessionSnapshot snapshot, SearchParameters searchParameters, WaitingHandler waitingHandler,
+            Double scoreThreshold, final boolean greaterThan, Integer aNumberOfMatches,
+            Collection<Integer> advocates, Collection<Integer> charges) throws IOException, SQLException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
 
-        FileWriter f = new FileWriter(destinationFile);
-        double threshold = 0;
-        if (scoreThreshold != null) {
-            threshold = scoreThreshold;
-        }
-        int numberOfMatches = 10;
-        if (aNumberOfMatches != null) {
-            numberOfMatches = aNumberOfMatches;
-        }
+        Writer f = CompressedFileHandler.getWriter(destinationFile);
 
         try {
             BufferedWriter b = new BufferedWriter(f);
@@ -512,86 +511,18 @@ public class TextExporter {
                     waitingHandler.setWaitingText("Exporting Spectra - Writing File. Please Wait...");
                     // reset the progress bar
                     waitingHandler.resetSecondaryProgressCounter();
-                    waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
+                    waitingHandler.setMaxSecondaryProgressCounter(ExportEngine.getNSpectra(identification, snapshot));
                 }
 
-                for (String mgfFile : identification.getSpectrumFiles()) {
-                    for (String spectrumKey : identification.getSpectrumIdentification(mgfFile)) {
-                        if (identification.matchExists(spectrumKey)) {
-
-                            String spectrumDetails = ">";
-                            String spectrumTitle = Spectrum.getSpectrumTitle(spectrumKey);
-                            spectrumDetails += mgfFile + SEPARATOR_2 + spectrumTitle + SEPARATOR_2;
-                            Precursor precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
-                            spectrumDetails += precursor.getMz() + SEPARATOR_2 + precursor.getPossibleChargesAsString() + SEPARATOR_2;
-                            ArrayList<SpectrumIdentificationAssumption> assumptions = new ArrayList<SpectrumIdentificationAssumption>();
-                            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = identification.getAssumptions(spectrumKey);
-
-                            for (int algorithmId : assumptionsMap.keySet()) {
-                                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptionsMap.get(algorithmId);
-                                if (advocateMap != null) {
-                                    ArrayList<Double> scores = new ArrayList<Double>(advocateMap.keySet());
-                                    Collections.sort(scores, Collections.reverseOrder());
-                                    for (Double score : scores) {
-                                        for (SpectrumIdentificationAssumption assumption : advocateMap.get(score)) {
-                                            assumptions.add(assumption);
-                                        }
-                                    }
-                                }
-                            }
-
-                            // export all matches above the score threshold up to the given user selected amount
-                            for (int i = 0; i < assumptions.size() && i < numberOfMatches; i++) {
-
-                                SpectrumIdentificationAssumption assumption = assumptions.get(i);
-
-                                boolean passesThreshold;
-
-                                if (greaterThan) {
-                                    passesThreshold = assumption.getScore() >= threshold;
-                                } else { // less than
-                                    passesThreshold = assumption.getScore() <= threshold;
-                                }
-
-                                if (passesThreshold) {
-                                    b.write(spectrumDetails);
-                                    if (assumption.getAdvocate() == Advocate.pepnovo.getIndex()) {
-                                        PepnovoAssumptionDetails pepnovoAssumptionDetails = new PepnovoAssumptionDetails();
-                                        pepnovoAssumptionDetails = (PepnovoAssumptionDetails) assumption.getUrParam(pepnovoAssumptionDetails);
-                                        b.write(pepnovoAssumptionDetails.getRankScore() + SEPARATOR_2);
-                                    } else {
-                                        b.write(SEPARATOR_2);
-                                    }
-                                    b.write(assumption.getScore() + "");
-                                    b.newLine();
-                                    if (assumption instanceof TagAssumption) {
-                                        TagAssumption tagAssumption = (TagAssumption) assumption;
-                                        b.write(tagAssumption.getTag().getLongestAminoAcidSequence());
-                                    } else if (assumption instanceof PeptideAssumption) {
-                                        PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
-                                        Peptide peptide = peptideAssumption.getPeptide();
-                                        b.write(peptide.getSequence());
-                                    } else {
-                                        throw new UnsupportedOperationException("Export not implemented for assumption of type " + assumption.getClass() + ".");
-                                    }
-
-                                    b.newLine();
-                                }
-                            }
-
-                            if (assumptions.isEmpty()) {
-                                b.newLine(); //This should not happen. Should.
-                            }
-
-                            if (waitingHandler != null) {
-                                waitingHandler.increaseSecondaryProgressCounter();
-                                if (waitingHandler.isRunCanceled()) {
-                                    return;
-                                }
-                            }
-                        }
+                ExportQuery exportQuery = new ExportQuery(scoreThreshold, greaterThan, aNumberOfMatches);
+                exportQuery.setAdvocates(advocates);
+                exportQuery.setCharges(charges);
+                new ExportEngine(Runtime.getRuntime().availableProcessors()).export(b, identification, resultStore, snapshot, exportQuery, new ExportEngine.SpectrumFormatter() {
+                    @Override
+                    public void format(ExportEngine.ExportedSpectrum exportedSpectrum, StringBuilder output) throws Exception {
+                        formatBlastPSMs(exportedSpectrum, output);
                     }
-                }
+                }, false, waitingHandler);
             } finally {
                 b.close();
             }
@@ -600,6 +531,56 @@ public class TextExporter {
         }
     }
 
+    /**
+     * Appends the BLAST-compatible identification results of a spectrum to the
+     * given output.
+     *
+     * @param exportedSpectrum the spectrum to export
+     * @param output the output
+     */
+    private static void formatBlastPSMs(ExportEngine.ExportedSpectrum exportedSpectrum, StringBuilder output) {
+
+        ArrayList<SpectrumIdentificationAssumption> selectedAssumptions = exportedSpectrum.getSelectedAssumptions();
+        if (selectedAssumptions.isEmpty()) {
+            if (!exportedSpectrum.hasCandidates()) {
+                output.append(ExportEngine.NEW_LINE); //This should not happen. Should.
+            }
+            return;
+        }
+
+        Precursor precursor = exportedSpectrum.getPrecursor();
+        String spectrumTitle = Spectrum.getSpectrumTitle(exportedSpectrum.getSpectrumKey());
+        StringBuilder spectrumDetails = new StringBuilder(">");
+        spectrumDetails.append(exportedSpectrum.getSpectrumFile()).append(SEPARATOR_2).append(spectrumTitle).append(SEPARATOR_2);
+        spectrumDetails.append(precursor.getMz()).append(SEPARATOR_2).append(precursor.getPossibleChargesAsString()).append(SEPARATOR_2);
+
+        // export all matches above the score threshold up to the given user selected amount
+        for (SpectrumIdentificationAssumption assumption : selectedAssumptions) {
+            output.append(spectrumDetails);
+            if (assumption.getAdvocate() == Advocate.pepnovo.getIndex()) {
+                PepnovoAssumptionDetails pepnovoAssumptionDetails = new PepnovoAssumptionDetails();
+                pepnovoAssumptionDetails = (PepnovoAssumptionDetails) assumption.getUrParam(pepnovoAssumptionDetails);
+                output.append(pepnovoAssumptionDetails.getRankScore()).append(SEPARATOR_2);
+            } else {
+                output.append(SEPARATOR_2);
+            }
+            output.append(assumption.getScore());
+            output.append(ExportEngine.NEW_LINE);
+            if (assumption instanceof TagAssumption) {
+                TagAssumption tagAssumption = (TagAssumption) assumption;
+                output.append(tagAssumption.getTag().getLongestAminoAcidSequence());
+            } else if (assumption instanceof PeptideAssumption) {
+                PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+                Peptide peptide = peptideAssumption.getPeptide();
+                output.append(peptide.getSequence());
+            } else {
+                throw new UnsupportedOperationException("Export not implemented for assumption of type " + assumption.getClass() + ".");
+            }
+
+            output.append(ExportEngine.NEW_LINE);
+        }
+    }
+
     /**
      * Returns the peptide modifications as a string.
      *
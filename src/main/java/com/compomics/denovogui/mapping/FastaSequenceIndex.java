@@ -0,0 +1,1177 @@
+package com.compomics.denovogui.mapping;
+
+import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Index of the protein sequences of a FASTA file used to map peptide
+ * sequences. The index is saved next to the FASTA file, or in a fallback
+ * folder when the folder of the FASTA file is read only. It is keyed by a
+ * fingerprint of the FASTA file, its size, last modification date and first
+ * and last bytes, and by the sequence matching preferences, and memory mapped
+ * when reused so that it is opened quickly and does not use the heap. The
+ * indexes of previous versions of the FASTA file are deleted when a new index
+ * is written.
+ *
+ * The index contains the concatenated protein sequences and the sorted list of
+ * all positions of the sequences, keyed by the first residues at every
+ * position. Proteins containing ambiguous residues are listed separately and
+ * browsed when the matching preferences allow ambiguous matches.
+ *
+ * The sequences are streamed to disk while the FASTA file is read, and the
+ * keys are sorted by chunks which are then merged, so that writing the index
+ * needs little heap whatever the size of the FASTA file. The index file is
+ * mapped in segments addressed with long offsets. When the indexing fails, the
+ * reason is saved in a file next to the index so that the FASTA file is not
+ * read again in vain in the next sessions.
+ *
+ * @author Marc Vaudel
+ */
+public class FastaSequenceIndex {
+
+    /**
+     * The version of the index file format.
+     */
+    public static final int VERSION = 3;
+    /**
+     * The extension of the index files.
+     */
+    public static final String EXTENSION = ".dgi";
+    /**
+     * The extension added to the name of the index file to record a failed
+     * indexing.
+     */
+    public static final String FAILED_EXTENSION = ".failed";
+    /**
+     * The number of residues in the key of a position.
+     */
+    public static final int KEY_LENGTH = 6;
+    /**
+     * The number of bits used to encode a residue in the key of a position.
+     */
+    private static final int BITS_PER_RESIDUE = 5;
+    /**
+     * The number of bits used to encode the position in a key, the code of the
+     * first residues is in the bits above.
+     */
+    private static final int POSITION_BITS = 33;
+    /**
+     * The maximal number of residues, separators included, which can be
+     * indexed.
+     */
+    public static final long MAX_RESIDUES = 1L << POSITION_BITS;
+    /**
+     * The mask of the position in a key.
+     */
+    private static final long POSITION_MASK = MAX_RESIDUES - 1;
+    /**
+     * The ambiguous residues.
+     */
+    private static final String AMBIGUOUS_RESIDUES = "BJXZ";
+    /**
+     * The number of bytes read at the start and at the end of the FASTA file
+     * for the fingerprint.
+     */
+    private static final int FINGERPRINT_BYTES = 1 << 20;
+    /**
+     * The number of keys sorted at once when writing the index, 128 MB.
+     */
+    private static final int SORT_CHUNK_SIZE = 1 << 24;
+    /**
+     * The number of bits of the size of the segments in which the index file
+     * is mapped.
+     */
+    private static final int SEGMENT_BITS = 30;
+    /**
+     * The size of the segments in which the index file is mapped, 1 GB.
+     */
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    /**
+     * The number of bytes by which consecutive segments overlap so that a
+     * long is always read in a single segment.
+     */
+    private static final int SEGMENT_OVERLAP = 8;
+    /**
+     * The pattern of the end of the index file names: the fingerprint of the
+     * FASTA file and the hash of the key, and the extension of the failed
+     * indexing records.
+     */
+    private static final Pattern INDEX_NAME_PATTERN = Pattern.compile("_[0-9a-f]+_[0-9a-f]+" + Pattern.quote(EXTENSION) + "(" + Pattern.quote(FAILED_EXTENSION) + ")?");
+    /**
+     * The index file.
+     */
+    private File indexFile;
+    /**
+     * The matching type.
+     */
+    private SequenceMatchingPreferences.MatchingType matchingType;
+    /**
+     * The maximal share of X in a match.
+     */
+    private Double limitX;
+    /**
+     * The segments of the mapped index file.
+     */
+    private MappedByteBuffer[] segments;
+    /**
+     * The number of proteins.
+     */
+    private int nProteins;
+    /**
+     * The offset in the index file of the offsets of the accessions in the
+     * accession bytes.
+     */
+    private long accessionOffsetsStart;
+    /**
+     * The offset in the index file of the accessions encoded in UTF-8.
+     */
+    private long accessionsStart;
+    /**
+     * The offset in the index file of the start of every protein in the
+     * residues.
+     */
+    private long proteinStartsStart;
+    /**
+     * The offset in the index file of the residues of all proteins, separated
+     * by zeros.
+     */
+    private long residuesStart;
+    /**
+     * The number of residues, separators included.
+     */
+    private long nResidues;
+    /**
+     * The offset in the index file of the indexes of the proteins containing
+     * ambiguous residues.
+     */
+    private long ambiguousStart;
+    /**
+     * The number of proteins containing ambiguous residues.
+     */
+    private int nAmbiguous;
+    /**
+     * The offset in the index file of the sorted keys of the positions: the
+     * code of the first residues in the upper bits and the position in the
+     * lower bits.
+     */
+    private long keysStart;
+    /**
+     * The number of keys.
+     */
+    private long nKeys;
+
+    /**
+     * Returns the index of the given FASTA file for the given preferences. The
+     * index is loaded from the index file if it exists and created otherwise,
+     * in the fallback folder if the folder of the FASTA file is read only.
+     *
+     * @param fastaFile the FASTA file loaded in the sequence factory
+     * @param fallbackFolder the folder where to save the index if the folder
+     * of the FASTA file is read only
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param waitingHandler a waiting handler
+     *
+     * @return the index, null if the indexing was canceled or failed, now or
+     * in a previous session, in which case it is reported to the waiting
+     * handler
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a protein
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     */
+    public static FastaSequenceIndex getIndex(File fastaFile, File fallbackFolder, SequenceMatchingPreferences sequenceMatchingPreferences, WaitingHandler waitingHandler)
+            throws IOException, ClassNotFoundException, InterruptedException {
+
+        String fingerprint = getFingerprint(fastaFile);
+        String key = getKey(fingerprint, sequenceMatchingPreferences);
+        File indexFile = getIndexFile(fastaFile.getParentFile(), fastaFile, fingerprint, key);
+
+        if (!indexFile.exists()) {
+
+            File fallbackFile = getIndexFile(fallbackFolder, fastaFile, fingerprint, key);
+
+            if (fallbackFile.exists()) {
+                indexFile = fallbackFile;
+            } else {
+
+                // do not read the FASTA file again if this version could not be indexed
+                File failedFile = getFailedFile(indexFile);
+                if (!failedFile.exists()) {
+                    failedFile = getFailedFile(fallbackFile);
+                }
+                if (failedFile.exists()) {
+                    waitingHandler.appendReport(getFailure(failedFile) + " The proteins will be mapped without index. "
+                            + "Delete " + failedFile.getAbsolutePath() + " to index the FASTA file again.", true, true);
+                    return null;
+                }
+
+                if (!isWritable(fastaFile.getParentFile())) {
+                    if (!fallbackFolder.exists() && !fallbackFolder.mkdirs()) {
+                        throw new IOException("Impossible to create the folder " + fallbackFolder.getAbsolutePath() + ".");
+                    }
+                    indexFile = fallbackFile;
+                }
+                failedFile = getFailedFile(indexFile);
+
+                File tempFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+                boolean written = false;
+                try {
+                    written = write(tempFile, failedFile, key, sequenceMatchingPreferences, waitingHandler);
+                } catch (IOException e) {
+                    setFailed(failedFile, "The indexing of " + fastaFile.getName() + " failed: " + e.getMessage());
+                    throw e;
+                } finally {
+                    if (!written) {
+                        tempFile.delete();
+                    }
+                }
+                if (!written) {
+                    return null;
+                }
+                if (!tempFile.renameTo(indexFile)) {
+                    tempFile.delete();
+                    throw new IOException("Impossible to create the index file " + indexFile.getAbsolutePath() + ".");
+                }
+
+                deleteOutdatedIndexes(fastaFile.getParentFile(), fastaFile, fingerprint);
+                deleteOutdatedIndexes(fallbackFolder, fastaFile, fingerprint);
+            }
+        }
+
+        return new FastaSequenceIndex(indexFile, key, sequenceMatchingPreferences);
+    }
+
+    /**
+     * Returns the file where the index of the given FASTA file is saved in the
+     * given folder.
+     *
+     * @param folder the folder of the index
+     * @param fastaFile the FASTA file
+     * @param fingerprint the fingerprint of the FASTA file
+     * @param key the key of the index
+     *
+     * @return the index file
+     */
+    public static File getIndexFile(File folder, File fastaFile, String fingerprint, String key) {
+        return new File(folder, fastaFile.getName() + "_" + fingerprint + "_" + Integer.toHexString(key.hashCode()) + EXTENSION);
+    }
+
+    /**
+     * Returns the file recording that the given index could not be written.
+     *
+     * @param indexFile the index file
+     *
+     * @return the file recording the failed indexing
+     */
+    private static File getFailedFile(File indexFile) {
+        return new File(indexFile.getParentFile(), indexFile.getName() + FAILED_EXTENSION);
+    }
+
+    /**
+     * Records that an index could not be written. Errors are ignored, the
+     * indexing is then attempted again in the next session.
+     *
+     * @param failedFile the file recording the failed indexing
+     * @param reason the reason of the failure
+     */
+    private static void setFailed(File failedFile, String reason) {
+        try {
+            BufferedWriter writer = new BufferedWriter(new FileWriter(failedFile));
+            try {
+                writer.write(reason);
+                writer.newLine();
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            // the indexing will be attempted again
+            failedFile.delete();
+        }
+    }
+
+    /**
+     * Returns the reason of a failed indexing.
+     *
+     * @param failedFile the file recording the failed indexing
+     *
+     * @return the reason of the failure
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private static String getFailure(File failedFile) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(failedFile));
+        try {
+            String reason = reader.readLine();
+            if (reason == null) {
+                return "The indexing of the FASTA file failed.";
+            }
+            return reason;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Deletes the indexes of other versions of the given FASTA file in the
+     * given folder.
+     *
+     * @param folder the folder of the indexes
+     * @param fastaFile the FASTA file
+     * @param fingerprint the fingerprint of the current version of the FASTA
+     * file
+     */
+    private static void deleteOutdatedIndexes(File folder, File fastaFile, String fingerprint) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        String prefix = fastaFile.getName();
+        String currentPrefix = prefix + "_" + fingerprint + "_";
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(prefix) && !name.startsWith(currentPrefix)
+                    && INDEX_NAME_PATTERN.matcher(name.substring(prefix.length())).matches()) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Indicates whether files can be created in the given folder.
+     *
+     * @param folder the folder
+     *
+     * @return true if files can be created in the folder
+     */
+    private static boolean isWritable(File folder) {
+        try {
+            File testFile = File.createTempFile("index", ".tmp", folder);
+            testFile.delete();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the key of an index: the fingerprint of the FASTA file and the
+     * preferences affecting the index.
+     *
+     * @param fingerprint the fingerprint of the FASTA file
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     *
+     * @return the key of the index
+     */
+    private static String getKey(String fingerprint, SequenceMatchingPreferences sequenceMatchingPreferences) {
+        return VERSION + "_" + fingerprint + "_" + sequenceMatchingPreferences.getSequenceMatchingType() + "_" + sequenceMatchingPreferences.getLimitX();
+    }
+
+    /**
+     * Returns the fingerprint of a file: the CRC32 checksum of its size, last
+     * modification date, and first and last bytes. Only these bytes are read
+     * so that the index is found quickly for large files.
+     *
+     * @param file the file
+     *
+     * @return the fingerprint of the file in hexadecimal
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private static String getFingerprint(File file) throws IOException {
+
+        CRC32 crc = new CRC32();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+        try {
+            long length = randomAccessFile.length();
+            ByteBuffer stamp = ByteBuffer.allocate(16);
+            stamp.putLong(length);
+            stamp.putLong(file.lastModified());
+            crc.update(stamp.array());
+
+            byte[] buffer = new byte[(int) Math.min(FINGERPRINT_BYTES, length)];
+            randomAccessFile.readFully(buffer);
+            crc.update(buffer);
+            if (length > FINGERPRINT_BYTES) {
+                randomAccessFile.seek(Math.max(FINGERPRINT_BYTES, length - FINGERPRINT_BYTES));
+                int read = randomAccessFile.read(buffer);
+                if (read > 0) {
+                    crc.update(buffer, 0, read);
+                }
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Normalizes a residue according to the matching type: upper case, and I
+     * replaced by L if indistinguishable amino acids are matched.
+     *
+     * @param residue the residue
+     * @param matchingType the matching type
+     *
+     * @return the normalized residue
+     */
+    private static char normalize(char residue, SequenceMatchingPreferences.MatchingType matchingType) {
+        char result = Character.toUpperCase(residue);
+        if (result == 'I' && matchingType == SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids) {
+            result = 'L';
+        }
+        return result;
+    }
+
+    /**
+     * Returns the code of a residue, 0 for the separator and non letters.
+     *
+     * @param residue the residue
+     *
+     * @return the code of the residue
+     */
+    private static int getCode(int residue) {
+        if (residue < 'A' || residue > 'Z') {
+            return 0;
+        }
+        return residue - 'A' + 1;
+    }
+
+    /**
+     * Writes the index of the FASTA file loaded in the sequence factory. The
+     * sections of the index are first written to temporary files next to the
+     * index file and then concatenated.
+     *
+     * @param indexFile the file where to write the index
+     * @param failedFile the file where to record that the FASTA file is too
+     * large to be indexed
+     * @param key the key of the index
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param waitingHandler a waiting handler
+     *
+     * @return true if the index was written, false if canceled or if the
+     * FASTA file is too large to be indexed
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a protein
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     */
+    private static boolean write(File indexFile, File failedFile, String key, SequenceMatchingPreferences sequenceMatchingPreferences, WaitingHandler waitingHandler)
+            throws IOException, ClassNotFoundException, InterruptedException {
+
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        SequenceMatchingPreferences.MatchingType matchingType = sequenceMatchingPreferences.getSequenceMatchingType();
+        ArrayList<String> proteinAccessions = sequenceFactory.getAccessions();
+        int nProteins = proteinAccessions.size();
+
+        waitingHandler.setWaitingText("Indexing FASTA File. Please Wait...");
+        waitingHandler.resetSecondaryProgressCounter();
+        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+        waitingHandler.setMaxSecondaryProgressCounter(2 * nProteins);
+
+        ArrayList<File> tempFiles = new ArrayList<File>();
+
+        try {
+
+            // stream the accessions and the normalized sequences to the sections of the index
+            File accessionOffsetsFile = createTempFile(indexFile, tempFiles);
+            File accessionsFile = createTempFile(indexFile, tempFiles);
+            File proteinStartsFile = createTempFile(indexFile, tempFiles);
+            File residuesFile = createTempFile(indexFile, tempFiles);
+            File ambiguousFile = createTempFile(indexFile, tempFiles);
+            long accessionsLength = 0;
+            long nResidues = 0;
+            int nAmbiguous = 0;
+
+            DataOutputStream accessionOffsetsStream = getOutputStream(accessionOffsetsFile);
+            DataOutputStream accessionsStream = getOutputStream(accessionsFile);
+            DataOutputStream proteinStartsStream = getOutputStream(proteinStartsFile);
+            DataOutputStream residuesStream = getOutputStream(residuesFile);
+            DataOutputStream ambiguousStream = getOutputStream(ambiguousFile);
+
+            try {
+                for (int i = 0; i < nProteins; i++) {
+                    String accession = proteinAccessions.get(i);
+                    byte[] accessionBytes = accession.getBytes("UTF-8");
+                    accessionOffsetsStream.writeLong(accessionsLength);
+                    accessionsStream.write(accessionBytes);
+                    accessionsLength += accessionBytes.length;
+                    String sequence = sequenceFactory.getProtein(accession).getSequence();
+                    if (nResidues + sequence.length() + 1 > MAX_RESIDUES) {
+                        String reason = "The FASTA file contains more than " + MAX_RESIDUES + " residues and cannot be indexed.";
+                        setFailed(failedFile, reason);
+                        waitingHandler.appendReport(reason + " The proteins will be mapped without index.", true, true);
+                        return false;
+                    }
+                    proteinStartsStream.writeLong(nResidues);
+                    boolean isAmbiguous = false;
+                    for (int j = 0; j < sequence.length(); j++) {
+                        char residue = normalize(sequence.charAt(j), matchingType);
+                        if (AMBIGUOUS_RESIDUES.indexOf(residue) != -1) {
+                            isAmbiguous = true;
+                        }
+                        residuesStream.write(residue);
+                    }
+                    residuesStream.write(0);
+                    nResidues += sequence.length() + 1;
+                    if (isAmbiguous) {
+                        ambiguousStream.writeInt(i);
+                        nAmbiguous++;
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
+                    if (waitingHandler.isRunCanceled()) {
+                        return false;
+                    }
+                }
+                accessionOffsetsStream.writeLong(accessionsLength);
+                proteinStartsStream.writeLong(nResidues);
+            } finally {
+                accessionOffsetsStream.close();
+                accessionsStream.close();
+                proteinStartsStream.close();
+                residuesStream.close();
+                ambiguousStream.close();
+            }
+
+            // key every position by its first residues, the keys are sorted by chunks
+            ArrayList<File> runFiles = new ArrayList<File>();
+            long[] chunk = new long[(int) Math.min(nResidues, SORT_CHUNK_SIZE)];
+            int chunkSize = 0;
+            long nKeys = 0;
+            byte[] window = new byte[KEY_LENGTH];
+            DataInputStream residuesInput = new DataInputStream(new BufferedInputStream(new FileInputStream(residuesFile), 1 << 16));
+
+            try {
+                // the window holds the residues from the position keyed to the last residue read, padded with zeros after the last residue
+                for (long position = 0; position < nResidues + KEY_LENGTH - 1; position++) {
+                    byte residue = position < nResidues ? residuesInput.readByte() : 0;
+                    window[(int) (position % KEY_LENGTH)] = residue;
+                    long keyPosition = position - KEY_LENGTH + 1;
+                    if (keyPosition >= 0 && window[(int) (keyPosition % KEY_LENGTH)] != 0) {
+                        if (chunkSize == chunk.length) {
+                            runFiles.add(writeRun(chunk, chunkSize, indexFile, tempFiles));
+                            chunkSize = 0;
+                        }
+                        chunk[chunkSize++] = (getPositionCode(window, keyPosition) << POSITION_BITS) | keyPosition;
+                        nKeys++;
+                    }
+                    if (residue == 0 && position < nResidues) {
+                        waitingHandler.increaseSecondaryProgressCounter();
+                        if (waitingHandler.isRunCanceled()) {
+                            return false;
+                        }
+                    }
+                }
+            } finally {
+                residuesInput.close();
+            }
+            if (chunkSize > 0) {
+                runFiles.add(writeRun(chunk, chunkSize, indexFile, tempFiles));
+            }
+            chunk = null;
+
+            // concatenate the sections and merge the sorted keys
+            DataOutputStream outputStream = getOutputStream(indexFile);
+            PriorityQueue<KeyRun> queue = new PriorityQueue<KeyRun>(Math.max(1, runFiles.size()), new Comparator<KeyRun>() {
+                @Override
+                public int compare(KeyRun o1, KeyRun o2) {
+                    return Long.compare(o1.getKey(), o2.getKey());
+                }
+            });
+            ArrayList<KeyRun> keyRuns = new ArrayList<KeyRun>(runFiles.size());
+
+            try {
+                outputStream.writeInt(VERSION);
+                outputStream.writeUTF(key);
+                outputStream.writeInt(nProteins);
+                outputStream.writeLong(accessionsLength);
+                outputStream.writeLong(nResidues);
+                outputStream.writeInt(nAmbiguous);
+                outputStream.writeLong(nKeys);
+                append(accessionOffsetsFile, outputStream);
+                append(accessionsFile, outputStream);
+                append(proteinStartsFile, outputStream);
+                append(residuesFile, outputStream);
+                append(ambiguousFile, outputStream);
+                if (waitingHandler.isRunCanceled()) {
+                    return false;
+                }
+
+                for (File runFile : runFiles) {
+                    KeyRun keyRun = new KeyRun(runFile);
+                    keyRuns.add(keyRun);
+                    if (keyRun.next()) {
+                        queue.add(keyRun);
+                    }
+                }
+                long cpt = 0;
+                while (!queue.isEmpty()) {
+                    KeyRun keyRun = queue.poll();
+                    outputStream.writeLong(keyRun.getKey());
+                    if (keyRun.next()) {
+                        queue.add(keyRun);
+                    }
+                    if (++cpt % 1000000 == 0 && waitingHandler.isRunCanceled()) {
+                        return false;
+                    }
+                }
+            } finally {
+                for (KeyRun keyRun : keyRuns) {
+                    keyRun.close();
+                }
+                outputStream.close();
+            }
+
+        } finally {
+            for (File tempFile : tempFiles) {
+                tempFile.delete();
+            }
+        }
+
+        waitingHandler.setSecondaryProgressCounter(2 * nProteins);
+
+        return !waitingHandler.isRunCanceled();
+    }
+
+    /**
+     * Creates a temporary file next to the index file.
+     *
+     * @param indexFile the index file
+     * @param tempFiles the list of temporary files to delete when the index is
+     * written
+     *
+     * @return the temporary file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * creating the file
+     */
+    private static File createTempFile(File indexFile, ArrayList<File> tempFiles) throws IOException {
+        File tempFile = File.createTempFile(indexFile.getName() + "_", ".tmp", indexFile.getParentFile());
+        tempFiles.add(tempFile);
+        return tempFile;
+    }
+
+    /**
+     * Returns a buffered output stream writing to the given file.
+     *
+     * @param file the file
+     *
+     * @return an output stream writing to the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * opening the file
+     */
+    private static DataOutputStream getOutputStream(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    /**
+     * Sorts the first keys of a chunk and writes them to a temporary file.
+     *
+     * @param chunk the chunk of keys
+     * @param chunkSize the number of keys in the chunk
+     * @param indexFile the index file
+     * @param tempFiles the list of temporary files to delete when the index is
+     * written
+     *
+     * @return the file containing the sorted keys
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private static File writeRun(long[] chunk, int chunkSize, File indexFile, ArrayList<File> tempFiles) throws IOException {
+        Arrays.parallelSort(chunk, 0, chunkSize);
+        File runFile = createTempFile(indexFile, tempFiles);
+        DataOutputStream outputStream = getOutputStream(runFile);
+        try {
+            for (int i = 0; i < chunkSize; i++) {
+                outputStream.writeLong(chunk[i]);
+            }
+        } finally {
+            outputStream.close();
+        }
+        return runFile;
+    }
+
+    /**
+     * Appends the content of a file to an output stream.
+     *
+     * @param file the file
+     * @param outputStream the output stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    private static void append(File file, OutputStream outputStream) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Returns the code of the first residues at a given position.
+     *
+     * @param window the residues from the position, indexed by their position
+     * modulo the key length
+     * @param position the position
+     *
+     * @return the code of the first residues at the given position
+     */
+    private static long getPositionCode(byte[] window, long position) {
+        long code = 0;
+        boolean end = false;
+        for (int i = 0; i < KEY_LENGTH; i++) {
+            int residueCode = 0;
+            if (!end) {
+                residueCode = getCode(window[(int) ((position + i) % KEY_LENGTH)]);
+                end = residueCode == 0;
+            }
+            code = (code << BITS_PER_RESIDUE) | residueCode;
+        }
+        return code;
+    }
+
+    /**
+     * Constructor. Memory maps the given index file.
+     *
+     * @param indexFile the index file
+     * @param key the expected key of the index
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private FastaSequenceIndex(File indexFile, String key, SequenceMatchingPreferences sequenceMatchingPreferences) throws IOException {
+
+        this.indexFile = indexFile;
+        matchingType = sequenceMatchingPreferences.getSequenceMatchingType();
+        limitX = sequenceMatchingPreferences.getLimitX();
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r");
+
+        try {
+            int version = randomAccessFile.readInt();
+            String indexKey = randomAccessFile.readUTF();
+            if (version != VERSION || !key.equals(indexKey)) {
+                throw new IOException("The index file " + indexFile.getAbsolutePath() + " does not correspond to the FASTA file.");
+            }
+
+            nProteins = randomAccessFile.readInt();
+            long accessionsLength = randomAccessFile.readLong();
+            nResidues = randomAccessFile.readLong();
+            nAmbiguous = randomAccessFile.readInt();
+            nKeys = randomAccessFile.readLong();
+
+            accessionOffsetsStart = randomAccessFile.getFilePointer();
+            accessionsStart = accessionOffsetsStart + 8L * (nProteins + 1);
+            proteinStartsStart = accessionsStart + accessionsLength;
+            residuesStart = proteinStartsStart + 8L * (nProteins + 1);
+            ambiguousStart = residuesStart + nResidues;
+            keysStart = ambiguousStart + 4L * nAmbiguous;
+
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (keysStart + 8 * nKeys != size) {
+                throw new IOException("The index file " + indexFile.getAbsolutePath() + " is truncated.");
+            }
+
+            // the segments overlap so that every value is read in a single segment
+            segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, size - start));
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Returns the byte at the given offset of the index file.
+     *
+     * @param offset the offset in the index file
+     *
+     * @return the byte at the given offset
+     */
+    private byte getByte(long offset) {
+        return segments[(int) (offset >> SEGMENT_BITS)].get((int) (offset & (SEGMENT_SIZE - 1)));
+    }
+
+    /**
+     * Returns the int at the given offset of the index file.
+     *
+     * @param offset the offset in the index file
+     *
+     * @return the int at the given offset
+     */
+    private int getInt(long offset) {
+        return segments[(int) (offset >> SEGMENT_BITS)].getInt((int) (offset & (SEGMENT_SIZE - 1)));
+    }
+
+    /**
+     * Returns the long at the given offset of the index file.
+     *
+     * @param offset the offset in the index file
+     *
+     * @return the long at the given offset
+     */
+    private long getLong(long offset) {
+        return segments[(int) (offset >> SEGMENT_BITS)].getLong((int) (offset & (SEGMENT_SIZE - 1)));
+    }
+
+    /**
+     * Returns the residue at the given position.
+     *
+     * @param position the position in the residues
+     *
+     * @return the residue
+     */
+    private byte getResidue(long position) {
+        return getByte(residuesStart + position);
+    }
+
+    /**
+     * Returns the start of a protein in the residues.
+     *
+     * @param proteinIndex the index of the protein, the number of proteins for
+     * the end of the last protein
+     *
+     * @return the start of the protein
+     */
+    private long getProteinStart(int proteinIndex) {
+        return getLong(proteinStartsStart + 8L * proteinIndex);
+    }
+
+    /**
+     * Returns the key at the given index.
+     *
+     * @param keyIndex the index of the key
+     *
+     * @return the key
+     */
+    private long getKey(long keyIndex) {
+        return getLong(keysStart + 8 * keyIndex);
+    }
+
+    /**
+     * Returns the mapping of a peptide sequence to the proteins.
+     *
+     * @param sequence the peptide sequence
+     *
+     * @return the protein mapping of the sequence
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * decoding an accession
+     */
+    public ArrayList<PeptideProteinMapping> getProteinMapping(String sequence) throws IOException {
+
+        ArrayList<PeptideProteinMapping> result = new ArrayList<PeptideProteinMapping>();
+        int length = sequence.length();
+        if (length == 0) {
+            return result;
+        }
+
+        byte[] query = new byte[length];
+        for (int i = 0; i < length; i++) {
+            query[i] = (byte) normalize(sequence.charAt(i), matchingType);
+        }
+
+        // the positions of the exact matches share the key range of the first residues of the query
+        int keyLength = Math.min(length, KEY_LENGTH);
+        long prefix = 0;
+        for (int i = 0; i < keyLength; i++) {
+            prefix = (prefix << BITS_PER_RESIDUE) | getCode(query[i]);
+        }
+        int shift = BITS_PER_RESIDUE * (KEY_LENGTH - keyLength);
+        long lowerKey = (prefix << shift) << POSITION_BITS;
+        long upperKey = ((prefix + 1) << shift) << POSITION_BITS;
+
+        for (long i = getFirstKeyIndex(lowerKey); i < nKeys; i++) {
+            long key = getKey(i);
+            if (key >= upperKey) {
+                break;
+            }
+            long position = key & POSITION_MASK;
+            if (matchesExactly(query, position)) {
+                addMapping(result, sequence, position);
+            }
+        }
+
+        // ambiguous residues
+        if (matchingType != SequenceMatchingPreferences.MatchingType.string) {
+            for (int i = 0; i < nAmbiguous; i++) {
+                int proteinIndex = getInt(ambiguousStart + 4L * i);
+                long start = getProteinStart(proteinIndex);
+                long end = getProteinStart(proteinIndex + 1) - 1;
+                for (long position = start; position + length <= end; position++) {
+                    if (matchesAmbiguously(query, position)) {
+                        addMapping(result, sequence, position);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the index of the first key greater or equal to the given key.
+     *
+     * @param key the key
+     *
+     * @return the index of the first key greater or equal to the given key
+     */
+    private long getFirstKeyIndex(long key) {
+        long low = 0;
+        long high = nKeys;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (getKey(middle) < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Indicates whether the query is found at the given position.
+     *
+     * @param query the normalized query
+     * @param position the position in the residues
+     *
+     * @return true if the query is found at the given position
+     */
+    private boolean matchesExactly(byte[] query, long position) {
+        if (position + query.length > nResidues) {
+            return false;
+        }
+        for (int i = 0; i < query.length; i++) {
+            if (getResidue(position + i) != query[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Indicates whether the query matches the given position using at least
+     * one ambiguous residue. Exact matches are excluded as they are found
+     * using the keys.
+     *
+     * @param query the normalized query
+     * @param position the position in the residues
+     *
+     * @return true if the query matches the given position using ambiguous
+     * residues
+     */
+    private boolean matchesAmbiguously(byte[] query, long position) {
+        int nAmbiguousResidues = 0;
+        int nX = 0;
+        for (int i = 0; i < query.length; i++) {
+            char residue = (char) getResidue(position + i);
+            char queryResidue = (char) query[i];
+            if (residue != queryResidue) {
+                if (residue == 'X') {
+                    nX++;
+                } else if (!(residue == 'B' && (queryResidue == 'D' || queryResidue == 'N')
+                        || residue == 'Z' && (queryResidue == 'E' || queryResidue == 'Q')
+                        || residue == 'J' && (queryResidue == 'I' || queryResidue == 'L'))) {
+                    return false;
+                }
+                nAmbiguousResidues++;
+            }
+        }
+        if (limitX != null && nX > limitX * query.length) {
+            return false;
+        }
+        return nAmbiguousResidues > 0;
+    }
+
+    /**
+     * Adds the mapping of the sequence at the given position to a list.
+     *
+     * @param mappings the list of mappings
+     * @param sequence the peptide sequence
+     * @param position the position in the residues
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * decoding an accession
+     */
+    private void addMapping(ArrayList<PeptideProteinMapping> mappings, String sequence, long position) throws IOException {
+        int proteinIndex = getProteinIndex(position);
+        long start = getProteinStart(proteinIndex);
+        mappings.add(new PeptideProteinMapping(getAccession(proteinIndex), sequence, (int) (position - start)));
+    }
+
+    /**
+     * Returns the index of the protein containing the given position.
+     *
+     * @param position the position in the residues
+     *
+     * @return the index of the protein
+     */
+    private int getProteinIndex(long position) {
+        int low = 0;
+        int high = nProteins - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (getProteinStart(middle) <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the accession of a protein.
+     *
+     * @param proteinIndex the index of the protein
+     *
+     * @return the accession of the protein
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * decoding the accession
+     */
+    private String getAccession(int proteinIndex) throws IOException {
+        long start = getLong(accessionOffsetsStart + 8L * proteinIndex);
+        long end = getLong(accessionOffsetsStart + 8L * (proteinIndex + 1));
+        byte[] bytes = new byte[(int) (end - start)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = getByte(accessionsStart + start + i);
+        }
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Returns the number of proteins indexed.
+     *
+     * @return the number of proteins indexed
+     */
+    public int getNProteins() {
+        return nProteins;
+    }
+
+    /**
+     * Returns the index file.
+     *
+     * @return the index file
+     */
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * A file of sorted keys read during the merge of the keys.
+     *
+     * @author Marc Vaudel
+     */
+    private static class KeyRun {
+
+        /**
+         * The stream reading the keys.
+         */
+        private DataInputStream inputStream;
+        /**
+         * The number of keys left to read.
+         */
+        private long remaining;
+        /**
+         * The current key.
+         */
+        private long key;
+
+        /**
+         * Constructor.
+         *
+         * @param runFile the file of sorted keys
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * opening the file
+         */
+        public KeyRun(File runFile) throws IOException {
+            remaining = runFile.length() / 8;
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), 1 << 14));
+        }
+
+        /**
+         * Reads the next key.
+         *
+         * @return true if a key was read, false if all keys were read
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * reading the file
+         */
+        public boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            key = inputStream.readLong();
+            remaining--;
+            return true;
+        }
+
+        /**
+         * Returns the current key.
+         *
+         * @return the current key
+         */
+        public long getKey() {
+            return key;
+        }
+
+        /**
+         * Closes the file.
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * closing the file
+         */
+        public void close() throws IOException {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.compomics.denovogui.mapping;
+
+import com.compomics.util.experiment.biology.AminoAcidPattern;
+import com.compomics.util.experiment.biology.AminoAcidSequence;
+import com.compomics.util.experiment.biology.MassGap;
+import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
+import com.compomics.util.experiment.identification.amino_acid_tags.TagComponent;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Bounded cache of the protein mappings of the de novo queries. The queries
+ * are normalized so that every distinct tag or peptide sequence is mapped only
+ * once, the threads asking for a query being mapped waiting for the result.
+ * The least recently used queries are evicted when the cache is full.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinMappingCache {
+
+    /**
+     * The default maximal number of queries in cache.
+     */
+    public static final int DEFAULT_SIZE = 100000;
+    /**
+     * The estimated heap size of a query in cache: the key, the task and a
+     * few mappings.
+     */
+    public static final int ENTRY_SIZE = 1024;
+    /**
+     * The maximal number of queries in cache.
+     */
+    private final int size;
+    /**
+     * The mappings of the queries in access order.
+     */
+    private final LinkedHashMap<String, FutureTask<ArrayList<PeptideProteinMapping>>> mappings;
+    /**
+     * The number of queries found in cache.
+     */
+    private long nHits = 0;
+    /**
+     * The number of queries not found in cache.
+     */
+    private long nMisses = 0;
+    /**
+     * The number of queries evicted from the cache.
+     */
+    private long nEvictions = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param size the maximal number of queries in cache
+     */
+    public ProteinMappingCache(int size) {
+        this.size = size;
+        mappings = new LinkedHashMap<String, FutureTask<ArrayList<PeptideProteinMapping>>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FutureTask<ArrayList<PeptideProteinMapping>>> eldest) {
+                if (size() > ProteinMappingCache.this.size) {
+                    nEvictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the mapping of the given query, running the query if not in
+     * cache or waiting for the thread already running it.
+     *
+     * @param key the normalized query
+     * @param query the query to run if not in cache
+     *
+     * @return the protein mapping of the query
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the back-end database
+     */
+    public ArrayList<PeptideProteinMapping> getMapping(String key, Callable<ArrayList<PeptideProteinMapping>> query)
+            throws IOException, ClassNotFoundException, InterruptedException, SQLException {
+
+        FutureTask<ArrayList<PeptideProteinMapping>> mapping;
+        boolean newQuery = false;
+
+        synchronized (this) {
+            mapping = mappings.get(key);
+            if (mapping == null) {
+                mapping = new FutureTask<ArrayList<PeptideProteinMapping>>(query);
+                mappings.put(key, mapping);
+                newQuery = true;
+                nMisses++;
+            } else {
+                nHits++;
+            }
+        }
+
+        if (newQuery) {
+            mapping.run();
+        }
+
+        try {
+            return ProteinMappingHandler.getResult(mapping);
+        } catch (IOException e) {
+            remove(key, mapping);
+            throw e;
+        } catch (SQLException e) {
+            remove(key, mapping);
+            throw e;
+        } catch (RuntimeException e) {
+            remove(key, mapping);
+            throw e;
+        }
+    }
+
+    /**
+     * Removes a failed query from the cache.
+     *
+     * @param key the normalized query
+     * @param mapping the mapping of the query
+     */
+    private synchronized void remove(String key, FutureTask<ArrayList<PeptideProteinMapping>> mapping) {
+        if (mappings.get(key) == mapping) {
+            mappings.remove(key);
+        }
+    }
+
+    /**
+     * Returns the normalized query of a tag: the amino acid sequences with
+     * their modifications and the mass gaps.
+     *
+     * @param tag the tag
+     *
+     * @return the normalized query
+     */
+    public static String getTagKey(Tag tag) {
+
+        StringBuilder key = new StringBuilder("T:");
+
+        for (TagComponent tagComponent : tag.getContent()) {
+            if (tagComponent instanceof AminoAcidPattern) {
+                AminoAcidPattern aminoAcidPattern = (AminoAcidPattern) tagComponent;
+                key.append(aminoAcidPattern.asSequence());
+                for (int site = 1; site <= aminoAcidPattern.length(); site++) {
+                    appendModifications(key, site, aminoAcidPattern.getModificationsAt(site));
+                }
+            } else if (tagComponent instanceof AminoAcidSequence) {
+                AminoAcidSequence aminoAcidSequence = (AminoAcidSequence) tagComponent;
+                key.append(aminoAcidSequence.getSequence());
+                for (int site = 1; site <= aminoAcidSequence.length(); site++) {
+                    appendModifications(key, site, aminoAcidSequence.getModificationsAt(site));
+                }
+            } else if (tagComponent instanceof MassGap) {
+                key.append('<').append(tagComponent.getMass()).append('>');
+            } else {
+                throw new UnsupportedOperationException("Mapping not supported for the tag component " + tagComponent.getClass() + ".");
+            }
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Appends the modifications found at a site to a key.
+     *
+     * @param key the key
+     * @param site the site
+     * @param modificationMatches the modifications at this site
+     */
+    private static void appendModifications(StringBuilder key, int site, ArrayList<ModificationMatch> modificationMatches) {
+        for (ModificationMatch modificationMatch : modificationMatches) {
+            key.append('[').append(site).append(':').append(modificationMatch.getTheoreticPtm()).append(']');
+        }
+    }
+
+    /**
+     * Returns the normalized query of a peptide sequence.
+     *
+     * @param sequence the peptide sequence
+     *
+     * @return the normalized query
+     */
+    public static String getSequenceKey(String sequence) {
+        return "P:" + sequence;
+    }
+
+    /**
+     * Returns the number of queries found in cache.
+     *
+     * @return the number of queries found in cache
+     */
+    public synchronized long getnHits() {
+        return nHits;
+    }
+
+    /**
+     * Returns the number of queries not found in cache.
+     *
+     * @return the number of queries not found in cache
+     */
+    public synchronized long getnMisses() {
+        return nMisses;
+    }
+
+    /**
+     * Returns the number of queries evicted from the cache.
+     *
+     * @return the number of queries evicted from the cache
+     */
+    public synchronized long getnEvictions() {
+        return nEvictions;
+    }
+
+    /**
+     * Returns the share of queries found in cache.
+     *
+     * @return the share of queries found in cache
+     */
+    public synchronized double getHitRate() {
+        long total = nHits + nMisses;
+        if (total == 0) {
+            return 0;
+        }
+        return ((double) nHits) / total;
+    }
+
+    /**
+     * Returns the number of queries in cache.
+     *
+     * @return the number of queries in cache
+     */
+    public synchronized int size() {
+        return mappings.size();
+    }
+}
@@ -0,0 +1,613 @@
+package com.compomics.denovogui.mapping;
+
+import com.compomics.denovogui.results.ResultSearchIndex;
+import com.compomics.denovogui.results.SpectrumSummaryIndex;
+import com.compomics.denovogui.util.MemoryGovernor;
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
+import com.compomics.util.experiment.identification.amino_acid_tags.matchers.TagMatcher;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
+import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
+import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
+import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTree;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps the de novo tags and peptides to the proteins of the database. The
+ * spectrum matches are read from the identification by the calling thread and
+ * sent in batches to a pool of threads, each thread using its own tag matcher.
+ * The threads do not modify the assumptions: they return the peptides and
+ * proteins found, which are added to the assumptions and written back to the
+ * identification by the calling thread in the order of reading. The
+ * identification cache, reduced by the calling thread, thus never holds
+ * matches being modified. Every distinct tag or peptide sequence is
+ * mapped once, the mapping being shared by all assumptions with this query.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class ProteinMappingHandler {
+
+    /**
+     * The number of spectra per batch.
+     */
+    public static final int BATCH_SIZE = 100;
+    /**
+     * The estimated heap size of the assumptions of a spectrum in a batch.
+     */
+    public static final int SPECTRUM_ASSUMPTIONS_SIZE = 4096;
+    /**
+     * The name of the mapping as memory consumer in the memory governor.
+     */
+    private static final String MEMORY_CONSUMER = "protein mapping";
+    /**
+     * The factory of the peptide mapper, called the first time a tag needs to
+     * be mapped.
+     */
+    private Callable<PeptideMapper> peptideMapperFactory;
+    /**
+     * The peptide mapper, null until a tag needs to be mapped.
+     */
+    private PeptideMapper peptideMapper = null;
+    /**
+     * Indicates whether the peptide mapper was created.
+     */
+    private boolean peptideMapperCreated = false;
+    /**
+     * The memory used by the peptide mapper, measured when creating it, zero
+     * when the factory returns a mapper created by a previous mapping.
+     */
+    private volatile long peptideMapperSize = 0;
+    /**
+     * The index of the protein sequences used to map the peptide sequences,
+     * null if the peptide mapper should be used.
+     */
+    private FastaSequenceIndex sequenceIndex;
+    /**
+     * The fixed modifications.
+     */
+    private ArrayList<String> fixedModifications;
+    /**
+     * The variable modifications.
+     */
+    private ArrayList<String> variableModifications;
+    /**
+     * The sequence matching preferences.
+     */
+    private SequenceMatchingPreferences sequenceMatchingPreferences;
+    /**
+     * The fragment ion accuracy.
+     */
+    private double fragmentIonAccuracy;
+    /**
+     * The minimal length of the longest amino acid sequence of a tag to be
+     * mapped.
+     */
+    private int minTagLength = 0;
+    /**
+     * The number of threads to use.
+     */
+    private int nThreads;
+    /**
+     * The tag matcher of every thread.
+     */
+    private ThreadLocal<TagMatcher> tagMatchers;
+    /**
+     * The cache of the mappings of the distinct queries.
+     */
+    private ProteinMappingCache mappingCache = new ProteinMappingCache(ProteinMappingCache.DEFAULT_SIZE);
+
+    /**
+     * Constructor.
+     *
+     * @param peptideMapperFactory the factory of the peptide mapper, called
+     * the first time a tag needs to be mapped and returning null if the
+     * peptide mapper cannot be created
+     * @param sequenceIndex the index of the protein sequences used to map the
+     * peptide sequences, null to use the peptide mapper
+     * @param fixedModifications the fixed modifications
+     * @param variableModifications the variable modifications
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param fragmentIonAccuracy the fragment ion accuracy
+     * @param nThreads the number of threads to use
+     */
+    public ProteinMappingHandler(Callable<PeptideMapper> peptideMapperFactory, FastaSequenceIndex sequenceIndex, final ArrayList<String> fixedModifications,
+            final ArrayList<String> variableModifications, final SequenceMatchingPreferences sequenceMatchingPreferences, double fragmentIonAccuracy, int nThreads) {
+        this.peptideMapperFactory = peptideMapperFactory;
+        this.sequenceIndex = sequenceIndex;
+        this.fixedModifications = fixedModifications;
+        this.variableModifications = variableModifications;
+        this.sequenceMatchingPreferences = sequenceMatchingPreferences;
+        this.fragmentIonAccuracy = fragmentIonAccuracy;
+        this.nThreads = nThreads;
+        tagMatchers = new ThreadLocal<TagMatcher>() {
+            @Override
+            protected TagMatcher initialValue() {
+                return new TagMatcher(fixedModifications, variableModifications, sequenceMatchingPreferences);
+            }
+        };
+    }
+
+    /**
+     * Maps the assumptions of the identification to the proteins and updates
+     * the identification. For tags, the peptides found are added to the
+     * assumptions. For peptides, the parent proteins are set.
+     *
+     * @param identification the identification
+     * @param threshold the score threshold
+     * @param greaterThan a boolean indicating whether the score has to be
+     * higher than the threshold
+     * @param numberOfMatches the maximal number of scores to map per spectrum
+     * and algorithm
+     * @param memoryGovernor the memory governor reducing the identification
+     * cache when needed, can be null
+     * @param searchIndex the search index to update with the mapped
+     * assumptions, can be null
+     * @param waitingHandler a waiting handler
+     *
+     * @return a boolean indicating whether a peptide could be mapped
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the back-end database
+     */
+    public boolean mapAssumptions(Identification identification, final double threshold, final boolean greaterThan, final int numberOfMatches, MemoryGovernor memoryGovernor,
+            ResultSearchIndex searchIndex, WaitingHandler waitingHandler)
+            throws IOException, ClassNotFoundException, InterruptedException, SQLException {
+
+        int total = identification.getSpectrumIdentificationSize();
+        int progress = 0;
+        boolean peptideFound = false;
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        LinkedList<Future<ArrayList<AssumptionsMapping>>> pendingFutures = new LinkedList<Future<ArrayList<AssumptionsMapping>>>();
+        LinkedList<ArrayList<String>> pendingKeys = new LinkedList<ArrayList<String>>();
+        LinkedList<ArrayList<HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>>> pendingAssumptions
+                = new LinkedList<ArrayList<HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>>>();
+
+        try {
+            for (String spectrumFile : identification.getOrderedSpectrumFileNames()) {
+
+                PsmIterator psmIterator = identification.getPsmIterator(spectrumFile, true, waitingHandler);
+                SpectrumMatch spectrumMatch;
+                ArrayList<String> batchKeys = new ArrayList<String>(BATCH_SIZE);
+                ArrayList<HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>> batchAssumptions
+                        = new ArrayList<HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>>(BATCH_SIZE);
+
+                while (true) {
+
+                    spectrumMatch = psmIterator.next();
+
+                    if (spectrumMatch != null) {
+                        String spectrumKey = spectrumMatch.getKey();
+                        batchKeys.add(spectrumKey);
+                        batchAssumptions.add(identification.getAssumptions(spectrumKey));
+                    }
+
+                    if (batchKeys.size() == BATCH_SIZE || spectrumMatch == null && !batchKeys.isEmpty()) {
+
+                        final ArrayList<HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>> finalBatch = batchAssumptions;
+                        pendingFutures.add(pool.submit(new Callable<ArrayList<AssumptionsMapping>>() {
+                            @Override
+                            public ArrayList<AssumptionsMapping> call() throws Exception {
+                                ArrayList<AssumptionsMapping> batchMappings = new ArrayList<AssumptionsMapping>(finalBatch.size());
+                                for (HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> allAssumptions : finalBatch) {
+                                    batchMappings.add(mapAssumptions(allAssumptions, threshold, greaterThan, numberOfMatches));
+                                }
+                                return batchMappings;
+                            }
+                        }));
+                        pendingKeys.add(batchKeys);
+                        pendingAssumptions.add(batchAssumptions);
+                        batchKeys = new ArrayList<String>(BATCH_SIZE);
+                        batchAssumptions = new ArrayList<HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>>(BATCH_SIZE);
+                    }
+
+                    // write back the completed batches in order, wait if too many batches are pending
+                    while (!pendingFutures.isEmpty()
+                            && (pendingFutures.getFirst().isDone() || pendingFutures.size() > 2 * nThreads || spectrumMatch == null)) {
+
+                        ArrayList<AssumptionsMapping> doneMappings = getResult(pendingFutures.removeFirst());
+                        ArrayList<String> doneKeys = pendingKeys.removeFirst();
+                        ArrayList<HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>> doneAssumptions = pendingAssumptions.removeFirst();
+
+                        for (int i = 0; i < doneKeys.size(); i++) {
+                            AssumptionsMapping assumptionsMapping = doneMappings.get(i);
+                            assumptionsMapping.apply();
+                            if (assumptionsMapping.isPeptideFound()) {
+                                peptideFound = true;
+                            }
+                            identification.updateAssumptions(doneKeys.get(i), doneAssumptions.get(i));
+                            if (searchIndex != null) {
+                                searchIndex.setMappedAssumptions(doneKeys.get(i), doneAssumptions.get(i));
+                            }
+                            waitingHandler.increaseSecondaryProgressCounter();
+                        }
+
+                        // free memory if needed, the memory used by the mapping itself is not attributed to the identification
+                        if (memoryGovernor != null) {
+                            memoryGovernor.setConsumer(MEMORY_CONSUMER, getMemoryEstimate(pendingKeys.size()));
+                            memoryGovernor.checkIdentificationCache();
+                        }
+
+                        progress += doneKeys.size();
+                        waitingHandler.setWaitingText("Mapping Tags (Step 2 of 2, Spectrum " + progress + " of " + total + "). Please Wait...");
+
+                        if (waitingHandler.isRunCanceled()) {
+                            return false;
+                        }
+                    }
+
+                    if (spectrumMatch == null || waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+                }
+
+                if (waitingHandler.isRunCanceled()) {
+                    return false;
+                }
+            }
+
+            waitingHandler.appendReport("Protein mapping: " + mappingCache.getnMisses() + " distinct queries mapped, "
+                    + Util.roundDouble(100 * mappingCache.getHitRate(), 1) + "% of the queries found in cache ("
+                    + mappingCache.getnEvictions() + " evicted).", true, true);
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+            if (memoryGovernor != null) {
+                memoryGovernor.removeConsumer(MEMORY_CONSUMER);
+            }
+        }
+
+        return peptideFound;
+    }
+
+    /**
+     * Returns the estimated memory used by the mapping: the peptide mapper,
+     * the mapping cache and the pending batches.
+     *
+     * @param nPendingBatches the number of batches pending
+     *
+     * @return the estimated memory used by the mapping in bytes
+     */
+    private long getMemoryEstimate(int nPendingBatches) {
+        return peptideMapperSize + (long) ProteinMappingCache.ENTRY_SIZE * mappingCache.size()
+                + (long) SPECTRUM_ASSUMPTIONS_SIZE * BATCH_SIZE * nPendingBatches;
+    }
+
+    /**
+     * Maps the assumptions of a spectrum to the proteins. The assumptions are
+     * not modified, the peptides and proteins found are returned to be added
+     * by the calling thread.
+     *
+     * @param allAssumptions the assumptions of the spectrum
+     * @param threshold the score threshold
+     * @param greaterThan a boolean indicating whether the score has to be
+     * higher than the threshold
+     * @param numberOfMatches the maximal number of scores to map per algorithm
+     *
+     * @return the peptides and proteins found for the assumptions
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the back-end database
+     */
+    private AssumptionsMapping mapAssumptions(HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> allAssumptions, double threshold,
+            boolean greaterThan, int numberOfMatches) throws IOException, ClassNotFoundException, InterruptedException, SQLException {
+
+        AssumptionsMapping assumptionsMapping = new AssumptionsMapping();
+        TagMatcher tagMatcher = tagMatchers.get();
+
+        for (Advocate advocate : SpectrumSummaryIndex.ADVOCATES) {
+
+            int advocateIndex = advocate.getIndex();
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> assumptionsMap = allAssumptions.get(advocateIndex);
+
+            if (assumptionsMap != null) {
+                ArrayList<Double> scores = new ArrayList<Double>(assumptionsMap.keySet());
+                if (SpectrumSummaryIndex.isHigherBetter(advocate)) {
+                    Collections.sort(scores, Collections.reverseOrder());
+                } else {
+                    Collections.sort(scores);
+                }
+
+                for (int i = 0; i < scores.size() && i < numberOfMatches; i++) {
+
+                    double score = scores.get(i);
+                    ArrayList<SpectrumIdentificationAssumption> tempAssumptions = assumptionsMap.get(score);
+                    ArrayList<SpectrumIdentificationAssumption> denovoAssumptions = new ArrayList<SpectrumIdentificationAssumption>(tempAssumptions);
+
+                    for (SpectrumIdentificationAssumption assumption : denovoAssumptions) {
+
+                        boolean passesThreshold;
+
+                        if (greaterThan) {
+                            passesThreshold = assumption.getScore() >= threshold;
+                        } else { // less than
+                            passesThreshold = assumption.getScore() <= threshold;
+                        }
+
+                        if (passesThreshold) {
+                            if (assumption instanceof TagAssumption) {
+                                TagAssumption tagAssumption = (TagAssumption) assumption;
+                                int longestAminoAcidSequence = tagAssumption.getTag().getLongestAminoAcidSequence().length();
+                                if (getPeptideMapper() != null && longestAminoAcidSequence >= minTagLength) {
+                                    ArrayList<PeptideProteinMapping> proteinMapping = getMapping(tagAssumption.getTag(), tagMatcher);
+                                    for (Peptide peptide : PeptideProteinMapping.getPeptides(proteinMapping, sequenceMatchingPreferences)) {
+                                        PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, tagAssumption.getRank(),
+                                                advocateIndex, assumption.getIdentificationCharge(), score, assumption.getIdentificationFile());
+                                        peptideAssumption.addUrParam(tagAssumption);
+                                        assumptionsMapping.addTagPeptide(tempAssumptions, peptideAssumption);
+                                    }
+                                }
+                            } else if (assumption instanceof PeptideAssumption) {
+                                PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+                                ArrayList<PeptideProteinMapping> proteinMapping = getMapping(peptideAssumption.getPeptide().getSequence());
+                                HashSet<String> proteins = new HashSet<String>(proteinMapping.size());
+                                for (PeptideProteinMapping peptideProteinMapping : proteinMapping) {
+                                    proteins.add(peptideProteinMapping.getProteinAccession());
+                                }
+                                ArrayList<String> sortedProteinList = new ArrayList<String>(proteins);
+                                Collections.sort(sortedProteinList);
+                                assumptionsMapping.addParentProteins(peptideAssumption.getPeptide(), sortedProteinList);
+                            } else {
+                                throw new UnsupportedOperationException("Peptide mapping not supported for assumption of type " + assumption.getClass() + ".");
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return assumptionsMapping;
+    }
+
+    /**
+     * Returns the protein mapping of a tag from the cache.
+     *
+     * @param tag the tag
+     * @param tagMatcher the tag matcher of the current thread
+     *
+     * @return the protein mapping of the tag
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the back-end database
+     */
+    private ArrayList<PeptideProteinMapping> getMapping(final Tag tag, final TagMatcher tagMatcher)
+            throws IOException, ClassNotFoundException, InterruptedException, SQLException {
+        return mappingCache.getMapping(ProteinMappingCache.getTagKey(tag), new Callable<ArrayList<PeptideProteinMapping>>() {
+            @Override
+            public ArrayList<PeptideProteinMapping> call() throws Exception {
+                return getPeptideMapper().getProteinMapping(tag, tagMatcher, sequenceMatchingPreferences, fragmentIonAccuracy);
+            }
+        });
+    }
+
+    /**
+     * Returns the protein mapping of a peptide sequence from the cache.
+     *
+     * @param sequence the peptide sequence
+     *
+     * @return the protein mapping of the peptide sequence
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the back-end database
+     */
+    private ArrayList<PeptideProteinMapping> getMapping(final String sequence)
+            throws IOException, ClassNotFoundException, InterruptedException, SQLException {
+        return mappingCache.getMapping(ProteinMappingCache.getSequenceKey(sequence), new Callable<ArrayList<PeptideProteinMapping>>() {
+            @Override
+            public ArrayList<PeptideProteinMapping> call() throws Exception {
+                if (sequenceIndex != null) {
+                    return sequenceIndex.getProteinMapping(sequence);
+                }
+                PeptideMapper peptideMapper = getPeptideMapper();
+                if (peptideMapper == null) {
+                    return new ArrayList<PeptideProteinMapping>(0);
+                }
+                return peptideMapper.getProteinMapping(sequence, sequenceMatchingPreferences);
+            }
+        });
+    }
+
+    /**
+     * Returns the peptide mapper, creating it the first time it is needed.
+     *
+     * @return the peptide mapper, null if it could not be created
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the back-end database
+     */
+    private synchronized PeptideMapper getPeptideMapper() throws IOException, ClassNotFoundException, InterruptedException, SQLException {
+        if (!peptideMapperCreated) {
+            peptideMapperCreated = true;
+            long usedBefore = MemoryGovernor.getUsedMemory();
+            try {
+                peptideMapper = peptideMapperFactory.call();
+                peptideMapperSize = Math.max(0, MemoryGovernor.getUsedMemory() - usedBefore);
+            } catch (IOException e) {
+                throw e;
+            } catch (ClassNotFoundException e) {
+                throw e;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (SQLException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            if (peptideMapper instanceof ProteinTree) {
+                minTagLength = ((ProteinTree) peptideMapper).getInitialTagSize();
+            }
+        }
+        return peptideMapper;
+    }
+
+    /**
+     * Returns the cache of the mappings of the distinct queries.
+     *
+     * @return the mapping cache
+     */
+    public ProteinMappingCache getMappingCache() {
+        return mappingCache;
+    }
+
+    /**
+     * Waits for the result of a task and rethrows the exception thrown by the
+     * task if any.
+     *
+     * @param <T> the type of result
+     * @param future the future of the task
+     *
+     * @return the result of the task
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the back-end database
+     */
+    static <T> T getResult(Future<T> future) throws IOException, ClassNotFoundException, InterruptedException, SQLException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * The peptides and proteins found when mapping the assumptions of a
+     * spectrum. They are added to the assumptions by the calling thread.
+     */
+    private static class AssumptionsMapping {
+
+        /**
+         * The lists of assumptions where to add the peptides found for the
+         * tags.
+         */
+        private final ArrayList<ArrayList<SpectrumIdentificationAssumption>> targetLists = new ArrayList<ArrayList<SpectrumIdentificationAssumption>>(0);
+        /**
+         * The peptides found for the tags in the order of the target lists.
+         */
+        private final ArrayList<PeptideAssumption> tagPeptides = new ArrayList<PeptideAssumption>(0);
+        /**
+         * The de novo peptides mapped to the proteins.
+         */
+        private final ArrayList<Peptide> peptides = new ArrayList<Peptide>(0);
+        /**
+         * The parent proteins in the order of the peptides.
+         */
+        private final ArrayList<ArrayList<String>> parentProteins = new ArrayList<ArrayList<String>>(0);
+
+        /**
+         * Adds a peptide found for a tag.
+         *
+         * @param targetList the list of assumptions where to add the peptide
+         * @param peptideAssumption the peptide found
+         */
+        public void addTagPeptide(ArrayList<SpectrumIdentificationAssumption> targetList, PeptideAssumption peptideAssumption) {
+            targetLists.add(targetList);
+            tagPeptides.add(peptideAssumption);
+        }
+
+        /**
+         * Adds the parent proteins of a de novo peptide.
+         *
+         * @param peptide the peptide
+         * @param proteins the sorted accessions of the parent proteins
+         */
+        public void addParentProteins(Peptide peptide, ArrayList<String> proteins) {
+            peptides.add(peptide);
+            parentProteins.add(proteins);
+        }
+
+        /**
+         * Indicates whether a peptide was found.
+         *
+         * @return a boolean indicating whether a peptide was found
+         */
+        public boolean isPeptideFound() {
+            return !tagPeptides.isEmpty() || !peptides.isEmpty();
+        }
+
+        /**
+         * Adds the peptides and proteins found to the assumptions.
+         */
+        public void apply() {
+            for (int i = 0; i < tagPeptides.size(); i++) {
+                targetLists.get(i).add(tagPeptides.get(i));
+            }
+            for (int i = 0; i < peptides.size(); i++) {
+                peptides.get(i).setParentProteins(parentProteins.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,720 @@
+package com.compomics.denovogui.results;
+
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Columnar store of the de novo assumptions. Every assumption is stored as one
+ * row of primitive columns (spectrum index, advocate, rank, score, charge and
+ * m/z), the sequences and tags being interned in dictionaries. The rows of a
+ * spectrum are chained so that they can be browsed without going through the
+ * identification database. The columns can be spilled to a memory mapped file
+ * to free the heap once the import is complete.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class DeNovoResultStore {
+
+    /**
+     * The initial capacity of the columns.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * The number of int columns.
+     */
+    static final int N_INT_COLUMNS = 7;
+    /**
+     * The number of double columns.
+     */
+    static final int N_DOUBLE_COLUMNS = 2;
+    /**
+     * The number of rows in the store.
+     */
+    private int size = 0;
+    /**
+     * The capacity of the columns.
+     */
+    private int capacity = 0;
+    /**
+     * The spectrum index column.
+     */
+    private IntBuffer spectrumIndexColumn;
+    /**
+     * The advocate column.
+     */
+    private IntBuffer advocateColumn;
+    /**
+     * The rank column.
+     */
+    private IntBuffer rankColumn;
+    /**
+     * The charge column.
+     */
+    private IntBuffer chargeColumn;
+    /**
+     * The sequence id column.
+     */
+    private IntBuffer sequenceColumn;
+    /**
+     * The tag id column, -1 for peptides.
+     */
+    private IntBuffer tagColumn;
+    /**
+     * The index of the next row of the same spectrum, -1 for the last row.
+     */
+    private IntBuffer nextRowColumn;
+    /**
+     * The score column.
+     */
+    private DoubleBuffer scoreColumn;
+    /**
+     * The m/z column.
+     */
+    private DoubleBuffer mzColumn;
+    /**
+     * The spectrum keys indexed by spectrum index.
+     */
+    private ArrayList<String> spectrumKeys = new ArrayList<String>();
+    /**
+     * Spectrum key to spectrum index map.
+     */
+    private HashMap<String, Integer> spectrumIndexes = new HashMap<String, Integer>();
+    /**
+     * The first row of every spectrum.
+     */
+    private int[] firstRows = new int[INITIAL_CAPACITY];
+    /**
+     * The last row of every spectrum.
+     */
+    private int[] lastRows = new int[INITIAL_CAPACITY];
+    /**
+     * The interned sequences.
+     */
+    private ArrayList<String> sequences = new ArrayList<String>();
+    /**
+     * Sequence to sequence id map.
+     */
+    private HashMap<String, Integer> sequenceIds = new HashMap<String, Integer>();
+    /**
+     * The interned tags.
+     */
+    private ArrayList<String> tags = new ArrayList<String>();
+    /**
+     * Tag to tag id map.
+     */
+    private HashMap<String, Integer> tagIds = new HashMap<String, Integer>();
+    /**
+     * The total number of characters of the strings in the dictionaries.
+     */
+    private long nDictionaryChars = 0;
+    /**
+     * The estimated heap size of a dictionary entry without its characters.
+     */
+    private static final int DICTIONARY_ENTRY_SIZE = 96;
+    /**
+     * The file the columns were spilled to, null if in memory.
+     */
+    private File spillFile = null;
+    /**
+     * The random access file backing the mapped columns.
+     */
+    private RandomAccessFile spillRandomAccessFile = null;
+    /**
+     * True if the columns are read only views of a session snapshot.
+     */
+    private boolean snapshot = false;
+
+    /**
+     * Constructor.
+     */
+    public DeNovoResultStore() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructor for a store backed by the columns of a session snapshot.
+     * The store is read only.
+     *
+     * @param size the number of rows
+     * @param intColumns the int columns in the order of the spill file
+     * @param doubleColumns the double columns in the order of the spill file
+     * @param spectrumKeys the spectrum keys indexed by spectrum index
+     * @param firstRows the first row of every spectrum
+     * @param sequences the interned sequences
+     * @param tags the interned tags
+     */
+    DeNovoResultStore(int size, IntBuffer[] intColumns, DoubleBuffer[] doubleColumns, ArrayList<String> spectrumKeys, int[] firstRows,
+            ArrayList<String> sequences, ArrayList<String> tags) {
+
+        this.size = size;
+        capacity = size;
+        spectrumIndexColumn = intColumns[0];
+        advocateColumn = intColumns[1];
+        rankColumn = intColumns[2];
+        chargeColumn = intColumns[3];
+        sequenceColumn = intColumns[4];
+        tagColumn = intColumns[5];
+        nextRowColumn = intColumns[6];
+        scoreColumn = doubleColumns[0];
+        mzColumn = doubleColumns[1];
+
+        this.spectrumKeys = spectrumKeys;
+        spectrumIndexes = getIds(spectrumKeys);
+        this.firstRows = firstRows;
+        lastRows = new int[0];
+        this.sequences = sequences;
+        sequenceIds = getIds(sequences);
+        this.tags = tags;
+        tagIds = getIds(tags);
+
+        for (String value : spectrumKeys) {
+            nDictionaryChars += value.length();
+        }
+        for (String value : sequences) {
+            nDictionaryChars += value.length();
+        }
+        for (String value : tags) {
+            nDictionaryChars += value.length();
+        }
+
+        snapshot = true;
+    }
+
+    /**
+     * Returns the map of the given values to their index.
+     *
+     * @param values the values
+     *
+     * @return the map of the values to their index
+     */
+    private static HashMap<String, Integer> getIds(ArrayList<String> values) {
+        HashMap<String, Integer> ids = new HashMap<String, Integer>(2 * values.size());
+        for (int i = 0; i < values.size(); i++) {
+            ids.put(values.get(i), i);
+        }
+        return ids;
+    }
+
+    /**
+     * Adds an assumption to the store.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @param assumption the assumption to add
+     *
+     * @return the row of the assumption
+     */
+    public synchronized int addAssumption(String spectrumKey, SpectrumIdentificationAssumption assumption) {
+
+        if (spillFile != null) {
+            throw new IllegalStateException("Results cannot be added after spilling the store to " + spillFile.getAbsolutePath() + ".");
+        }
+        if (snapshot) {
+            throw new IllegalStateException("Results cannot be added to a store loaded from a session snapshot.");
+        }
+
+        String sequence;
+        String tagSequence;
+        double mz;
+
+        if (assumption instanceof TagAssumption) {
+            TagAssumption tagAssumption = (TagAssumption) assumption;
+            Tag tag = tagAssumption.getTag();
+            sequence = tag.getLongestAminoAcidSequence();
+            tagSequence = tag.asSequence();
+            mz = tagAssumption.getTheoreticMz(true, true);
+        } else if (assumption instanceof PeptideAssumption) {
+            PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+            sequence = peptideAssumption.getPeptide().getSequence();
+            tagSequence = null;
+            mz = peptideAssumption.getTheoreticMz();
+        } else {
+            throw new UnsupportedOperationException("Operation not supported for assumption of type " + assumption.getClass() + ".");
+        }
+
+        if (size == capacity) {
+            allocate(2 * capacity);
+        }
+
+        int spectrumIndex = getOrAddSpectrum(spectrumKey);
+        int row = size;
+
+        spectrumIndexColumn.put(row, spectrumIndex);
+        advocateColumn.put(row, assumption.getAdvocate());
+        rankColumn.put(row, assumption.getRank());
+        chargeColumn.put(row, assumption.getIdentificationCharge().value);
+        sequenceColumn.put(row, intern(sequence, sequences, sequenceIds));
+        tagColumn.put(row, tagSequence == null ? -1 : intern(tagSequence, tags, tagIds));
+        nextRowColumn.put(row, -1);
+        scoreColumn.put(row, assumption.getScore());
+        mzColumn.put(row, mz);
+
+        if (firstRows[spectrumIndex] == -1) {
+            firstRows[spectrumIndex] = row;
+        } else {
+            nextRowColumn.put(lastRows[spectrumIndex], row);
+        }
+        lastRows[spectrumIndex] = row;
+
+        size++;
+
+        return row;
+    }
+
+    /**
+     * Returns the index of the given spectrum, adds it if not already present.
+     *
+     * @param spectrumKey the spectrum key
+     *
+     * @return the index of the spectrum
+     */
+    private int getOrAddSpectrum(String spectrumKey) {
+        Integer index = spectrumIndexes.get(spectrumKey);
+        if (index == null) {
+            index = spectrumKeys.size();
+            spectrumKeys.add(spectrumKey);
+            spectrumIndexes.put(spectrumKey, index);
+            nDictionaryChars += spectrumKey.length();
+            if (index == firstRows.length) {
+                int[] newFirstRows = new int[2 * firstRows.length];
+                System.arraycopy(firstRows, 0, newFirstRows, 0, firstRows.length);
+                firstRows = newFirstRows;
+                int[] newLastRows = new int[2 * lastRows.length];
+                System.arraycopy(lastRows, 0, newLastRows, 0, lastRows.length);
+                lastRows = newLastRows;
+            }
+            firstRows[index] = -1;
+            lastRows[index] = -1;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the id of the given string in a dictionary, adds it if not
+     * already present.
+     *
+     * @param value the string to intern
+     * @param values the values of the dictionary
+     * @param ids the ids of the dictionary
+     *
+     * @return the id of the string
+     */
+    private int intern(String value, ArrayList<String> values, HashMap<String, Integer> ids) {
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = values.size();
+            values.add(value);
+            ids.put(value, id);
+            nDictionaryChars += value.length();
+        }
+        return id;
+    }
+
+    /**
+     * Allocates heap columns of the given capacity and copies the current
+     * content.
+     *
+     * @param newCapacity the new capacity
+     */
+    private void allocate(int newCapacity) {
+        spectrumIndexColumn = grow(spectrumIndexColumn, newCapacity);
+        advocateColumn = grow(advocateColumn, newCapacity);
+        rankColumn = grow(rankColumn, newCapacity);
+        chargeColumn = grow(chargeColumn, newCapacity);
+        sequenceColumn = grow(sequenceColumn, newCapacity);
+        tagColumn = grow(tagColumn, newCapacity);
+        nextRowColumn = grow(nextRowColumn, newCapacity);
+        scoreColumn = grow(scoreColumn, newCapacity);
+        mzColumn = grow(mzColumn, newCapacity);
+        capacity = newCapacity;
+    }
+
+    /**
+     * Returns a heap int column of the given capacity containing the rows of
+     * the given column.
+     *
+     * @param column the column to copy, can be null
+     * @param newCapacity the capacity of the new column
+     *
+     * @return the new column
+     */
+    private IntBuffer grow(IntBuffer column, int newCapacity) {
+        int[] newArray = new int[newCapacity];
+        if (column != null) {
+            System.arraycopy(column.array(), 0, newArray, 0, size);
+        }
+        return IntBuffer.wrap(newArray);
+    }
+
+    /**
+     * Returns a heap double column of the given capacity containing the rows
+     * of the given column.
+     *
+     * @param column the column to copy, can be null
+     * @param newCapacity the capacity of the new column
+     *
+     * @return the new column
+     */
+    private DoubleBuffer grow(DoubleBuffer column, int newCapacity) {
+        double[] newArray = new double[newCapacity];
+        if (column != null) {
+            System.arraycopy(column.array(), 0, newArray, 0, size);
+        }
+        return DoubleBuffer.wrap(newArray);
+    }
+
+    /**
+     * Writes the columns to the given file and replaces the heap columns by
+     * read only memory mapped views of this file. The store cannot be
+     * completed after spilling. The file is deleted upon closing the store.
+     *
+     * @param file the file where to spill the columns
+     *
+     * @throws IOException thrown if an error occurs while writing or mapping
+     * the file
+     */
+    public synchronized void spill(File file) throws IOException {
+
+        if (spillFile != null || snapshot) {
+            return;
+        }
+
+        long intBytes = 4L * size;
+        long doubleBytes = 8L * size;
+        long fileLength = N_INT_COLUMNS * intBytes + N_DOUBLE_COLUMNS * doubleBytes;
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            randomAccessFile.setLength(fileLength);
+
+            IntBuffer[] intColumns = {spectrumIndexColumn, advocateColumn, rankColumn, chargeColumn, sequenceColumn, tagColumn, nextRowColumn};
+            DoubleBuffer[] doubleColumns = {scoreColumn, mzColumn};
+            IntBuffer[] mappedIntColumns = new IntBuffer[N_INT_COLUMNS];
+            DoubleBuffer[] mappedDoubleColumns = new DoubleBuffer[N_DOUBLE_COLUMNS];
+
+            // every column is mapped separately as the file can exceed the 2 GB limit of a single mapping
+            long offset = 0;
+            for (int i = 0; i < N_INT_COLUMNS; i++) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset, intBytes);
+                IntBuffer mappedColumn = buffer.asIntBuffer();
+                mappedColumn.put(intColumns[i].array(), 0, size);
+                buffer.force();
+                mappedIntColumns[i] = buffer.asIntBuffer().asReadOnlyBuffer();
+                offset += intBytes;
+            }
+            for (int i = 0; i < N_DOUBLE_COLUMNS; i++) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset, doubleBytes);
+                DoubleBuffer mappedColumn = buffer.asDoubleBuffer();
+                mappedColumn.put(doubleColumns[i].array(), 0, size);
+                buffer.force();
+                mappedDoubleColumns[i] = buffer.asDoubleBuffer().asReadOnlyBuffer();
+                offset += doubleBytes;
+            }
+
+            spectrumIndexColumn = mappedIntColumns[0];
+            advocateColumn = mappedIntColumns[1];
+            rankColumn = mappedIntColumns[2];
+            chargeColumn = mappedIntColumns[3];
+            sequenceColumn = mappedIntColumns[4];
+            tagColumn = mappedIntColumns[5];
+            nextRowColumn = mappedIntColumns[6];
+            scoreColumn = mappedDoubleColumns[0];
+            mzColumn = mappedDoubleColumns[1];
+            capacity = size;
+
+            spillFile = file;
+            spillRandomAccessFile = randomAccessFile;
+        } finally {
+            if (spillFile == null) {
+                randomAccessFile.close();
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the columns were spilled to a memory mapped file.
+     *
+     * @return a boolean indicating whether the columns were spilled to a
+     * memory mapped file
+     */
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * Indicates whether the columns are read only views of a session
+     * snapshot.
+     *
+     * @return a boolean indicating whether the columns are read only views of
+     * a session snapshot
+     */
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the estimated size of the store on the heap in bytes. The
+     * columns are not counted once spilled.
+     *
+     * @return the estimated size of the store on the heap
+     */
+    public synchronized long getHeapSize() {
+        long heapSize = 2l * nDictionaryChars
+                + (long) DICTIONARY_ENTRY_SIZE * (spectrumKeys.size() + sequences.size() + tags.size())
+                + 4l * (firstRows.length + lastRows.length);
+        if (spillFile == null && !snapshot) {
+            heapSize += (long) capacity * (4 * N_INT_COLUMNS + 8 * N_DOUBLE_COLUMNS);
+        }
+        return heapSize;
+    }
+
+    /**
+     * Closes the store and deletes the spill file if any.
+     *
+     * @throws IOException thrown if an error occurs while closing the spill
+     * file
+     */
+    public synchronized void close() throws IOException {
+        if (spillRandomAccessFile != null) {
+            spillRandomAccessFile.close();
+            spillRandomAccessFile = null;
+        }
+        if (spillFile != null) {
+            spillFile.delete();
+        }
+    }
+
+    /**
+     * Returns the number of rows in the store.
+     *
+     * @return the number of rows in the store
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of spectra in the store.
+     *
+     * @return the number of spectra in the store
+     */
+    public int getNSpectra() {
+        return spectrumKeys.size();
+    }
+
+    /**
+     * Returns the index of the given spectrum, -1 if not found.
+     *
+     * @param spectrumKey the spectrum key
+     *
+     * @return the index of the given spectrum
+     */
+    public int getSpectrumIndex(String spectrumKey) {
+        Integer index = spectrumIndexes.get(spectrumKey);
+        if (index == null) {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the key of the spectrum at the given index.
+     *
+     * @param spectrumIndex the spectrum index
+     *
+     * @return the key of the spectrum
+     */
+    public String getSpectrumKey(int spectrumIndex) {
+        return spectrumKeys.get(spectrumIndex);
+    }
+
+    /**
+     * Returns the first row of the given spectrum, -1 if none.
+     *
+     * @param spectrumIndex the spectrum index
+     *
+     * @return the first row of the given spectrum
+     */
+    public int getFirstRow(int spectrumIndex) {
+        return firstRows[spectrumIndex];
+    }
+
+    /**
+     * Returns the next row of the same spectrum, -1 if none.
+     *
+     * @param row the row
+     *
+     * @return the next row of the same spectrum
+     */
+    public int getNextRow(int row) {
+        return nextRowColumn.get(row);
+    }
+
+    /**
+     * Returns the spectrum index of the given row.
+     *
+     * @param row the row
+     *
+     * @return the spectrum index
+     */
+    public int getSpectrumIndexAt(int row) {
+        return spectrumIndexColumn.get(row);
+    }
+
+    /**
+     * Returns the advocate index of the given row.
+     *
+     * @param row the row
+     *
+     * @return the advocate index
+     */
+    public int getAdvocate(int row) {
+        return advocateColumn.get(row);
+    }
+
+    /**
+     * Returns the rank of the given row.
+     *
+     * @param row the row
+     *
+     * @return the rank
+     */
+    public int getRank(int row) {
+        return rankColumn.get(row);
+    }
+
+    /**
+     * Returns the score of the given row.
+     *
+     * @param row the row
+     *
+     * @return the score
+     */
+    public double getScore(int row) {
+        return scoreColumn.get(row);
+    }
+
+    /**
+     * Returns the identification charge of the given row.
+     *
+     * @param row the row
+     *
+     * @return the identification charge
+     */
+    public int getCharge(int row) {
+        return chargeColumn.get(row);
+    }
+
+    /**
+     * Returns the theoretic m/z of the given row.
+     *
+     * @param row the row
+     *
+     * @return the theoretic m/z
+     */
+    public double getMz(int row) {
+        return mzColumn.get(row);
+    }
+
+    /**
+     * Returns the id of the sequence of the given row.
+     *
+     * @param row the row
+     *
+     * @return the id of the sequence
+     */
+    public int getSequenceId(int row) {
+        return sequenceColumn.get(row);
+    }
+
+    /**
+     * Returns the sequence of the given row, i.e. the peptide sequence or the
+     * longest amino acid sequence of the tag.
+     *
+     * @param row the row
+     *
+     * @return the sequence
+     */
+    public String getSequence(int row) {
+        return sequences.get(sequenceColumn.get(row));
+    }
+
+    /**
+     * Returns the id of the tag of the given row, -1 for peptides.
+     *
+     * @param row the row
+     *
+     * @return the id of the tag
+     */
+    public int getTagId(int row) {
+        return tagColumn.get(row);
+    }
+
+    /**
+     * Returns the tag of the given row as sequence, null for peptides.
+     *
+     * @param row the row
+     *
+     * @return the tag as sequence
+     */
+    public String getTag(int row) {
+        int tagId = tagColumn.get(row);
+        if (tagId == -1) {
+            return null;
+        }
+        return tags.get(tagId);
+    }
+
+    /**
+     * Returns the number of distinct sequences.
+     *
+     * @return the number of distinct sequences
+     */
+    public int getNSequences() {
+        return sequences.size();
+    }
+
+    /**
+     * Returns the sequence of the given id.
+     *
+     * @param sequenceId the sequence id
+     *
+     * @return the sequence
+     */
+    public String getSequenceOfId(int sequenceId) {
+        return sequences.get(sequenceId);
+    }
+
+    /**
+     * Returns the number of distinct tags.
+     *
+     * @return the number of distinct tags
+     */
+    public int getNTags() {
+        return tags.size();
+    }
+
+    /**
+     * Returns the tag of the given id.
+     *
+     * @param tagId the tag id
+     *
+     * @return the tag
+     */
+    public String getTagOfId(int tagId) {
+        return tags.get(tagId);
+    }
+}
@@ -0,0 +1,141 @@
+package com.compomics.denovogui.results;
+
+import com.compomics.denovogui.gui.TaskScheduler;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Case insensitive substring index over a list of strings based on the
+ * n-grams of every string.
+ *
+ * @author Marc Vaudel
+ */
+public class NGramIndex {
+
+    /**
+     * The length of the n-grams.
+     */
+    public static final int N = 3;
+    /**
+     * The indexed strings in lower case.
+     */
+    private String[] values;
+    /**
+     * N-gram to sorted ids of the strings containing it.
+     */
+    private HashMap<Long, int[]> postings;
+
+    /**
+     * Constructor.
+     *
+     * @param strings the strings to index, the id of a string is its index in
+     * the list
+     */
+    public NGramIndex(List<String> strings) {
+
+        values = new String[strings.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = strings.get(i).toLowerCase();
+        }
+
+        // count the strings containing every n-gram
+        HashMap<Long, int[]> counts = new HashMap<Long, int[]>();
+        for (int id = 0; id < values.length; id++) {
+            String value = values[id];
+            for (int i = 0; i + N <= value.length(); i++) {
+                Long nGram = getNGram(value, i);
+                int[] count = counts.get(nGram);
+                if (count == null) {
+                    count = new int[]{0, -1};
+                    counts.put(nGram, count);
+                }
+                if (count[1] != id) {
+                    count[0]++;
+                    count[1] = id;
+                }
+            }
+        }
+
+        // fill the postings in increasing id order
+        postings = new HashMap<Long, int[]>(counts.size());
+        HashMap<Long, int[]> cursors = new HashMap<Long, int[]>(counts.size());
+        for (Long nGram : counts.keySet()) {
+            postings.put(nGram, new int[counts.get(nGram)[0]]);
+            cursors.put(nGram, new int[]{0, -1});
+        }
+        for (int id = 0; id < values.length; id++) {
+            String value = values[id];
+            for (int i = 0; i + N <= value.length(); i++) {
+                Long nGram = getNGram(value, i);
+                int[] cursor = cursors.get(nGram);
+                if (cursor[1] != id) {
+                    postings.get(nGram)[cursor[0]++] = id;
+                    cursor[1] = id;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the n-gram starting at the given position encoded as a long.
+     *
+     * @param value the string
+     * @param start the start position
+     *
+     * @return the n-gram encoded as a long
+     */
+    private static Long getNGram(String value, int start) {
+        long nGram = 0;
+        for (int i = start; i < start + N; i++) {
+            nGram = (nGram << 16) | value.charAt(i);
+        }
+        return nGram;
+    }
+
+    /**
+     * Returns the ids of the strings containing the given query, ignoring
+     * case, in increasing order. The search stops if the task running it is
+     * canceled.
+     *
+     * @param query the query
+     *
+     * @return the ids of the strings containing the query, null if canceled
+     */
+    public int[] search(String query) {
+
+        String lowerCaseQuery = query.toLowerCase();
+
+        // select the candidates: the rarest n-gram of the query or all strings for short queries
+        int[] candidates = null;
+        if (lowerCaseQuery.length() >= N) {
+            for (int i = 0; i + N <= lowerCaseQuery.length(); i++) {
+                int[] posting = postings.get(getNGram(lowerCaseQuery, i));
+                if (posting == null) {
+                    return new int[0];
+                }
+                if (candidates == null || posting.length < candidates.length) {
+                    candidates = posting;
+                }
+            }
+        }
+
+        ArrayList<Integer> matches = new ArrayList<Integer>();
+        int nCandidates = candidates == null ? values.length : candidates.length;
+        for (int i = 0; i < nCandidates; i++) {
+            if (i % 1024 == 0 && TaskScheduler.isCanceled()) {
+                return null;
+            }
+            int id = candidates == null ? i : candidates[i];
+            if (values[id].contains(lowerCaseQuery)) {
+                matches.add(id);
+            }
+        }
+
+        int[] result = new int[matches.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = matches.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,505 @@
+package com.compomics.denovogui.results;
+
+import com.compomics.denovogui.gui.TaskScheduler;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Search index over the de novo results: peptide sequences, tag sequences and
+ * spectrum titles are indexed by n-grams so that a query does not need to
+ * browse all matches. A hit is encoded as a long containing the index of the
+ * spectrum in file order and the row of the assumption in the assumptions
+ * table, -1 for the hits on the spectrum title.
+ *
+ * The protein mapping adds peptides to the assumptions of the spectra, which
+ * are not in the store. The assumptions of the spectra modified by the mapping
+ * are therefore indexed separately, and replace the rows of the store for
+ * these spectra.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class ResultSearchIndex {
+
+    /**
+     * The result store indexed.
+     */
+    private DeNovoResultStore resultStore;
+    /**
+     * The algorithms in the order of the assumptions table.
+     */
+    private Advocate[] advocateOrder;
+    /**
+     * The keys of all spectra in file order.
+     */
+    private String[] spectrumKeys;
+    /**
+     * The index in spectrumKeys of every spectrum of the store.
+     */
+    private int[] storeSpectrumIndexes;
+    /**
+     * The index of the spectrum titles.
+     */
+    private NGramIndex titleIndex;
+    /**
+     * The index of the tags of the store.
+     */
+    private NGramIndex tagIndex;
+    /**
+     * The index of the sequences of the store.
+     */
+    private NGramIndex sequenceIndex;
+    /**
+     * The offsets of the rows of every tag in tagRows.
+     */
+    private int[] tagRowOffsets;
+    /**
+     * The rows of the store grouped by tag.
+     */
+    private int[] tagRows;
+    /**
+     * The offsets of the peptide rows of every sequence in sequenceRows.
+     */
+    private int[] sequenceRowOffsets;
+    /**
+     * The peptide rows of the store grouped by sequence.
+     */
+    private int[] sequenceRows;
+    /**
+     * The searched strings of the assumptions of the spectra modified by the
+     * protein mapping in the order of the assumptions table, indexed by
+     * spectrum index in the store.
+     */
+    private final HashMap<Integer, String[]> mappedStrings = new HashMap<Integer, String[]>();
+    /**
+     * The index of the assumptions of the spectra modified by the protein
+     * mapping, null if none.
+     */
+    private volatile MappedAssumptions mappedAssumptions = null;
+
+    /**
+     * Constructor. Indexes the results of the store and the titles of the
+     * spectra loaded in the spectrum factory.
+     *
+     * @param resultStore the result store
+     * @param advocateOrder the algorithms in the order of the assumptions
+     * table
+     */
+    public ResultSearchIndex(DeNovoResultStore resultStore, Advocate[] advocateOrder) {
+
+        this.resultStore = resultStore;
+        this.advocateOrder = advocateOrder;
+
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+        ArrayList<String> keys = new ArrayList<String>();
+        ArrayList<String> titles = new ArrayList<String>();
+        for (String spectrumFile : spectrumFactory.getMgfFileNames()) {
+            for (String spectrumTitle : spectrumFactory.getSpectrumTitles(spectrumFile)) {
+                keys.add(Spectrum.getSpectrumKey(spectrumFile, spectrumTitle));
+                titles.add(spectrumTitle);
+            }
+        }
+        spectrumKeys = keys.toArray(new String[keys.size()]);
+        titleIndex = new NGramIndex(titles);
+
+        storeSpectrumIndexes = new int[resultStore.getNSpectra()];
+        Arrays.fill(storeSpectrumIndexes, -1);
+        for (int i = 0; i < spectrumKeys.length; i++) {
+            int storeIndex = resultStore.getSpectrumIndex(spectrumKeys[i]);
+            if (storeIndex != -1) {
+                storeSpectrumIndexes[storeIndex] = i;
+            }
+        }
+
+        ArrayList<String> tags = new ArrayList<String>(resultStore.getNTags());
+        for (int i = 0; i < resultStore.getNTags(); i++) {
+            tags.add(resultStore.getTagOfId(i));
+        }
+        tagIndex = new NGramIndex(tags);
+
+        ArrayList<String> sequences = new ArrayList<String>(resultStore.getNSequences());
+        for (int i = 0; i < resultStore.getNSequences(); i++) {
+            sequences.add(resultStore.getSequenceOfId(i));
+        }
+        sequenceIndex = new NGramIndex(sequences);
+
+        // group the rows by tag, and the peptide rows by sequence
+        tagRowOffsets = new int[resultStore.getNTags() + 1];
+        sequenceRowOffsets = new int[resultStore.getNSequences() + 1];
+        int nTagRows = 0;
+        for (int row = 0; row < resultStore.size(); row++) {
+            int tagId = resultStore.getTagId(row);
+            if (tagId != -1) {
+                tagRowOffsets[tagId + 1]++;
+                nTagRows++;
+            } else {
+                sequenceRowOffsets[resultStore.getSequenceId(row) + 1]++;
+            }
+        }
+        for (int i = 1; i < tagRowOffsets.length; i++) {
+            tagRowOffsets[i] += tagRowOffsets[i - 1];
+        }
+        for (int i = 1; i < sequenceRowOffsets.length; i++) {
+            sequenceRowOffsets[i] += sequenceRowOffsets[i - 1];
+        }
+        tagRows = new int[nTagRows];
+        sequenceRows = new int[resultStore.size() - nTagRows];
+        int[] tagCursors = Arrays.copyOf(tagRowOffsets, tagRowOffsets.length - 1);
+        int[] sequenceCursors = Arrays.copyOf(sequenceRowOffsets, sequenceRowOffsets.length - 1);
+        for (int row = 0; row < resultStore.size(); row++) {
+            int tagId = resultStore.getTagId(row);
+            if (tagId != -1) {
+                tagRows[tagCursors[tagId]++] = row;
+            } else {
+                int sequenceId = resultStore.getSequenceId(row);
+                sequenceRows[sequenceCursors[sequenceId]++] = row;
+            }
+        }
+    }
+
+    /**
+     * Searches the results for the given query: tags and peptide sequences
+     * containing the query and spectrum titles containing the query, ignoring
+     * case. The search stops if the task running it is canceled.
+     *
+     * @param query the query
+     *
+     * @return the hits sorted by spectrum file order and assumption row, null
+     * if canceled
+     */
+    public long[] search(String query) {
+
+        int[] matchingTitles = titleIndex.search(query);
+        if (matchingTitles == null) {
+            return null;
+        }
+        int[] matchingTags = tagIndex.search(query);
+        if (matchingTags == null) {
+            return null;
+        }
+        int[] matchingSequences = sequenceIndex.search(query);
+        if (matchingSequences == null) {
+            return null;
+        }
+
+        MappedAssumptions mapped = mappedAssumptions;
+        int[] matchingMapped = new int[0];
+        if (mapped != null) {
+            matchingMapped = mapped.index.search(query);
+            if (matchingMapped == null) {
+                return null;
+            }
+        }
+
+        int nHits = matchingTitles.length + matchingMapped.length;
+        for (int tagId : matchingTags) {
+            nHits += tagRowOffsets[tagId + 1] - tagRowOffsets[tagId];
+        }
+        for (int sequenceId : matchingSequences) {
+            nHits += sequenceRowOffsets[sequenceId + 1] - sequenceRowOffsets[sequenceId];
+        }
+
+        long[] hits = new long[nHits];
+        int cpt = 0;
+        for (int spectrumIndex : matchingTitles) {
+            hits[cpt++] = getHit(spectrumIndex, -1);
+        }
+        for (int tagId : matchingTags) {
+            for (int i = tagRowOffsets[tagId]; i < tagRowOffsets[tagId + 1]; i++) {
+                if (isDisplayed(tagRows[i]) && !isMapped(mapped, tagRows[i])) {
+                    hits[cpt++] = getRowHit(tagRows[i]);
+                }
+            }
+        }
+        for (int sequenceId : matchingSequences) {
+            for (int i = sequenceRowOffsets[sequenceId]; i < sequenceRowOffsets[sequenceId + 1]; i++) {
+                if (isDisplayed(sequenceRows[i]) && !isMapped(mapped, sequenceRows[i])) {
+                    hits[cpt++] = getRowHit(sequenceRows[i]);
+                }
+            }
+        }
+        for (int id : matchingMapped) {
+            hits[cpt++] = mapped.hits[id];
+        }
+
+        if (TaskScheduler.isCanceled()) {
+            return null;
+        }
+
+        // sort and remove duplicates
+        Arrays.parallelSort(hits, 0, cpt);
+        int nDistinct = 0;
+        for (int i = 0; i < cpt; i++) {
+            if (i == 0 || hits[i] != hits[nDistinct - 1]) {
+                hits[nDistinct++] = hits[i];
+            }
+        }
+
+        return Arrays.copyOf(hits, nDistinct);
+    }
+
+    /**
+     * Indicates whether the assumption at the given row of the store is
+     * displayed, i.e. if its spectrum is loaded and its algorithm displayed.
+     *
+     * @param row the row in the store
+     *
+     * @return true if the assumption is displayed
+     */
+    private boolean isDisplayed(int row) {
+        return storeSpectrumIndexes[resultStore.getSpectrumIndexAt(row)] != -1
+                && getPriority(resultStore.getAdvocate(row)) < advocateOrder.length;
+    }
+
+    /**
+     * Indicates whether the spectrum of the given row of the store was
+     * modified by the protein mapping, in which case its assumptions are
+     * searched in the mapped assumptions.
+     *
+     * @param mapped the mapped assumptions, can be null
+     * @param row the row in the store
+     *
+     * @return true if the spectrum of the row was modified by the mapping
+     */
+    private boolean isMapped(MappedAssumptions mapped, int row) {
+        return mapped != null && mapped.spectra.get(resultStore.getSpectrumIndexAt(row));
+    }
+
+    /**
+     * Sets the assumptions of a spectrum after the protein mapping. The
+     * spectrum is indexed separately if the mapping added assumptions to it.
+     * The changes are only searched after calling commitMappedAssumptions.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @param assumptionsMap the assumptions of the spectrum indexed by
+     * algorithm and score
+     */
+    public synchronized void setMappedAssumptions(String spectrumKey, HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap) {
+
+        int storeIndex = resultStore.getSpectrumIndex(spectrumKey);
+        if (storeIndex == -1 || storeSpectrumIndexes[storeIndex] == -1) {
+            return;
+        }
+
+        ArrayList<String> strings = new ArrayList<String>();
+        for (Advocate advocate : advocateOrder) {
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = assumptionsMap.get(advocate.getIndex());
+            if (advocateAssumptions != null) {
+                ArrayList<Double> scores = new ArrayList<Double>(advocateAssumptions.keySet());
+                if (SpectrumSummaryIndex.isHigherBetter(advocate)) {
+                    Collections.sort(scores, Collections.reverseOrder());
+                } else {
+                    Collections.sort(scores);
+                }
+                for (Double score : scores) {
+                    for (SpectrumIdentificationAssumption assumption : advocateAssumptions.get(score)) {
+                        strings.add(getSearchedString(assumption));
+                    }
+                }
+            }
+        }
+
+        int nStoreRows = 0;
+        for (int row = resultStore.getFirstRow(storeIndex); row != -1; row = resultStore.getNextRow(row)) {
+            if (isDisplayed(row)) {
+                nStoreRows++;
+            }
+        }
+
+        if (strings.size() == nStoreRows) {
+            mappedStrings.remove(storeIndex);
+        } else {
+            mappedStrings.put(storeIndex, strings.toArray(new String[strings.size()]));
+        }
+    }
+
+    /**
+     * Indexes the assumptions set since the last call and makes them
+     * searchable.
+     */
+    public synchronized void commitMappedAssumptions() {
+
+        BitSet spectra = new BitSet(resultStore.getNSpectra());
+        ArrayList<String> strings = new ArrayList<String>();
+        ArrayList<Long> hits = new ArrayList<Long>();
+
+        for (Map.Entry<Integer, String[]> entry : mappedStrings.entrySet()) {
+            int storeIndex = entry.getKey();
+            spectra.set(storeIndex);
+            String[] spectrumStrings = entry.getValue();
+            for (int row = 0; row < spectrumStrings.length; row++) {
+                strings.add(spectrumStrings[row]);
+                hits.add(getHit(storeSpectrumIndexes[storeIndex], row));
+            }
+        }
+
+        long[] hitsArray = new long[hits.size()];
+        for (int i = 0; i < hitsArray.length; i++) {
+            hitsArray[i] = hits.get(i);
+        }
+
+        mappedAssumptions = strings.isEmpty() ? null : new MappedAssumptions(spectra, new NGramIndex(strings), hitsArray);
+    }
+
+    /**
+     * Returns the string searched for an assumption: the tag sequence for
+     * tags and the peptide sequence for peptides.
+     *
+     * @param assumption the assumption
+     *
+     * @return the string searched
+     */
+    private static String getSearchedString(SpectrumIdentificationAssumption assumption) {
+        if (assumption instanceof TagAssumption) {
+            return ((TagAssumption) assumption).getTag().asSequence();
+        } else if (assumption instanceof PeptideAssumption) {
+            return ((PeptideAssumption) assumption).getPeptide().getSequence();
+        } else {
+            throw new UnsupportedOperationException("Search not implemented for assumption of type " + assumption.getClass() + ".");
+        }
+    }
+
+    /**
+     * Returns the hit corresponding to the given row of the store.
+     *
+     * @param row the row in the store
+     *
+     * @return the hit
+     */
+    private long getRowHit(int row) {
+        return getHit(storeSpectrumIndexes[resultStore.getSpectrumIndexAt(row)], getAssumptionRow(row));
+    }
+
+    /**
+     * Encodes a hit.
+     *
+     * @param spectrumIndex the index of the spectrum in file order
+     * @param assumptionRow the row in the assumptions table, -1 for a hit on
+     * the spectrum title
+     *
+     * @return the hit
+     */
+    private static long getHit(int spectrumIndex, int assumptionRow) {
+        return ((long) spectrumIndex << 32) | (assumptionRow + 1);
+    }
+
+    /**
+     * Returns the key of the spectrum of the given hit.
+     *
+     * @param hit the hit
+     *
+     * @return the spectrum key
+     */
+    public String getHitSpectrumKey(long hit) {
+        return spectrumKeys[(int) (hit >>> 32)];
+    }
+
+    /**
+     * Returns the row in the assumptions table of the given hit, -1 for a hit
+     * on the spectrum title.
+     *
+     * @param hit the hit
+     *
+     * @return the assumption row
+     */
+    public static int getHitAssumptionRow(long hit) {
+        return (int) hit - 1;
+    }
+
+    /**
+     * Returns the row of an assumption of the store in the assumptions table,
+     * where the assumptions are ordered by algorithm and by score, assumptions
+     * of equal score being in import order.
+     *
+     * @param row the row in the store
+     *
+     * @return the row in the assumptions table
+     */
+    public int getAssumptionRow(int row) {
+
+        int advocateIndex = resultStore.getAdvocate(row);
+        int priority = getPriority(advocateIndex);
+        Advocate advocate = Advocate.getAdvocate(advocateIndex);
+        double score = resultStore.getScore(row);
+
+        int assumptionRow = 0;
+        int spectrumIndex = resultStore.getSpectrumIndexAt(row);
+        for (int otherRow = resultStore.getFirstRow(spectrumIndex); otherRow != -1; otherRow = resultStore.getNextRow(otherRow)) {
+            if (otherRow != row) {
+                int otherPriority = getPriority(resultStore.getAdvocate(otherRow));
+                if (otherPriority < priority) {
+                    assumptionRow++;
+                } else if (otherPriority == priority) {
+                    double otherScore = resultStore.getScore(otherRow);
+                    if (SpectrumSummaryIndex.isBetter(advocate, otherScore, score)
+                            || otherScore == score && otherRow < row) {
+                        assumptionRow++;
+                    }
+                }
+            }
+        }
+
+        return assumptionRow;
+    }
+
+    /**
+     * Returns the position of the given algorithm in the assumptions table
+     * order.
+     *
+     * @param advocateIndex the index of the algorithm
+     *
+     * @return the position of the algorithm
+     */
+    private int getPriority(int advocateIndex) {
+        for (int i = 0; i < advocateOrder.length; i++) {
+            if (advocateOrder[i].getIndex() == advocateIndex) {
+                return i;
+            }
+        }
+        return advocateOrder.length;
+    }
+
+    /**
+     * The index of the assumptions of the spectra modified by the protein
+     * mapping.
+     */
+    private static class MappedAssumptions {
+
+        /**
+         * The spectra modified by the mapping, by index in the store.
+         */
+        private final BitSet spectra;
+        /**
+         * The index of the searched strings of the assumptions.
+         */
+        private final NGramIndex index;
+        /**
+         * The hit of every searched string.
+         */
+        private final long[] hits;
+
+        /**
+         * Constructor.
+         *
+         * @param spectra the spectra modified by the mapping, by index in the
+         * store
+         * @param index the index of the searched strings of the assumptions
+         * @param hits the hit of every searched string
+         */
+        public MappedAssumptions(BitSet spectra, NGramIndex index, long[] hits) {
+            this.spectra = spectra;
+            this.index = index;
+            this.hits = hits;
+        }
+    }
+}
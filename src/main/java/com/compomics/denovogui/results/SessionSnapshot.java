@@ -0,0 +1,1193 @@
+package com.compomics.denovogui.results;
+
+import com.compomics.denovogui.gui.TaskScheduler;
+import com.compomics.denovogui.gui.qc.QcMetric;
+import com.compomics.denovogui.gui.qc.QcStatistics;
+import com.compomics.denovogui.gui.qc.StreamingHistogram;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
+import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of the imported de novo results, allowing to reopen a
+ * project without parsing the result files again.
+ *
+ * The snapshot starts with a header holding the version of the format and the
+ * serialization version of the spectrum matches, followed by a table of
+ * sections, every
+ * section having its own CRC32 checksum: the metadata (result files, spectrum
+ * files, modifications, display statistics and whether the matches include the
+ * peptides of the protein mapping), the dictionaries of the
+ * result store, the columns of the result store, the spectrum summary index,
+ * the index of the spectrum matches, the serialized spectrum matches with
+ * remapped modifications, and the quality control statistics. The sections
+ * are aligned so that the columns can be memory mapped: the result store of a
+ * snapshot reads its columns from the file as they are accessed. The small
+ * sections are verified when opening the snapshot, the columns only on demand
+ * using verifyColumns, and a spectrum match is only deserialized, and its
+ * checksum verified, when requested. The matches can therefore be served from
+ * the snapshot without being written to the identification database.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class SessionSnapshot {
+
+    /**
+     * The extension of the snapshot files.
+     */
+    public static final String EXTENSION = ".dgsnapshot";
+    /**
+     * The magic number of the snapshot files.
+     */
+    private static final int MAGIC = 0x44475353;
+    /**
+     * The version of the snapshot format.
+     */
+    public static final int VERSION = 4;
+    /**
+     * The serialization version of the spectrum matches, derived from the
+     * version of the utilities library and the serial version UIDs of the
+     * serialized classes. A snapshot written with another serialization
+     * version is not read.
+     */
+    public static final long SERIALIZATION_VERSION = getSerializationVersion();
+    /**
+     * The metadata section.
+     */
+    private static final int METADATA = 0;
+    /**
+     * The dictionaries section.
+     */
+    private static final int DICTIONARIES = 1;
+    /**
+     * The result store columns section.
+     */
+    private static final int COLUMNS = 2;
+    /**
+     * The spectrum summary section.
+     */
+    private static final int SUMMARY = 3;
+    /**
+     * The spectrum match index section.
+     */
+    private static final int MATCH_INDEX = 4;
+    /**
+     * The spectrum matches section.
+     */
+    private static final int MATCHES = 5;
+    /**
+     * The quality control statistics section.
+     */
+    private static final int QC_STATISTICS = 6;
+    /**
+     * The number of sections.
+     */
+    private static final int N_SECTIONS = 7;
+    /**
+     * The sections verified when opening the snapshot.
+     */
+    private static final int[] VERIFIED_SECTIONS = {METADATA, DICTIONARIES, SUMMARY, MATCH_INDEX, QC_STATISTICS};
+    /**
+     * The number of bytes mapped at a time when verifying a section.
+     */
+    private static final long VERIFICATION_CHUNK = 64 * 1024 * 1024;
+    /**
+     * The size of the header in bytes: magic number, version, number of
+     * sections, padding, serialization version, and offset, length and
+     * checksum of every section.
+     */
+    private static final int HEADER_SIZE = 24 + 24 * N_SECTIONS;
+    /**
+     * The size in bytes of an entry of the spectrum match index: offset,
+     * length and checksum.
+     */
+    private static final int MATCH_INDEX_ENTRY_SIZE = 16;
+    /**
+     * The encoding of the strings.
+     */
+    private static final Charset ENCODING = Charset.forName("UTF-8");
+    /**
+     * The snapshot file.
+     */
+    private final File file;
+    /**
+     * The random access file of the snapshot.
+     */
+    private final RandomAccessFile randomAccessFile;
+    /**
+     * The channel of the snapshot file.
+     */
+    private final FileChannel channel;
+    /**
+     * The offset of every section.
+     */
+    private final long[] sectionOffsets = new long[N_SECTIONS];
+    /**
+     * The length of every section.
+     */
+    private final long[] sectionLengths = new long[N_SECTIONS];
+    /**
+     * The checksum of every section.
+     */
+    private final int[] sectionChecksums = new int[N_SECTIONS];
+    /**
+     * The absolute paths of the result files.
+     */
+    private final ArrayList<String> resultFilePaths = new ArrayList<String>();
+    /**
+     * The length of the result files.
+     */
+    private final ArrayList<Long> resultFileLengths = new ArrayList<Long>();
+    /**
+     * The last modification time of the result files.
+     */
+    private final ArrayList<Long> resultFileDates = new ArrayList<Long>();
+    /**
+     * The spectrum files.
+     */
+    private final ArrayList<File> spectrumFiles = new ArrayList<File>();
+    /**
+     * The length of the spectrum files.
+     */
+    private final ArrayList<Long> spectrumFileLengths = new ArrayList<Long>();
+    /**
+     * The last modification time of the spectrum files.
+     */
+    private final ArrayList<Long> spectrumFileDates = new ArrayList<Long>();
+    /**
+     * The sorted names of the modifications used for the import.
+     */
+    private final ArrayList<String> modifications = new ArrayList<String>();
+    /**
+     * The number of algorithms loaded.
+     */
+    private int nAdvocates;
+    /**
+     * The statistics used to scale the display, indexed by name.
+     */
+    private final HashMap<String, Double> displayStatistics = new HashMap<String, Double>();
+    /**
+     * True if the matches include the peptides of the protein mapping.
+     */
+    private boolean mapped;
+    /**
+     * The result store backed by the snapshot.
+     */
+    private DeNovoResultStore resultStore;
+    /**
+     * The spectrum summary index.
+     */
+    private SpectrumSummaryIndex spectrumSummaryIndex;
+    /**
+     * The mapped index of the spectrum matches.
+     */
+    private ByteBuffer matchIndex;
+
+    /**
+     * Opens a snapshot and verifies the checksums of all sections but the
+     * spectrum matches, which are verified upon reading.
+     *
+     * @param file the snapshot file
+     *
+     * @throws IOException thrown if the file cannot be read, is not a
+     * snapshot of the current version, or is corrupted
+     */
+    private SessionSnapshot(File file) throws IOException {
+
+        this.file = file;
+        randomAccessFile = new RandomAccessFile(file, "r");
+        channel = randomAccessFile.getChannel();
+
+        boolean success = false;
+
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, 0);
+            header.flip();
+
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file.getName() + " is not a DeNovoGUI session snapshot.");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Session snapshot version " + version + " not supported.");
+            }
+            if (header.getInt() != N_SECTIONS) {
+                throw new IOException("Unexpected number of sections in session snapshot " + file.getName() + ".");
+            }
+            header.getInt();
+            if (header.getLong() != SERIALIZATION_VERSION) {
+                throw new IOException("Session snapshot " + file.getName() + " was written with another version of the utilities library.");
+            }
+
+            for (int i = 0; i < N_SECTIONS; i++) {
+                sectionOffsets[i] = header.getLong();
+                sectionLengths[i] = header.getLong();
+                sectionChecksums[i] = header.getInt();
+                header.getInt();
+                if (sectionOffsets[i] + sectionLengths[i] > channel.size()) {
+                    throw new IOException("Session snapshot " + file.getName() + " is truncated.");
+                }
+            }
+
+            for (int section : VERIFIED_SECTIONS) {
+                if (!verify(section)) {
+                    throw new IOException("Checksum error in session snapshot " + file.getName() + ".");
+                }
+            }
+
+            readMetadata(map(sectionOffsets[METADATA], sectionLengths[METADATA]));
+            readResults();
+
+            success = true;
+        } finally {
+            if (!success) {
+                randomAccessFile.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the serialization version of the spectrum matches for the
+     * classes loaded.
+     *
+     * @return the serialization version of the spectrum matches
+     */
+    private static long getSerializationVersion() {
+        StringBuilder stamp = new StringBuilder();
+        stamp.append(SpectrumMatch.class.getPackage().getImplementationVersion());
+        Class[] serializedClasses = {SpectrumMatch.class, PeptideAssumption.class, TagAssumption.class, Peptide.class, Tag.class, ModificationMatch.class};
+        for (Class serializedClass : serializedClasses) {
+            ObjectStreamClass objectStreamClass = ObjectStreamClass.lookup(serializedClass);
+            stamp.append('\t').append(objectStreamClass == null ? 0 : objectStreamClass.getSerialVersionUID());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(stamp.toString().getBytes(ENCODING));
+        return crc.getValue();
+    }
+
+    /**
+     * Opens a session snapshot.
+     *
+     * @param file the snapshot file
+     *
+     * @return the session snapshot
+     *
+     * @throws IOException thrown if the file cannot be read, is not a
+     * snapshot of the current version, or is corrupted
+     */
+    public static SessionSnapshot open(File file) throws IOException {
+        return new SessionSnapshot(file);
+    }
+
+    /**
+     * Returns the snapshot file of the given result files, next to the first
+     * result file.
+     *
+     * @param resultFiles the result files
+     *
+     * @return the snapshot file
+     */
+    public static File getSnapshotFile(ArrayList<File> resultFiles) {
+        File firstFile = resultFiles.get(0);
+        return new File(firstFile.getParentFile(), firstFile.getName() + EXTENSION);
+    }
+
+    /**
+     * Maps a section of the file.
+     *
+     * @param offset the offset of the section
+     * @param length the length of the section
+     *
+     * @return a read only view of the section
+     *
+     * @throws IOException thrown if an error occurs while mapping the file
+     */
+    private ByteBuffer map(long offset, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    /**
+     * Verifies the checksum of a section.
+     *
+     * @param section the index of the section
+     *
+     * @return true if the checksum of the section is correct
+     *
+     * @throws IOException thrown if an error occurs while mapping the file
+     * @throws InterruptedIOException thrown if the task verifying the section
+     * is canceled
+     */
+    private boolean verify(int section) throws IOException {
+        CRC32 crc = new CRC32();
+        long end = sectionOffsets[section] + sectionLengths[section];
+        for (long offset = sectionOffsets[section]; offset < end; offset += VERIFICATION_CHUNK) {
+            if (TaskScheduler.isCanceled()) {
+                throw new InterruptedIOException("Verification of session snapshot " + file.getName() + " canceled.");
+            }
+            crc.update(map(offset, Math.min(VERIFICATION_CHUNK, end - offset)));
+        }
+        return (int) crc.getValue() == sectionChecksums[section];
+    }
+
+    /**
+     * Verifies the checksum of the result store columns. As this reads the
+     * whole section, it is not done when opening the snapshot.
+     *
+     * @return true if the checksum of the columns is correct
+     *
+     * @throws IOException thrown if an error occurs while mapping the file
+     * @throws InterruptedIOException thrown if the task verifying the columns
+     * is canceled
+     */
+    public boolean verifyColumns() throws IOException {
+        return verify(COLUMNS);
+    }
+
+    /**
+     * Reads the file in the given buffer.
+     *
+     * @param buffer the buffer to fill
+     * @param position the position in the file
+     *
+     * @throws IOException thrown if the end of the file is reached
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Session snapshot " + file.getName() + " is truncated.");
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Reads the metadata section.
+     *
+     * @param buffer the metadata section
+     */
+    private void readMetadata(ByteBuffer buffer) {
+
+        int nResultFiles = buffer.getInt();
+        for (int i = 0; i < nResultFiles; i++) {
+            resultFilePaths.add(getString(buffer));
+            resultFileLengths.add(buffer.getLong());
+            resultFileDates.add(buffer.getLong());
+        }
+
+        int nSpectrumFiles = buffer.getInt();
+        for (int i = 0; i < nSpectrumFiles; i++) {
+            spectrumFiles.add(new File(getString(buffer)));
+            spectrumFileLengths.add(buffer.getLong());
+            spectrumFileDates.add(buffer.getLong());
+        }
+
+        int nModifications = buffer.getInt();
+        for (int i = 0; i < nModifications; i++) {
+            modifications.add(getString(buffer));
+        }
+
+        nAdvocates = buffer.getInt();
+
+        int nStatistics = buffer.getInt();
+        for (int i = 0; i < nStatistics; i++) {
+            String name = getString(buffer);
+            displayStatistics.put(name, buffer.getDouble());
+        }
+
+        mapped = buffer.get() != 0;
+    }
+
+    /**
+     * Maps the result store and loads the summary index.
+     *
+     * @throws IOException thrown if an error occurs while mapping the file
+     */
+    private void readResults() throws IOException {
+
+        ByteBuffer dictionaries = map(sectionOffsets[DICTIONARIES], sectionLengths[DICTIONARIES]);
+        ArrayList<String> spectrumKeys = getStrings(dictionaries);
+        ArrayList<String> sequences = getStrings(dictionaries);
+        ArrayList<String> tags = getStrings(dictionaries);
+
+        long offset = sectionOffsets[COLUMNS];
+        ByteBuffer columnsHeader = map(offset, 16);
+        int size = (int) columnsHeader.getLong();
+        int nSpectra = (int) columnsHeader.getLong();
+        offset += 16;
+
+        if (nSpectra != spectrumKeys.size()
+                || sectionLengths[COLUMNS] != 16 + (8L * DeNovoResultStore.N_DOUBLE_COLUMNS + 4L * DeNovoResultStore.N_INT_COLUMNS) * size + 4L * nSpectra) {
+            throw new IOException("Inconsistent number of spectra in session snapshot " + file.getName() + ".");
+        }
+
+        DoubleBuffer[] doubleColumns = new DoubleBuffer[DeNovoResultStore.N_DOUBLE_COLUMNS];
+        for (int i = 0; i < doubleColumns.length; i++) {
+            doubleColumns[i] = map(offset, 8L * size).asDoubleBuffer();
+            offset += 8L * size;
+        }
+        IntBuffer[] intColumns = new IntBuffer[DeNovoResultStore.N_INT_COLUMNS];
+        for (int i = 0; i < intColumns.length; i++) {
+            intColumns[i] = map(offset, 4L * size).asIntBuffer();
+            offset += 4L * size;
+        }
+        int[] firstRows = new int[nSpectra];
+        map(offset, 4L * nSpectra).asIntBuffer().get(firstRows);
+
+        resultStore = new DeNovoResultStore(size, intColumns, doubleColumns, spectrumKeys, firstRows, sequences, tags);
+
+        ByteBuffer summary = map(sectionOffsets[SUMMARY], sectionLengths[SUMMARY]);
+        int nColumns = SpectrumSummaryIndex.ADVOCATES.length;
+        double[][] bestScores = new double[nColumns][nSpectra];
+        for (int i = 0; i < nColumns; i++) {
+            summary.asDoubleBuffer().get(bestScores[i]);
+            summary.position(summary.position() + 8 * nSpectra);
+        }
+        int[][] nHits = new int[nColumns][nSpectra];
+        for (int i = 0; i < nColumns; i++) {
+            summary.asIntBuffer().get(nHits[i]);
+            summary.position(summary.position() + 4 * nSpectra);
+        }
+        byte[] nAdvocatesPerSpectrum = new byte[nSpectra];
+        summary.get(nAdvocatesPerSpectrum);
+
+        spectrumSummaryIndex = new SpectrumSummaryIndex(resultStore, nHits, bestScores, nAdvocatesPerSpectrum);
+
+        matchIndex = map(sectionOffsets[MATCH_INDEX], sectionLengths[MATCH_INDEX]);
+    }
+
+    /**
+     * Reads a string from a buffer.
+     *
+     * @param buffer the buffer
+     *
+     * @return the string
+     */
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, ENCODING);
+    }
+
+    /**
+     * Reads a list of strings from a buffer.
+     *
+     * @param buffer the buffer
+     *
+     * @return the strings
+     */
+    private static ArrayList<String> getStrings(ByteBuffer buffer) {
+        int n = buffer.getInt();
+        ArrayList<String> result = new ArrayList<String>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(getString(buffer));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the sorted names of the modifications of the given settings.
+     *
+     * @param ptmSettings the modification settings
+     *
+     * @return the sorted names of the modifications
+     */
+    private static ArrayList<String> getSortedModifications(PtmSettings ptmSettings) {
+        ArrayList<String> result = new ArrayList<String>(ptmSettings.getAllModifications());
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Indicates whether the snapshot was made from the given result and
+     * spectrum files, unchanged since, using the given modifications.
+     *
+     * @param resultFiles the result files
+     * @param projectSpectrumFiles the spectrum files of the project, in any
+     * order
+     * @param ptmSettings the modification settings
+     *
+     * @return true if the snapshot can be used for the given result files
+     */
+    public boolean isValidFor(ArrayList<File> resultFiles, Collection<File> projectSpectrumFiles, PtmSettings ptmSettings) {
+        if (resultFiles.size() != resultFilePaths.size()) {
+            return false;
+        }
+        for (int i = 0; i < resultFiles.size(); i++) {
+            File resultFile = resultFiles.get(i);
+            if (!resultFile.getAbsolutePath().equals(resultFilePaths.get(i))
+                    || resultFile.length() != resultFileLengths.get(i)
+                    || resultFile.lastModified() != resultFileDates.get(i)) {
+                return false;
+            }
+        }
+        HashSet<String> projectSpectrumFilePaths = new HashSet<String>(projectSpectrumFiles.size());
+        for (File spectrumFile : projectSpectrumFiles) {
+            projectSpectrumFilePaths.add(spectrumFile.getAbsolutePath());
+        }
+        if (projectSpectrumFilePaths.size() != spectrumFiles.size()) {
+            return false;
+        }
+        for (int i = 0; i < spectrumFiles.size(); i++) {
+            File spectrumFile = spectrumFiles.get(i);
+            if (!projectSpectrumFilePaths.contains(spectrumFile.getAbsolutePath())
+                    || spectrumFile.length() != spectrumFileLengths.get(i)
+                    || spectrumFile.lastModified() != spectrumFileDates.get(i)) {
+                return false;
+            }
+        }
+        return modifications.equals(getSortedModifications(ptmSettings));
+    }
+
+    /**
+     * Returns the spectrum files of the project.
+     *
+     * @return the spectrum files of the project
+     */
+    public ArrayList<File> getSpectrumFiles() {
+        return spectrumFiles;
+    }
+
+    /**
+     * Returns the number of algorithms loaded.
+     *
+     * @return the number of algorithms loaded
+     */
+    public int getNAdvocates() {
+        return nAdvocates;
+    }
+
+    /**
+     * Indicates whether the matches include the peptides of the protein
+     * mapping. These peptides are not in the result store.
+     *
+     * @return true if the matches include the peptides of the protein mapping
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Returns the statistics used to scale the display, indexed by name.
+     *
+     * @return the statistics used to scale the display
+     */
+    public HashMap<String, Double> getDisplayStatistics() {
+        return displayStatistics;
+    }
+
+    /**
+     * Returns the result store, its columns being read from the snapshot.
+     *
+     * @return the result store
+     */
+    public DeNovoResultStore getResultStore() {
+        return resultStore;
+    }
+
+    /**
+     * Returns the spectrum summary index.
+     *
+     * @return the spectrum summary index
+     */
+    public SpectrumSummaryIndex getSpectrumSummaryIndex() {
+        return spectrumSummaryIndex;
+    }
+
+    /**
+     * Returns the quality control statistics of the results.
+     *
+     * @param searchParameters the search parameters used to compute the mass
+     * errors of the matches added later, null if not available
+     *
+     * @return the quality control statistics
+     *
+     * @throws IOException thrown if an error occurs while mapping the file
+     */
+    public QcStatistics getQcStatistics(SearchParameters searchParameters) throws IOException {
+
+        QcStatistics qcStatistics = new QcStatistics(searchParameters);
+        ByteBuffer buffer = map(sectionOffsets[QC_STATISTICS], sectionLengths[QC_STATISTICS]);
+
+        int nAdvocates = buffer.getInt();
+        for (int i = 0; i < nAdvocates; i++) {
+            int advocate = buffer.getInt();
+            int nMetrics = buffer.getInt();
+            for (int j = 0; j < nMetrics; j++) {
+                String metricName = getString(buffer);
+                double origin = buffer.getDouble();
+                double binWidth = buffer.getDouble();
+                long count = buffer.getLong();
+                double sum = buffer.getDouble();
+                double min = buffer.getDouble();
+                double max = buffer.getDouble();
+                long[] counts = new long[buffer.getInt()];
+                buffer.asLongBuffer().get(counts);
+                buffer.position(buffer.position() + 8 * counts.length);
+                for (QcMetric metric : QcMetric.values()) {
+                    if (metric.name().equals(metricName)) {
+                        qcStatistics.setHistogram(advocate, metric, new StreamingHistogram(counts, origin, binWidth, count, sum, min, max));
+                        if (metric == QcMetric.precursorMz && count > 0) {
+                            // the precursor metrics were computed before writing the snapshot
+                            qcStatistics.setPrecursorMetrics(true);
+                        }
+                    }
+                }
+            }
+        }
+
+        return qcStatistics;
+    }
+
+    /**
+     * Returns the spectrum match of the given spectrum of the result store.
+     *
+     * @param spectrumIndex the index of the spectrum in the result store
+     *
+     * @return the spectrum match
+     *
+     * @throws IOException thrown if the match cannot be read, is corrupted or
+     * cannot be deserialized, in which case the snapshot should be discarded
+     */
+    public SpectrumMatch getSpectrumMatch(int spectrumIndex) throws IOException {
+
+        int entry = spectrumIndex * MATCH_INDEX_ENTRY_SIZE;
+        long offset = matchIndex.getLong(entry);
+        int length = matchIndex.getInt(entry + 8);
+        int checksum = matchIndex.getInt(entry + 12);
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(buffer, sectionOffsets[MATCHES] + offset);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, length);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Checksum error in session snapshot " + file.getName() + " for spectrum " + resultStore.getSpectrumKey(spectrumIndex) + ".");
+        }
+
+        try {
+            ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(buffer.array()));
+            try {
+                return (SpectrumMatch) objectInputStream.readObject();
+            } finally {
+                objectInputStream.close();
+            }
+        } catch (ObjectStreamException e) {
+            throw new IOException("Impossible to deserialize spectrum " + resultStore.getSpectrumKey(spectrumIndex) + " from session snapshot " + file.getName() + ".", e);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Impossible to deserialize spectrum " + resultStore.getSpectrumKey(spectrumIndex) + " from session snapshot " + file.getName() + ".", e);
+        } catch (ClassCastException e) {
+            throw new IOException("Impossible to deserialize spectrum " + resultStore.getSpectrumKey(spectrumIndex) + " from session snapshot " + file.getName() + ".", e);
+        }
+    }
+
+    /**
+     * Returns the spectrum match of the given spectrum.
+     *
+     * @param spectrumKey the key of the spectrum
+     *
+     * @return the spectrum match, null if the spectrum has no match in the
+     * snapshot
+     *
+     * @throws IOException thrown if the match cannot be read, is corrupted or
+     * cannot be deserialized, in which case the snapshot should be discarded
+     */
+    public SpectrumMatch getSpectrumMatch(String spectrumKey) throws IOException {
+        int spectrumIndex = resultStore.getSpectrumIndex(spectrumKey);
+        if (spectrumIndex == -1) {
+            return null;
+        }
+        return getSpectrumMatch(spectrumIndex);
+    }
+
+    /**
+     * Closes and deletes the snapshot file, when it is corrupted or cannot be
+     * read with this version.
+     *
+     * @throws IOException thrown if an error occurs while closing the file
+     */
+    public void discard() throws IOException {
+        try {
+            close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Closes the snapshot file. The result store remains readable as long as
+     * it is referenced.
+     *
+     * @throws IOException thrown if an error occurs while closing the file
+     */
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    /**
+     * Writes a snapshot of the imported results. The snapshot is written to a
+     * temporary file renamed once complete. The writing stops when canceled
+     * through the waiting handler or through the task scheduler running it.
+     *
+     * @param file the snapshot file
+     * @param resultFiles the result files imported
+     * @param spectrumFiles the spectrum files of the project
+     * @param ptmSettings the modification settings used for the import
+     * @param nAdvocates the number of algorithms loaded
+     * @param displayStatistics the statistics used to scale the display,
+     * indexed by name
+     * @param spectrumSummaryIndex the spectrum summary index of the results
+     * @param qcStatistics the quality control statistics of the results
+     * @param identification the identification containing the matches
+     * @param mapped true if the matches include the peptides of the protein
+     * mapping
+     * @param waitingHandler waiting handler displaying progress to the user and
+     * allowing to cancel the process, can be null
+     *
+     * @return true if the snapshot was written, false if canceled
+     *
+     * @throws IOException thrown if an IO exception occurs
+     * @throws SQLException thrown if an SQL exception occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     */
+    public static boolean write(File file, ArrayList<File> resultFiles, ArrayList<File> spectrumFiles, PtmSettings ptmSettings, int nAdvocates,
+            HashMap<String, Double> displayStatistics, SpectrumSummaryIndex spectrumSummaryIndex, QcStatistics qcStatistics, Identification identification,
+            boolean mapped, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+
+        DeNovoResultStore store = spectrumSummaryIndex.getResultStore();
+        int nSpectra = store.getNSpectra();
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        boolean completed = false;
+
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(nSpectra);
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "rw");
+
+        try {
+            randomAccessFile.setLength(0);
+            FileChannel channel = randomAccessFile.getChannel();
+            SectionWriter writer = new SectionWriter(channel, HEADER_SIZE);
+            long[][] sections = new long[N_SECTIONS][];
+
+            // metadata
+            writer.startSection();
+            writer.putInt(resultFiles.size());
+            for (File resultFile : resultFiles) {
+                writer.putString(resultFile.getAbsolutePath());
+                writer.putLong(resultFile.length());
+                writer.putLong(resultFile.lastModified());
+            }
+            writer.putInt(spectrumFiles.size());
+            for (File spectrumFile : spectrumFiles) {
+                writer.putString(spectrumFile.getAbsolutePath());
+                writer.putLong(spectrumFile.length());
+                writer.putLong(spectrumFile.lastModified());
+            }
+            ArrayList<String> sortedModifications = getSortedModifications(ptmSettings);
+            writer.putInt(sortedModifications.size());
+            for (String modification : sortedModifications) {
+                writer.putString(modification);
+            }
+            writer.putInt(nAdvocates);
+            writer.putInt(displayStatistics.size());
+            for (Map.Entry<String, Double> entry : displayStatistics.entrySet()) {
+                writer.putString(entry.getKey());
+                writer.putDouble(entry.getValue());
+            }
+            writer.putByte(mapped ? (byte) 1 : (byte) 0);
+            sections[METADATA] = writer.endSection();
+
+            // dictionaries
+            writer.startSection();
+            writer.putInt(nSpectra);
+            for (int i = 0; i < nSpectra; i++) {
+                writer.putString(store.getSpectrumKey(i));
+            }
+            writer.putInt(store.getNSequences());
+            for (int i = 0; i < store.getNSequences(); i++) {
+                writer.putString(store.getSequenceOfId(i));
+            }
+            writer.putInt(store.getNTags());
+            for (int i = 0; i < store.getNTags(); i++) {
+                writer.putString(store.getTagOfId(i));
+            }
+            sections[DICTIONARIES] = writer.endSection();
+
+            // result store columns, the double columns first to keep all columns aligned
+            int size = store.size();
+            writer.startSection();
+            writer.putLong(size);
+            writer.putLong(nSpectra);
+            for (int row = 0; row < size; row++) {
+                writer.putDouble(store.getScore(row));
+            }
+            for (int row = 0; row < size; row++) {
+                writer.putDouble(store.getMz(row));
+            }
+            for (int row = 0; row < size; row++) {
+                writer.putInt(store.getSpectrumIndexAt(row));
+            }
+            for (int row = 0; row < size; row++) {
+                writer.putInt(store.getAdvocate(row));
+            }
+            for (int row = 0; row < size; row++) {
+                writer.putInt(store.getRank(row));
+            }
+            for (int row = 0; row < size; row++) {
+                writer.putInt(store.getCharge(row));
+            }
+            for (int row = 0; row < size; row++) {
+                writer.putInt(store.getSequenceId(row));
+            }
+            for (int row = 0; row < size; row++) {
+                writer.putInt(store.getTagId(row));
+            }
+            for (int row = 0; row < size; row++) {
+                writer.putInt(store.getNextRow(row));
+            }
+            for (int i = 0; i < nSpectra; i++) {
+                writer.putInt(store.getFirstRow(i));
+            }
+            sections[COLUMNS] = writer.endSection();
+
+            // spectrum summary
+            int nColumns = SpectrumSummaryIndex.ADVOCATES.length;
+            writer.startSection();
+            for (int column = 0; column < nColumns; column++) {
+                for (int i = 0; i < nSpectra; i++) {
+                    writer.putDouble(spectrumSummaryIndex.getBestScore(i, column));
+                }
+            }
+            for (int column = 0; column < nColumns; column++) {
+                for (int i = 0; i < nSpectra; i++) {
+                    writer.putInt(spectrumSummaryIndex.getNHits(i, column));
+                }
+            }
+            for (int i = 0; i < nSpectra; i++) {
+                writer.putByte((byte) spectrumSummaryIndex.getNAdvocates(i));
+            }
+            sections[SUMMARY] = writer.endSection();
+
+            // spectrum matches, followed by their index
+            ByteBuffer index = ByteBuffer.allocate(nSpectra * MATCH_INDEX_ENTRY_SIZE);
+            writer.startSection();
+            long matchOffset = 0;
+            for (int i = 0; i < nSpectra; i++) {
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes);
+                try {
+                    objectOutputStream.writeObject(identification.getSpectrumMatch(store.getSpectrumKey(i)));
+                } finally {
+                    objectOutputStream.close();
+                }
+                byte[] match = bytes.toByteArray();
+
+                CRC32 crc = new CRC32();
+                crc.update(match);
+                index.putLong(matchOffset);
+                index.putInt(match.length);
+                index.putInt((int) crc.getValue());
+                writer.putBytes(match);
+                matchOffset += match.length;
+
+                if (waitingHandler != null) {
+                    waitingHandler.increaseSecondaryProgressCounter();
+                    if (waitingHandler.isRunCanceled()) {
+                        return false;
+                    }
+                }
+                if (TaskScheduler.isCanceled()) {
+                    return false;
+                }
+            }
+            sections[MATCHES] = writer.endSection();
+
+            writer.startSection();
+            writer.putBytes(index.array());
+            sections[MATCH_INDEX] = writer.endSection();
+
+            // quality control statistics
+            writer.startSection();
+            ArrayList<Integer> advocates = qcStatistics.getAdvocates();
+            writer.putInt(advocates.size());
+            for (int advocate : advocates) {
+                writer.putInt(advocate);
+                writer.putInt(QcMetric.values().length);
+                for (QcMetric metric : QcMetric.values()) {
+                    StreamingHistogram histogram = qcStatistics.getHistogram(advocate, metric);
+                    writer.putString(metric.name());
+                    writer.putDouble(histogram.getBinStart(0));
+                    writer.putDouble(histogram.getBinWidth());
+                    writer.putLong(histogram.getCount());
+                    writer.putDouble(histogram.getSum());
+                    writer.putDouble(histogram.getMin());
+                    writer.putDouble(histogram.getMax());
+                    writer.putInt(histogram.getNBins());
+                    for (int bin = 0; bin < histogram.getNBins(); bin++) {
+                        writer.putLong(histogram.getBinCount(bin));
+                    }
+                }
+            }
+            sections[QC_STATISTICS] = writer.endSection();
+
+            // header
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(N_SECTIONS);
+            header.putInt(0);
+            header.putLong(SERIALIZATION_VERSION);
+            for (long[] section : sections) {
+                header.putLong(section[0]);
+                header.putLong(section[1]);
+                header.putInt((int) section[2]);
+                header.putInt(0);
+            }
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+
+            completed = true;
+        } finally {
+            randomAccessFile.close();
+            if (!completed) {
+                tempFile.delete();
+            }
+        }
+
+        if (file.exists() && !file.delete()) {
+            tempFile.delete();
+            throw new IOException("Impossible to replace the session snapshot " + file.getAbsolutePath() + ".");
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Impossible to write the session snapshot " + file.getAbsolutePath() + ".");
+        }
+
+        return true;
+    }
+
+    /**
+     * Buffered writer of the sections of a snapshot, computing the checksum
+     * of every section.
+     */
+    private static class SectionWriter {
+
+        /**
+         * The channel to write to.
+         */
+        private final FileChannel channel;
+        /**
+         * The buffer.
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        /**
+         * The checksum of the current section.
+         */
+        private final CRC32 crc = new CRC32();
+        /**
+         * The position in the file of the content of the buffer.
+         */
+        private long position;
+        /**
+         * The offset of the current section.
+         */
+        private long sectionOffset;
+
+        /**
+         * Constructor.
+         *
+         * @param channel the channel to write to
+         * @param position the position where to start writing
+         */
+        public SectionWriter(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        /**
+         * Starts a new section, aligned on eight bytes.
+         *
+         * @throws IOException thrown if an error occurs while writing
+         */
+        public void startSection() throws IOException {
+            flush();
+            int padding = (int) ((8 - position % 8) % 8);
+            if (padding > 0) {
+                write(ByteBuffer.allocate(padding));
+            }
+            sectionOffset = position;
+            crc.reset();
+        }
+
+        /**
+         * Ends the current section.
+         *
+         * @return the offset, length and checksum of the section
+         *
+         * @throws IOException thrown if an error occurs while writing
+         */
+        public long[] endSection() throws IOException {
+            flush();
+            return new long[]{sectionOffset, position - sectionOffset, crc.getValue()};
+        }
+
+        /**
+         * Writes an int.
+         *
+         * @param value the value
+         *
+         * @throws IOException thrown if an error occurs while writing
+         */
+        public void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        /**
+         * Writes a long.
+         *
+         * @param value the value
+         *
+         * @throws IOException thrown if an error occurs while writing
+         */
+        public void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        /**
+         * Writes a double.
+         *
+         * @param value the value
+         *
+         * @throws IOException thrown if an error occurs while writing
+         */
+        public void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+        }
+
+        /**
+         * Writes a byte.
+         *
+         * @param value the value
+         *
+         * @throws IOException thrown if an error occurs while writing
+         */
+        public void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        /**
+         * Writes a string as its length followed by its UTF-8 bytes.
+         *
+         * @param value the value
+         *
+         * @throws IOException thrown if an error occurs while writing
+         */
+        public void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(ENCODING);
+            putInt(bytes.length);
+            putBytes(bytes);
+        }
+
+        /**
+         * Writes an array of bytes.
+         *
+         * @param bytes the bytes
+         *
+         * @throws IOException thrown if an error occurs while writing
+         */
+        public void putBytes(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.capacity()) {
+                flush();
+                crc.update(bytes);
+                write(ByteBuffer.wrap(bytes));
+            } else {
+                ensure(bytes.length);
+                buffer.put(bytes);
+            }
+        }
+
+        /**
+         * Flushes the buffer if it cannot hold the given number of bytes.
+         *
+         * @param nBytes the number of bytes to write
+         *
+         * @throws IOException thrown if an error occurs while writing
+         */
+        private void ensure(int nBytes) throws IOException {
+            if (buffer.remaining() < nBytes) {
+                flush();
+            }
+        }
+
+        /**
+         * Writes the content of the buffer to the channel.
+         *
+         * @throws IOException thrown if an error occurs while writing
+         */
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.array(), 0, buffer.limit());
+            write(buffer);
+            buffer.clear();
+        }
+
+        /**
+         * Writes the content of a buffer to the channel at the current
+         * position.
+         *
+         * @param source the buffer to write
+         *
+         * @throws IOException thrown if an error occurs while writing
+         */
+        private void write(ByteBuffer source) throws IOException {
+            while (source.hasRemaining()) {
+                position += channel.write(source, position);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.compomics.denovogui.results;
+
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Orders the spectra of a file by best score. The spectra are grouped by the
+ * first algorithm of a given priority list providing a hit, sorted by best
+ * score of this algorithm within every group, ties being kept in file order.
+ * Spectra without hit come last. The ordering is computed on primitive arrays
+ * using parallel sorting.
+ *
+ * @author Harald Barsnes
+ * @author Marc Vaudel
+ */
+public class SpectrumScoreOrder {
+
+    /**
+     * Empty default constructor.
+     */
+    private SpectrumScoreOrder() {
+    }
+
+    /**
+     * Returns the permutation ordering the given spectra by score: element i
+     * of the permutation is the position in the given list of the spectrum
+     * displayed at row i.
+     *
+     * @param spectrumFile the name of the spectrum file
+     * @param spectrumTitles the spectrum titles in file order
+     * @param summaryIndex the summary of the de novo results per spectrum
+     * @param advocatePriority the algorithms in the order of priority used to
+     * group the spectra
+     *
+     * @return the permutation ordering the spectra by score
+     */
+    public static int[] getOrder(String spectrumFile, ArrayList<String> spectrumTitles, SpectrumSummaryIndex summaryIndex, Advocate[] advocatePriority) {
+
+        int nSpectra = spectrumTitles.size();
+        int nGroups = advocatePriority.length;
+
+        // assign every spectrum to the group of the first algorithm having a hit, nGroups if none
+        int[] groups = new int[nSpectra];
+        double[] scores = new double[nSpectra];
+        int[] groupSizes = new int[nGroups + 1];
+
+        for (int position = 0; position < nSpectra; position++) {
+
+            int spectrumIndex = summaryIndex.getSpectrumIndex(Spectrum.getSpectrumKey(spectrumFile, spectrumTitles.get(position)));
+            int group = nGroups;
+
+            for (int i = 0; i < nGroups; i++) {
+                int advocateColumn = SpectrumSummaryIndex.getAdvocateColumn(advocatePriority[i].getIndex());
+                if (advocateColumn != -1) {
+                    double bestScore = summaryIndex.getBestScore(spectrumIndex, advocateColumn);
+                    if (!Double.isNaN(bestScore)) {
+                        group = i;
+                        // sort in ascending order: negate the scores which are the higher the better
+                        scores[position] = SpectrumSummaryIndex.isHigherBetter(advocatePriority[i]) ? -bestScore : bestScore;
+                        break;
+                    }
+                }
+            }
+
+            groups[position] = group;
+            groupSizes[group]++;
+        }
+
+        int[] order = new int[nSpectra];
+        int offset = 0;
+
+        for (int group = 0; group <= nGroups; group++) {
+
+            int groupSize = groupSizes[group];
+            if (groupSize == 0) {
+                continue;
+            }
+
+            if (group == nGroups) {
+                // no hit: keep the file order
+                for (int position = 0; position < nSpectra; position++) {
+                    if (groups[position] == nGroups) {
+                        order[offset++] = position;
+                    }
+                }
+                continue;
+            }
+
+            // rank the distinct scores of the group
+            double[] groupScores = new double[groupSize];
+            int cpt = 0;
+            for (int position = 0; position < nSpectra; position++) {
+                if (groups[position] == group) {
+                    groupScores[cpt++] = scores[position];
+                }
+            }
+            Arrays.parallelSort(groupScores);
+            int nDistinct = 0;
+            for (int i = 0; i < groupSize; i++) {
+                if (i == 0 || Double.compare(groupScores[i], groupScores[nDistinct - 1]) != 0) {
+                    groupScores[nDistinct++] = groupScores[i];
+                }
+            }
+
+            // sort on score rank and file position
+            long[] keys = new long[groupSize];
+            cpt = 0;
+            for (int position = 0; position < nSpectra; position++) {
+                if (groups[position] == group) {
+                    long rank = Arrays.binarySearch(groupScores, 0, nDistinct, scores[position]);
+                    keys[cpt++] = (rank << 32) | position;
+                }
+            }
+            Arrays.parallelSort(keys);
+            for (long key : keys) {
+                order[offset++] = (int) key;
+            }
+        }
+
+        return order;
+    }
+}
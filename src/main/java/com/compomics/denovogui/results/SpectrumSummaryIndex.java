@@ -0,0 +1,223 @@
+package com.compomics.denovogui.results;
+
+import com.compomics.util.experiment.identification.Advocate;
+import java.util.Arrays;
+
+/**
+ * Per spectrum summary of the de novo results: the number of hits and the best
+ * score of every algorithm, and the number of algorithms with a hit. The
+ * summary is built once from the result store after import and answers the
+ * queries of the spectrum table in constant time.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class SpectrumSummaryIndex {
+
+    /**
+     * The algorithms summarized, in the order of the spectrum table score
+     * columns.
+     */
+    public static final Advocate[] ADVOCATES = {Advocate.pepnovo, Advocate.direcTag, Advocate.pNovo, Advocate.novor};
+    /**
+     * The result store indexed.
+     */
+    private DeNovoResultStore resultStore;
+    /**
+     * The number of hits per algorithm: algorithm column, spectrum index.
+     */
+    private int[][] nHits;
+    /**
+     * The best score per algorithm: algorithm column, spectrum index. NaN if
+     * no hit.
+     */
+    private double[][] bestScores;
+    /**
+     * The number of algorithms having a hit for every spectrum.
+     */
+    private byte[] nAdvocates;
+
+    /**
+     * Constructor. Builds the summary in a single pass over the store.
+     *
+     * @param resultStore the result store to summarize
+     */
+    public SpectrumSummaryIndex(DeNovoResultStore resultStore) {
+
+        this.resultStore = resultStore;
+
+        int nSpectra = resultStore.getNSpectra();
+        nHits = new int[ADVOCATES.length][nSpectra];
+        bestScores = new double[ADVOCATES.length][nSpectra];
+        nAdvocates = new byte[nSpectra];
+
+        for (int i = 0; i < ADVOCATES.length; i++) {
+            Arrays.fill(bestScores[i], Double.NaN);
+        }
+
+        for (int row = 0; row < resultStore.size(); row++) {
+
+            int advocateColumn = getAdvocateColumn(resultStore.getAdvocate(row));
+
+            if (advocateColumn != -1) {
+
+                int spectrumIndex = resultStore.getSpectrumIndexAt(row);
+                double score = resultStore.getScore(row);
+
+                if (nHits[advocateColumn][spectrumIndex] == 0) {
+                    nAdvocates[spectrumIndex]++;
+                }
+                nHits[advocateColumn][spectrumIndex]++;
+
+                double bestScore = bestScores[advocateColumn][spectrumIndex];
+                if (Double.isNaN(bestScore) || isBetter(ADVOCATES[advocateColumn], score, bestScore)) {
+                    bestScores[advocateColumn][spectrumIndex] = score;
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructor for a summary loaded from a session snapshot.
+     *
+     * @param resultStore the result store summarized
+     * @param nHits the number of hits per algorithm: algorithm column,
+     * spectrum index
+     * @param bestScores the best score per algorithm: algorithm column,
+     * spectrum index
+     * @param nAdvocates the number of algorithms having a hit for every
+     * spectrum
+     */
+    SpectrumSummaryIndex(DeNovoResultStore resultStore, int[][] nHits, double[][] bestScores, byte[] nAdvocates) {
+        this.resultStore = resultStore;
+        this.nHits = nHits;
+        this.bestScores = bestScores;
+        this.nAdvocates = nAdvocates;
+    }
+
+    /**
+     * Returns the column of the given algorithm in the summary, -1 if not
+     * summarized.
+     *
+     * @param advocateIndex the index of the algorithm
+     *
+     * @return the column of the algorithm
+     */
+    public static int getAdvocateColumn(int advocateIndex) {
+        for (int i = 0; i < ADVOCATES.length; i++) {
+            if (ADVOCATES[i].getIndex() == advocateIndex) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Indicates whether a score is better than another one for the given
+     * algorithm. DirecTag scores are e-values, the lower the better, the
+     * other algorithms are the higher the better.
+     *
+     * @param advocate the algorithm
+     * @param score the score to test
+     * @param reference the reference score
+     *
+     * @return true if the score is better than the reference
+     */
+    public static boolean isBetter(Advocate advocate, double score, double reference) {
+        if (isHigherBetter(advocate)) {
+            return score > reference;
+        } else {
+            return score < reference;
+        }
+    }
+
+    /**
+     * Indicates whether the scores of the given algorithm are the higher the
+     * better.
+     *
+     * @param advocate the algorithm
+     *
+     * @return true if the scores are the higher the better
+     */
+    public static boolean isHigherBetter(Advocate advocate) {
+        if (advocate == Advocate.direcTag) {
+            return false;
+        } else if (advocate == Advocate.pepnovo || advocate == Advocate.pNovo || advocate == Advocate.novor) {
+            return true;
+        } else {
+            throw new IllegalArgumentException("Score comparison not implemented for algorithm " + advocate + ".");
+        }
+    }
+
+    /**
+     * Returns the index of the given spectrum in the summary, -1 if the
+     * spectrum has no result.
+     *
+     * @param spectrumKey the spectrum key
+     *
+     * @return the index of the spectrum
+     */
+    public int getSpectrumIndex(String spectrumKey) {
+        return resultStore.getSpectrumIndex(spectrumKey);
+    }
+
+    /**
+     * Returns the number of algorithms having a hit for the given spectrum.
+     *
+     * @param spectrumIndex the spectrum index, -1 for a spectrum without
+     * result
+     *
+     * @return the number of algorithms having a hit
+     */
+    public int getNAdvocates(int spectrumIndex) {
+        if (spectrumIndex == -1) {
+            return 0;
+        }
+        return nAdvocates[spectrumIndex];
+    }
+
+    /**
+     * Returns the number of hits of the given algorithm for the given
+     * spectrum.
+     *
+     * @param spectrumIndex the spectrum index, -1 for a spectrum without
+     * result
+     * @param advocateColumn the column of the algorithm as given by
+     * getAdvocateColumn
+     *
+     * @return the number of hits
+     */
+    public int getNHits(int spectrumIndex, int advocateColumn) {
+        if (spectrumIndex == -1) {
+            return 0;
+        }
+        return nHits[advocateColumn][spectrumIndex];
+    }
+
+    /**
+     * Returns the best score of the given algorithm for the given spectrum,
+     * NaN if none.
+     *
+     * @param spectrumIndex the spectrum index, -1 for a spectrum without
+     * result
+     * @param advocateColumn the column of the algorithm as given by
+     * getAdvocateColumn
+     *
+     * @return the best score
+     */
+    public double getBestScore(int spectrumIndex, int advocateColumn) {
+        if (spectrumIndex == -1) {
+            return Double.NaN;
+        }
+        return bestScores[advocateColumn][spectrumIndex];
+    }
+
+    /**
+     * Returns the result store indexed.
+     *
+     * @return the result store indexed
+     */
+    public DeNovoResultStore getResultStore() {
+        return resultStore;
+    }
+}
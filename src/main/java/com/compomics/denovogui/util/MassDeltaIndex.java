@@ -0,0 +1,264 @@
+package com.compomics.denovogui.util;
+
+import com.compomics.util.experiment.biology.AminoAcid;
+import com.compomics.util.experiment.biology.AminoAcidPattern;
+import com.compomics.util.experiment.biology.PTM;
+import com.compomics.util.experiment.biology.PTMFactory;
+import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Immutable index of the mass deltas used to annotate the gaps between peaks:
+ * the amino acids, the amino acids carrying a variable or fixed modification
+ * and, optionally, the combinations of two of these. The masses are stored in
+ * a sorted array and the labels in a parallel array, so that the deltas within
+ * a tolerance window are found by binary search. The index is compiled for a
+ * given set of modifications and needs to be compiled again only when the
+ * modifications change.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class MassDeltaIndex {
+
+    /**
+     * The amino acids annotated.
+     */
+    private static final char[] AMINO_ACIDS = {'A', 'R', 'N', 'D', 'C', 'Q', 'E', 'G', 'H', 'I', 'K', 'M', 'F', 'P', 'S', 'T', 'W', 'Y', 'V', 'U', 'O'};
+    /**
+     * The sorted masses.
+     */
+    private final double[] masses;
+    /**
+     * The labels of the masses.
+     */
+    private final String[] labels;
+    /**
+     * The single residue mass deltas indexed by mass, as used by the spectrum
+     * panel.
+     */
+    private final HashMap<Double, String> massDeltas;
+    /**
+     * The sorted names of the modifications this index was compiled for.
+     */
+    private final ArrayList<String> modifications;
+
+    /**
+     * Compiles the mass delta index for the given modifications.
+     *
+     * @param ptmSettings the modification settings
+     * @param includePairs if true, the combinations of two residues are
+     * indexed as well
+     */
+    public MassDeltaIndex(PtmSettings ptmSettings, boolean includePairs) {
+
+        modifications = getSortedModifications(ptmSettings);
+
+        final ArrayList<Double> singleMasses = new ArrayList<Double>();
+        final ArrayList<String> singleLabels = new ArrayList<String>();
+        HashSet<String> labelsFound = new HashSet<String>();
+
+        // add the monoisotopic amino acids masses
+        for (char aa : AMINO_ACIDS) {
+            singleMasses.add(AminoAcid.getAminoAcid(aa).getMonoisotopicMass());
+            singleLabels.add(aa == 'I' ? "I/L" : Character.toString(aa));
+        }
+
+        // add the non-terminal modifications
+        PTMFactory ptmFactory = PTMFactory.getInstance();
+        for (String modification : modifications) {
+            PTM ptm = ptmFactory.getPTM(modification);
+
+            if (ptm != null) {
+
+                String shortName = ptm.getShortName();
+                AminoAcidPattern ptmPattern = ptm.getPattern();
+                double mass = ptm.getMass();
+
+                if (ptm.getType() == PTM.MODAA && ptmPattern != null) {
+                    for (Character aa : ptmPattern.getAminoAcidsAtTarget()) {
+                        String label = aa + "<" + shortName + ">";
+                        if (labelsFound.add(label)) {
+                            AminoAcid aminoAcid = AminoAcid.getAminoAcid(aa);
+                            singleMasses.add(mass + aminoAcid.getMonoisotopicMass());
+                            singleLabels.add(label);
+                        }
+                    }
+                }
+            } else {
+                System.out.println("Error: PTM not found: " + modification);
+            }
+        }
+
+        // the map used by the spectrum panel, a mass found twice keeping the last label as before
+        massDeltas = new HashMap<Double, String>(singleMasses.size());
+        for (int i = 0; i < singleMasses.size(); i++) {
+            massDeltas.put(singleMasses.get(i), singleLabels.get(i));
+        }
+
+        final ArrayList<Double> allMasses = new ArrayList<Double>(singleMasses);
+        final ArrayList<String> allLabels = new ArrayList<String>(singleLabels);
+
+        if (includePairs) {
+            for (int i = 0; i < singleMasses.size(); i++) {
+                for (int j = i; j < singleMasses.size(); j++) {
+                    allMasses.add(singleMasses.get(i) + singleMasses.get(j));
+                    allLabels.add(singleLabels.get(i) + singleLabels.get(j));
+                }
+            }
+        }
+
+        // sort by mass
+        Integer[] order = new Integer[allMasses.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(allMasses.get(o1), allMasses.get(o2));
+            }
+        });
+
+        masses = new double[order.length];
+        labels = new String[order.length];
+        for (int i = 0; i < order.length; i++) {
+            masses[i] = allMasses.get(order[i]);
+            labels[i] = allLabels.get(order[i]);
+        }
+    }
+
+    /**
+     * Returns the sorted names of the modifications of the given settings.
+     *
+     * @param ptmSettings the modification settings
+     *
+     * @return the sorted names of the modifications
+     */
+    private static ArrayList<String> getSortedModifications(PtmSettings ptmSettings) {
+        ArrayList<String> result = new ArrayList<String>(ptmSettings.getAllModifications());
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Indicates whether this index was compiled for the modifications of the
+     * given settings.
+     *
+     * @param ptmSettings the modification settings
+     *
+     * @return true if the index was compiled for these modifications
+     */
+    public boolean isCompiledFor(PtmSettings ptmSettings) {
+        return modifications.equals(getSortedModifications(ptmSettings));
+    }
+
+    /**
+     * Returns the single residue mass deltas indexed by mass. The map is shared
+     * and should not be modified.
+     *
+     * @return the single residue mass deltas
+     */
+    public HashMap<Double, String> getMassDeltas() {
+        return massDeltas;
+    }
+
+    /**
+     * Returns the number of mass deltas indexed.
+     *
+     * @return the number of mass deltas indexed
+     */
+    public int size() {
+        return masses.length;
+    }
+
+    /**
+     * Returns the mass at the given index.
+     *
+     * @param index the index
+     *
+     * @return the mass at the given index
+     */
+    public double getMass(int index) {
+        return masses[index];
+    }
+
+    /**
+     * Returns the label at the given index.
+     *
+     * @param index the index
+     *
+     * @return the label at the given index
+     */
+    public String getLabel(int index) {
+        return labels[index];
+    }
+
+    /**
+     * Returns the index of the first mass greater than or equal to the given
+     * mass.
+     *
+     * @param mass the mass
+     *
+     * @return the index of the first mass greater than or equal to the given
+     * mass, the size of the index if none
+     */
+    private int getLowerBound(double mass) {
+        int low = 0;
+        int high = masses.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (masses[middle] < mass) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the labels of the mass deltas matching the given delta within
+     * the given tolerance, in increasing mass order.
+     *
+     * @param delta the mass delta
+     * @param tolerance the absolute mass tolerance
+     *
+     * @return the labels of the matching mass deltas
+     */
+    public ArrayList<String> getLabels(double delta, double tolerance) {
+        ArrayList<String> result = new ArrayList<String>(1);
+        for (int i = getLowerBound(delta - tolerance); i < masses.length && masses[i] <= delta + tolerance; i++) {
+            result.add(labels[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the label of the mass delta closest to the given delta within
+     * the given tolerance.
+     *
+     * @param delta the mass delta
+     * @param tolerance the absolute mass tolerance
+     *
+     * @return the label of the closest mass delta, null if none within the
+     * tolerance
+     */
+    public String getClosestLabel(double delta, double tolerance) {
+        String result = null;
+        double bestError = tolerance;
+        for (int i = getLowerBound(delta - tolerance); i < masses.length && masses[i] <= delta + tolerance; i++) {
+            double error = Math.abs(masses[i] - delta);
+            if (error <= bestError) {
+                bestError = error;
+                result = labels[i];
+            }
+        }
+        return result;
+    }
+}
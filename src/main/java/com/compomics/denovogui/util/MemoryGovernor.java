@@ -0,0 +1,361 @@
+package com.compomics.denovogui.util;
+
+import com.compomics.denovogui.results.DeNovoResultStore;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.util.HashMap;
+
+/**
+ * Shares the memory given to the Java virtual machine between the caches of
+ * DeNovoGUI: the protein sequences, the identification objects and the de
+ * novo result store. Every cache gets a budget, the memory used by a cache is
+ * estimated from the size of the objects it contains, and the cache is
+ * reduced when it exceeds its budget. The memory of the identification cache
+ * is estimated as the memory used minus the memory of the other known
+ * consumers. As this estimate also includes the garbage not yet collected, the
+ * identification cache is only reduced when the excess persists over several
+ * checks, by a bounded share, and at most once per interval.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class MemoryGovernor {
+
+    /**
+     * The share of the memory given to the protein sequence cache.
+     */
+    public static final double SEQUENCE_SHARE = 0.25;
+    /**
+     * The share of the memory given to the identification cache.
+     */
+    public static final double IDENTIFICATION_SHARE = 0.45;
+    /**
+     * The share of the memory given to the de novo result store.
+     */
+    public static final double RESULT_STORE_SHARE = 0.15;
+    /**
+     * The estimated heap size of a protein in cache without its residues and
+     * header: the protein, its strings and the cache entry.
+     */
+    public static final int PROTEIN_OVERHEAD = 160;
+    /**
+     * The number of consecutive checks the identification cache must exceed
+     * its budget before being reduced.
+     */
+    public static final int REDUCTION_PERSISTENCE = 3;
+    /**
+     * The minimal time between two reductions of the identification cache in
+     * milliseconds.
+     */
+    public static final long MIN_REDUCTION_INTERVAL = 5000;
+    /**
+     * The maximal share of the identification cache removed by a reduction.
+     */
+    public static final double MAX_REDUCTION_SHARE = 0.5;
+    /**
+     * The memory given to the Java virtual machine.
+     */
+    private long budget;
+    /**
+     * The memory used when the governor was created, attributed to the
+     * interface and the factories.
+     */
+    private long baseline;
+    /**
+     * The objects cache of the identification.
+     */
+    private ObjectsCache objectsCache;
+    /**
+     * The estimated memory used by the protein sequence cache.
+     */
+    private long sequenceCacheSize = 0;
+    /**
+     * The result store.
+     */
+    private DeNovoResultStore resultStore = null;
+    /**
+     * The estimated memory used by the other known consumers, e.g. the
+     * peptide mapper and the batches of the protein mapping, indexed by name.
+     */
+    private final HashMap<String, Long> consumers = new HashMap<String, Long>();
+    /**
+     * The number of consecutive checks where the identification cache
+     * exceeded its budget.
+     */
+    private int nExcessChecks = 0;
+    /**
+     * The time of the last reduction of the identification cache.
+     */
+    private long lastReductionTime = 0;
+    /**
+     * The number of times the identification cache was reduced.
+     */
+    private int nIdentificationReductions = 0;
+    /**
+     * The last decision taken.
+     */
+    private String lastDecision = null;
+
+    /**
+     * Constructor.
+     *
+     * @param objectsCache the objects cache of the identification
+     */
+    public MemoryGovernor(ObjectsCache objectsCache) {
+        this.objectsCache = objectsCache;
+        budget = Runtime.getRuntime().maxMemory();
+        baseline = getUsedMemory();
+    }
+
+    /**
+     * Returns the memory currently used by the Java virtual machine.
+     *
+     * @return the memory currently used
+     */
+    public static long getUsedMemory() {
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+    /**
+     * Returns the estimated heap size of a protein of the given FASTA file,
+     * measured from the average size of an entry in the file.
+     *
+     * @param fastaFile the FASTA file
+     * @param nSequences the number of sequences in the file
+     *
+     * @return the estimated heap size of a protein
+     */
+    public static long getProteinSize(File fastaFile, int nSequences) {
+        if (nSequences == 0) {
+            return PROTEIN_OVERHEAD;
+        }
+        return PROTEIN_OVERHEAD + 2 * fastaFile.length() / nSequences;
+    }
+
+    /**
+     * Sets the size of the protein sequence cache according to its budget.
+     * The decoy sequences are kept in memory only if the whole database fits
+     * in half of the budget.
+     *
+     * @param sequenceFactory the sequence factory
+     * @param waitingHandler a waiting handler displaying the decision
+     *
+     * @return true if all the sequences needed fit in the cache
+     */
+    public boolean setSequenceCache(SequenceFactory sequenceFactory, WaitingHandler waitingHandler) {
+
+        long sequenceBudget = getSequenceBudget();
+        long proteinSize = getProteinSize(sequenceFactory.getCurrentFastaFile(), sequenceFactory.getNSequences());
+
+        int nSequences = sequenceFactory.getNSequences();
+        if (!sequenceFactory.isDefaultReversed() || nSequences * proteinSize < sequenceBudget / 2) {
+            sequenceFactory.setDecoyInMemory(true);
+        } else {
+            nSequences = sequenceFactory.getNTargetSequences();
+            sequenceFactory.setDecoyInMemory(false);
+        }
+
+        long cacheSize = Math.min(nSequences, sequenceBudget / proteinSize);
+        sequenceFactory.setnCache((int) cacheSize);
+        sequenceCacheSize = cacheSize * proteinSize;
+
+        report("Protein cache: " + cacheSize + " of " + nSequences + " sequences (" + proteinSize + " bytes per sequence, budget "
+                + toMb(sequenceBudget) + " MB).", waitingHandler);
+
+        return cacheSize == nSequences;
+    }
+
+    /**
+     * Registers the result store whose heap size is accounted for.
+     *
+     * @param resultStore the result store
+     */
+    public void setResultStore(DeNovoResultStore resultStore) {
+        this.resultStore = resultStore;
+    }
+
+    /**
+     * Sets the estimated memory used by a consumer which is not a cache, so
+     * that it is not attributed to the identification cache.
+     *
+     * @param name the name of the consumer
+     * @param size the estimated memory used by the consumer in bytes
+     */
+    public synchronized void setConsumer(String name, long size) {
+        consumers.put(name, size);
+    }
+
+    /**
+     * Removes a consumer once its memory is released.
+     *
+     * @param name the name of the consumer
+     */
+    public synchronized void removeConsumer(String name) {
+        consumers.remove(name);
+    }
+
+    /**
+     * Indicates whether the given result store should be moved out of the
+     * heap, i.e. if it exceeds its budget or if the memory is running low.
+     *
+     * @param resultStore the result store
+     * @param waitingHandler a waiting handler displaying the decision, can be
+     * null
+     *
+     * @return true if the result store should be moved out of the heap
+     */
+    public boolean shouldSpill(DeNovoResultStore resultStore, WaitingHandler waitingHandler) {
+        long storeSize = resultStore.getHeapSize();
+        boolean spill = storeSize > getResultStoreBudget() || getUsedMemory() + storeSize > budget - getFreeMargin();
+        if (spill) {
+            report("Result store: " + toMb(storeSize) + " MB moved out of the heap (budget " + toMb(getResultStoreBudget()) + " MB).", waitingHandler);
+        }
+        return spill;
+    }
+
+    /**
+     * Reduces the identification cache if it exceeded its budget during the
+     * last checks. The memory used by the identification cache is estimated
+     * as the memory used minus the memory attributed to the other caches and
+     * consumers.
+     *
+     * @return true if the identification cache was reduced
+     */
+    public synchronized boolean checkIdentificationCache() {
+
+        if (objectsCache == null || objectsCache.isEmpty()) {
+            nExcessChecks = 0;
+            return false;
+        }
+
+        long used = getUsedMemory();
+        long identificationSize = used - baseline - sequenceCacheSize;
+        if (resultStore != null) {
+            identificationSize -= resultStore.getHeapSize();
+        }
+        for (long consumerSize : consumers.values()) {
+            identificationSize -= consumerSize;
+        }
+        long identificationBudget = getIdentificationBudget();
+
+        if (identificationSize <= identificationBudget && used <= budget - getFreeMargin()) {
+            nExcessChecks = 0;
+            return false;
+        }
+
+        // the excess might be garbage, wait for it to persist
+        nExcessChecks++;
+        long now = System.currentTimeMillis();
+        if (nExcessChecks >= REDUCTION_PERSISTENCE && now - lastReductionTime >= MIN_REDUCTION_INTERVAL) {
+
+            // reduce by the share exceeding the budget, at least 10%
+            double share = 0.1;
+            if (identificationSize > identificationBudget) {
+                share = Math.max(share, ((double) (identificationSize - identificationBudget)) / identificationSize);
+            }
+            share = Math.min(share, MAX_REDUCTION_SHARE);
+            objectsCache.reduceMemoryConsumption(share, null);
+            nExcessChecks = 0;
+            lastReductionTime = now;
+            nIdentificationReductions++;
+            lastDecision = "Identification cache: reduced by " + Math.round(100 * share) + "% (estimated " + toMb(identificationSize)
+                    + " MB, budget " + toMb(identificationBudget) + " MB).";
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns a summary of the reductions of the identification cache, null
+     * if none.
+     *
+     * @return a summary of the reductions of the identification cache
+     */
+    public String getIdentificationCacheReport() {
+        if (nIdentificationReductions == 0) {
+            return null;
+        }
+        return "Identification cache reduced " + nIdentificationReductions + " time(s). Last decision: " + lastDecision;
+    }
+
+    /**
+     * Records a decision and displays it in the waiting handler.
+     *
+     * @param decision the decision
+     * @param waitingHandler a waiting handler, can be null
+     */
+    private void report(String decision, WaitingHandler waitingHandler) {
+        lastDecision = decision;
+        if (waitingHandler != null) {
+            waitingHandler.appendReport(decision, true, true);
+        }
+    }
+
+    /**
+     * Returns the memory given to the Java virtual machine.
+     *
+     * @return the memory given to the Java virtual machine
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the budget of the protein sequence cache.
+     *
+     * @return the budget of the protein sequence cache
+     */
+    public long getSequenceBudget() {
+        return (long) (SEQUENCE_SHARE * budget);
+    }
+
+    /**
+     * Returns the budget of the identification cache.
+     *
+     * @return the budget of the identification cache
+     */
+    public long getIdentificationBudget() {
+        return (long) (IDENTIFICATION_SHARE * budget);
+    }
+
+    /**
+     * Returns the budget of the result store.
+     *
+     * @return the budget of the result store
+     */
+    public long getResultStoreBudget() {
+        return (long) (RESULT_STORE_SHARE * budget);
+    }
+
+    /**
+     * Returns the memory kept free for the rest of the application.
+     *
+     * @return the memory kept free
+     */
+    private long getFreeMargin() {
+        return (long) ((1 - SEQUENCE_SHARE - IDENTIFICATION_SHARE - RESULT_STORE_SHARE) * budget);
+    }
+
+    /**
+     * Returns the last decision taken.
+     *
+     * @return the last decision taken
+     */
+    public String getLastDecision() {
+        return lastDecision;
+    }
+
+    /**
+     * Converts bytes to MB.
+     *
+     * @param bytes the number of bytes
+     *
+     * @return the number of MB
+     */
+    private static long toMb(long bytes) {
+        return bytes / 1048576;
+    }
+}